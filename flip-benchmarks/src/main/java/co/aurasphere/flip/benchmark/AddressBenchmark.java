@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.aurasphere.flip.Flip;
+
+/**
+ * Benchmarks for {@link Flip#getObjectAddress(Object)},
+ * {@link Flip#readObject(long)} and their batch variants. Addresses are
+ * refreshed before each call, since the garbage collector can move objects
+ * between iterations.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class AddressBenchmark {
+
+	/**
+	 * Number of objects of the batch benchmarks.
+	 */
+	private static final int BATCH_SIZE = 1024;
+
+	/**
+	 * Object whose address is read.
+	 */
+	private Object object;
+
+	/**
+	 * Objects whose addresses are read in batch.
+	 */
+	private Object[] objects;
+
+	/**
+	 * Addresses of the {@link #objects}.
+	 */
+	private long[] addresses;
+
+	/**
+	 * Objects read back from the {@link #addresses}.
+	 */
+	private Object[] resolved;
+
+	/**
+	 * Creates the objects.
+	 */
+	@Setup
+	public void setup() {
+		object = BenchmarkObjects.create(BenchmarkObjects.SMALL);
+		objects = new Object[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			objects[i] = BenchmarkObjects.create(BenchmarkObjects.SMALL);
+		}
+		addresses = new long[BATCH_SIZE];
+		resolved = new Object[BATCH_SIZE];
+	}
+
+	/**
+	 * Measures {@link Flip#getObjectAddress(Object)}.
+	 *
+	 * @return the address of the object
+	 */
+	@Benchmark
+	public long getObjectAddress() {
+		return Flip.getObjectAddress(object);
+	}
+
+	/**
+	 * Measures {@link Flip#readObject(long)}, along with the
+	 * {@link Flip#getObjectAddress(Object)} needed to get a valid address.
+	 *
+	 * @return the object read
+	 */
+	@Benchmark
+	public Object readObject() {
+		return Flip.readObject(Flip.getObjectAddress(object));
+	}
+
+	/**
+	 * Measures {@link Flip#getObjectAddresses(Object[], long[])} on
+	 * {@value #BATCH_SIZE} objects.
+	 *
+	 * @return the addresses of the objects
+	 */
+	@Benchmark
+	public long[] getObjectAddresses() {
+		return Flip.getObjectAddresses(objects, addresses);
+	}
+
+	/**
+	 * Measures {@link Flip#readObjects(long[], Object[])} on
+	 * {@value #BATCH_SIZE} objects, along with the
+	 * {@link Flip#getObjectAddresses(Object[], long[])} needed to get valid
+	 * addresses.
+	 *
+	 * @return the objects read
+	 */
+	@Benchmark
+	public Object[] readObjects() {
+		return Flip.readObjects(Flip.getObjectAddresses(objects, addresses),
+				resolved);
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import co.aurasphere.flip.FlipBackend;
+import co.aurasphere.flip.FlipSystemInformation;
+
+/**
+ * Benchmarks the memory accesses of the {@link FlipBackend} implementations.
+ * The foreign backend needs JDK 21 or newer, so it must be requested
+ * explicitly, for instance with
+ * <code>-p backend=foreign -jvm &lt;jdk21&gt;/bin/java -jvmArgsAppend --enable-native-access=ALL-UNNAMED</code>.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class BackendBenchmark {
+
+	/**
+	 * Name of the backend to benchmark.
+	 */
+	@Param({ "unsafe", "lookup" })
+	private String backend;
+
+	/**
+	 * Size of the block accessed, in longs.
+	 */
+	@Param({ "65536" })
+	private int longs;
+
+	/**
+	 * The backend benchmarked.
+	 */
+	private FlipBackend flipBackend;
+
+	/**
+	 * Address of the block accessed.
+	 */
+	private long address;
+
+	/**
+	 * Address of the block copies are written to.
+	 */
+	private long copyAddress;
+
+	/**
+	 * Allocates and fills the blocks.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		flipBackend = FlipSystemInformation.getBackend(backend);
+		address = flipBackend.allocateMemory(longs * 8L);
+		copyAddress = flipBackend.allocateMemory(longs * 8L);
+		for (int i = 0; i < longs; i++) {
+			flipBackend.putLong(address + i * 8L, i);
+		}
+	}
+
+	/**
+	 * Frees the blocks.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		flipBackend.freeMemory(address);
+		flipBackend.freeMemory(copyAddress);
+	}
+
+	/**
+	 * Reads the whole block, one long at a time.
+	 *
+	 * @return the sum of the longs
+	 */
+	@Benchmark
+	public long getLong() {
+		long sum = 0;
+		for (int i = 0; i < longs; i++) {
+			sum += flipBackend.getLong(address + i * 8L);
+		}
+		return sum;
+	}
+
+	/**
+	 * Writes the whole block, one long at a time.
+	 *
+	 * @return the address written
+	 */
+	@Benchmark
+	public long putLong() {
+		for (int i = 0; i < longs; i++) {
+			flipBackend.putLong(copyAddress + i * 8L, i);
+		}
+		return copyAddress;
+	}
+
+	/**
+	 * Copies the whole block.
+	 *
+	 * @return the address written
+	 */
+	@Benchmark
+	public long copyMemory() {
+		flipBackend.copyMemory(address, copyAddress, longs * 8L);
+		return copyAddress;
+	}
+
+	/**
+	 * Allocates and frees a small block.
+	 *
+	 * @return the address of the block
+	 */
+	@Benchmark
+	public long allocateAndFree() {
+		long block = flipBackend.allocateMemory(64);
+		flipBackend.freeMemory(block);
+		return block;
+	}
+
+}
@@ -0,0 +1,437 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+/**
+ * Objects of different shapes used by the benchmarks: a small one, a wide
+ * one with many fields and a deep one with a long chain of superclasses. All
+ * of them can be cloned, to compare Flip copies with
+ * {@link Object#clone()}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class BenchmarkObjects {
+
+	/**
+	 * Shape of a {@link SmallObject}.
+	 */
+	public static final String SMALL = "small";
+
+	/**
+	 * Shape of a {@link WideObject}.
+	 */
+	public static final String WIDE = "wide";
+
+	/**
+	 * Shape of a {@link DeepObject}.
+	 */
+	public static final String DEEP = "deep";
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private BenchmarkObjects() {
+	}
+
+	/**
+	 * Creates an object of a given shape.
+	 *
+	 * @param shape
+	 *            {@link #SMALL}, {@link #WIDE} or {@link #DEEP}
+	 * @return a new object of the given shape
+	 */
+	public static CloneableObject create(String shape) {
+		if (SMALL.equals(shape)) {
+			return new SmallObject();
+		}
+		if (WIDE.equals(shape)) {
+			return new WideObject();
+		}
+		if (DEEP.equals(shape)) {
+			return new DeepObject();
+		}
+		throw new IllegalArgumentException("Unknown shape: " + shape);
+	}
+
+	/**
+	 * Base class of the benchmark objects, which exposes
+	 * {@link Object#clone()}.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	public static class CloneableObject implements Cloneable {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#clone()
+		 */
+		@Override
+		public CloneableObject clone() {
+			try {
+				return (CloneableObject) super.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Object with a handful of fields.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class SmallObject extends CloneableObject {
+
+		// Bunch of random fields.
+		/**
+		 * The one.
+		 */
+		private int one = 1;
+
+		/**
+		 * The two.
+		 */
+		private long two = 2;
+
+		/**
+		 * The three.
+		 */
+		private String three = "three";
+
+		/**
+		 * The four.
+		 */
+		private double four = 4;
+
+		/**
+		 * The five.
+		 */
+		private boolean five = true;
+
+		/**
+		 * The six.
+		 */
+		private Object six = new Object();
+
+	}
+
+	/**
+	 * Object with 32 fields of mixed types.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class WideObject extends CloneableObject {
+
+		/**
+		 * The long0.
+		 */
+		private long long0 = 0L;
+
+		/**
+		 * The long1.
+		 */
+		private long long1 = 1L;
+
+		/**
+		 * The long2.
+		 */
+		private long long2 = 2L;
+
+		/**
+		 * The long3.
+		 */
+		private long long3 = 3L;
+
+		/**
+		 * The long4.
+		 */
+		private long long4 = 4L;
+
+		/**
+		 * The long5.
+		 */
+		private long long5 = 5L;
+
+		/**
+		 * The long6.
+		 */
+		private long long6 = 6L;
+
+		/**
+		 * The long7.
+		 */
+		private long long7 = 7L;
+
+		/**
+		 * The int0.
+		 */
+		private int int0 = 0;
+
+		/**
+		 * The int1.
+		 */
+		private int int1 = 1;
+
+		/**
+		 * The int2.
+		 */
+		private int int2 = 2;
+
+		/**
+		 * The int3.
+		 */
+		private int int3 = 3;
+
+		/**
+		 * The int4.
+		 */
+		private int int4 = 4;
+
+		/**
+		 * The int5.
+		 */
+		private int int5 = 5;
+
+		/**
+		 * The int6.
+		 */
+		private int int6 = 6;
+
+		/**
+		 * The int7.
+		 */
+		private int int7 = 7;
+
+		/**
+		 * The double0.
+		 */
+		private double double0 = 0.5;
+
+		/**
+		 * The double1.
+		 */
+		private double double1 = 1.5;
+
+		/**
+		 * The double2.
+		 */
+		private double double2 = 2.5;
+
+		/**
+		 * The double3.
+		 */
+		private double double3 = 3.5;
+
+		/**
+		 * The double4.
+		 */
+		private double double4 = 4.5;
+
+		/**
+		 * The double5.
+		 */
+		private double double5 = 5.5;
+
+		/**
+		 * The double6.
+		 */
+		private double double6 = 6.5;
+
+		/**
+		 * The double7.
+		 */
+		private double double7 = 7.5;
+
+		/**
+		 * The string0.
+		 */
+		private String string0 = "string 0";
+
+		/**
+		 * The string1.
+		 */
+		private String string1 = "string 1";
+
+		/**
+		 * The string2.
+		 */
+		private String string2 = "string 2";
+
+		/**
+		 * The string3.
+		 */
+		private String string3 = "string 3";
+
+		/**
+		 * The boolean0.
+		 */
+		private boolean boolean0 = true;
+
+		/**
+		 * The boolean1.
+		 */
+		private boolean boolean1 = true;
+
+		/**
+		 * The boolean2.
+		 */
+		private boolean boolean2 = true;
+
+		/**
+		 * The boolean3.
+		 */
+		private boolean boolean3 = true;
+
+	}
+
+	/**
+	 * Level 1 of the superclass chain of {@link DeepObject}.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class LevelOne extends CloneableObject {
+
+		/**
+		 * The counter of this level.
+		 */
+		private int counter1 = 1;
+
+		/**
+		 * The reference of this level.
+		 */
+		private Object reference1 = "level 1";
+
+	}
+
+	/**
+	 * Level 2 of the superclass chain of {@link DeepObject}.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class LevelTwo extends LevelOne {
+
+		/**
+		 * The counter of this level.
+		 */
+		private int counter2 = 2;
+
+		/**
+		 * The reference of this level.
+		 */
+		private Object reference2 = "level 2";
+
+	}
+
+	/**
+	 * Level 3 of the superclass chain of {@link DeepObject}.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class LevelThree extends LevelTwo {
+
+		/**
+		 * The counter of this level.
+		 */
+		private int counter3 = 3;
+
+		/**
+		 * The reference of this level.
+		 */
+		private Object reference3 = "level 3";
+
+	}
+
+	/**
+	 * Level 4 of the superclass chain of {@link DeepObject}.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class LevelFour extends LevelThree {
+
+		/**
+		 * The counter of this level.
+		 */
+		private int counter4 = 4;
+
+		/**
+		 * The reference of this level.
+		 */
+		private Object reference4 = "level 4";
+
+	}
+
+	/**
+	 * Level 5 of the superclass chain of {@link DeepObject}.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class LevelFive extends LevelFour {
+
+		/**
+		 * The counter of this level.
+		 */
+		private int counter5 = 5;
+
+		/**
+		 * The reference of this level.
+		 */
+		private Object reference5 = "level 5";
+
+	}
+
+	/**
+	 * Object with five levels of superclasses, each declaring its own fields.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	public static class DeepObject extends LevelFive {
+
+		/**
+		 * The value.
+		 */
+		private long value = 6;
+
+	}
+
+}
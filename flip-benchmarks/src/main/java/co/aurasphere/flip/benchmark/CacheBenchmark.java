@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import co.aurasphere.flip.FlipCache;
+
+/**
+ * Benchmarks for {@link FlipCache}, compared with a synchronized
+ * {@link LinkedHashMap} in access order bounded by the number of entries.
+ * Keys are drawn with a skewed distribution, where a few keys get most of
+ * the accesses, and each miss loads the value in the cache.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(1)
+public class CacheBenchmark {
+
+	/**
+	 * Number of distinct keys.
+	 */
+	private static final int KEYS = 100000;
+
+	/**
+	 * Number of entries which fit in the caches.
+	 */
+	private static final int CAPACITY = 10000;
+
+	/**
+	 * Size of the values.
+	 */
+	private static final int VALUE_SIZE = 64;
+
+	/**
+	 * Whether the values are weighed with their deep size.
+	 */
+	@Param({ "true", "false" })
+	private boolean deepSize;
+
+	/**
+	 * Cache bounded by bytes.
+	 */
+	private FlipCache<Integer, byte[]> flipCache;
+
+	/**
+	 * Cache bounded by the number of entries.
+	 */
+	private Map<Integer, byte[]> lruCache;
+
+	/**
+	 * Creates the caches.
+	 */
+	@Setup
+	public void setup() {
+		flipCache = new FlipCache<Integer, byte[]>(CAPACITY
+				* (VALUE_SIZE + 100L), 4, deepSize);
+		lruCache = Collections.synchronizedMap(new LinkedHashMap<Integer, byte[]>(
+				CAPACITY, 0.75f, true) {
+
+			/**
+			 * The serial version UID.
+			 */
+			private static final long serialVersionUID = 1L;
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+			 */
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return size() > CAPACITY;
+			}
+		});
+	}
+
+	/**
+	 * Measures a lookup in {@link FlipCache}, loading the value on a miss.
+	 *
+	 * @return the value
+	 */
+	@Benchmark
+	public byte[] flipCache() {
+		Integer key = nextKey();
+		byte[] value = flipCache.get(key);
+		if (value == null) {
+			value = new byte[VALUE_SIZE];
+			flipCache.put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Measures a lookup in the synchronized {@link LinkedHashMap}, loading
+	 * the value on a miss.
+	 *
+	 * @return the value
+	 */
+	@Benchmark
+	public byte[] linkedHashMap() {
+		Integer key = nextKey();
+		byte[] value = lruCache.get(key);
+		if (value == null) {
+			value = new byte[VALUE_SIZE];
+			lruCache.put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Draws a key, with the smaller ones much more likely.
+	 *
+	 * @return the key
+	 */
+	private static Integer nextKey() {
+		double uniform = ThreadLocalRandom.current().nextDouble();
+		return (int) (KEYS * uniform * uniform * uniform);
+	}
+
+}
@@ -0,0 +1,316 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import co.aurasphere.flip.FlipLongArray;
+import co.aurasphere.flip.FlipLongLongMap;
+import co.aurasphere.flip.FlipLongSet;
+
+/**
+ * Benchmarks the off-heap collections against their boxed
+ * <code>java.util</code> equivalents. The build benchmarks fill a collection
+ * from scratch, the lookup ones query a collection already filled.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class CollectionsBenchmark {
+
+	/**
+	 * Number of entries of each collection.
+	 */
+	@Param({ "1000000" })
+	private int size;
+
+	/**
+	 * Random keys.
+	 */
+	private long[] keys;
+
+	/**
+	 * Off-heap map filled with {@link #keys}.
+	 */
+	private FlipLongLongMap flipMap;
+
+	/**
+	 * Boxed map filled with {@link #keys}.
+	 */
+	private Map<Long, Long> hashMap;
+
+	/**
+	 * Off-heap set filled with {@link #keys}.
+	 */
+	private FlipLongSet flipSet;
+
+	/**
+	 * Boxed set filled with {@link #keys}.
+	 */
+	private Set<Long> hashSet;
+
+	/**
+	 * Generates the keys and fills the collections used by the lookups.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(42);
+		keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = random.nextLong();
+		}
+		flipMap = buildFlipMap();
+		hashMap = buildHashMap();
+		flipSet = buildFlipSet();
+		hashSet = buildHashSet();
+	}
+
+	/**
+	 * Releases the off-heap collections.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		flipMap.free();
+		flipSet.free();
+	}
+
+	/**
+	 * Fills a {@link FlipLongLongMap}.
+	 *
+	 * @return the number of entries
+	 */
+	@Benchmark
+	public long flipMapPut() {
+		FlipLongLongMap map = buildFlipMap();
+		long result = map.size();
+		map.free();
+		return result;
+	}
+
+	/**
+	 * Fills an {@link HashMap}.
+	 *
+	 * @return the number of entries
+	 */
+	@Benchmark
+	public long hashMapPut() {
+		return buildHashMap().size();
+	}
+
+	/**
+	 * Looks up all the keys of a {@link FlipLongLongMap}.
+	 *
+	 * @return the sum of the values
+	 */
+	@Benchmark
+	public long flipMapGet() {
+		long sum = 0;
+		for (long key : keys) {
+			sum += flipMap.get(key);
+		}
+		return sum;
+	}
+
+	/**
+	 * Looks up all the keys of an {@link HashMap}.
+	 *
+	 * @return the sum of the values
+	 */
+	@Benchmark
+	public long hashMapGet() {
+		long sum = 0;
+		for (long key : keys) {
+			sum += hashMap.get(key);
+		}
+		return sum;
+	}
+
+	/**
+	 * Fills a {@link FlipLongSet}.
+	 *
+	 * @return the number of values
+	 */
+	@Benchmark
+	public long flipSetAdd() {
+		FlipLongSet set = buildFlipSet();
+		long result = set.size();
+		set.free();
+		return result;
+	}
+
+	/**
+	 * Fills an {@link HashSet}.
+	 *
+	 * @return the number of values
+	 */
+	@Benchmark
+	public long hashSetAdd() {
+		return buildHashSet().size();
+	}
+
+	/**
+	 * Checks all the values of a {@link FlipLongSet}.
+	 *
+	 * @return the number of values found
+	 */
+	@Benchmark
+	public int flipSetContains() {
+		int found = 0;
+		for (long key : keys) {
+			if (flipSet.contains(key)) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Checks all the values of an {@link HashSet}.
+	 *
+	 * @return the number of values found
+	 */
+	@Benchmark
+	public int hashSetContains() {
+		int found = 0;
+		for (long key : keys) {
+			if (hashSet.contains(key)) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Appends all the keys to a {@link FlipLongArray} and sums them back.
+	 *
+	 * @return the sum of the values
+	 */
+	@Benchmark
+	public long flipArrayAddAndSum() {
+		FlipLongArray array = new FlipLongArray();
+		for (long key : keys) {
+			array.add(key);
+		}
+		long sum = 0;
+		for (long i = 0; i < array.size(); i++) {
+			sum += array.get(i);
+		}
+		array.free();
+		return sum;
+	}
+
+	/**
+	 * Appends all the keys to an {@link ArrayList} and sums them back.
+	 *
+	 * @return the sum of the values
+	 */
+	@Benchmark
+	public long arrayListAddAndSum() {
+		List<Long> list = new ArrayList<Long>();
+		for (long key : keys) {
+			list.add(key);
+		}
+		long sum = 0;
+		for (int i = 0; i < list.size(); i++) {
+			sum += list.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Builds a {@link FlipLongLongMap} from {@link #keys}.
+	 *
+	 * @return the map
+	 */
+	private FlipLongLongMap buildFlipMap() {
+		FlipLongLongMap map = new FlipLongLongMap();
+		for (long key : keys) {
+			map.put(key, key);
+		}
+		return map;
+	}
+
+	/**
+	 * Builds an {@link HashMap} from {@link #keys}.
+	 *
+	 * @return the map
+	 */
+	private Map<Long, Long> buildHashMap() {
+		Map<Long, Long> map = new HashMap<Long, Long>();
+		for (long key : keys) {
+			map.put(key, key);
+		}
+		return map;
+	}
+
+	/**
+	 * Builds a {@link FlipLongSet} from {@link #keys}.
+	 *
+	 * @return the set
+	 */
+	private FlipLongSet buildFlipSet() {
+		FlipLongSet set = new FlipLongSet();
+		for (long key : keys) {
+			set.add(key);
+		}
+		return set;
+	}
+
+	/**
+	 * Builds an {@link HashSet} from {@link #keys}.
+	 *
+	 * @return the set
+	 */
+	private Set<Long> buildHashSet() {
+		Set<Long> set = new HashSet<Long>();
+		for (long key : keys) {
+			set.add(key);
+		}
+		return set;
+	}
+
+}
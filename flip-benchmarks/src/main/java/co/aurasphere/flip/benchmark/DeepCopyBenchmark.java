@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.aurasphere.flip.Flip;
+
+/**
+ * Benchmarks {@link Flip#deepCopy(Object, co.aurasphere.flip.FlipObjectFilter...)}
+ * against an in-memory Java serialization round trip, copying a map of
+ * objects which reference each other.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class DeepCopyBenchmark {
+
+	/**
+	 * Number of objects in the map.
+	 */
+	@Param({ "10000" })
+	private int size;
+
+	/**
+	 * Map copied.
+	 */
+	private HashMap<Long, GraphObject> graph;
+
+	/**
+	 * Creates the map, with each object referencing the previous one.
+	 */
+	@Setup
+	public void setup() {
+		graph = new HashMap<Long, GraphObject>();
+		GraphObject previous = null;
+		for (int i = 0; i < size; i++) {
+			GraphObject object = new GraphObject();
+			object.id = i;
+			object.name = "Object " + i;
+			object.values = new long[] { i, i * 2L, i * 3L, i * 4L };
+			object.previous = previous;
+			graph.put(object.id, object);
+			previous = object;
+		}
+	}
+
+	/**
+	 * Copies the map with Flip.
+	 *
+	 * @return the copy
+	 */
+	@Benchmark
+	public Map<Long, GraphObject> flipDeepCopy() {
+		return Flip.deepCopy(graph);
+	}
+
+	/**
+	 * Copies the map with Java serialization.
+	 *
+	 * @return the copy
+	 * @throws IOException
+	 *             never, the streams are in memory
+	 * @throws ClassNotFoundException
+	 *             never, the classes are on the classpath
+	 */
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public Map<Long, GraphObject> javaSerialization() throws IOException,
+			ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+			output.writeObject(graph);
+		}
+		try (ObjectInputStream input = new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (Map<Long, GraphObject>) input.readObject();
+		}
+	}
+
+	/**
+	 * Object with primitive fields, an array, a string and a reference to
+	 * another object.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	public static class GraphObject implements Serializable {
+
+		/**
+		 * The serial version UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The id.
+		 */
+		long id;
+
+		/**
+		 * The name.
+		 */
+		String name;
+
+		/**
+		 * The values.
+		 */
+		long[] values;
+
+		/**
+		 * The previous object.
+		 */
+		GraphObject previous;
+
+	}
+
+}
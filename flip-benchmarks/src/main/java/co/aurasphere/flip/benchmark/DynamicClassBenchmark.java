@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import co.aurasphere.flip.Flip;
+import co.aurasphere.flip.FlipClassCache;
+import co.aurasphere.flip.FlipClassGeneration;
+
+/**
+ * Benchmarks for {@link Flip#dynamicClassDefinition(String, String, String)}:
+ * the latency of compiling and defining a new class, along with the metaspace
+ * it takes, and the throughput of definitions served by the cache.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Thread)
+@Fork(1)
+public class DynamicClassBenchmark {
+
+	/**
+	 * Package of the generated classes.
+	 */
+	private static final String PACKAGE = "co.aurasphere.flip.benchmark.generated";
+
+	/**
+	 * Source of the class defined by the cached benchmark.
+	 */
+	private static final String CACHED_SOURCE = source("CachedClass");
+
+	/**
+	 * Counter used to give each new class a different name.
+	 */
+	private long classCounter;
+
+	/**
+	 * Generation of the new classes, released after each iteration.
+	 */
+	private FlipClassGeneration generation;
+
+	/**
+	 * Creates a new generation, with its own cache so that each class is
+	 * compiled.
+	 */
+	@Setup(Level.Iteration)
+	public void setup() {
+		generation = new FlipClassGeneration(
+				DynamicClassBenchmark.class.getClassLoader(),
+				new FlipClassCache());
+	}
+
+	/**
+	 * Releases the generation, so that its classes can be unloaded.
+	 */
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		generation.release();
+	}
+
+	/**
+	 * Measures the compilation and definition of a new class, counting the
+	 * metaspace it takes: divide the <code>metaspaceBytes</code> secondary
+	 * result by <code>definedClasses</code> to get the metaspace per class.
+	 *
+	 * @param metaspace
+	 *            the metaspace counters
+	 * @return the new class
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Class<?> defineNewClass(MetaspaceCounters metaspace) {
+		String className = "NewClass" + classCounter++;
+		long before = MetaspaceCounters.usedMetaspace();
+		Class<?> newClass = generation.dynamicClassDefinition(PACKAGE,
+				className, source(className));
+		metaspace.metaspaceBytes += MetaspaceCounters.usedMetaspace() - before;
+		metaspace.definedClasses++;
+		return newClass;
+	}
+
+	/**
+	 * Measures the definition of a class already compiled and defined, which
+	 * is served by the cache.
+	 *
+	 * @return the cached class
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Class<?> defineCachedClass() {
+		return Flip.dynamicClassDefinition(PACKAGE, "CachedClass",
+				CACHED_SOURCE);
+	}
+
+	/**
+	 * Generates the source of a small class.
+	 *
+	 * @param className
+	 *            the name of the class
+	 * @return the source of the class
+	 */
+	private static String source(String className) {
+		return "package " + PACKAGE + "; public class " + className
+				+ " { private int value; public int getValue() { return value; }"
+				+ " public void setValue(int value) { this.value = value; } }";
+	}
+
+	/**
+	 * Secondary results of {@link DynamicClassBenchmark#defineNewClass}.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class MetaspaceCounters {
+
+		/**
+		 * Metaspace taken by the new classes.
+		 */
+		public long metaspaceBytes;
+
+		/**
+		 * Number of new classes.
+		 */
+		public long definedClasses;
+
+		/**
+		 * Resets the counters before each iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void reset() {
+			metaspaceBytes = 0;
+			definedClasses = 0;
+		}
+
+		/**
+		 * Returns the metaspace currently used, class space included.
+		 *
+		 * @return the metaspace used, in bytes, or 0 if the JVM has no
+		 *         metaspace
+		 */
+		static long usedMetaspace() {
+			for (MemoryPoolMXBean pool : ManagementFactory
+					.getMemoryPoolMXBeans()) {
+				if (pool.getName().equals("Metaspace")) {
+					return pool.getUsage().getUsed();
+				}
+			}
+			return 0;
+		}
+
+	}
+
+}
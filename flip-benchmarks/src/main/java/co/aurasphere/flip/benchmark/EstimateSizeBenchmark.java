@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.aurasphere.flip.Flip;
+import co.aurasphere.flip.FlipSamplingPolicy;
+
+/**
+ * Benchmarks for
+ * {@link Flip#estimateSize(Object, FlipSamplingPolicy)} on large maps,
+ * compared with
+ * {@link Flip#deepSizeOf(Object, co.aurasphere.flip.FlipObjectFilter...)},
+ * which walks every entry.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class EstimateSizeBenchmark {
+
+	/**
+	 * Number of entries of the map.
+	 */
+	@Param({ "100000", "1000000" })
+	private int entries;
+
+	/**
+	 * Map to measure.
+	 */
+	private Map<String, Object> map;
+
+	/**
+	 * Creates the map to measure, with values of different shapes.
+	 */
+	@Setup
+	public void setup() {
+		String[] shapes = { BenchmarkObjects.SMALL, BenchmarkObjects.WIDE,
+				BenchmarkObjects.DEEP };
+		map = new HashMap<String, Object>();
+		for (int i = 0; i < entries; i++) {
+			map.put("key" + i, BenchmarkObjects.create(shapes[i % 3]));
+		}
+	}
+
+	/**
+	 * Measures {@link Flip#estimateSize(Object, FlipSamplingPolicy)} with the
+	 * default sample of 1000 entries.
+	 *
+	 * @return the estimated size of the map
+	 */
+	@Benchmark
+	public long estimateSize() {
+		return Flip.estimateSize(map, FlipSamplingPolicy.DEFAULT)
+				.getEstimatedBytes();
+	}
+
+	/**
+	 * Measures
+	 * {@link Flip#deepSizeOf(Object, co.aurasphere.flip.FlipObjectFilter...)}
+	 * for comparison.
+	 *
+	 * @return the deep size of the map
+	 */
+	@Benchmark
+	public long deepSizeOf() {
+		return Flip.deepSizeOf(map);
+	}
+
+}
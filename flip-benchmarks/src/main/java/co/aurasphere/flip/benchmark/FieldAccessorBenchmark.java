@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.aurasphere.flip.Flip;
+import co.aurasphere.flip.FlipFieldAccessor;
+
+/**
+ * Benchmarks {@link FlipFieldAccessor} against reflection and plain field
+ * accesses, incrementing a long field.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class FieldAccessorBenchmark {
+
+	/**
+	 * Accessor of {@link Counter#value}.
+	 */
+	private static final FlipFieldAccessor ACCESSOR = Flip.accessor(
+			Counter.class, "value");
+
+	/**
+	 * Object whose field is accessed.
+	 */
+	private Counter counter;
+
+	/**
+	 * {@link Counter#value} for reflection.
+	 */
+	private Field field;
+
+	/**
+	 * Creates the object and looks up its field.
+	 *
+	 * @throws NoSuchFieldException
+	 *             never, the field exists
+	 */
+	@Setup
+	public void setup() throws NoSuchFieldException {
+		counter = new Counter();
+		field = Counter.class.getDeclaredField("value");
+		field.setAccessible(true);
+	}
+
+	/**
+	 * Increments the field through a {@link FlipFieldAccessor}.
+	 *
+	 * @return the new value
+	 */
+	@Benchmark
+	public long accessor() {
+		long value = ACCESSOR.getLong(counter) + 1;
+		ACCESSOR.putLong(counter, value);
+		return value;
+	}
+
+	/**
+	 * Increments the field through reflection.
+	 *
+	 * @return the new value
+	 * @throws IllegalAccessException
+	 *             never, the field is accessible
+	 */
+	@Benchmark
+	public long reflection() throws IllegalAccessException {
+		long value = (Long) field.get(counter) + 1;
+		field.set(counter, value);
+		return value;
+	}
+
+	/**
+	 * Increments the field directly, as a baseline.
+	 *
+	 * @return the new value
+	 */
+	@Benchmark
+	public long direct() {
+		return ++counter.value;
+	}
+
+	/**
+	 * Atomically increments the field through a {@link FlipFieldAccessor}.
+	 *
+	 * @return the old value
+	 */
+	@Benchmark
+	public long accessorGetAndAdd() {
+		return ACCESSOR.getAndAddLong(counter, 1);
+	}
+
+	/**
+	 * Object with the field accessed.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	static class Counter {
+
+		/**
+		 * The value.
+		 */
+		long value;
+
+	}
+
+}
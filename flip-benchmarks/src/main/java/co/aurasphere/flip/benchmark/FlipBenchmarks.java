@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command line
+ * options and runs the selected benchmarks twice, once with compressed
+ * references and once without, since most Flip operations take a different
+ * path in each case. The options are prepended to the JVM arguments of each
+ * fork, so that those of the benchmarks still apply, together with the
+ * {@link InstrumentationAgent} when running from the benchmarks jar.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class FlipBenchmarks {
+
+	/**
+	 * JVM options of each run.
+	 */
+	private static final String[] COMPRESSED_OOPS_OPTIONS = {
+			"-XX:+UseCompressedOops", "-XX:-UseCompressedOops" };
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private FlipBenchmarks() {
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args
+	 *            JMH command line options
+	 * @throws CommandLineOptionException
+	 *             if the options are not valid
+	 * @throws RunnerException
+	 *             if a benchmark run fails
+	 */
+	public static void main(String[] args) throws CommandLineOptionException,
+			RunnerException {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		String agentOption = agentOption();
+		for (String compressedOopsOption : COMPRESSED_OOPS_OPTIONS) {
+			List<String> jvmArgsPrepend = new ArrayList<String>(
+					commandLineOptions.getJvmArgsPrepend().orElse(
+							Collections.<String> emptyList()));
+			if (agentOption != null) {
+				jvmArgsPrepend.add(agentOption);
+			}
+			jvmArgsPrepend.add(compressedOopsOption);
+			Options options = new OptionsBuilder()
+					.parent(commandLineOptions)
+					.jvmArgsPrepend(
+							jvmArgsPrepend.toArray(new String[jvmArgsPrepend
+									.size()])).build();
+			new Runner(options).run();
+		}
+	}
+
+	/**
+	 * Builds the option which loads the {@link InstrumentationAgent} from the
+	 * jar it comes from, wherever the benchmarks are launched from.
+	 *
+	 * @return the option which loads the agent, null if the benchmarks are
+	 *         not running from a jar
+	 */
+	private static String agentOption() {
+		CodeSource codeSource = InstrumentationAgent.class
+				.getProtectionDomain().getCodeSource();
+		if (codeSource == null) {
+			return null;
+		}
+		try {
+			File jar = new File(codeSource.getLocation().toURI());
+			if (!jar.isFile()) {
+				return null;
+			}
+			return "-javaagent:" + jar.getAbsolutePath();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+}
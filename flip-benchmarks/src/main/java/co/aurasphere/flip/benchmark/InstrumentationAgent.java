@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.lang.instrument.Instrumentation;
+
+/**
+ * Java agent which exposes the {@link Instrumentation} of the JVM, so that
+ * {@link Instrumentation#getObjectSize(Object)} can be compared with Flip.
+ * The benchmarks jar declares this class as its premain class and
+ * {@link FlipBenchmarks} loads it in every fork with <code>-javaagent</code>.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class InstrumentationAgent {
+
+	/**
+	 * Instrumentation of the JVM, null if the agent is not loaded.
+	 */
+	private static volatile Instrumentation instrumentation;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private InstrumentationAgent() {
+	}
+
+	/**
+	 * Called by the JVM when the agent is loaded.
+	 *
+	 * @param agentArgs
+	 *            the agent arguments, unused
+	 * @param instrumentation
+	 *            the {@link #instrumentation}
+	 */
+	public static void premain(String agentArgs, Instrumentation instrumentation) {
+		InstrumentationAgent.instrumentation = instrumentation;
+	}
+
+	/**
+	 * Gets the {@link #instrumentation}.
+	 *
+	 * @return the {@link #instrumentation}
+	 * @throws IllegalStateException
+	 *             if the agent is not loaded
+	 */
+	public static Instrumentation getInstrumentation() {
+		if (instrumentation == null) {
+			throw new IllegalStateException(
+					"Agent not loaded, run the benchmarks jar or pass -javaagent:<benchmarks jar>");
+		}
+		return instrumentation;
+	}
+
+}
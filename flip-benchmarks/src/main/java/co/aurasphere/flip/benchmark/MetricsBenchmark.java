@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import co.aurasphere.flip.Flip;
+import co.aurasphere.flip.FlipMetrics;
+
+/**
+ * Measures the overhead of {@link FlipMetrics} on {@link Flip#sizeOf(Object)}
+ * and {@link Flip#shallowCopy(Object, Object)}, running the same calls in
+ * forks with metrics disabled, enabled and enabled with a flight recording.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+	/**
+	 * Object measured and copied.
+	 */
+	private final Object object = BenchmarkObjects
+			.create(BenchmarkObjects.SMALL);
+
+	/**
+	 * Object overwritten by the copies.
+	 */
+	private final Object target = BenchmarkObjects
+			.create(BenchmarkObjects.SMALL);
+
+	/**
+	 * Measures {@link Flip#sizeOf(Object)} with metrics disabled.
+	 *
+	 * @return the size of the object
+	 */
+	@Benchmark
+	@Fork(1)
+	public long sizeOfDisabled() {
+		return Flip.sizeOf(object);
+	}
+
+	/**
+	 * Measures {@link Flip#sizeOf(Object)} with metrics enabled.
+	 *
+	 * @return the size of the object
+	 */
+	@Benchmark
+	@Fork(value = 1, jvmArgs = "-Dflip.metrics=true")
+	public long sizeOfEnabled() {
+		return Flip.sizeOf(object);
+	}
+
+	/**
+	 * Measures {@link Flip#sizeOf(Object)} with metrics enabled while a
+	 * flight recording is running.
+	 *
+	 * @return the size of the object
+	 */
+	@Benchmark
+	@Fork(value = 1, jvmArgs = { "-Dflip.metrics=true",
+			"-XX:StartFlightRecording=disk=false" })
+	public long sizeOfRecording() {
+		return Flip.sizeOf(object);
+	}
+
+	/**
+	 * Measures {@link Flip#shallowCopy(Object, Object)} with metrics
+	 * disabled.
+	 *
+	 * @return the overwritten object
+	 */
+	@Benchmark
+	@Fork(1)
+	public Object shallowCopyDisabled() {
+		return Flip.shallowCopy(object, target);
+	}
+
+	/**
+	 * Measures {@link Flip#shallowCopy(Object, Object)} with metrics enabled.
+	 *
+	 * @return the overwritten object
+	 */
+	@Benchmark
+	@Fork(value = 1, jvmArgs = "-Dflip.metrics=true")
+	public Object shallowCopyEnabled() {
+		return Flip.shallowCopy(object, target);
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import co.aurasphere.flip.Flip;
+import co.aurasphere.flip.FlipHistogramSink;
+
+/**
+ * Benchmarks for
+ * {@link Flip#parallelDeepSizeOf(Object, co.aurasphere.flip.FlipObjectFilter...)}
+ * and {@link Flip#parallelHistogram(FlipHistogramSink, Object...)} on a graph
+ * of millions of objects, compared with their sequential versions. The
+ * parallel ones use the common pool, so they scale with the available cores.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class ParallelWalkBenchmark {
+
+	/**
+	 * Graph to measure: a map of a million entries with values of different
+	 * shapes.
+	 */
+	private Map<String, Object> graph;
+
+	/**
+	 * Creates the graph to measure.
+	 */
+	@Setup
+	public void setup() {
+		String[] shapes = { BenchmarkObjects.SMALL, BenchmarkObjects.WIDE,
+				BenchmarkObjects.DEEP };
+		graph = new HashMap<String, Object>();
+		for (int i = 0; i < 1000000; i++) {
+			graph.put("key" + i, BenchmarkObjects.create(shapes[i % 3]));
+		}
+	}
+
+	/**
+	 * Measures
+	 * {@link Flip#deepSizeOf(Object, co.aurasphere.flip.FlipObjectFilter...)}.
+	 *
+	 * @return the deep size of the graph
+	 */
+	@Benchmark
+	public long deepSizeOf() {
+		return Flip.deepSizeOf(graph);
+	}
+
+	/**
+	 * Measures
+	 * {@link Flip#parallelDeepSizeOf(Object, co.aurasphere.flip.FlipObjectFilter...)}.
+	 *
+	 * @return the deep size of the graph
+	 */
+	@Benchmark
+	public long parallelDeepSizeOf() {
+		return Flip.parallelDeepSizeOf(graph);
+	}
+
+	/**
+	 * Measures {@link Flip#histogram(FlipHistogramSink, int, Object...)}
+	 * without retainers.
+	 *
+	 * @param blackhole
+	 *            the blackhole consuming the results
+	 * @return the deep size of the graph
+	 */
+	@Benchmark
+	public long histogram(Blackhole blackhole) {
+		return Flip.histogram(new BlackholeSink(blackhole), 0, graph);
+	}
+
+	/**
+	 * Measures {@link Flip#parallelHistogram(FlipHistogramSink, Object...)}.
+	 *
+	 * @param blackhole
+	 *            the blackhole consuming the results
+	 * @return the deep size of the graph
+	 */
+	@Benchmark
+	public long parallelHistogram(Blackhole blackhole) {
+		return Flip.parallelHistogram(new BlackholeSink(blackhole), graph);
+	}
+
+	/**
+	 * Sink which consumes the results in a blackhole.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static final class BlackholeSink implements FlipHistogramSink {
+
+		/**
+		 * The blackhole consuming the results.
+		 */
+		private final Blackhole blackhole;
+
+		/**
+		 * Instantiates a new BlackholeSink.
+		 *
+		 * @param blackhole
+		 *            the {@link #blackhole}
+		 */
+		private BlackholeSink(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see co.aurasphere.flip.FlipHistogramSink#classEntry(java.lang.Class,
+		 * long, long)
+		 */
+		@Override
+		public void classEntry(Class<?> type, long instances, long bytes) {
+			blackhole.consume(bytes);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see co.aurasphere.flip.FlipHistogramSink#retainer(java.lang.Object,
+		 * long)
+		 */
+		@Override
+		public void retainer(Object object, long retainedBytes) {
+			blackhole.consume(retainedBytes);
+		}
+
+	}
+
+}
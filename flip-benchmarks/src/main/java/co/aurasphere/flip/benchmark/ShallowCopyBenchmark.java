@@ -0,0 +1,231 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import co.aurasphere.flip.Flip;
+import co.aurasphere.flip.FlipArena;
+import co.aurasphere.flip.FlipSystemInformation;
+import co.aurasphere.flip.benchmark.BenchmarkObjects.CloneableObject;
+
+/**
+ * Benchmarks for the shallow copies of Flip, compared with
+ * {@link Object#clone()} and with a copy through reflection.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class ShallowCopyBenchmark {
+
+	/**
+	 * Number of objects in the pool.
+	 */
+	private static final int POOL_SIZE = 1024;
+
+	/**
+	 * Arena usage after which it's reset.
+	 */
+	private static final long ARENA_RESET_THRESHOLD = FlipArena.DEFAULT_SLAB_SIZE / 2;
+
+	/**
+	 * Shape of the object to copy.
+	 */
+	@Param({ BenchmarkObjects.SMALL, BenchmarkObjects.WIDE,
+			BenchmarkObjects.DEEP })
+	private String shape;
+
+	/**
+	 * Object to copy.
+	 */
+	private CloneableObject object;
+
+	/**
+	 * Object overwritten by the copies.
+	 */
+	private CloneableObject target;
+
+	/**
+	 * Pool of objects overwritten by the batch copies.
+	 */
+	private CloneableObject[] pool;
+
+	/**
+	 * Non-static fields of the object, for the reflection copies.
+	 */
+	private Field[] fields;
+
+	/**
+	 * Arena of the off-heap copies.
+	 */
+	private FlipArena arena;
+
+	/**
+	 * Creates the objects and looks up their fields.
+	 */
+	@Setup
+	public void setup() {
+		object = BenchmarkObjects.create(shape);
+		target = BenchmarkObjects.create(shape);
+		pool = new CloneableObject[POOL_SIZE];
+		for (int i = 0; i < POOL_SIZE; i++) {
+			pool[i] = BenchmarkObjects.create(shape);
+		}
+		List<Field> fieldList = new ArrayList<Field>();
+		for (Class<?> klass = object.getClass(); klass != Object.class; klass = klass
+				.getSuperclass()) {
+			for (Field field : klass.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) {
+					field.setAccessible(true);
+					fieldList.add(field);
+				}
+			}
+		}
+		fields = fieldList.toArray(new Field[fieldList.size()]);
+		arena = new FlipArena();
+	}
+
+	/**
+	 * Releases the arena.
+	 */
+	@TearDown
+	public void tearDown() {
+		arena.free();
+	}
+
+	/**
+	 * Measures {@link Flip#shallowCopy(Object)}.
+	 *
+	 * @return the copy
+	 */
+	@Benchmark
+	public Object shallowCopy() {
+		return Flip.shallowCopy(object);
+	}
+
+	/**
+	 * Measures {@link Object#clone()}.
+	 *
+	 * @return the copy
+	 */
+	@Benchmark
+	public Object cloneCopy() {
+		return object.clone();
+	}
+
+	/**
+	 * Measures a copy through reflection, with the fields already looked up.
+	 *
+	 * @return the copy
+	 * @throws ReflectiveOperationException
+	 *             if the copy fails
+	 */
+	@Benchmark
+	public Object reflectionCopy() throws ReflectiveOperationException {
+		Object copy = object.getClass().newInstance();
+		for (Field field : fields) {
+			field.set(copy, field.get(object));
+		}
+		return copy;
+	}
+
+	/**
+	 * Measures {@link Flip#shallowCopy(Object, Object)}.
+	 *
+	 * @return the overwritten object
+	 */
+	@Benchmark
+	public Object shallowCopyOverwrite() {
+		return Flip.shallowCopy(object, target);
+	}
+
+	/**
+	 * Measures an overwrite through reflection, with the fields already
+	 * looked up.
+	 *
+	 * @return the overwritten object
+	 * @throws IllegalAccessException
+	 *             if the copy fails
+	 */
+	@Benchmark
+	public Object reflectionOverwrite() throws IllegalAccessException {
+		for (Field field : fields) {
+			field.set(target, field.get(object));
+		}
+		return target;
+	}
+
+	/**
+	 * Measures {@link Flip#shallowCopyAll(Object, Object[])} on a pool of
+	 * {@value #POOL_SIZE} objects.
+	 *
+	 * @return the overwritten pool
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object[] shallowCopyAll() {
+		return Flip.shallowCopyAll(object, pool);
+	}
+
+	/**
+	 * Measures {@link Flip#shallowCopy(Object, FlipArena)}, which only works
+	 * without compressed references. The arena is reset every now and then to
+	 * bound its memory. The copy is not returned, so that the garbage
+	 * collector never finds a reference to it.
+	 *
+	 * @return the bytes used by the arena
+	 */
+	@Benchmark
+	public long arenaShallowCopy() {
+		if (FlipSystemInformation.getJvmLayout().isCompressedOops()) {
+			throw new IllegalStateException(
+					"Off-heap copies need -XX:-UseCompressedOops");
+		}
+		if (arena.getUsedBytes() > ARENA_RESET_THRESHOLD) {
+			arena.reset();
+		}
+		Flip.shallowCopy(object, arena);
+		return arena.getUsedBytes();
+	}
+
+}
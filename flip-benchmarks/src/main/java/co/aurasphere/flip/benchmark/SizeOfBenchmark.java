@@ -0,0 +1,187 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import co.aurasphere.flip.Flip;
+import co.aurasphere.flip.FlipHistogramSink;
+
+/**
+ * Benchmarks for {@link Flip#sizeOf(Object)} and
+ * {@link Flip#deepSizeOf(Object, co.aurasphere.flip.FlipObjectFilter...)}
+ * and {@link Flip#histogram(FlipHistogramSink, int, Object...)}, compared with {@link java.lang.instrument.Instrumentation#getObjectSize}.
+ * The cold benchmark measures the very first call on a class in a fresh JVM,
+ * which computes and caches the class layout, while the warm benchmarks
+ * measure the following calls, which only look the layout up.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizeOfBenchmark {
+
+	/**
+	 * Shape of the object to measure.
+	 */
+	@Param({ BenchmarkObjects.SMALL, BenchmarkObjects.WIDE,
+			BenchmarkObjects.DEEP })
+	private String shape;
+
+	/**
+	 * Object to measure.
+	 */
+	private Object object;
+
+	/**
+	 * Graph of 1000 objects to measure.
+	 */
+	private Object[] graph;
+
+	/**
+	 * Creates the objects to measure and initializes Flip, so that the cold
+	 * benchmark only measures the layout of the class.
+	 */
+	@Setup
+	public void setup() {
+		object = BenchmarkObjects.create(shape);
+		graph = new Object[1000];
+		for (int i = 0; i < graph.length; i++) {
+			graph[i] = BenchmarkObjects.create(shape);
+		}
+		Flip.sizeOf(graph);
+	}
+
+	/**
+	 * Measures the first call of {@link Flip#sizeOf(Object)} on a class. Each
+	 * fork is a new JVM, so each measurement is a cold one.
+	 *
+	 * @return the size of the object
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(20)
+	public long coldSizeOf() {
+		return Flip.sizeOf(object);
+	}
+
+	/**
+	 * Measures {@link Flip#sizeOf(Object)} once the class layout is cached.
+	 *
+	 * @return the size of the object
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Fork(1)
+	public long warmSizeOf() {
+		return Flip.sizeOf(object);
+	}
+
+	/**
+	 * Measures {@link java.lang.instrument.Instrumentation#getObjectSize} for
+	 * comparison. Needs the {@link InstrumentationAgent}, which
+	 * {@link FlipBenchmarks} loads from the benchmarks jar.
+	 *
+	 * @return the size of the object
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Fork(1)
+	public long instrumentationSizeOf() {
+		return InstrumentationAgent.getInstrumentation().getObjectSize(object);
+	}
+
+	/**
+	 * Measures
+	 * {@link Flip#deepSizeOf(Object, co.aurasphere.flip.FlipObjectFilter...)}
+	 * on a graph of 1000 objects.
+	 *
+	 * @return the deep size of the graph
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Fork(1)
+	public long deepSizeOf() {
+		return Flip.deepSizeOf(graph);
+	}
+
+	/**
+	 * Measures {@link Flip#histogram(FlipHistogramSink, int, Object...)} on a
+	 * graph of 1000 objects, keeping the top 10 retainers.
+	 *
+	 * @param blackhole
+	 *            the blackhole consuming the results
+	 * @return the deep size of the graph
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Fork(1)
+	public long histogram(final Blackhole blackhole) {
+		return Flip.histogram(new FlipHistogramSink() {
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see
+			 * co.aurasphere.flip.FlipHistogramSink#classEntry(java.lang.Class,
+			 * long, long)
+			 */
+			@Override
+			public void classEntry(Class<?> type, long instances, long bytes) {
+				blackhole.consume(bytes);
+			}
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see
+			 * co.aurasphere.flip.FlipHistogramSink#retainer(java.lang.Object,
+			 * long)
+			 */
+			@Override
+			public void retainer(Object object, long retainedBytes) {
+				blackhole.consume(retainedBytes);
+			}
+		}, 10, graph);
+	}
+
+}
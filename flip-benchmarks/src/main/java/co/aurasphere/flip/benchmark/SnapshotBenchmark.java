@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import co.aurasphere.flip.Flip;
+
+/**
+ * Benchmarks {@link Flip#snapshot(java.util.Collection, Path)} and
+ * {@link Flip#restore(Path, Class)} against Java serialization, writing and
+ * reading back a list of flat objects.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class SnapshotBenchmark {
+
+	/**
+	 * Number of objects written.
+	 */
+	@Param({ "100000" })
+	private int size;
+
+	/**
+	 * Objects written.
+	 */
+	private List<FlatObject> objects;
+
+	/**
+	 * File written by Flip.
+	 */
+	private Path snapshotFile;
+
+	/**
+	 * File written by Java serialization.
+	 */
+	private Path serializedFile;
+
+	/**
+	 * Creates the objects and the files.
+	 *
+	 * @throws IOException
+	 *             if the files can't be created
+	 */
+	@Setup
+	public void setup() throws IOException {
+		objects = new ArrayList<FlatObject>(size);
+		for (int i = 0; i < size; i++) {
+			FlatObject object = new FlatObject();
+			object.id = i;
+			object.price = i * 0.5;
+			object.quantity = i % 100;
+			object.active = i % 2 == 0;
+			objects.add(object);
+		}
+		snapshotFile = Files.createTempFile("flip", ".snapshot");
+		serializedFile = Files.createTempFile("flip", ".ser");
+	}
+
+	/**
+	 * Deletes the files.
+	 *
+	 * @throws IOException
+	 *             if the files can't be deleted
+	 */
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(snapshotFile);
+		Files.deleteIfExists(serializedFile);
+	}
+
+	/**
+	 * Writes and restores a Flip snapshot.
+	 *
+	 * @return the restored objects
+	 */
+	@Benchmark
+	public List<FlatObject> flipSnapshot() {
+		Flip.snapshot(objects, snapshotFile);
+		return Flip.restore(snapshotFile, FlatObject.class);
+	}
+
+	/**
+	 * Writes and reads back the objects with Java serialization.
+	 *
+	 * @return the read objects
+	 * @throws IOException
+	 *             if the file can't be written or read
+	 * @throws ClassNotFoundException
+	 *             never, the class is on the classpath
+	 */
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public List<FlatObject> javaSerialization() throws IOException,
+			ClassNotFoundException {
+		try (ObjectOutputStream output = new ObjectOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(serializedFile)))) {
+			output.writeObject(objects);
+		}
+		try (ObjectInputStream input = new ObjectInputStream(
+				new BufferedInputStream(Files.newInputStream(serializedFile)))) {
+			return (List<FlatObject>) input.readObject();
+		}
+	}
+
+	/**
+	 * Flat object with primitive fields only.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	public static class FlatObject implements Serializable {
+
+		/**
+		 * The serial version UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The id.
+		 */
+		long id;
+
+		/**
+		 * The price.
+		 */
+		double price;
+
+		/**
+		 * The quantity.
+		 */
+		int quantity;
+
+		/**
+		 * The active flag.
+		 */
+		boolean active;
+
+	}
+
+}
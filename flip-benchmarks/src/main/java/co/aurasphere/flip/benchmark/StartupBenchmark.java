@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.aurasphere.flip.Flip;
+
+/**
+ * Benchmarks the startup cost of Flip: the first call of each operation in a
+ * fresh JVM, which initializes Flip and probes the JVM layout. Each fork is
+ * a new JVM, so each measurement includes the class loading. The JMH
+ * harness loads part of the management API by itself, so these numbers
+ * underestimate what the probing saves in a plain application.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class StartupBenchmark {
+
+	/**
+	 * Measures the first call of {@link Flip#sizeOf(Object)}.
+	 *
+	 * @return the size of the object
+	 */
+	@Benchmark
+	public long firstSizeOf() {
+		return Flip.sizeOf(new Object());
+	}
+
+	/**
+	 * Measures the first call of {@link Flip#getObjectAddress(Object)}, which
+	 * also resolves the bases of the compressed pointers.
+	 *
+	 * @return the address of the object
+	 */
+	@Benchmark
+	public long firstGetObjectAddress() {
+		return Flip.getObjectAddress(new Object());
+	}
+
+}
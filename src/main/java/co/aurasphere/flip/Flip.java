@@ -23,15 +23,16 @@
  */
 package co.aurasphere.flip;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-
-import javax.tools.ToolProvider;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import sun.misc.Unsafe;
-import co.aurasphere.flip.FlipJavaFileManager.FlipJavaFileObject;
 
 /**
  * Main class of the Flip library.
@@ -52,6 +53,33 @@ public class Flip {
 	 */
 	private static Unsafe unsafe;
 
+	/**
+	 * Reference slot used by each thread to convert between references and
+	 * addresses, so that single conversions don't allocate.
+	 */
+	private static final ThreadLocal<Object[]> REFERENCE_HOLDER = new ThreadLocal<Object[]>() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.ThreadLocal#initialValue()
+		 */
+		@Override
+		protected Object[] initialValue() {
+			return new Object[1];
+		}
+	};
+
+	/**
+	 * Offset of the first element of an Object[].
+	 */
+	private static final long OBJECT_ARRAY_BASE_OFFSET;
+
+	/**
+	 * Size of an element of an Object[].
+	 */
+	private static final long OBJECT_ARRAY_INDEX_SCALE;
+
 	/**
 	 * Initializes Flip by loading the {@link #unsafe}.
 	 */
@@ -66,6 +94,8 @@ public class Flip {
 					"Error while getting the unsafe class during Flip initialization",
 					e);
 		}
+		OBJECT_ARRAY_BASE_OFFSET = unsafe.arrayBaseOffset(Object[].class);
+		OBJECT_ARRAY_INDEX_SCALE = unsafe.arrayIndexScale(Object[].class);
 	}
 
 	/**
@@ -87,14 +117,23 @@ public class Flip {
 	 * 	_mark	: 8 byte constant
 	 * 	_klass	: 8 byte pointer to class
 	 * 
-	 * For 64 bit JVM with compressed-oops:
+	 * For 64 bit JVM with compressed class pointers:
 	 * 	_mark	: 8 byte constant
 	 * 	_klass	: 4 byte pointer to class
 	 * </pre>
 	 * 
+	 * Compressed class pointers are decoded according to
+	 * {@link FlipSystemInformation#getJvmLayout()}. Their base is only known
+	 * on Java 8 without class data sharing: on any other JVM which compresses
+	 * class pointers, <code>-Dflip.vm.NarrowKlassBase</code> and
+	 * <code>-Dflip.vm.NarrowKlassShift</code> must be supplied.
+	 * 
 	 * @param object
 	 *            the object whose class address needs to be found
 	 * @return a class object address
+	 * @throws FlipException
+	 *             if the JVM is not HotSpot or if the class pointers are
+	 *             compressed with an unknown base
 	 * @see <a
 	 *      href="https://zeroturnaround.com/rebellabs/dangerous-code-how-to-be-unsafe-with-java-classes-objects-in-memory/3/">Source</a>
 	 */
@@ -102,20 +141,26 @@ public class Flip {
 		if (!FlipSystemInformation.isHotspot()) {
 			throw new FlipException("Operation only supported on HotSpot JVMs.");
 		}
-		// 32-bit
-		if (FlipSystemInformation.is32Bit()) {
-			return unsafe.getInt(object, 4L);
+		FlipJvmLayout layout = FlipSystemInformation.getJvmLayout();
+		// Class pointer inside the mark word.
+		if (layout.isCompactObjectHeaders()) {
+			return layout.decodeKlass(layout.klassFromMarkWord(unsafe.getLong(
+					object, 0L)));
 		}
-		// 64-bit no oops
-		if (!FlipSystemInformation.compressedOopsEnabled()) {
-			return unsafe.getLong(object, 8L);
+		// 32-bit or compressed class pointer.
+		if (layout.getKlassPointerSize() == 4) {
+			return layout.decodeKlass(unsafe.getInt(object,
+					(long) layout.getKlassOffset()) & 0xFFFFFFFFL);
 		}
-		// 64-bit with oops
-		return unsafe.getInt(object, 8L);
+		// 64-bit uncompressed class pointer.
+		return unsafe.getLong(object, (long) layout.getKlassOffset());
 	}
 
 	/**
-	 * Returns the address of an object.
+	 * Returns the address of an object. Compressed references are decoded
+	 * according to {@link FlipSystemInformation#getJvmLayout()}. This method
+	 * doesn't allocate. The address is only valid until the garbage collector
+	 * moves the object.
 	 * 
 	 * @param object
 	 *            the object whose address needs to be found
@@ -127,103 +172,649 @@ public class Flip {
 		if (!FlipSystemInformation.isHotspot()) {
 			throw new FlipException("Operation only supported on HotSpot JVMs.");
 		}
-		Object[] helperArray = new Object[] { object };
-		long baseOffset = unsafe.arrayBaseOffset(Object[].class);
+		Object[] holder = REFERENCE_HOLDER.get();
+		holder[0] = object;
+		long address = readAddress(FlipSystemInformation.getJvmLayout(),
+				holder, OBJECT_ARRAY_BASE_OFFSET);
+		holder[0] = null;
+		return address;
+	}
+
+	/**
+	 * Returns the addresses of many objects at once, without allocating.
+	 * Null elements have address 0.
+	 * 
+	 * @param objects
+	 *            the objects whose addresses need to be found
+	 * @param addresses
+	 *            the array filled with the addresses, in the same order as
+	 *            the objects
+	 * @return the addresses
+	 * @throws IndexOutOfBoundsException
+	 *             if the addresses array is shorter than the objects one
+	 * @see #getObjectAddress(Object)
+	 */
+	public static long[] getObjectAddresses(Object[] objects, long[] addresses) {
+		if (!FlipSystemInformation.isHotspot()) {
+			throw new FlipException("Operation only supported on HotSpot JVMs.");
+		}
+		if (addresses.length < objects.length) {
+			throw new IndexOutOfBoundsException("Can't fill " + objects.length
+					+ " addresses in an array of length " + addresses.length);
+		}
+		FlipJvmLayout layout = FlipSystemInformation.getJvmLayout();
+
+		// Reads the references straight from the array of the caller.
+		long offset = OBJECT_ARRAY_BASE_OFFSET;
+		for (int i = 0; i < objects.length; i++) {
+			addresses[i] = objects[i] == null ? 0 : readAddress(layout,
+					objects, offset);
+			offset += OBJECT_ARRAY_INDEX_SCALE;
+		}
+		return addresses;
+	}
 
-		// 32-bit addresses are 4 bytes.
-		if (FlipSystemInformation.is32Bit()) {
-			return unsafe.getInt(helperArray, baseOffset);
+	/**
+	 * Reads a reference from memory as an address, decoding it if compressed.
+	 * 
+	 * @param layout
+	 *            the layout of the JVM
+	 * @param holder
+	 *            the object holding the reference
+	 * @param offset
+	 *            the offset of the reference in the holder
+	 * @return the address of the referenced object
+	 */
+	private static long readAddress(FlipJvmLayout layout, Object holder,
+			long offset) {
+		// 32-bit addresses and compressed references are 4 bytes.
+		if (layout.getReferenceSize() == 4) {
+			return layout.decodeOop(unsafe.getInt(holder, offset) & 0xFFFFFFFFL);
 		}
 		// 64-bit addresses are 8 bytes.
-		return unsafe.getLong(helperArray, baseOffset);
+		return unsafe.getLong(holder, offset);
 	}
 
 	/**
 	 * Returns the shallow size of an object in a C-style fashion. The result is
-	 * expressed as number of bytes representing the maximum offset of a field
-	 * plus the padding.
+	 * expressed as number of bytes representing the end of the last field plus
+	 * the padding required by the JVM object alignment. For arrays, the result
+	 * is the size of the header plus the size of all the elements, again
+	 * padded. The layout of each class is computed only on the first call and
+	 * cached afterwards.
 	 * 
 	 * @param object
 	 *            the object whose size needs to be computed
 	 * @return the shallow size of the object
 	 */
 	public static long sizeOf(Object object) {
-		// First step: go through all non-static fields of each superclass
-		HashSet<Field> fields = new HashSet<Field>();
-		Class<?> klass = object.getClass();
-		while (klass != Object.class) {
-			for (Field field : klass.getDeclaredFields()) {
-				if ((field.getModifiers() & Modifier.STATIC) == 0) {
-					fields.add(field);
-				}
-			}
-			klass = klass.getSuperclass();
+		if (!FlipMetrics.ENABLED) {
+			return FlipClassLayout.of(object.getClass()).sizeOf(object);
 		}
+		long start = System.nanoTime();
+		long size = FlipClassLayout.of(object.getClass()).sizeOf(object);
+		FlipMetrics.recordSizeOf(object.getClass(), size, start);
+		return size;
+	}
 
-		// Gets the max offset.
-		long maxSize = 0;
-		for (Field field : fields) {
-			long offset = unsafe.objectFieldOffset(field);
-			if (offset > maxSize) {
-				maxSize = offset;
-			}
-		}
+	/**
+	 * Returns the deep size of an object, which is the sum of the shallow sizes
+	 * of all the objects reachable from it, including array elements. Each
+	 * object is counted only once, so cycles and shared references are
+	 * handled. The graph is walked iteratively, so its depth is not limited by
+	 * the call stack.
+	 * 
+	 * @param root
+	 *            the object whose size needs to be computed
+	 * @param filters
+	 *            filters that objects must pass to be measured, objects
+	 *            rejected by any filter are skipped along with the objects
+	 *            reachable only through them
+	 * @return the deep size of the object
+	 * @see FlipObjectFilters
+	 */
+	public static long deepSizeOf(Object root, FlipObjectFilter... filters) {
+		return new FlipGraphWalker(filters).walk(root);
+	}
+
+	/**
+	 * Estimates the deep size of a large collection or array by measuring a
+	 * random sample of its elements. The collection itself, like the table of
+	 * an {@link java.util.HashMap}, is measured exactly, then the mean deep
+	 * size of the sampled elements is extrapolated to all of them, so the
+	 * cost depends on the sample size and not on the number of elements.
+	 * <p>
+	 * Arrays, {@link java.util.ArrayList}, {@link java.util.HashMap},
+	 * {@link java.util.HashSet}, their linked variants and
+	 * {@link java.util.concurrent.ConcurrentHashMap} are sampled, any other
+	 * object is measured exactly as in
+	 * {@link #deepSizeOf(Object, FlipObjectFilter...)}. Each element is
+	 * measured on its own, so objects shared by several elements are counted
+	 * once for each element: use the policy filters to exclude them.
+	 *
+	 * @param root
+	 *            the object to measure
+	 * @param policy
+	 *            the sample size, confidence level and filters of the
+	 *            estimate
+	 * @return the estimated size, with its confidence interval
+	 * @see FlipSamplingPolicy#DEFAULT
+	 */
+	public static FlipSizeEstimate estimateSize(Object root,
+			FlipSamplingPolicy policy) {
+		return new FlipSizeEstimator(policy).estimate(root);
+	}
 
-		// Adds the padding and returns.
-		return ((maxSize / 8) + 1) * 8;
+	/**
+	 * Returns a deep copy of an object, copying all the objects reachable from
+	 * it, including array elements. Objects are copied without calling their
+	 * constructors, with the copy plan cached for their class. Each object is
+	 * copied only once, so shared references and cycles are preserved in the
+	 * copy, and the graph is copied iteratively, so its depth is not limited
+	 * by the call stack.
+	 * <p>
+	 * Immutable objects (strings, boxed primitives,
+	 * {@link java.math.BigInteger}, {@link java.math.BigDecimal},
+	 * {@link java.util.UUID}, enum constants and classes) are shared between
+	 * the original and the copy. Since identity hash codes are not copied,
+	 * structures relying on them, like {@link java.util.IdentityHashMap}, are
+	 * not usable in the copy.
+	 *
+	 * @param <T>
+	 *            the type of the object
+	 * @param root
+	 *            the object to copy
+	 * @param filters
+	 *            filters that objects must pass to be copied, objects rejected
+	 *            by any filter are shared between the original and the copy
+	 * @return the deep copy of the object
+	 * @see FlipObjectFilters
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T deepCopy(T root, FlipObjectFilter... filters) {
+		return (T) new FlipDeepCopier(filters).copy(root);
 	}
 
 	/**
-	 * Reads an object from a memory location and returns it.
+	 * Computes a class histogram of all the objects reachable from some roots,
+	 * without taking a heap dump. For each class, the number of instances and
+	 * the sum of their shallow sizes are sent to the sink, followed by the
+	 * objects retaining the most bytes. Each object is counted only once, even
+	 * if reachable from more roots, and the graph is walked iteratively, so
+	 * its depth is not limited by the call stack.
+	 * <p>
+	 * The bytes retained by an object are the shallow sizes of the objects
+	 * first reached through it during the walk, including its own. When
+	 * objects are shared, they are attributed to the first object reaching
+	 * them, so retained sizes are exact only for tree-shaped graphs. The roots
+	 * retain everything they reach, so they usually top the retainers.
+	 * 
+	 * @param sink
+	 *            the sink receiving the results
+	 * @param retainers
+	 *            the number of top retainers to report, 0 to skip them
+	 * @param roots
+	 *            the objects to start from
+	 * @return the sum of the shallow sizes of all the reachable objects
+	 * @throws IllegalArgumentException
+	 *             if the number of retainers is negative
+	 */
+	public static long histogram(FlipHistogramSink sink, int retainers,
+			Object... roots) {
+		return new FlipHistogramWalker(retainers).walk(sink, roots);
+	}
+
+	/**
+	 * Computes the deep size of an object like
+	 * {@link #deepSizeOf(Object, FlipObjectFilter...)}, walking the graph with
+	 * all the threads of a {@link java.util.concurrent.ForkJoinPool}: the pool
+	 * of the calling thread if it's a pool thread, the common pool otherwise.
+	 * Worth it only for graphs of millions of objects.
+	 *
+	 * @param root
+	 *            the object to measure
+	 * @param filters
+	 *            filters that objects must pass to be measured, objects
+	 *            rejected by any filter are skipped along with everything
+	 *            reachable only through them
+	 * @return the deep size of the object
+	 * @see FlipObjectFilters
+	 */
+	public static long parallelDeepSizeOf(Object root,
+			FlipObjectFilter... filters) {
+		return new FlipParallelGraphWalker(false, filters).walk(root)
+				.getTotalSize();
+	}
+
+	/**
+	 * Computes a class histogram like
+	 * {@link #histogram(FlipHistogramSink, int, Object...)}, walking the graph
+	 * with all the threads of a {@link java.util.concurrent.ForkJoinPool}: the
+	 * pool of the calling thread if it's a pool thread, the common pool
+	 * otherwise. The objects are not walked in a single depth-first order, so
+	 * no retainers are reported.
+	 *
+	 * @param sink
+	 *            the sink receiving the classes
+	 * @param roots
+	 *            the objects to start from
+	 * @return the sum of the shallow sizes of all the reachable objects
+	 */
+	public static long parallelHistogram(FlipHistogramSink sink,
+			Object... roots) {
+		FlipParallelGraphWalker.Accumulator total = new FlipParallelGraphWalker(
+				true).walk(roots);
+		FlipHistogramWalker.sendClasses(sink, total.getClassCounters());
+		return total.getTotalSize();
+	}
+
+	/**
+	 * Reads an object from a memory location and returns it. This method
+	 * doesn't allocate.
 	 * 
 	 * @param address
 	 *            the address of the memory to read
 	 * @return the object at that memory location
+	 * @throws FlipException
+	 *             if the address can't be represented as a compressed
+	 *             reference
 	 */
 	@SuppressWarnings("unchecked")
 	public static <T> T readObject(long address) {
-		Object[] array = new Object[] { null };
-		long baseOffset = unsafe.arrayBaseOffset(Object[].class);
-		unsafe.putLong(array, baseOffset, address);
-		return (T) array[0];
+		Object[] holder = REFERENCE_HOLDER.get();
+		writeAddress(FlipSystemInformation.getJvmLayout(), holder, address);
+		Object object = holder[0];
+		holder[0] = null;
+		return (T) object;
+	}
+
+	/**
+	 * Reads many objects from their memory locations at once, without
+	 * allocating. Addresses equal to 0 are read as null.
+	 * 
+	 * @param addresses
+	 *            the addresses of the memory to read
+	 * @param objects
+	 *            the array filled with the objects, in the same order as the
+	 *            addresses
+	 * @return the objects
+	 * @throws IndexOutOfBoundsException
+	 *             if the objects array is shorter than the addresses one
+	 * @throws FlipException
+	 *             if an address can't be represented as a compressed
+	 *             reference
+	 * @see #readObject(long)
+	 */
+	public static <T> T[] readObjects(long[] addresses, T[] objects) {
+		if (objects.length < addresses.length) {
+			throw new IndexOutOfBoundsException("Can't fill "
+					+ addresses.length + " objects in an array of length "
+					+ objects.length);
+		}
+		FlipJvmLayout layout = FlipSystemInformation.getJvmLayout();
+		Object[] holder = REFERENCE_HOLDER.get();
+		for (int i = 0; i < addresses.length; i++) {
+			writeAddress(layout, holder, addresses[i]);
+
+			// A plain store, so that the garbage collector barriers run.
+			@SuppressWarnings("unchecked")
+			T object = (T) holder[0];
+			objects[i] = object;
+		}
+		holder[0] = null;
+		return objects;
+	}
+
+	/**
+	 * Writes an address in the first slot of a reference holder, encoding it
+	 * if references are compressed.
+	 * 
+	 * @param layout
+	 *            the layout of the JVM
+	 * @param holder
+	 *            the reference holder
+	 * @param address
+	 *            the address to write
+	 */
+	private static void writeAddress(FlipJvmLayout layout, Object[] holder,
+			long address) {
+		if (address == 0) {
+			holder[0] = null;
+		} else if (layout.getReferenceSize() == 4) {
+			unsafe.putInt(holder, OBJECT_ARRAY_BASE_OFFSET,
+					(int) layout.encodeOop(address));
+		} else {
+			unsafe.putLong(holder, OBJECT_ARRAY_BASE_OFFSET, address);
+		}
 	}
 
 	/**
-	 * Creates a shallow copy of an object and returns it.
+	 * Creates a shallow copy of an object on the heap and returns it.
 	 * 
 	 * @param objectToCopy
 	 *            the object to copy
 	 * @return the new object
+	 * @see #shallowCopy(Object, FlipArena)
 	 */
 	public static <T> T shallowCopy(T objectToCopy) {
-		// Gets the address info.
-		long size = sizeOf(objectToCopy);
-		long start = getObjectAddress(objectToCopy);
-		long address = unsafe.allocateMemory(size);
+		if (!FlipMetrics.ENABLED) {
+			return heapCopy(objectToCopy);
+		}
+		long start = System.nanoTime();
+		T copy = heapCopy(objectToCopy);
+		FlipMetrics.recordShallowCopy(copy.getClass(), FlipClassLayout.of(
+				copy.getClass()).sizeOf(copy), false, start);
+		return copy;
+	}
 
-		// Copies the object.
-		unsafe.copyMemory(start, address, size);
+	/**
+	 * Creates a shallow copy of an object in native memory allocated from an
+	 * arena and returns it. The copy lives as long as the arena is reachable
+	 * and isn't reset or freed. Since compressed references can't point
+	 * outside the heap, this only works on JVMs which don't use them.
+	 * 
+	 * @param objectToCopy
+	 *            the object to copy
+	 * @param arena
+	 *            the arena where the copy is allocated
+	 * @return the new object
+	 * @throws FlipException
+	 *             if the copy can't be referenced because of compressed
+	 *             references
+	 */
+	public static <T> T shallowCopy(T objectToCopy, FlipArena arena) {
+		long start = FlipMetrics.ENABLED ? System.nanoTime() : 0;
+		FlipJvmLayout layout = FlipSystemInformation.getJvmLayout();
+		long size = FlipClassLayout.of(objectToCopy.getClass()).sizeOf(
+				objectToCopy);
+		long address = arena.allocate(size, layout.getObjectAlignment());
+		if (!layout.canEncodeOop(address)) {
+			throw new FlipException(
+					"Native memory can't be referenced with compressed references.");
+		}
+
+		// Copies the object a word at a time, header included. Reading
+		// through the object rather than its address keeps the copy correct
+		// even if the garbage collector moves it meanwhile.
+		for (long offset = 0; offset < size; offset += 8) {
+			unsafe.putLong(address + offset, unsafe.getLong(objectToCopy, offset));
+		}
+		if (FlipMetrics.ENABLED) {
+			FlipMetrics.recordShallowCopy(objectToCopy.getClass(), size, true,
+					start);
+		}
 		return readObject(address);
 	}
 
 	/**
-	 * Creates a shallow copy of an object by replacing the memory occupied by
-	 * another object of the same type.
+	 * Creates a shallow copy of an object on the heap.
+	 * 
+	 * @param objectToCopy
+	 *            the object to copy
+	 * @return the new object
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T heapCopy(T objectToCopy) {
+		Class<?> klass = objectToCopy.getClass();
+		if (klass.isArray()) {
+			int length = Array.getLength(objectToCopy);
+			Object copy = Array.newInstance(klass.getComponentType(), length);
+			System.arraycopy(objectToCopy, 0, copy, 0, length);
+			return (T) copy;
+		}
+
+		Object copy;
+		try {
+			copy = unsafe.allocateInstance(klass);
+		} catch (InstantiationException e) {
+			throw new FlipException("Error while copying an object of class "
+					+ klass.getName(), e);
+		}
+		FlipClassLayout.of(klass).copyFields(objectToCopy, copy);
+		return (T) copy;
+	}
+
+	/**
+	 * Creates a shallow copy of an object by overwriting the fields of another
+	 * object of the same class. The header of the overwritten object is kept,
+	 * so existing references to it see the new values.
 	 * 
 	 * @param objectToCopy
 	 *            the object to copy
 	 * @param objectToOverwrite
 	 *            the object to replace
-	 * @return the new object
+	 * @return the overwritten object
+	 * @throws FlipException
+	 *             if the objects have different classes, or are arrays of
+	 *             different lengths
 	 */
 	public static <T> T shallowCopy(T objectToCopy, T objectToOverwrite) {
-		unsafe.copyMemory(objectToCopy, 0L, null,
-				getObjectAddress(objectToOverwrite), sizeOf(objectToOverwrite));
-		return objectToCopy;
+		long start = FlipMetrics.ENABLED ? System.nanoTime() : 0;
+		FlipClassLayout layout = FlipClassLayout.of(objectToCopy.getClass());
+		checkSameClass(layout, objectToOverwrite);
+		layout.copyFields(objectToCopy, objectToOverwrite);
+		if (FlipMetrics.ENABLED) {
+			FlipMetrics.recordShallowCopy(layout.getType(),
+					layout.sizeOf(objectToOverwrite), false, start);
+		}
+		return objectToOverwrite;
+	}
+
+	/**
+	 * Overwrites the fields of many objects of the same class with the ones
+	 * of a prototype, for instance to reset the objects of a pool. The layout
+	 * of the class is looked up once for the whole batch.
+	 * 
+	 * @param objectToCopy
+	 *            the prototype to copy
+	 * @param objectsToOverwrite
+	 *            the objects to overwrite
+	 * @return the overwritten objects
+	 * @throws FlipException
+	 *             if an object is null or its class is not the one of the
+	 *             prototype
+	 * @see #shallowCopy(Object, Object)
+	 */
+	public static <T> T[] shallowCopyAll(T objectToCopy, T[] objectsToOverwrite) {
+		return shallowCopyAll(objectToCopy, objectsToOverwrite, 0,
+				objectsToOverwrite.length);
+	}
+
+	/**
+	 * Overwrites the fields of a range of objects of the same class with the
+	 * ones of a prototype.
+	 * 
+	 * @param objectToCopy
+	 *            the prototype to copy
+	 * @param objectsToOverwrite
+	 *            the objects to overwrite
+	 * @param fromIndex
+	 *            the index of the first object to overwrite, inclusive
+	 * @param toIndex
+	 *            the index of the last object to overwrite, exclusive
+	 * @return the overwritten objects
+	 * @throws FlipException
+	 *             if an object is null or its class is not the one of the
+	 *             prototype
+	 * @see #shallowCopyAll(Object, Object[])
+	 */
+	public static <T> T[] shallowCopyAll(T objectToCopy,
+			T[] objectsToOverwrite, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || fromIndex > toIndex
+				|| toIndex > objectsToOverwrite.length) {
+			throw new IndexOutOfBoundsException("From " + fromIndex + ", to "
+					+ toIndex + ", length " + objectsToOverwrite.length);
+		}
+		FlipClassLayout layout = FlipClassLayout.of(objectToCopy.getClass());
+		for (int i = fromIndex; i < toIndex; i++) {
+			T objectToOverwrite = objectsToOverwrite[i];
+			checkSameClass(layout, objectToOverwrite);
+			layout.copyFields(objectToCopy, objectToOverwrite);
+		}
+		return objectsToOverwrite;
+	}
+
+	/**
+	 * Overwrites the fields of many objects of the same class with the ones
+	 * of a prototype.
+	 * 
+	 * @param objectToCopy
+	 *            the prototype to copy
+	 * @param objectsToOverwrite
+	 *            the objects to overwrite
+	 * @throws FlipException
+	 *             if an object is null or its class is not the one of the
+	 *             prototype
+	 * @see #shallowCopyAll(Object, Object[])
+	 */
+	public static <T> void shallowCopyAll(T objectToCopy,
+			Iterable<? extends T> objectsToOverwrite) {
+		FlipClassLayout layout = FlipClassLayout.of(objectToCopy.getClass());
+		for (T objectToOverwrite : objectsToOverwrite) {
+			checkSameClass(layout, objectToOverwrite);
+			layout.copyFields(objectToCopy, objectToOverwrite);
+		}
+	}
+
+	/**
+	 * Checks that an object can be overwritten with the fields of another
+	 * one.
+	 * 
+	 * @param layout
+	 *            the layout of the object to copy
+	 * @param objectToOverwrite
+	 *            the object to overwrite
+	 * @throws FlipException
+	 *             if the object is null or its class is not the one of the
+	 *             layout
+	 */
+	private static void checkSameClass(FlipClassLayout layout,
+			Object objectToOverwrite) {
+		if (objectToOverwrite == null) {
+			throw new FlipException("Can't overwrite a null object.");
+		}
+		if (objectToOverwrite.getClass() != layout.getType()) {
+			throw new FlipException("Can't overwrite an object of class "
+					+ objectToOverwrite.getClass().getName()
+					+ " with one of class " + layout.getType().getName() + ".");
+		}
+	}
+
+	/**
+	 * Returns an accessor for a non-static field, which reads and writes it
+	 * through its offset, much faster than reflection. Accessors are cached,
+	 * so the field is resolved only on the first call.
+	 * 
+	 * @param klass
+	 *            the class which holds the field
+	 * @param fieldName
+	 *            the name of the field, declared by the class or one of its
+	 *            superclasses
+	 * @return the accessor of the field
+	 * @throws FlipException
+	 *             if the field is not found
+	 */
+	public static FlipFieldAccessor accessor(Class<?> klass, String fieldName) {
+		return FlipFieldAccessor.of(klass, fieldName);
+	}
+
+	/**
+	 * Returns an accessor for a non-static field.
+	 * 
+	 * @param field
+	 *            the field
+	 * @return the accessor of the field
+	 * @throws FlipException
+	 *             if the field is static
+	 * @see #accessor(Class, String)
+	 */
+	public static FlipFieldAccessor accessor(Field field) {
+		return new FlipFieldAccessor(field);
+	}
+
+	/**
+	 * Writes a snapshot of objects with primitive fields only to a file. The
+	 * field region of each object is copied as it is in memory to a mapping
+	 * of the file, after a header which describes the layout, so that the
+	 * objects can be quickly rebuilt by {@link #restore(Path, Class)}. The
+	 * file is replaced atomically.
+	 * 
+	 * @param objects
+	 *            the objects to write, all of the same class
+	 * @param file
+	 *            the file to write
+	 * @return the number of objects written
+	 * @throws FlipException
+	 *             if the objects have different classes or reference fields,
+	 *             or the file can't be written
+	 */
+	public static <T> long snapshot(Collection<T> objects, Path file) {
+		return FlipSnapshot.write(objects, file);
+	}
+
+	/**
+	 * Rebuilds the objects of a snapshot written by
+	 * {@link #snapshot(Collection, Path)}. Before reading any object, the
+	 * layout recorded in the snapshot is checked against the current layout of
+	 * the class, which changes if the class is modified or the JVM runs with
+	 * different options, such as compressed references.
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @param type
+	 *            the class of the objects
+	 * @return the objects, in the order they were written
+	 * @throws FlipException
+	 *             if the layout doesn't match or the file can't be read
+	 */
+	public static <T> List<T> restore(Path file, Class<T> type) {
+		return FlipSnapshot.read(file, type);
+	}
+
+	/**
+	 * Creates a flyweight which maps the primitive fields of a class onto
+	 * records in native memory, without typed accessors.
+	 * 
+	 * @param recordClass
+	 *            the class whose fields are mapped
+	 * @return a new flyweight, not pointing to any record
+	 * @see #flyweight(Class, Class)
+	 */
+	public static FlipFlyweight flyweight(Class<?> recordClass) {
+		return flyweight(recordClass, FlipFlyweight.class);
+	}
+
+	/**
+	 * Creates a flyweight which maps the primitive fields of a class onto
+	 * records in native memory. The flyweight class is generated and compiled
+	 * on the first call for each class and interface, with a getter and a
+	 * setter for each field which access the record at a constant offset.
+	 * The interface picks which of them can be called without reflection.
+	 * 
+	 * @param recordClass
+	 *            the class whose fields are mapped, with primitive fields only
+	 * @param flyweightInterface
+	 *            the interface implemented by the flyweight
+	 * @return a new flyweight, not pointing to any record
+	 * @throws FlipException
+	 *             if the class has reference fields or the interface has
+	 *             methods which don't match any field
+	 */
+	public static <T extends FlipFlyweight> T flyweight(Class<?> recordClass,
+			Class<T> flyweightInterface) {
+		Class<?> flyweightClass = FlipFlyweightGenerator.flyweightClass(
+				recordClass, flyweightInterface);
+		try {
+			return flyweightInterface.cast(flyweightClass.getConstructor(
+					Class.class).newInstance(recordClass));
+		} catch (ReflectiveOperationException e) {
+			throw new FlipException(e);
+		}
 	}
 
 	/**
 	 * Creates a new class dynamically by compiling a String of source code.
+	 * Classes are cached in memory, so the same source is compiled only once.
 	 * 
 	 * @param classPackage
 	 *            the new class package
@@ -235,22 +826,154 @@ public class Flip {
 	 */
 	public static Class<?> dynamicClassDefinition(String classPackage,
 			String className, String classSource) {
-		String fullClassName = classPackage.replace('.', '/') + "/" + className;
+		return dynamicClassDefinition(classPackage, className, classSource,
+				CompilerHolder.DEFAULT_CLASS_CACHE);
+	}
+
+	/**
+	 * Creates a new class dynamically by compiling a String of source code,
+	 * using a cache to skip the compilation of sources already compiled.
+	 * 
+	 * @param classPackage
+	 *            the new class package
+	 * @param className
+	 *            the new class name
+	 * @param classSource
+	 *            the new class source
+	 * @param classCache
+	 *            the cache of the compiled classes
+	 * @return a compiled class
+	 */
+	public static Class<?> dynamicClassDefinition(String classPackage,
+			String className, String classSource, FlipClassCache classCache) {
+		String binaryClassName = classPackage + "." + className;
+		return dynamicClassDefinitions(
+				Collections.singletonMap(binaryClassName, classSource),
+				classCache).get(binaryClassName);
+	}
 
-		// Compiles the source.
-		FlipJavaFileManager javaFileManager = new FlipJavaFileManager(
-				fullClassName, classSource);
-		FlipJavaFileObject javaFile = javaFileManager.getJavaFile();
-		ToolProvider
-				.getSystemJavaCompiler()
-				.getTask(null, javaFileManager, null, null, null,
-						Collections.singletonList(javaFile)).call();
+	/**
+	 * Creates new classes dynamically by compiling many Strings of source code
+	 * at once. The sources can refer to each other and all the classes they
+	 * produce, including nested, local and anonymous ones, are defined, each
+	 * after its superclass and interfaces. Classes are cached in memory, so
+	 * the same sources are compiled only once.
+	 * 
+	 * @param classSources
+	 *            the new classes sources, by fully qualified class name
+	 * @return all the compiled classes, by binary class name
+	 */
+	public static Map<String, Class<?>> dynamicClassDefinitions(
+			Map<String, String> classSources) {
+		return dynamicClassDefinitions(classSources,
+				CompilerHolder.DEFAULT_CLASS_CACHE);
+	}
 
-		// Instantiates the new class.
-		byte[] bytes = javaFile.openOutputStream().toByteArray();
-		return unsafe.defineClass(fullClassName, bytes, 0, bytes.length,
-				Flip.class.getClassLoader(), Flip.class.getProtectionDomain());
+	/**
+	 * Creates new classes dynamically by compiling many Strings of source code
+	 * in a single compilation, using a cache to skip the compilation of
+	 * sources already compiled. This method can be called by many threads at
+	 * once: compilations run in parallel, up to one for each processor.
+	 * 
+	 * @param classSources
+	 *            the new classes sources, by fully qualified class name
+	 * @param classCache
+	 *            the cache of the compiled classes
+	 * @return all the compiled classes, by binary class name
+	 * @see #dynamicClassDefinitions(Map)
+	 * @see FlipClassGeneration
+	 */
+	public static Map<String, Class<?>> dynamicClassDefinitions(
+			Map<String, String> classSources, FlipClassCache classCache) {
+		FlipClassCache.Entry entry = compile(classSources, classCache);
 
+		// Instantiates the new classes, if not done already.
+		synchronized (entry) {
+			Map<String, Class<?>> definedClasses = entry.getDefinedClasses();
+			if (definedClasses == null) {
+				long start = FlipMetrics.ENABLED ? System.nanoTime() : 0;
+				definedClasses = new LinkedHashMap<String, Class<?>>();
+				Map<String, byte[]> classFiles = entry.getClassFiles();
+				FlipBackend backend = FlipSystemInformation.getBackend();
+				for (String className : FlipClassFiles
+						.inDefinitionOrder(classFiles)) {
+					byte[] bytes = classFiles.get(className);
+					definedClasses.put(className, backend.defineClass(
+							className, bytes, Flip.class.getClassLoader(),
+							Flip.class.getProtectionDomain()));
+				}
+				if (FlipMetrics.ENABLED) {
+					FlipMetrics.recordDefine(classFiles.size(),
+							bytecodeSize(classFiles), start);
+				}
+				definedClasses = Collections.unmodifiableMap(definedClasses);
+				entry.setDefinedClasses(definedClasses);
+			}
+			return definedClasses;
+		}
+	}
+
+	/**
+	 * Compiles many Strings of source code in a single compilation, unless
+	 * they are found in a cache.
+	 * 
+	 * @param classSources
+	 *            the classes sources, by fully qualified class name
+	 * @param classCache
+	 *            the cache of the compiled classes
+	 * @return the compiled classes
+	 */
+	static FlipClassCache.Entry compile(Map<String, String> classSources,
+			FlipClassCache classCache) {
+		String key = FlipClassCache.key(classSources);
+		FlipClassCache.Entry entry = classCache.get(key);
+		if (entry == null) {
+			long start = System.nanoTime();
+			Map<String, byte[]> classFiles = CompilerHolder.COMPILER_POOL
+					.compile(classSources);
+			long compileNanos = System.nanoTime() - start;
+			entry = classCache.put(key, classFiles, compileNanos);
+			if (FlipMetrics.ENABLED) {
+				FlipMetrics.recordCompile(classFiles.size(),
+						bytecodeSize(classFiles), compileNanos);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Sums the sizes of some class files.
+	 * 
+	 * @param classFiles
+	 *            the class files, by binary class name
+	 * @return the bytes of bytecode
+	 */
+	private static long bytecodeSize(Map<String, byte[]> classFiles) {
+		long size = 0;
+		for (byte[] classFile : classFiles.values()) {
+			size += classFile.length;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the cache used by
+	 * {@link #dynamicClassDefinition(String, String, String)}.
+	 * 
+	 * @return the default class cache
+	 */
+	public static FlipClassCache getDefaultClassCache() {
+		return CompilerHolder.DEFAULT_CLASS_CACHE;
+	}
+
+	/**
+	 * Gets the compilers used by
+	 * {@link #dynamicClassDefinitions(Map, FlipClassCache)}.
+	 * 
+	 * @return the compiler pool
+	 */
+	public static FlipCompilerPool getCompilerPool() {
+		return CompilerHolder.COMPILER_POOL;
 	}
 
 	/**
@@ -261,4 +984,30 @@ public class Flip {
 	public static Unsafe getUnsafe() {
 		return unsafe;
 	}
+
+	/**
+	 * Holds the default cache and compilers of the dynamic classes, so that
+	 * the compiler API is loaded only when a class is compiled.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static class CompilerHolder {
+
+		/**
+		 * Cache used by
+		 * {@link Flip#dynamicClassDefinition(String, String, String)}.
+		 */
+		private static final FlipClassCache DEFAULT_CLASS_CACHE = new FlipClassCache();
+
+		/**
+		 * Compilers used by
+		 * {@link Flip#dynamicClassDefinitions(Map, FlipClassCache)}, one for
+		 * each processor.
+		 */
+		private static final FlipCompilerPool COMPILER_POOL = new FlipCompilerPool(
+				Runtime.getRuntime().availableProcessors());
+
+	}
+
 }
@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * A block of native memory allocated through {@link FlipMemory} and not freed
+ * yet. The address and size change if the block is reallocated.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipAllocation {
+
+	/**
+	 * The address of the block.
+	 */
+	volatile long address;
+
+	/**
+	 * The size of the block in bytes.
+	 */
+	volatile long size;
+
+	/**
+	 * The {@link System#currentTimeMillis()} when the block was allocated.
+	 */
+	private final long timestamp;
+
+	/**
+	 * Where the block was allocated, null if the allocation wasn't sampled.
+	 */
+	private final Throwable allocationSite;
+
+	/**
+	 * Frees the block when its owner becomes unreachable, null if the block
+	 * has no owner. Set before the block is published to the live blocks and
+	 * never changed afterwards.
+	 */
+	FlipMemory.Deallocator cleaner;
+
+	/**
+	 * Instantiates a new FlipAllocation.
+	 *
+	 * @param address
+	 *            the {@link #address}
+	 * @param size
+	 *            the {@link #size}
+	 * @param allocationSite
+	 *            the {@link #allocationSite}
+	 */
+	FlipAllocation(long address, long size, Throwable allocationSite) {
+		this.address = address;
+		this.size = size;
+		this.timestamp = System.currentTimeMillis();
+		this.allocationSite = allocationSite;
+	}
+
+	/**
+	 * Gets the {@link #address}.
+	 *
+	 * @return the {@link #address}
+	 */
+	public long getAddress() {
+		return address;
+	}
+
+	/**
+	 * Gets the {@link #size}.
+	 *
+	 * @return the {@link #size}
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the {@link #timestamp}.
+	 *
+	 * @return the {@link #timestamp}
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Gets the stack trace of the allocation, if it was sampled.
+	 *
+	 * @return the stack trace of the allocation, starting from the caller of
+	 *         {@link FlipMemory}, or null if the allocation wasn't sampled
+	 */
+	public StackTraceElement[] getAllocationSite() {
+		return allocationSite == null ? null : FlipMemory
+				.callerFrames(allocationSite.getStackTrace());
+	}
+
+	/**
+	 * Checks if the block is freed when its owner becomes unreachable.
+	 *
+	 * @return true, if the block has an owner, false otherwise
+	 */
+	public boolean isOwned() {
+		return cleaner != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FlipAllocation [address=" + address + ", size=" + size
+				+ ", owned=" + isOwned() + "]";
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.Arrays;
+
+/**
+ * Off-heap memory arena. Memory is reserved from the system in large slabs
+ * and handed out by bumping a pointer, so each allocation costs a few
+ * arithmetic operations instead of a call to the system allocator. Single
+ * allocations can't be freed: the whole arena is either {@link #reset()},
+ * to reuse its slabs, or {@link #free() freed}, to give them back to the
+ * system. Slabs of arenas which become unreachable without being freed are
+ * given back once the garbage collector finds them.
+ * <p>
+ * Arenas are not thread-safe.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipArena {
+
+	/**
+	 * Alignment to the size of a cache line, to avoid false sharing.
+	 */
+	public static final long CACHE_LINE_ALIGNMENT = 64;
+
+	/**
+	 * Alignment to the size of a memory page.
+	 */
+	public static final long PAGE_ALIGNMENT = Flip.getUnsafe().pageSize();
+
+	/**
+	 * Default size of a slab.
+	 */
+	public static final long DEFAULT_SLAB_SIZE = 1 << 20;
+
+	/**
+	 * Size of the slabs. Bigger allocations get a slab of their own.
+	 */
+	private final long slabSize;
+
+	/**
+	 * Addresses of the slabs reserved.
+	 */
+	private long[] slabAddresses = new long[4];
+
+	/**
+	 * Sizes of the slabs reserved.
+	 */
+	private long[] slabSizes = new long[4];
+
+	/**
+	 * Number of slabs reserved.
+	 */
+	private int slabCount;
+
+	/**
+	 * Index of the slab allocations are taken from.
+	 */
+	private int currentSlab = -1;
+
+	/**
+	 * Next free address in the current slab.
+	 */
+	private long position;
+
+	/**
+	 * End of the current slab.
+	 */
+	private long limit;
+
+	/**
+	 * Bytes reserved from the system.
+	 */
+	private long reservedBytes;
+
+	/**
+	 * Bytes allocated since the last reset, alignment padding excluded.
+	 */
+	private long usedBytes;
+
+	/**
+	 * True once the arena has been freed.
+	 */
+	private boolean freed;
+
+	/**
+	 * Instantiates a new FlipArena with slabs of {@link #DEFAULT_SLAB_SIZE}.
+	 */
+	public FlipArena() {
+		this(DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Instantiates a new FlipArena.
+	 *
+	 * @param slabSize
+	 *            the {@link #slabSize}
+	 */
+	public FlipArena(long slabSize) {
+		if (slabSize <= 0) {
+			throw new IllegalArgumentException("Slab size must be positive.");
+		}
+		this.slabSize = slabSize;
+	}
+
+	/**
+	 * Allocates memory aligned to the JVM object alignment.
+	 *
+	 * @param size
+	 *            the number of bytes to allocate
+	 * @return the address of the allocated memory
+	 */
+	public long allocate(long size) {
+		return allocate(size, FlipSystemInformation.getObjectAlignment());
+	}
+
+	/**
+	 * Allocates memory with a given alignment.
+	 *
+	 * @param size
+	 *            the number of bytes to allocate
+	 * @param alignment
+	 *            the alignment of the memory, a power of two such as
+	 *            {@link #CACHE_LINE_ALIGNMENT} or {@link #PAGE_ALIGNMENT}
+	 * @return the address of the allocated memory
+	 * @throws FlipException
+	 *             if the arena has been freed
+	 */
+	public long allocate(long size, long alignment) {
+		if (freed) {
+			throw new FlipException("Arena already freed.");
+		}
+		if (size < 0 || Long.bitCount(alignment) != 1) {
+			throw new IllegalArgumentException("Invalid size " + size
+					+ " or alignment " + alignment + ".");
+		}
+
+		// Fast path: bumps the pointer of the current slab.
+		long address = (position + alignment - 1) & -alignment;
+		if (currentSlab < 0 || address + size > limit) {
+			address = nextSlab(size, alignment);
+		}
+		position = address + size;
+		usedBytes += size;
+		return address;
+	}
+
+	/**
+	 * Moves to a slab which can hold an allocation, reusing the slabs
+	 * reserved before the last reset or reserving a new one.
+	 *
+	 * @param size
+	 *            the size of the allocation
+	 * @param alignment
+	 *            the alignment of the allocation
+	 * @return the aligned address of the allocation in the new slab
+	 */
+	private long nextSlab(long size, long alignment) {
+		while (++currentSlab < slabCount) {
+			long address = (slabAddresses[currentSlab] + alignment - 1)
+					& -alignment;
+			limit = slabAddresses[currentSlab] + slabSizes[currentSlab];
+			if (address + size <= limit) {
+				return address;
+			}
+		}
+
+		// Reserves a new slab, big enough for the allocation.
+		long newSlabSize = Math.max(slabSize, size + alignment - 1);
+		long slabAddress = FlipMemory.allocate(newSlabSize, this);
+		if (slabCount == slabAddresses.length) {
+			slabAddresses = Arrays.copyOf(slabAddresses, slabCount * 2);
+			slabSizes = Arrays.copyOf(slabSizes, slabCount * 2);
+		}
+		slabAddresses[slabCount] = slabAddress;
+		slabSizes[slabCount] = newSlabSize;
+		currentSlab = slabCount++;
+		reservedBytes += newSlabSize;
+		limit = slabAddress + newSlabSize;
+		return (slabAddress + alignment - 1) & -alignment;
+	}
+
+	/**
+	 * Discards all the allocations at once, keeping the slabs reserved so
+	 * that following allocations reuse them. Memory allocated before the
+	 * reset must not be used anymore.
+	 */
+	public void reset() {
+		currentSlab = -1;
+		position = 0;
+		limit = 0;
+		usedBytes = 0;
+	}
+
+	/**
+	 * Gives all the slabs back to the system. Memory allocated from this arena
+	 * must not be used anymore and no more allocations are allowed.
+	 */
+	public void free() {
+		for (int i = 0; i < slabCount; i++) {
+			FlipMemory.free(slabAddresses[i]);
+		}
+		reset();
+		slabCount = 0;
+		reservedBytes = 0;
+		freed = true;
+	}
+
+	/**
+	 * Gets the {@link #reservedBytes}.
+	 *
+	 * @return the {@link #reservedBytes}
+	 */
+	public long getReservedBytes() {
+		return reservedBytes;
+	}
+
+	/**
+	 * Gets the {@link #usedBytes}.
+	 *
+	 * @return the {@link #usedBytes}
+	 */
+	public long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Gets the {@link #slabSize}.
+	 *
+	 * @return the {@link #slabSize}
+	 */
+	public long getSlabSize() {
+		return slabSize;
+	}
+
+	/**
+	 * Checks if the arena has been freed.
+	 *
+	 * @return true, if the arena has been freed, false otherwise
+	 */
+	public boolean isFreed() {
+		return freed;
+	}
+
+}
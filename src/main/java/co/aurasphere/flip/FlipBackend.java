@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.security.ProtectionDomain;
+
+/**
+ * Access to native memory and class definition used by Flip, so that Flip
+ * doesn't depend on APIs removed from newer JDKs. The backend in use is
+ * chosen once, by {@link FlipSystemInformation#getBackend()}:
+ * <ul>
+ * <li><b>unsafe</b>: everything through <code>sun.misc.Unsafe</code>, the
+ * fastest option on JDKs which still have <code>Unsafe.defineClass</code>
+ * (up to JDK 10).</li>
+ * <li><b>lookup</b>: classes are defined through a method handle to
+ * {@link ClassLoader}'s <code>defineClass</code>, which needs
+ * <code>--add-opens java.base/java.lang=ALL-UNNAMED</code> on JDK 16 and
+ * newer, while memory is still accessed through <code>Unsafe</code>.</li>
+ * <li><b>foreign</b>: like lookup, but memory is allocated and accessed
+ * through the <code>java.lang.foreign</code> API of JDK 21 and newer.</li>
+ * </ul>
+ * Addresses are plain longs with every backend, so memory allocated by one
+ * backend can't be freed by another.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public interface FlipBackend {
+
+	/**
+	 * Gets the name of the backend.
+	 *
+	 * @return the name of the backend
+	 */
+	String getName();
+
+	/**
+	 * Allocates a block of native memory, whose content is not initialized.
+	 *
+	 * @param bytes
+	 *            the size of the block
+	 * @return the address of the block
+	 */
+	long allocateMemory(long bytes);
+
+	/**
+	 * Resizes a block of native memory, preserving its content up to the
+	 * smaller of the two sizes.
+	 *
+	 * @param address
+	 *            the address of the block
+	 * @param bytes
+	 *            the new size of the block
+	 * @return the new address of the block
+	 */
+	long reallocateMemory(long address, long bytes);
+
+	/**
+	 * Frees a block of native memory.
+	 *
+	 * @param address
+	 *            the address of the block
+	 */
+	void freeMemory(long address);
+
+	/**
+	 * Sets all the bytes of a memory region to a value.
+	 *
+	 * @param address
+	 *            the address of the region
+	 * @param bytes
+	 *            the size of the region
+	 * @param value
+	 *            the value of each byte
+	 */
+	void setMemory(long address, long bytes, byte value);
+
+	/**
+	 * Copies a memory region to another one.
+	 *
+	 * @param source
+	 *            the address of the region to copy
+	 * @param target
+	 *            the address of the region to overwrite
+	 * @param bytes
+	 *            the size of the regions
+	 */
+	void copyMemory(long source, long target, long bytes);
+
+	/**
+	 * Reads a byte from memory.
+	 *
+	 * @param address
+	 *            the address to read
+	 * @return the byte at the address
+	 */
+	byte getByte(long address);
+
+	/**
+	 * Writes a byte to memory.
+	 *
+	 * @param address
+	 *            the address to write
+	 * @param value
+	 *            the value to write
+	 */
+	void putByte(long address, byte value);
+
+	/**
+	 * Reads a short from memory.
+	 *
+	 * @param address
+	 *            the address to read
+	 * @return the short at the address
+	 */
+	short getShort(long address);
+
+	/**
+	 * Writes a short to memory.
+	 *
+	 * @param address
+	 *            the address to write
+	 * @param value
+	 *            the value to write
+	 */
+	void putShort(long address, short value);
+
+	/**
+	 * Reads an int from memory.
+	 *
+	 * @param address
+	 *            the address to read
+	 * @return the int at the address
+	 */
+	int getInt(long address);
+
+	/**
+	 * Writes an int to memory.
+	 *
+	 * @param address
+	 *            the address to write
+	 * @param value
+	 *            the value to write
+	 */
+	void putInt(long address, int value);
+
+	/**
+	 * Reads a long from memory.
+	 *
+	 * @param address
+	 *            the address to read
+	 * @return the long at the address
+	 */
+	long getLong(long address);
+
+	/**
+	 * Writes a long to memory.
+	 *
+	 * @param address
+	 *            the address to write
+	 * @param value
+	 *            the value to write
+	 */
+	void putLong(long address, long value);
+
+	/**
+	 * Defines a class from its bytecode.
+	 *
+	 * @param name
+	 *            the binary name of the class
+	 * @param bytes
+	 *            the bytecode of the class
+	 * @param loader
+	 *            the class loader defining the class
+	 * @param protectionDomain
+	 *            the protection domain of the class
+	 * @return the new class
+	 * @throws FlipException
+	 *             if the backend can't define classes on this JVM
+	 */
+	Class<?> defineClass(String name, byte[] bytes, ClassLoader loader,
+			ProtectionDomain protectionDomain);
+
+}
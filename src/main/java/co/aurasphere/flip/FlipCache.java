@@ -0,0 +1,792 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Concurrent cache bounded by the bytes of its entries rather than by their
+ * number. Each entry weighs the size of its key and value, as computed by
+ * {@link Flip#deepSizeOf(Object, FlipObjectFilter...)} or
+ * {@link Flip#sizeOf(Object)}, plus the bookkeeping of the cache itself. The
+ * weight is computed once when the entry is added, and when its value is
+ * replaced only the new value is measured.
+ * <p>
+ * The entries are split by key hash over segments, each one with its own
+ * lock and an equal share of the budget. Each segment follows the W-TinyLFU
+ * policy: new entries go into a small LRU window, and the ones leaving it are
+ * admitted into the main area only if their keys have been used more often
+ * than the entries they would evict, as estimated by a
+ * {@link FlipFrequencySketch}. The main area is a segmented LRU, where
+ * entries used again are promoted from a probation queue to a protected one.
+ * This way a scan of keys used once can't flush the entries used often.
+ * <p>
+ * The cache never holds more than its budget, so an entry heavier than the
+ * share of a segment is not cached at all. Objects shared by many entries
+ * are weighed again in each of them, unless excluded by filters. Null keys
+ * and values are not supported.
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the values
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipCache<K, V> {
+
+	/**
+	 * Maximum number of segments.
+	 */
+	private static final int MAXIMUM_SEGMENTS = 1 << 6;
+
+	/**
+	 * Minimum share of the budget of a segment, so that small caches are not
+	 * split in segments too small to hold anything.
+	 */
+	private static final long MINIMUM_SEGMENT_BYTES = 1 << 16;
+
+	/**
+	 * Bytes used by the cache for each entry besides the key and the value.
+	 */
+	private static final long ENTRY_OVERHEAD = entryOverhead();
+
+	/**
+	 * Maximum bytes held by the cache.
+	 */
+	private final long maximumBytes;
+
+	/**
+	 * True if the keys and values are weighed with their deep size, false
+	 * for their shallow size.
+	 */
+	private final boolean deepSize;
+
+	/**
+	 * Filters that objects must pass to be weighed in the deep size.
+	 */
+	private final FlipObjectFilter[] filters;
+
+	/**
+	 * The segments, each one also used as its own lock.
+	 */
+	private final Segment<K, V>[] segments;
+
+	/**
+	 * Shift which keeps the bits of the hash used to pick a segment.
+	 */
+	private final int segmentShift;
+
+	/**
+	 * Instantiates a new FlipCache which weighs the entries with their deep
+	 * size and has a segment for each processor.
+	 *
+	 * @param maximumBytes
+	 *            the {@link #maximumBytes}
+	 * @throws IllegalArgumentException
+	 *             if the budget is not positive
+	 */
+	public FlipCache(long maximumBytes) {
+		this(maximumBytes, Runtime.getRuntime().availableProcessors(), true);
+	}
+
+	/**
+	 * Instantiates a new FlipCache.
+	 *
+	 * @param maximumBytes
+	 *            the {@link #maximumBytes}
+	 * @param concurrencyLevel
+	 *            the number of threads expected to use the cache at once,
+	 *            which sets the number of segments
+	 * @param deepSize
+	 *            the {@link #deepSize}
+	 * @param filters
+	 *            the {@link #filters}, used only for the deep size
+	 * @throws IllegalArgumentException
+	 *             if the budget or the concurrency level are not positive
+	 */
+	public FlipCache(long maximumBytes, int concurrencyLevel,
+			boolean deepSize, FlipObjectFilter... filters) {
+		if (maximumBytes <= 0) {
+			throw new IllegalArgumentException("Invalid maximum bytes: "
+					+ maximumBytes);
+		}
+		if (concurrencyLevel <= 0) {
+			throw new IllegalArgumentException("Invalid concurrency level: "
+					+ concurrencyLevel);
+		}
+		this.maximumBytes = maximumBytes;
+		this.deepSize = deepSize;
+		this.filters = filters == null ? new FlipObjectFilter[0] : filters
+				.clone();
+
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel
+				&& segmentCount < MAXIMUM_SEGMENTS
+				&& maximumBytes / (segmentCount << 1) >= MINIMUM_SEGMENT_BYTES) {
+			segmentCount <<= 1;
+		}
+		@SuppressWarnings("unchecked")
+		Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment<K, V>(maximumBytes / segmentCount);
+		}
+		this.segments = segments;
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+	}
+
+	/**
+	 * Gets the value of a key, counting a use of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key or null if it's not cached
+	 * @throws NullPointerException
+	 *             if the key is null
+	 */
+	public V get(Object key) {
+		int hash = hash(key);
+		Segment<K, V> segment = segmentOf(hash);
+		synchronized (segment) {
+			return segment.get(key, hash);
+		}
+	}
+
+	/**
+	 * Caches a value, replacing the current value of its key if any. The
+	 * entry is weighed before locking its segment. If it's heavier than the
+	 * share of the budget of its segment, it's not cached and the current
+	 * value is removed. Otherwise other entries may be evicted to make room,
+	 * or the entry itself if its key is used less often than theirs.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value of the key or null if it was not cached
+	 * @throws NullPointerException
+	 *             if the key or the value is null
+	 */
+	public V put(K key, V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not supported.");
+		}
+		int hash = hash(key);
+		long keyWeight = weigh(key);
+		long valueWeight = weigh(value);
+		Segment<K, V> segment = segmentOf(hash);
+		synchronized (segment) {
+			return segment.put(key, hash, value, keyWeight, valueWeight);
+		}
+	}
+
+	/**
+	 * Removes a key from the cache.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key or null if it was not cached
+	 * @throws NullPointerException
+	 *             if the key is null
+	 */
+	public V remove(Object key) {
+		int hash = hash(key);
+		Segment<K, V> segment = segmentOf(hash);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all the entries. The frequencies of the keys are kept.
+	 */
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of cached entries. Not consistent if the cache is being
+	 * modified.
+	 *
+	 * @return the number of cached entries
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the sum of the weights of the cached entries, which never exceeds
+	 * the {@link #maximumBytes}. Not consistent if the cache is being
+	 * modified.
+	 *
+	 * @return the bytes held by the cache
+	 */
+	public long getUsedBytes() {
+		long usedBytes = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				usedBytes += segment.weight();
+			}
+		}
+		return usedBytes;
+	}
+
+	/**
+	 * Gets the {@link #maximumBytes}.
+	 *
+	 * @return the {@link #maximumBytes}
+	 */
+	public long getMaximumBytes() {
+		return maximumBytes;
+	}
+
+	/**
+	 * Gets the number of calls to {@link #get(Object)} which found a value.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		long hits = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Gets the number of calls to {@link #get(Object)} which found no value.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		long misses = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * Gets the number of entries evicted to keep the cache within its
+	 * budget, including the entries rejected on admission.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		long evictions = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				evictions += segment.evictions;
+			}
+		}
+		return evictions;
+	}
+
+	/**
+	 * Weighs a key or a value.
+	 *
+	 * @param object
+	 *            the object to weigh
+	 * @return the deep or shallow size of the object
+	 */
+	private long weigh(Object object) {
+		return deepSize ? Flip.deepSizeOf(object, filters) : Flip
+				.sizeOf(object);
+	}
+
+	/**
+	 * Finds the segment of a key from the high bits of its hash.
+	 *
+	 * @param hash
+	 *            the hash of the key
+	 * @return the segment of the key
+	 */
+	private Segment<K, V> segmentOf(int hash) {
+		return segmentShift == 32 ? segments[0]
+				: segments[hash >>> segmentShift];
+	}
+
+	/**
+	 * Computes the hash of a key, spreading the bits of its hash code.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the hash of the key
+	 * @throws NullPointerException
+	 *             if the key is null
+	 */
+	private static int hash(Object key) {
+		if (key == null) {
+			throw new NullPointerException("Null keys are not supported.");
+		}
+		return key.hashCode() * 0x9E3779B9;
+	}
+
+	/**
+	 * Computes the bytes used by the cache for each entry: its node and the
+	 * node of the {@link HashMap} indexing it.
+	 *
+	 * @return the bytes used for each entry
+	 */
+	private static long entryOverhead() {
+		Map<String, String> probe = new HashMap<String, String>();
+		probe.put("", "");
+		return Flip.sizeOf(new Node<String, String>(null, 0, null, 0, 0))
+				+ Flip.sizeOf(probe.entrySet().iterator().next());
+	}
+
+	/**
+	 * A part of the cache, with its own share of the budget. Not thread-safe,
+	 * all the calls are made holding its lock.
+	 *
+	 * @param <K>
+	 *            the type of the keys
+	 * @param <V>
+	 *            the type of the values
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static final class Segment<K, V> {
+
+		/**
+		 * Queue of the entries just added.
+		 */
+		private static final int WINDOW = 0;
+
+		/**
+		 * Queue of the entries admitted into the main area and not used
+		 * since.
+		 */
+		private static final int PROBATION = 1;
+
+		/**
+		 * Queue of the entries used while in the main area.
+		 */
+		private static final int PROTECTED = 2;
+
+		/**
+		 * Maximum bytes held by the segment.
+		 */
+		private final long capacity;
+
+		/**
+		 * Maximum bytes of the window, 1% of the {@link #capacity}.
+		 */
+		private final long maximumWindow;
+
+		/**
+		 * Maximum bytes of the protected queue, 80% of the main area.
+		 */
+		private final long maximumProtected;
+
+		/**
+		 * The entries by key.
+		 */
+		private final Map<Object, Node<K, V>> map = new HashMap<Object, Node<K, V>>();
+
+		/**
+		 * Recent frequencies of the keys.
+		 */
+		private final FlipFrequencySketch sketch = new FlipFrequencySketch();
+
+		/**
+		 * Sentinels of the queues, from the most recently used entry to the
+		 * least recently used one.
+		 */
+		private final Node<K, V>[] queues;
+
+		/**
+		 * Bytes held by each queue.
+		 */
+		private final long[] queueWeights = new long[3];
+
+		/**
+		 * Number of hits.
+		 */
+		private long hits;
+
+		/**
+		 * Number of misses.
+		 */
+		private long misses;
+
+		/**
+		 * Number of evictions.
+		 */
+		private long evictions;
+
+		/**
+		 * Instantiates a new Segment.
+		 *
+		 * @param capacity
+		 *            the {@link #capacity}
+		 */
+		private Segment(long capacity) {
+			this.capacity = capacity;
+			this.maximumWindow = capacity / 100;
+			this.maximumProtected = (capacity - maximumWindow) / 10 * 8;
+			@SuppressWarnings("unchecked")
+			Node<K, V>[] queues = (Node<K, V>[]) new Node<?, ?>[3];
+			this.queues = queues;
+			for (int i = 0; i < queues.length; i++) {
+				queues[i] = new Node<K, V>(null, 0, null, 0, 0);
+				queues[i].previous = queues[i];
+				queues[i].next = queues[i];
+			}
+		}
+
+		/**
+		 * Gets the value of a key.
+		 *
+		 * @param key
+		 *            the key
+		 * @param hash
+		 *            the hash of the key
+		 * @return the value of the key or null if it's not cached
+		 */
+		private V get(Object key, int hash) {
+			sketch.increment(hash);
+			Node<K, V> node = map.get(key);
+			if (node == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			onAccess(node);
+			return node.value;
+		}
+
+		/**
+		 * Caches a value.
+		 *
+		 * @param key
+		 *            the key
+		 * @param hash
+		 *            the hash of the key
+		 * @param value
+		 *            the value
+		 * @param keyWeight
+		 *            the size of the key
+		 * @param valueWeight
+		 *            the size of the value
+		 * @return the previous value of the key or null if it was not cached
+		 */
+		private V put(K key, int hash, V value, long keyWeight,
+				long valueWeight) {
+			sketch.increment(hash);
+			Node<K, V> node = map.get(key);
+			if (node != null) {
+				// Keeps the weight of the key measured on insert.
+				V previous = node.value;
+				long weight = node.keyWeight + valueWeight + ENTRY_OVERHEAD;
+				if (weight > capacity) {
+					remove(key);
+					return previous;
+				}
+				node.value = value;
+				queueWeights[node.queue] += weight - node.weight;
+				node.weight = weight;
+				onAccess(node);
+				evict();
+				return previous;
+			}
+
+			long weight = keyWeight + valueWeight + ENTRY_OVERHEAD;
+			if (weight > capacity) {
+				return null;
+			}
+			node = new Node<K, V>(key, hash, value, keyWeight, weight);
+			map.put(key, node);
+			sketch.ensureCapacity(map.size());
+			link(node, WINDOW);
+			evict();
+			return null;
+		}
+
+		/**
+		 * Removes a key.
+		 *
+		 * @param key
+		 *            the key
+		 * @return the value of the key or null if it was not cached
+		 */
+		private V remove(Object key) {
+			Node<K, V> node = map.remove(key);
+			if (node == null) {
+				return null;
+			}
+			unlink(node);
+			return node.value;
+		}
+
+		/**
+		 * Removes all the entries.
+		 */
+		private void clear() {
+			map.clear();
+			for (int i = 0; i < queues.length; i++) {
+				queues[i].previous = queues[i];
+				queues[i].next = queues[i];
+				queueWeights[i] = 0;
+			}
+		}
+
+		/**
+		 * Gets the bytes held by the segment.
+		 *
+		 * @return the bytes held by the segment
+		 */
+		private long weight() {
+			return queueWeights[WINDOW] + queueWeights[PROBATION]
+					+ queueWeights[PROTECTED];
+		}
+
+		/**
+		 * Moves an entry which has been used, promoting it to the protected
+		 * queue if it was in probation.
+		 *
+		 * @param node
+		 *            the entry
+		 */
+		private void onAccess(Node<K, V> node) {
+			int queue = node.queue == PROBATION ? PROTECTED : node.queue;
+			unlink(node);
+			link(node, queue);
+
+			// Demotes the least recently used protected entries.
+			while (queueWeights[PROTECTED] > maximumProtected) {
+				Node<K, V> demoted = last(PROTECTED);
+				unlink(demoted);
+				link(demoted, PROBATION);
+			}
+		}
+
+		/**
+		 * Brings the segment back within its budget. The entries leaving the
+		 * window are admitted into the main area only if they are used more
+		 * often than the entries they would evict.
+		 */
+		private void evict() {
+			while (queueWeights[WINDOW] > maximumWindow) {
+				Node<K, V> candidate = last(WINDOW);
+				unlink(candidate);
+				admit(candidate);
+			}
+
+			// Replaced values may have grown.
+			while (weight() > capacity) {
+				Node<K, V> victim = last(PROBATION);
+				if (victim == null) {
+					victim = last(PROTECTED);
+				}
+				if (victim == null) {
+					victim = last(WINDOW);
+				}
+				evict(victim);
+			}
+		}
+
+		/**
+		 * Admits an entry leaving the window into the probation queue,
+		 * evicting the least recently used entries of the main area as long
+		 * as they are used less often. If one is used as often or more, the
+		 * entry is evicted instead.
+		 *
+		 * @param candidate
+		 *            the entry leaving the window, already unlinked
+		 */
+		private void admit(Node<K, V> candidate) {
+			int frequency = sketch.frequency(candidate.hash);
+			while (weight() + candidate.weight > capacity) {
+				Node<K, V> victim = last(PROBATION);
+				if (victim == null) {
+					victim = last(PROTECTED);
+				}
+				if (victim == null) {
+					break;
+				}
+				if (frequency <= sketch.frequency(victim.hash)) {
+					map.remove(candidate.key);
+					evictions++;
+					return;
+				}
+				evict(victim);
+			}
+			link(candidate, PROBATION);
+		}
+
+		/**
+		 * Evicts an entry.
+		 *
+		 * @param node
+		 *            the entry
+		 */
+		private void evict(Node<K, V> node) {
+			unlink(node);
+			map.remove(node.key);
+			evictions++;
+		}
+
+		/**
+		 * Gets the least recently used entry of a queue.
+		 *
+		 * @param queue
+		 *            the queue
+		 * @return the least recently used entry or null if the queue is
+		 *         empty
+		 */
+		private Node<K, V> last(int queue) {
+			Node<K, V> sentinel = queues[queue];
+			return sentinel.previous == sentinel ? null : sentinel.previous;
+		}
+
+		/**
+		 * Adds an entry to a queue as the most recently used one.
+		 *
+		 * @param node
+		 *            the entry, not in any queue
+		 * @param queue
+		 *            the queue
+		 */
+		private void link(Node<K, V> node, int queue) {
+			Node<K, V> sentinel = queues[queue];
+			node.queue = queue;
+			node.previous = sentinel;
+			node.next = sentinel.next;
+			sentinel.next.previous = node;
+			sentinel.next = node;
+			queueWeights[queue] += node.weight;
+		}
+
+		/**
+		 * Removes an entry from its queue.
+		 *
+		 * @param node
+		 *            the entry
+		 */
+		private void unlink(Node<K, V> node) {
+			node.previous.next = node.next;
+			node.next.previous = node.previous;
+			node.previous = null;
+			node.next = null;
+			queueWeights[node.queue] -= node.weight;
+		}
+
+	}
+
+	/**
+	 * An entry of the cache, linked in the queue of its segment.
+	 *
+	 * @param <K>
+	 *            the type of the key
+	 * @param <V>
+	 *            the type of the value
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static final class Node<K, V> {
+
+		/**
+		 * The key.
+		 */
+		private final K key;
+
+		/**
+		 * The hash of the key.
+		 */
+		private final int hash;
+
+		/**
+		 * The value.
+		 */
+		private V value;
+
+		/**
+		 * The size of the key.
+		 */
+		private final long keyWeight;
+
+		/**
+		 * The size of the whole entry.
+		 */
+		private long weight;
+
+		/**
+		 * The queue holding the entry.
+		 */
+		private int queue;
+
+		/**
+		 * The more recently used entry in the queue.
+		 */
+		private Node<K, V> previous;
+
+		/**
+		 * The less recently used entry in the queue.
+		 */
+		private Node<K, V> next;
+
+		/**
+		 * Instantiates a new Node.
+		 *
+		 * @param key
+		 *            the {@link #key}
+		 * @param hash
+		 *            the {@link #hash}
+		 * @param value
+		 *            the {@link #value}
+		 * @param keyWeight
+		 *            the {@link #keyWeight}
+		 * @param weight
+		 *            the {@link #weight}
+		 */
+		private Node(K key, int hash, V value, long keyWeight, long weight) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+			this.keyWeight = keyWeight;
+			this.weight = weight;
+		}
+
+	}
+
+}
@@ -0,0 +1,477 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the classes compiled by
+ * {@link Flip#dynamicClassDefinitions(Map, FlipClassCache)}, so that the same
+ * sources are compiled only once. Classes are looked up by name and by a hash
+ * of their sources, first in memory and then, if a
+ * directory is configured, on disk, so that the bytecode survives restarts.
+ * <p>
+ * Each file on disk holds its key and a hash of its content, which are
+ * checked when it's read, so that corrupt or misplaced files are ignored and
+ * compiled again. The hash doesn't make the files trustworthy though: the
+ * bytecode read is defined as is, so the directory must be private to the
+ * process, since whoever can write to it can run code in it.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipClassCache {
+
+	/**
+	 * Extension of the files stored in the {@link #directory}.
+	 */
+	private static final String FILE_EXTENSION = ".bytecode";
+
+	/**
+	 * Hash of what the compiled bytecode depends on besides the sources: the
+	 * JDK whose compiler is used, the compiler options and the classpath.
+	 */
+	private static final byte[] COMPILER_FINGERPRINT = fingerprintCompiler();
+
+	/**
+	 * Classes cached in memory, by key.
+	 */
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Directory where the bytecode is persisted, null if disabled.
+	 */
+	private final Path directory;
+
+	/**
+	 * Number of lookups which found the class in memory.
+	 */
+	private final AtomicLong memoryHits = new AtomicLong();
+
+	/**
+	 * Number of lookups which found the class on disk.
+	 */
+	private final AtomicLong diskHits = new AtomicLong();
+
+	/**
+	 * Number of lookups which didn't find the class.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Compilation time saved by the hits, in nanoseconds.
+	 */
+	private final AtomicLong savedCompileNanos = new AtomicLong();
+
+	/**
+	 * Instantiates a new FlipClassCache which only keeps classes in memory.
+	 */
+	public FlipClassCache() {
+		this.directory = null;
+	}
+
+	/**
+	 * Instantiates a new FlipClassCache which also persists the bytecode in a
+	 * directory.
+	 *
+	 * @param directory
+	 *            the {@link #directory}, created if it doesn't exist, which
+	 *            must be writable by this process only
+	 */
+	public FlipClassCache(Path directory) {
+		try {
+			this.directory = Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new FlipException(
+					"Error while creating the class cache directory "
+							+ directory, e);
+		}
+	}
+
+	/**
+	 * Computes the key of a group of classes compiled together, made of the
+	 * name of the first class and an hash of all the names and sources, and of
+	 * the {@link #COMPILER_FINGERPRINT}.
+	 *
+	 * @param classSources
+	 *            the class sources, by binary class name
+	 * @return the key of the classes
+	 * @throws FlipException
+	 *             if there are no classes
+	 */
+	static String key(Map<String, String> classSources) {
+		if (classSources.isEmpty()) {
+			throw new FlipException("No classes to compile.");
+		}
+		MessageDigest digest = newDigest();
+		digest.update(COMPILER_FINGERPRINT);
+		SortedMap<String, String> sortedSources = new TreeMap<String, String>(
+				classSources);
+		for (Map.Entry<String, String> classSource : sortedSources.entrySet()) {
+			digest.update(classSource.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(classSource.getValue()
+					.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		StringBuilder key = new StringBuilder(sortedSources.firstKey());
+		if (sortedSources.size() > 1) {
+			key.append("-and-").append(sortedSources.size() - 1);
+		}
+		key.append('-');
+		for (byte b : digest.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+					Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Hashes what the compiled bytecode depends on besides the sources.
+	 *
+	 * @return the hash
+	 */
+	private static byte[] fingerprintCompiler() {
+		MessageDigest digest = newDigest();
+		String[] parts = { System.getProperty("java.vendor"),
+				System.getProperty("java.runtime.version",
+						System.getProperty("java.version")),
+				FlipCompilerPool.OPTIONS.toString(),
+				System.getProperty("java.class.path") };
+		for (String part : parts) {
+			digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Creates the digest used to hash the sources.
+	 *
+	 * @return a new digest
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new FlipException("Error while hashing the class source", e);
+		}
+	}
+
+	/**
+	 * Looks a class up, first in memory and then on disk.
+	 *
+	 * @param key
+	 *            the key of the class
+	 * @return the cached class or null if not found
+	 */
+	Entry get(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			memoryHits.incrementAndGet();
+			savedCompileNanos.addAndGet(entry.compileNanos);
+			return entry;
+		}
+
+		entry = load(key);
+		if (entry != null) {
+			Entry previous = entries.putIfAbsent(key, entry);
+			if (previous != null) {
+				entry = previous;
+			}
+			diskHits.incrementAndGet();
+			savedCompileNanos.addAndGet(entry.compileNanos);
+			return entry;
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Caches a group of classes compiled together, persisting them if a
+	 * directory is configured.
+	 *
+	 * @param key
+	 *            the key of the classes
+	 * @param classFiles
+	 *            the compiled classes, by binary class name
+	 * @param compileNanos
+	 *            how long the compilation took
+	 * @return the cached classes
+	 */
+	Entry put(String key, Map<String, byte[]> classFiles, long compileNanos) {
+		Entry entry = new Entry(classFiles, compileNanos);
+		Entry previous = entries.putIfAbsent(key, entry);
+		if (previous != null) {
+			return previous;
+		}
+		store(key, entry);
+		return entry;
+	}
+
+	/**
+	 * Reads a class from the {@link #directory}, checking that the file holds
+	 * the same key and that its content matches its hash.
+	 *
+	 * @param key
+	 *            the key of the class
+	 * @return the class read or null if not found or not valid
+	 */
+	private Entry load(String key) {
+		if (directory == null) {
+			return null;
+		}
+		Path file = directory.resolve(key + FILE_EXTENSION);
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file)))) {
+			long fileSize = Files.size(file);
+			if (!key.equals(input.readUTF())) {
+				return null;
+			}
+			long compileNanos = input.readLong();
+			int classCount = input.readInt();
+			Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+			for (int i = 0; i < classCount; i++) {
+				String className = input.readUTF();
+				int length = input.readInt();
+				if (length < 0 || length > fileSize) {
+					return null;
+				}
+				byte[] bytecode = new byte[length];
+				input.readFully(bytecode);
+				classFiles.put(className, bytecode);
+			}
+			byte[] hash = new byte[32];
+			input.readFully(hash);
+			if (input.read() != -1
+					|| !Arrays.equals(hash, hash(key, classFiles))) {
+				return null;
+			}
+			return new Entry(classFiles, compileNanos);
+		} catch (EOFException | UTFDataFormatException e) {
+			// Truncated or not written by this cache.
+			return null;
+		} catch (IOException e) {
+			throw new FlipException("Error while reading cached class " + file,
+					e);
+		}
+	}
+
+	/**
+	 * Writes a class in the {@link #directory}. The class is first written to
+	 * a temporary file which is then moved, so that concurrent readers never
+	 * see a partial file.
+	 *
+	 * @param key
+	 *            the key of the class
+	 * @param entry
+	 *            the class to write
+	 */
+	private void store(String key, Entry entry) {
+		if (directory == null) {
+			return;
+		}
+		Path file = directory.resolve(key + FILE_EXTENSION);
+		try {
+			Path temporaryFile = Files.createTempFile(directory, key,
+					FILE_EXTENSION);
+			try (DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(
+							Files.newOutputStream(temporaryFile)))) {
+				output.writeUTF(key);
+				output.writeLong(entry.compileNanos);
+				output.writeInt(entry.classFiles.size());
+				for (Map.Entry<String, byte[]> classFile : entry.classFiles
+						.entrySet()) {
+					output.writeUTF(classFile.getKey());
+					output.writeInt(classFile.getValue().length);
+					output.write(classFile.getValue());
+				}
+				output.write(hash(key, entry.classFiles));
+			}
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new FlipException("Error while writing cached class " + file,
+					e);
+		}
+	}
+
+	/**
+	 * Hashes the content of a file in the {@link #directory}.
+	 *
+	 * @param key
+	 *            the key of the classes
+	 * @param classFiles
+	 *            the compiled classes, by binary class name
+	 * @return the hash of the file content
+	 */
+	private static byte[] hash(String key, Map<String, byte[]> classFiles) {
+		MessageDigest digest = newDigest();
+		digest.update(key.getBytes(StandardCharsets.UTF_8));
+		for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+			digest.update((byte) 0);
+			digest.update(classFile.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(classFile.getValue());
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Gets the number of lookups which found the class in memory.
+	 *
+	 * @return the number of lookups which found the class in memory
+	 */
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	/**
+	 * Gets the number of lookups which found the class on disk.
+	 *
+	 * @return the number of lookups which found the class on disk
+	 */
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	/**
+	 * Gets the number of lookups which didn't find the class.
+	 *
+	 * @return the number of lookups which didn't find the class
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the compilation time saved by the hits, which is the sum of the
+	 * compilation times of the classes found.
+	 *
+	 * @return the compilation time saved, in nanoseconds
+	 */
+	public long getSavedCompileNanos() {
+		return savedCompileNanos.get();
+	}
+
+	/**
+	 * Gets the {@link #directory}.
+	 *
+	 * @return the {@link #directory}
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * A group of classes compiled together held by the cache.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	static final class Entry {
+
+		/**
+		 * The compiled classes, by binary class name.
+		 */
+		private final Map<String, byte[]> classFiles;
+
+		/**
+		 * How long the compilation took, in nanoseconds.
+		 */
+		private final long compileNanos;
+
+		/**
+		 * The classes defined from the {@link #classFiles}, null until then.
+		 */
+		private volatile Map<String, Class<?>> definedClasses;
+
+		/**
+		 * Instantiates a new Entry.
+		 *
+		 * @param classFiles
+		 *            the {@link #classFiles}
+		 * @param compileNanos
+		 *            the {@link #compileNanos}
+		 */
+		Entry(Map<String, byte[]> classFiles, long compileNanos) {
+			this.classFiles = classFiles;
+			this.compileNanos = compileNanos;
+		}
+
+		/**
+		 * Gets the {@link #classFiles}.
+		 *
+		 * @return the {@link #classFiles}
+		 */
+		Map<String, byte[]> getClassFiles() {
+			return classFiles;
+		}
+
+		/**
+		 * Gets the {@link #definedClasses}.
+		 *
+		 * @return the {@link #definedClasses}
+		 */
+		Map<String, Class<?>> getDefinedClasses() {
+			return definedClasses;
+		}
+
+		/**
+		 * Sets the {@link #definedClasses}.
+		 *
+		 * @param definedClasses
+		 *            the new {@link #definedClasses}
+		 */
+		void setDefinedClasses(Map<String, Class<?>> definedClasses) {
+			this.definedClasses = definedClasses;
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal reader of class files, which only extracts what's needed to define
+ * a group of classes in the right order.
+ * 
+ * @author Donato Rimenti
+ * @see <a
+ *      href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">The
+ *      class file format</a>
+ */
+final class FlipClassFiles {
+
+	/**
+	 * Constant pool tag of UTF-8 strings.
+	 */
+	private static final int CONSTANT_UTF8 = 1;
+
+	/**
+	 * Constant pool tag of classes.
+	 */
+	private static final int CONSTANT_CLASS = 7;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private FlipClassFiles() {
+	}
+
+	/**
+	 * Returns the binary names of the direct supertypes of a class, which are
+	 * its superclass and its interfaces. These must be defined before the
+	 * class itself.
+	 *
+	 * @param bytecode
+	 *            the class file
+	 * @return the binary names of the superclass, if any, and of the
+	 *         interfaces
+	 */
+	static String[] getSupertypes(byte[] bytecode) {
+		try {
+			DataInputStream input = new DataInputStream(
+					new ByteArrayInputStream(bytecode));
+			// Skips magic number and version.
+			input.readInt();
+			input.readInt();
+
+			// Reads the constant pool, keeping only strings and classes.
+			int constantPoolCount = input.readUnsignedShort();
+			String[] strings = new String[constantPoolCount];
+			int[] classNames = new int[constantPoolCount];
+			for (int i = 1; i < constantPoolCount; i++) {
+				int tag = input.readUnsignedByte();
+				switch (tag) {
+				case CONSTANT_UTF8:
+					strings[i] = input.readUTF();
+					break;
+				case CONSTANT_CLASS:
+					classNames[i] = input.readUnsignedShort();
+					break;
+				// String, MethodType, Module, Package.
+				case 8:
+				case 16:
+				case 19:
+				case 20:
+					input.skipBytes(2);
+					break;
+				// MethodHandle.
+				case 15:
+					input.skipBytes(3);
+					break;
+				// Integer, Float, refs, NameAndType, Dynamic, InvokeDynamic.
+				case 3:
+				case 4:
+				case 9:
+				case 10:
+				case 11:
+				case 12:
+				case 17:
+				case 18:
+					input.skipBytes(4);
+					break;
+				// Long and Double take two entries.
+				case 5:
+				case 6:
+					input.skipBytes(8);
+					i++;
+					break;
+				default:
+					throw new FlipException("Unknown constant pool tag " + tag);
+				}
+			}
+
+			// Skips access flags and this class.
+			input.readUnsignedShort();
+			input.readUnsignedShort();
+			int superClass = input.readUnsignedShort();
+			int interfacesCount = input.readUnsignedShort();
+			String[] supertypes = new String[interfacesCount
+					+ (superClass == 0 ? 0 : 1)];
+			int index = 0;
+			if (superClass != 0) {
+				supertypes[index++] = binaryName(strings[classNames[superClass]]);
+			}
+			for (int i = 0; i < interfacesCount; i++) {
+				supertypes[index++] = binaryName(strings[classNames[input
+						.readUnsignedShort()]]);
+			}
+			return supertypes;
+		} catch (IOException e) {
+			throw new FlipException("Error while reading a class file", e);
+		}
+	}
+
+	/**
+	 * Sorts a group of classes compiled together so that each class comes
+	 * after its superclass and interfaces, if they are in the group, and can
+	 * thus be defined in that order.
+	 *
+	 * @param classFiles
+	 *            the compiled classes, by binary class name
+	 * @return the binary class names, in definition order
+	 */
+	static List<String> inDefinitionOrder(Map<String, byte[]> classFiles) {
+		Set<String> sortedClassNames = new LinkedHashSet<String>();
+		for (String className : classFiles.keySet()) {
+			addInDefinitionOrder(className, classFiles, sortedClassNames);
+		}
+		return new ArrayList<String>(sortedClassNames);
+	}
+
+	/**
+	 * Adds a class to a sorted group, after its superclass and interfaces.
+	 *
+	 * @param className
+	 *            the binary name of the class to add
+	 * @param classFiles
+	 *            the compiled classes, by binary class name
+	 * @param sortedClassNames
+	 *            the binary class names sorted so far
+	 */
+	private static void addInDefinitionOrder(String className,
+			Map<String, byte[]> classFiles, Set<String> sortedClassNames) {
+		if (sortedClassNames.contains(className)) {
+			return;
+		}
+		for (String supertype : getSupertypes(classFiles.get(className))) {
+			if (classFiles.containsKey(supertype)) {
+				addInDefinitionOrder(supertype, classFiles, sortedClassNames);
+			}
+		}
+		sortedClassNames.add(className);
+	}
+
+	/**
+	 * Converts an internal class name to a binary one.
+	 *
+	 * @param internalName
+	 *            the internal name, with slashes as package separators
+	 * @return the binary name, with dots as package separators
+	 */
+	private static String binaryName(String internalName) {
+		return internalName.replace('/', '.');
+	}
+
+}
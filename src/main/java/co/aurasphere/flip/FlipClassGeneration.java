@@ -0,0 +1,224 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A generation of dynamically defined classes, which can be unloaded all
+ * together. Classes defined by
+ * {@link Flip#dynamicClassDefinitions(Map, FlipClassCache)} live in the Flip
+ * class loader and are never unloaded, so a program which keeps generating
+ * classes eventually runs out of metaspace. Each generation instead defines
+ * its classes in its own class loader: once the generation is
+ * {@link #release() released} and its classes and their instances are no
+ * longer referenced, the garbage collector unloads them along with the
+ * loader.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipClassGeneration {
+
+	/**
+	 * Loader of the classes of this generation, null once released.
+	 */
+	private volatile FlipGenerationClassLoader classLoader;
+
+	/**
+	 * Cache of the compiled classes.
+	 */
+	private final FlipClassCache classCache;
+
+	/**
+	 * Classes already defined in this generation, by the
+	 * {@link FlipClassCache#key(Map) key} of their sources. A class can be
+	 * defined only once in a loader, so defining the same sources again
+	 * returns these.
+	 */
+	private final Map<String, Map<String, Class<?>>> definedClasses = new ConcurrentHashMap<String, Map<String, Class<?>>>();
+
+	/**
+	 * Instantiates a new FlipClassGeneration which loads its classes as
+	 * children of the Flip class loader and uses the default class cache.
+	 */
+	public FlipClassGeneration() {
+		this(Flip.class.getClassLoader(), Flip.getDefaultClassCache());
+	}
+
+	/**
+	 * Instantiates a new FlipClassGeneration.
+	 *
+	 * @param parent
+	 *            the class loader used to resolve the classes not defined by
+	 *            this generation
+	 * @param classCache
+	 *            the {@link #classCache}
+	 */
+	public FlipClassGeneration(ClassLoader parent, FlipClassCache classCache) {
+		this.classLoader = new FlipGenerationClassLoader(parent);
+		this.classCache = classCache;
+	}
+
+	/**
+	 * Creates a new class in this generation by compiling a String of source
+	 * code.
+	 * 
+	 * @param classPackage
+	 *            the new class package
+	 * @param className
+	 *            the new class name
+	 * @param classSource
+	 *            the new class source
+	 * @return a compiled class
+	 * @see Flip#dynamicClassDefinition(String, String, String)
+	 */
+	public Class<?> dynamicClassDefinition(String classPackage,
+			String className, String classSource) {
+		String binaryClassName = classPackage + "." + className;
+		return dynamicClassDefinitions(
+				Collections.singletonMap(binaryClassName, classSource)).get(
+				binaryClassName);
+	}
+
+	/**
+	 * Creates new classes in this generation by compiling many Strings of
+	 * source code in a single compilation. Compiled classes are cached, so
+	 * defining the same sources in a new generation doesn't compile them
+	 * again, while defining them again in the same generation returns the
+	 * classes already defined.
+	 * 
+	 * @param classSources
+	 *            the new classes sources, by fully qualified class name
+	 * @return all the compiled classes, by binary class name
+	 * @throws FlipException
+	 *             if the generation has been released or if another source
+	 *             already defined one of the classes in this generation
+	 * @see Flip#dynamicClassDefinitions(Map)
+	 */
+	public Map<String, Class<?>> dynamicClassDefinitions(
+			Map<String, String> classSources) {
+		FlipGenerationClassLoader loader = classLoader;
+		if (loader == null) {
+			throw new FlipException("Class generation already released.");
+		}
+		String key = FlipClassCache.key(classSources);
+		Map<String, Class<?>> classes = definedClasses.get(key);
+		if (classes != null) {
+			return classes;
+		}
+		Map<String, byte[]> classFiles = Flip.compile(classSources, classCache)
+				.getClassFiles();
+
+		// Defines the classes, unless another thread did it meanwhile.
+		synchronized (definedClasses) {
+			classes = definedClasses.get(key);
+			if (classes == null) {
+				classes = new LinkedHashMap<String, Class<?>>();
+				for (String className : FlipClassFiles
+						.inDefinitionOrder(classFiles)) {
+					byte[] bytecode = classFiles.get(className);
+					classes.put(className, loader.define(className, bytecode));
+				}
+				classes = Collections.unmodifiableMap(classes);
+				definedClasses.put(key, classes);
+			}
+			return classes;
+		}
+	}
+
+	/**
+	 * Releases this generation, so that its classes can be unloaded as soon
+	 * as they and their instances are no longer referenced. No more classes
+	 * can be defined in a released generation.
+	 */
+	public void release() {
+		classLoader = null;
+		definedClasses.clear();
+	}
+
+	/**
+	 * Checks if this generation has been released.
+	 *
+	 * @return true, if this generation has been released, false otherwise
+	 */
+	public boolean isReleased() {
+		return classLoader == null;
+	}
+
+	/**
+	 * Class loader of a generation. It's parallel capable, so that classes of
+	 * different generations, or different classes of the same generation, can
+	 * be loaded concurrently.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static final class FlipGenerationClassLoader extends ClassLoader {
+
+		/**
+		 * Registers the loader as parallel capable.
+		 */
+		static {
+			registerAsParallelCapable();
+		}
+
+		/**
+		 * Instantiates a new FlipGenerationClassLoader.
+		 *
+		 * @param parent
+		 *            the parent class loader
+		 */
+		FlipGenerationClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		/**
+		 * Defines a class in this loader.
+		 *
+		 * @param className
+		 *            the binary name of the class
+		 * @param bytecode
+		 *            the compiled class
+		 * @return the defined class
+		 * @throws FlipException
+		 *             if a class with the same name has already been defined
+		 *             in this loader
+		 */
+		Class<?> define(String className, byte[] bytecode) {
+			synchronized (getClassLoadingLock(className)) {
+				if (findLoadedClass(className) != null) {
+					throw new FlipException("Class " + className
+							+ " already defined in this generation.");
+				}
+				return defineClass(className, bytecode, 0, bytecode.length,
+						Flip.class.getProtectionDomain());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,533 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import sun.misc.Unsafe;
+
+/**
+ * Memory layout of a class, computed once and cached for the lifetime of the
+ * class. The layout holds the offsets of all the non-static fields declared
+ * by the class and its superclasses and the resulting instance size, so that
+ * the Flip operations that depend on them don't need to use reflection more
+ * than once per class.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipClassLayout {
+
+	/**
+	 * Cache of the layouts, one for each class.
+	 */
+	private static final ClassValue<FlipClassLayout> LAYOUTS = new ClassValue<FlipClassLayout>() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.ClassValue#computeValue(java.lang.Class)
+		 */
+		@Override
+		protected FlipClassLayout computeValue(Class<?> type) {
+			return new FlipClassLayout(type);
+		}
+	};
+
+	/**
+	 * The class described by this layout.
+	 */
+	private final Class<?> type;
+
+	/**
+	 * Non-static fields of the class and its superclasses.
+	 */
+	private final Field[] fields;
+
+	/**
+	 * Offsets of the {@link #fields}, in the same order.
+	 */
+	private final long[] fieldOffsets;
+
+	/**
+	 * Offsets of the {@link #fields} which hold references.
+	 */
+	private final long[] referenceOffsets;
+
+	/**
+	 * True if the class is an array of references.
+	 */
+	private final boolean objectArray;
+
+	/**
+	 * The shallow size of an instance of the class, padding included. For
+	 * arrays, this is the size of an empty array.
+	 */
+	private final long instanceSize;
+
+	/**
+	 * Offsets of the memory accesses which copy the fields of an instance,
+	 * from the end of the header to the end of the instance.
+	 */
+	private final long[] copyOffsets;
+
+	/**
+	 * Widths of the memory accesses which copy the fields of an instance, in
+	 * the same order as {@link #copyOffsets}. A width of 0 stands for a
+	 * reference.
+	 */
+	private final byte[] copyWidths;
+
+	/**
+	 * Offset of the first element if the class is an array, 0 otherwise.
+	 */
+	private final long arrayBaseOffset;
+
+	/**
+	 * Size of an element if the class is an array, 0 otherwise.
+	 */
+	private final long arrayIndexScale;
+
+	/**
+	 * Instantiates a new FlipClassLayout.
+	 *
+	 * @param type
+	 *            the {@link #type}
+	 */
+	private FlipClassLayout(Class<?> type) {
+		Unsafe unsafe = Flip.getUnsafe();
+		this.type = type;
+		this.objectArray = type.isArray()
+				&& !type.getComponentType().isPrimitive();
+
+		// Goes through all non-static fields of each superclass.
+		List<Field> fieldList = new ArrayList<Field>();
+		Class<?> klass = type;
+		while (klass != null && klass != Object.class) {
+			for (Field field : klass.getDeclaredFields()) {
+				if ((field.getModifiers() & Modifier.STATIC) == 0) {
+					fieldList.add(field);
+				}
+			}
+			klass = klass.getSuperclass();
+		}
+		this.fields = fieldList.toArray(new Field[fieldList.size()]);
+
+		// Gets the offsets and where the last field ends.
+		this.fieldOffsets = new long[fields.length];
+		long[] references = new long[fields.length];
+		int referenceCount = 0;
+		long fieldsEnd = FlipSystemInformation.getJvmLayout().getHeaderSize();
+		for (int i = 0; i < fields.length; i++) {
+			long offset = unsafe.objectFieldOffset(fields[i]);
+			fieldOffsets[i] = offset;
+			Class<?> fieldType = fields[i].getType();
+			if (!fieldType.isPrimitive()) {
+				references[referenceCount++] = offset;
+			}
+			long fieldEnd = offset + widthOf(fieldType);
+			if (fieldEnd > fieldsEnd) {
+				fieldsEnd = fieldEnd;
+			}
+		}
+		this.referenceOffsets = Arrays.copyOf(references, referenceCount);
+
+		// Arrays have no fields, their size depends on their length.
+		if (type.isArray()) {
+			this.arrayBaseOffset = unsafe.arrayBaseOffset(type);
+			this.arrayIndexScale = unsafe.arrayIndexScale(type);
+			this.instanceSize = align(arrayBaseOffset);
+		} else {
+			this.arrayBaseOffset = 0;
+			this.arrayIndexScale = 0;
+			this.instanceSize = align(fieldsEnd);
+		}
+
+		// Plans the copy of the fields once for all the copies.
+		List<long[]> copyPlan = copyPlan(FlipSystemInformation.getJvmLayout()
+				.getHeaderSize(), isArray() ? 0 : instanceSize);
+		this.copyOffsets = new long[copyPlan.size()];
+		this.copyWidths = new byte[copyPlan.size()];
+		for (int i = 0; i < copyOffsets.length; i++) {
+			copyOffsets[i] = copyPlan.get(i)[0];
+			copyWidths[i] = (byte) copyPlan.get(i)[1];
+		}
+	}
+
+	/**
+	 * Plans how to copy the fields of an instance with as few memory accesses
+	 * as possible. Primitive fields and padding are copied in the widest
+	 * aligned chunks which don't overlap a reference, while references are
+	 * copied one by one, so that the garbage collector barriers run for each
+	 * of them.
+	 *
+	 * @param start
+	 *            the offset where the copy starts, the end of the header
+	 * @param end
+	 *            the offset where the copy ends
+	 * @return the offset and width of each memory access, a width of 0
+	 *         standing for a reference
+	 */
+	private List<long[]> copyPlan(long start, long end) {
+		List<long[]> plan = new ArrayList<long[]>();
+		long referenceSize = FlipSystemInformation.getJvmLayout()
+				.getReferenceSize();
+		long offset = start;
+		while (offset < end) {
+			if (isReference(offset)) {
+				plan.add(new long[] { offset, 0 });
+				offset += referenceSize;
+				continue;
+			}
+			long width = 8;
+			while (offset % width != 0 || offset + width > end
+					|| overlapsReference(offset, width, referenceSize)) {
+				width >>= 1;
+			}
+			plan.add(new long[] { offset, width });
+			offset += width;
+		}
+		return plan;
+	}
+
+	/**
+	 * Checks if a memory range overlaps a reference field.
+	 *
+	 * @param offset
+	 *            the start of the range
+	 * @param width
+	 *            the width of the range
+	 * @param referenceSize
+	 *            the size of a reference
+	 * @return true, if the range overlaps a reference, false otherwise
+	 */
+	private boolean overlapsReference(long offset, long width,
+			long referenceSize) {
+		for (long referenceOffset : referenceOffsets) {
+			if (referenceOffset < offset + width
+					&& offset < referenceOffset + referenceSize) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a reference field starts at an offset.
+	 *
+	 * @param offset
+	 *            the offset to check
+	 * @return true, if a reference field starts at the offset, false
+	 *         otherwise
+	 */
+	private boolean isReference(long offset) {
+		for (long referenceOffset : referenceOffsets) {
+			if (referenceOffset == offset) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns how many bytes a field of a given type takes in memory.
+	 *
+	 * @param fieldType
+	 *            the type of the field
+	 * @return the width of the field
+	 */
+	static long widthOf(Class<?> fieldType) {
+		if (fieldType == long.class || fieldType == double.class) {
+			return 8;
+		}
+		if (fieldType == int.class || fieldType == float.class) {
+			return 4;
+		}
+		if (fieldType == short.class || fieldType == char.class) {
+			return 2;
+		}
+		if (fieldType == byte.class || fieldType == boolean.class) {
+			return 1;
+		}
+		// References can be compressed.
+		return FlipSystemInformation.getJvmLayout().getReferenceSize();
+	}
+
+	/**
+	 * Rounds a size up to the object alignment of the JVM.
+	 *
+	 * @param size
+	 *            the size to align
+	 * @return the aligned size
+	 */
+	static long align(long size) {
+		return FlipSystemInformation.getJvmLayout().align(size);
+	}
+
+	/**
+	 * Returns the layout of a class, computing it on the first call.
+	 *
+	 * @param type
+	 *            the class whose layout is needed
+	 * @return the layout of the class
+	 */
+	static FlipClassLayout of(Class<?> type) {
+		return LAYOUTS.get(type);
+	}
+
+	/**
+	 * Gets the {@link #type}.
+	 *
+	 * @return the {@link #type}
+	 */
+	Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * Copies the fields of an instance of the class to native memory, header
+	 * excluded, following the same plan as
+	 * {@link #copyFields(Object, Object)}. The class must have no reference
+	 * fields.
+	 *
+	 * @param source
+	 *            the instance to copy from
+	 * @param address
+	 *            the address where the end of the header is copied
+	 */
+	void copyToMemory(Object source, long address) {
+		Unsafe unsafe = Flip.getUnsafe();
+		long base = address - FlipSystemInformation.getJvmLayout().getHeaderSize();
+		long[] offsets = copyOffsets;
+		byte[] widths = copyWidths;
+		for (int i = 0; i < offsets.length; i++) {
+			long offset = offsets[i];
+			switch (widths[i]) {
+			case 8:
+				unsafe.putLong(base + offset, unsafe.getLong(source, offset));
+				break;
+			case 4:
+				unsafe.putInt(base + offset, unsafe.getInt(source, offset));
+				break;
+			case 2:
+				unsafe.putShort(base + offset, unsafe.getShort(source, offset));
+				break;
+			case 1:
+				unsafe.putByte(base + offset, unsafe.getByte(source, offset));
+				break;
+			default:
+				throw new FlipException("Can't copy references to memory.");
+			}
+		}
+	}
+
+	/**
+	 * Copies the fields of an instance of the class from native memory
+	 * written by {@link #copyToMemory(Object, long)}, leaving the header of
+	 * the target untouched. The class must have no reference fields.
+	 *
+	 * @param address
+	 *            the address of the copied fields
+	 * @param target
+	 *            the instance to copy to
+	 */
+	void copyFromMemory(long address, Object target) {
+		Unsafe unsafe = Flip.getUnsafe();
+		long base = address - FlipSystemInformation.getJvmLayout().getHeaderSize();
+		long[] offsets = copyOffsets;
+		byte[] widths = copyWidths;
+		for (int i = 0; i < offsets.length; i++) {
+			long offset = offsets[i];
+			switch (widths[i]) {
+			case 8:
+				unsafe.putLong(target, offset, unsafe.getLong(base + offset));
+				break;
+			case 4:
+				unsafe.putInt(target, offset, unsafe.getInt(base + offset));
+				break;
+			case 2:
+				unsafe.putShort(target, offset, unsafe.getShort(base + offset));
+				break;
+			case 1:
+				unsafe.putByte(target, offset, unsafe.getByte(base + offset));
+				break;
+			default:
+				throw new FlipException("Can't copy references from memory.");
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of non-static fields of the class.
+	 *
+	 * @return the number of non-static fields of the class
+	 */
+	int getFieldCount() {
+		return fields.length;
+	}
+
+	/**
+	 * Gets a non-static field of the class.
+	 *
+	 * @param index
+	 *            the index of the field
+	 * @return the field at the given index
+	 */
+	Field getField(int index) {
+		return fields[index];
+	}
+
+	/**
+	 * Gets the offset of a non-static field of the class.
+	 *
+	 * @param index
+	 *            the index of the field
+	 * @return the offset of the field at the given index
+	 */
+	long getFieldOffset(int index) {
+		return fieldOffsets[index];
+	}
+
+	/**
+	 * Gets the number of non-static fields of the class which hold
+	 * references.
+	 *
+	 * @return the number of non-static fields of the class which hold
+	 *         references
+	 */
+	int getReferenceCount() {
+		return referenceOffsets.length;
+	}
+
+	/**
+	 * Gets the offset of a non-static field of the class which holds a
+	 * reference.
+	 *
+	 * @param index
+	 *            the index of the reference field
+	 * @return the offset of the reference field at the given index
+	 */
+	long getReferenceOffset(int index) {
+		return referenceOffsets[index];
+	}
+
+	/**
+	 * Checks if the class is an array of references.
+	 *
+	 * @return true, if the class is an array of references, false otherwise
+	 */
+	boolean isObjectArray() {
+		return objectArray;
+	}
+
+	/**
+	 * Checks if the class is an array.
+	 *
+	 * @return true, if the class is an array, false otherwise
+	 */
+	boolean isArray() {
+		return arrayIndexScale != 0;
+	}
+
+	/**
+	 * Returns the shallow size of an instance of the class. For objects, this
+	 * is the {@link #instanceSize}, while for arrays it also depends on the
+	 * length.
+	 *
+	 * @param object
+	 *            an instance of the class
+	 * @return the shallow size of the object
+	 */
+	long sizeOf(Object object) {
+		if (arrayIndexScale == 0) {
+			return instanceSize;
+		}
+		return align(arrayBaseOffset + arrayIndexScale
+				* (long) Array.getLength(object));
+	}
+
+	/**
+	 * Copies the fields of an instance of the class into another one, leaving
+	 * the header of the target untouched. Primitive fields are copied in
+	 * chunks of up to a word, while references are written one by one, so
+	 * that the garbage collector keeps track of both the references written
+	 * and the ones overwritten. Arrays are copied element by element and must
+	 * have the same length.
+	 *
+	 * @param source
+	 *            the instance to copy from
+	 * @param target
+	 *            the instance to copy to
+	 */
+	void copyFields(Object source, Object target) {
+		if (arrayIndexScale != 0) {
+			int length = Array.getLength(source);
+			if (Array.getLength(target) != length) {
+				throw new FlipException("Can't copy an array of length "
+						+ length + " into one of length "
+						+ Array.getLength(target) + ".");
+			}
+			System.arraycopy(source, 0, target, 0, length);
+			return;
+		}
+		Unsafe unsafe = Flip.getUnsafe();
+		long[] offsets = copyOffsets;
+		byte[] widths = copyWidths;
+		for (int i = 0; i < offsets.length; i++) {
+			long offset = offsets[i];
+			switch (widths[i]) {
+			case 8:
+				unsafe.putLong(target, offset, unsafe.getLong(source, offset));
+				break;
+			case 4:
+				unsafe.putInt(target, offset, unsafe.getInt(source, offset));
+				break;
+			case 2:
+				unsafe.putShort(target, offset, unsafe.getShort(source, offset));
+				break;
+			case 1:
+				unsafe.putByte(target, offset, unsafe.getByte(source, offset));
+				break;
+			default:
+				unsafe.putObject(target, offset,
+						unsafe.getObject(source, offset));
+			}
+		}
+	}
+
+	/**
+	 * Gets the {@link #instanceSize}.
+	 *
+	 * @return the {@link #instanceSize}
+	 */
+	long getInstanceSize() {
+		return instanceSize;
+	}
+
+}
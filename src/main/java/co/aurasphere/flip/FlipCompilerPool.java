@@ -0,0 +1,269 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Pool of compilers used by
+ * {@link Flip#dynamicClassDefinitions(Map, FlipClassCache)}. The system
+ * compiler is looked up once and its standard file managers, which are
+ * expensive to create since they scan the platform classpath, are kept warm
+ * and reused. Compilations can run concurrently, up to a fixed number, while
+ * the others wait for their turn. The compiler output is collected rather than
+ * printed, and the errors are reported in the {@link FlipException} thrown
+ * when a compilation fails.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipCompilerPool {
+
+	/**
+	 * Options passed to the compiler, which are part of the keys of the
+	 * {@link FlipClassCache}.
+	 */
+	static final List<String> OPTIONS = Collections.emptyList();
+
+	/**
+	 * Maximum number of compilations running at the same time.
+	 */
+	private final int maxParallelCompilations;
+
+	/**
+	 * Permits to run a compilation.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * File managers not in use.
+	 */
+	private final BlockingQueue<StandardJavaFileManager> idleFileManagers = new LinkedBlockingQueue<StandardJavaFileManager>();
+
+	/**
+	 * The system compiler, looked up on the first compilation.
+	 */
+	private volatile JavaCompiler compiler;
+
+	/**
+	 * Number of compilations run.
+	 */
+	private final AtomicLong compilations = new AtomicLong();
+
+	/**
+	 * Time spent by compilations waiting for their turn, in nanoseconds.
+	 */
+	private final AtomicLong queueNanos = new AtomicLong();
+
+	/**
+	 * Longest time spent by a compilation waiting for its turn, in
+	 * nanoseconds.
+	 */
+	private final AtomicLong maxQueueNanos = new AtomicLong();
+
+	/**
+	 * Instantiates a new FlipCompilerPool.
+	 *
+	 * @param maxParallelCompilations
+	 *            the {@link #maxParallelCompilations}
+	 */
+	public FlipCompilerPool(int maxParallelCompilations) {
+		if (maxParallelCompilations < 1) {
+			throw new IllegalArgumentException(
+					"At least one compilation must be allowed to run.");
+		}
+		this.maxParallelCompilations = maxParallelCompilations;
+		this.permits = new Semaphore(maxParallelCompilations, true);
+	}
+
+	/**
+	 * Compiles many Strings of source code in a single compilation, waiting
+	 * for a free slot if too many compilations are running.
+	 * 
+	 * @param classSources
+	 *            the classes sources, by fully qualified class name
+	 * @return the compiled classes, by binary class name
+	 * @throws FlipException
+	 *             if the compilation fails, with the errors in its message
+	 */
+	Map<String, byte[]> compile(Map<String, String> classSources) {
+		long start = System.nanoTime();
+		permits.acquireUninterruptibly();
+		try {
+			recordQueueTime(System.nanoTime() - start);
+			JavaCompiler javaCompiler = getCompiler();
+			StandardJavaFileManager standardFileManager = idleFileManagers
+					.poll();
+			if (standardFileManager == null) {
+				standardFileManager = javaCompiler.getStandardFileManager(null,
+						null, null);
+			}
+			try {
+				FlipJavaFileManager javaFileManager = new FlipJavaFileManager(
+						standardFileManager, classSources);
+				DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+				StringWriter output = new StringWriter();
+				Boolean success = javaCompiler.getTask(output, javaFileManager,
+						diagnostics, OPTIONS, null,
+						javaFileManager.getSourceFiles()).call();
+				if (!Boolean.TRUE.equals(success)) {
+					throw new FlipException("Error while compiling classes "
+							+ classSources.keySet()
+							+ describeErrors(diagnostics, output));
+				}
+				compilations.incrementAndGet();
+				return javaFileManager.getClassFiles();
+			} finally {
+				idleFileManagers.offer(standardFileManager);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Gets the {@link #compiler}, looking it up if needed.
+	 *
+	 * @return the {@link #compiler}
+	 */
+	private JavaCompiler getCompiler() {
+		JavaCompiler javaCompiler = compiler;
+		if (javaCompiler == null) {
+			javaCompiler = ToolProvider.getSystemJavaCompiler();
+			if (javaCompiler == null) {
+				throw new FlipException(
+						"No Java compiler available, a JDK is required.");
+			}
+			compiler = javaCompiler;
+		}
+		return javaCompiler;
+	}
+
+	/**
+	 * Describes the errors of a failed compilation, one per line.
+	 *
+	 * @param diagnostics
+	 *            the diagnostics reported by the compiler
+	 * @param output
+	 *            the other output of the compiler
+	 * @return the errors, each on a new line
+	 */
+	private static String describeErrors(
+			DiagnosticCollector<JavaFileObject> diagnostics, StringWriter output) {
+		StringBuilder errors = new StringBuilder();
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
+				.getDiagnostics()) {
+			if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+				continue;
+			}
+			errors.append(System.lineSeparator());
+			if (diagnostic.getSource() != null) {
+				errors.append(diagnostic.getSource().getName()).append(':')
+						.append(diagnostic.getLineNumber()).append(": ");
+			}
+			errors.append(diagnostic.getMessage(null));
+		}
+		String otherOutput = output.toString().trim();
+		if (!otherOutput.isEmpty()) {
+			errors.append(System.lineSeparator()).append(otherOutput);
+		}
+		return errors.toString();
+	}
+
+	/**
+	 * Records the time a compilation waited for its turn.
+	 *
+	 * @param nanos
+	 *            the time waited, in nanoseconds
+	 */
+	private void recordQueueTime(long nanos) {
+		queueNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxQueueNanos.get())
+				&& !maxQueueNanos.compareAndSet(max, nanos)) {
+			// Retries until the max is updated or a bigger one is set.
+		}
+	}
+
+	/**
+	 * Gets the {@link #maxParallelCompilations}.
+	 *
+	 * @return the {@link #maxParallelCompilations}
+	 */
+	public int getMaxParallelCompilations() {
+		return maxParallelCompilations;
+	}
+
+	/**
+	 * Gets the number of compilations running or waiting to run.
+	 *
+	 * @return the number of compilations running or waiting to run
+	 */
+	public int getActiveCompilations() {
+		return maxParallelCompilations - permits.availablePermits()
+				+ permits.getQueueLength();
+	}
+
+	/**
+	 * Gets the number of compilations run.
+	 *
+	 * @return the number of compilations run
+	 */
+	public long getCompilations() {
+		return compilations.get();
+	}
+
+	/**
+	 * Gets the time spent by compilations waiting for their turn.
+	 *
+	 * @return the time spent waiting, in nanoseconds
+	 */
+	public long getQueueNanos() {
+		return queueNanos.get();
+	}
+
+	/**
+	 * Gets the longest time spent by a compilation waiting for its turn.
+	 *
+	 * @return the longest time spent waiting, in nanoseconds
+	 */
+	public long getMaxQueueNanos() {
+		return maxQueueNanos.get();
+	}
+
+}
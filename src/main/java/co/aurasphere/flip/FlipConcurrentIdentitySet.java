@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Set of objects compared by identity which can be used by many threads at
+ * once, used to keep track of the objects already visited by a parallel
+ * walk. The objects are spread by identity hash code over many
+ * {@link FlipIdentitySet} stripes, each one guarded by its own lock, so
+ * threads adding different objects rarely contend. Objects are keyed by
+ * identity rather than by address, since the garbage collector may move
+ * them during the walk.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipConcurrentIdentitySet {
+
+	/**
+	 * Maximum number of stripes.
+	 */
+	private static final int MAXIMUM_STRIPES = 1 << 10;
+
+	/**
+	 * The stripes, each one also used as its own lock.
+	 */
+	private final FlipIdentitySet[] stripes;
+
+	/**
+	 * Shift which keeps the bits of the hash used to pick a stripe.
+	 */
+	private final int stripeShift;
+
+	/**
+	 * Instantiates a new FlipConcurrentIdentitySet.
+	 *
+	 * @param concurrency
+	 *            the number of threads expected to use the set at once
+	 */
+	FlipConcurrentIdentitySet(int concurrency) {
+		// Four stripes per thread keep the chance of contention low.
+		int stripeCount = 1;
+		while (stripeCount < concurrency * 4
+				&& stripeCount < MAXIMUM_STRIPES) {
+			stripeCount <<= 1;
+		}
+		this.stripes = new FlipIdentitySet[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new FlipIdentitySet();
+		}
+		this.stripeShift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+	}
+
+	/**
+	 * Adds an object to the set.
+	 *
+	 * @param object
+	 *            the object to add, not null
+	 * @return true, if the object was not already in the set, false otherwise
+	 */
+	boolean add(Object object) {
+		FlipIdentitySet stripe = stripeOf(object);
+		synchronized (stripe) {
+			return stripe.add(object);
+		}
+	}
+
+	/**
+	 * Checks if an object is in the set.
+	 *
+	 * @param object
+	 *            the object to check, not null
+	 * @return true, if the object is in the set, false otherwise
+	 */
+	boolean contains(Object object) {
+		FlipIdentitySet stripe = stripeOf(object);
+		synchronized (stripe) {
+			return stripe.contains(object);
+		}
+	}
+
+	/**
+	 * Gets the number of objects in the set. Not consistent if objects are
+	 * being added.
+	 *
+	 * @return the number of objects in the set
+	 */
+	int size() {
+		int size = 0;
+		for (FlipIdentitySet stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Finds the stripe of an object from the high bits of its identity hash
+	 * code, mixed so that they don't correlate with the low bits used inside
+	 * the stripe.
+	 *
+	 * @param object
+	 *            the object
+	 * @return the stripe of the object
+	 */
+	private FlipIdentitySet stripeOf(Object object) {
+		if (stripeShift == 32) {
+			return stripes[0];
+		}
+		int hash = System.identityHashCode(object) * 0x9E3779B9;
+		return stripes[hash >>> stripeShift];
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import sun.misc.Unsafe;
+
+/**
+ * Copies all the objects reachable from a root, following both field
+ * references and array elements. Each object is copied with
+ * {@link Unsafe#allocateInstance(Class)} and the copy plan cached in its
+ * {@link FlipClassLayout}, which copies the primitive fields in bulk, and then
+ * its references are pointed to the copies of the objects they referenced.
+ * Like {@link FlipGraphWalker}, the copy is iterative and copies each object
+ * only once, so deep graphs, shared references and cycles are handled.
+ * <p>
+ * Immutable objects such as strings, boxed primitives, enum constants and
+ * classes are shared with the copy rather than copied.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipDeepCopier {
+
+	/**
+	 * Unsafe used to copy the objects.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Immutable classes whose instances are shared instead of copied.
+	 */
+	private static final Set<Class<?>> IMMUTABLE_CLASSES = new HashSet<Class<?>>(
+			Arrays.<Class<?>> asList(String.class, Boolean.class, Byte.class,
+					Short.class, Character.class, Integer.class, Long.class,
+					Float.class, Double.class, BigInteger.class,
+					BigDecimal.class, UUID.class, Class.class));
+
+	/**
+	 * Filters that objects must pass to be copied.
+	 */
+	private final FlipObjectFilter[] filters;
+
+	/**
+	 * Copies of the objects already copied, by original.
+	 */
+	private final FlipIdentityMap copies = new FlipIdentityMap();
+
+	/**
+	 * Originals whose references still have to be pointed to the copies.
+	 */
+	private final ArrayDeque<Object> pending = new ArrayDeque<Object>();
+
+	/**
+	 * Instantiates a new FlipDeepCopier.
+	 *
+	 * @param filters
+	 *            the {@link #filters}
+	 */
+	FlipDeepCopier(FlipObjectFilter... filters) {
+		this.filters = filters == null ? new FlipObjectFilter[0] : filters;
+	}
+
+	/**
+	 * Copies the graph reachable from an object.
+	 *
+	 * @param root
+	 *            the object to start from
+	 * @return the copy of the object
+	 */
+	Object copy(Object root) {
+		Object rootCopy = copyOf(root);
+		while (!pending.isEmpty()) {
+			Object original = pending.pop();
+			Object copy = copies.get(original);
+			FlipClassLayout layout = FlipClassLayout.of(original.getClass());
+
+			// Points the references to the copies.
+			if (layout.isObjectArray()) {
+				Object[] originalArray = (Object[]) original;
+				Object[] copyArray = (Object[]) copy;
+				for (int i = 0; i < originalArray.length; i++) {
+					copyArray[i] = copyOf(originalArray[i]);
+				}
+			} else {
+				for (int i = 0; i < layout.getReferenceCount(); i++) {
+					long offset = layout.getReferenceOffset(i);
+					UNSAFE.putObject(copy, offset,
+							copyOf(UNSAFE.getObject(original, offset)));
+				}
+			}
+		}
+		return rootCopy;
+	}
+
+	/**
+	 * Returns the copy of an object, making a shallow copy of it if it's the
+	 * first time the object is met. The references of a new copy still point
+	 * to the originals until the object is taken from {@link #pending}.
+	 *
+	 * @param object
+	 *            the object to copy
+	 * @return the copy of the object or the object itself if it's shared
+	 */
+	private Object copyOf(Object object) {
+		if (object == null || isShared(object)) {
+			return object;
+		}
+		Object copy = copies.get(object);
+		if (copy != null) {
+			return copy;
+		}
+
+		Class<?> klass = object.getClass();
+		FlipClassLayout layout = FlipClassLayout.of(klass);
+		if (layout.isArray()) {
+			int length = Array.getLength(object);
+			copy = Array.newInstance(klass.getComponentType(), length);
+			if (!layout.isObjectArray()) {
+				System.arraycopy(object, 0, copy, 0, length);
+			}
+		} else {
+			try {
+				copy = UNSAFE.allocateInstance(klass);
+			} catch (InstantiationException e) {
+				throw new FlipException(
+						"Error while copying an object of class "
+								+ klass.getName(), e);
+			}
+			layout.copyFields(object, copy);
+		}
+		copies.put(object, copy);
+		if (layout.isObjectArray() || layout.getReferenceCount() > 0) {
+			pending.push(object);
+		}
+		return copy;
+	}
+
+	/**
+	 * Checks if an object is shared with the copy: immutable objects and the
+	 * ones rejected by any of the {@link #filters}.
+	 *
+	 * @param object
+	 *            the object to check
+	 * @return true, if the object is shared, false otherwise
+	 */
+	private boolean isShared(Object object) {
+		if (IMMUTABLE_CLASSES.contains(object.getClass())
+				|| object instanceof Enum) {
+			return true;
+		}
+		for (FlipObjectFilter filter : filters) {
+			if (!filter.accept(object)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events emitted by {@link FlipMetrics}. This is the only
+ * class referencing the JFR API, so it's loaded only when metrics are enabled
+ * and the JVM has a flight recorder. Latencies are measured by Flip and
+ * recorded as fields, so the events themselves have no duration.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipEvents {
+
+	/**
+	 * Instantiates a new FlipEvents.
+	 */
+	private FlipEvents() {
+	}
+
+	/**
+	 * Checks if the flight recorder can be used.
+	 *
+	 * @return true, if the flight recorder is available, false otherwise
+	 */
+	static boolean isAvailable() {
+		return FlightRecorder.isAvailable();
+	}
+
+	/**
+	 * Emits an {@link OperationEvent}, if enabled.
+	 *
+	 * @param operation
+	 *            the {@link OperationEvent#operation}
+	 * @param objectClass
+	 *            the {@link OperationEvent#objectClass}
+	 * @param bytes
+	 *            the {@link OperationEvent#bytes}
+	 * @param latencyNanos
+	 *            the {@link OperationEvent#latency}
+	 */
+	static void operation(String operation, Class<?> objectClass, long bytes,
+			long latencyNanos) {
+		OperationEvent event = new OperationEvent();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.objectClass = objectClass;
+			event.bytes = bytes;
+			event.latency = latencyNanos;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Emits a {@link ClassDefinitionEvent}, if enabled.
+	 *
+	 * @param phase
+	 *            the {@link ClassDefinitionEvent#phase}
+	 * @param classCount
+	 *            the {@link ClassDefinitionEvent#classCount}
+	 * @param bytecodeBytes
+	 *            the {@link ClassDefinitionEvent#bytecodeBytes}
+	 * @param latencyNanos
+	 *            the {@link ClassDefinitionEvent#latency}
+	 */
+	static void classDefinition(String phase, int classCount,
+			long bytecodeBytes, long latencyNanos) {
+		ClassDefinitionEvent event = new ClassDefinitionEvent();
+		if (event.shouldCommit()) {
+			event.phase = phase;
+			event.classCount = classCount;
+			event.bytecodeBytes = bytecodeBytes;
+			event.latency = latencyNanos;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Emits a {@link NativeMemoryEvent}, if enabled.
+	 *
+	 * @param allocatedBytes
+	 *            the {@link NativeMemoryEvent#allocatedBytes}
+	 * @param freedBytes
+	 *            the {@link NativeMemoryEvent#freedBytes}
+	 * @param outstandingBytes
+	 *            the {@link NativeMemoryEvent#outstandingBytes}
+	 */
+	static void nativeMemory(long allocatedBytes, long freedBytes,
+			long outstandingBytes) {
+		NativeMemoryEvent event = new NativeMemoryEvent();
+		if (event.shouldCommit()) {
+			event.allocatedBytes = allocatedBytes;
+			event.freedBytes = freedBytes;
+			event.outstandingBytes = outstandingBytes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Event emitted for each call to {@link Flip#sizeOf(Object)} and to the
+	 * shallow copy methods.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@Name("co.aurasphere.flip.Operation")
+	@Label("Flip Operation")
+	@Category("Flip")
+	static final class OperationEvent extends Event {
+
+		/**
+		 * The name of the operation.
+		 */
+		@Label("Operation")
+		String operation;
+
+		/**
+		 * The class of the object.
+		 */
+		@Label("Object Class")
+		Class<?> objectClass;
+
+		/**
+		 * The shallow size of the object.
+		 */
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		/**
+		 * The latency of the operation.
+		 */
+		@Label("Latency")
+		@Timespan
+		long latency;
+
+	}
+
+	/**
+	 * Event emitted for each compilation and definition of dynamic classes.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@Name("co.aurasphere.flip.ClassDefinition")
+	@Label("Flip Class Definition")
+	@Category("Flip")
+	static final class ClassDefinitionEvent extends Event {
+
+		/**
+		 * The phase, either compile or define.
+		 */
+		@Label("Phase")
+		String phase;
+
+		/**
+		 * The number of classes compiled or defined together.
+		 */
+		@Label("Classes")
+		int classCount;
+
+		/**
+		 * The bytes of bytecode of the classes.
+		 */
+		@Label("Bytecode")
+		@DataAmount
+		long bytecodeBytes;
+
+		/**
+		 * The latency of the phase.
+		 */
+		@Label("Latency")
+		@Timespan
+		long latency;
+
+	}
+
+	/**
+	 * Event emitted for each native memory allocation or release done by
+	 * Flip.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@Name("co.aurasphere.flip.NativeMemory")
+	@Label("Flip Native Memory")
+	@Category("Flip")
+	@Description("Native memory allocated or freed by Flip")
+	static final class NativeMemoryEvent extends Event {
+
+		/**
+		 * The bytes allocated.
+		 */
+		@Label("Allocated")
+		@DataAmount
+		long allocatedBytes;
+
+		/**
+		 * The bytes freed.
+		 */
+		@Label("Freed")
+		@DataAmount
+		long freedBytes;
+
+		/**
+		 * The bytes allocated and not freed yet by Flip, after this event.
+		 */
+		@Label("Outstanding")
+		@DataAmount
+		long outstandingBytes;
+
+	}
+
+}
@@ -0,0 +1,868 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import sun.misc.Unsafe;
+
+/**
+ * Fast replacement for {@link Field#get(Object)} and
+ * {@link Field#set(Object, Object)}. The offset of the field is resolved once,
+ * when the accessor is created, and each access goes straight to the memory
+ * of the object, without boxing or access checks, so the JIT can inline it
+ * into a single load or store. Besides plain accesses, accessors support
+ * volatile and ordered ones and atomic updates.
+ * <p>
+ * Each access checks that the target is an instance of the class which
+ * declares the field and that the access matches the type of the field, so a
+ * wrong accessor can't corrupt memory. Accessors are immutable and
+ * thread-safe. Get them through {@link Flip#accessor(Class, String)}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipFieldAccessor {
+
+	/**
+	 * Unsafe used to access the fields.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Cache of the accessors, by class and then by field name.
+	 */
+	private static final ClassValue<ConcurrentMap<String, FlipFieldAccessor>> ACCESSORS = new ClassValue<ConcurrentMap<String, FlipFieldAccessor>>() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.ClassValue#computeValue(java.lang.Class)
+		 */
+		@Override
+		protected ConcurrentMap<String, FlipFieldAccessor> computeValue(
+				Class<?> type) {
+			return new ConcurrentHashMap<String, FlipFieldAccessor>();
+		}
+	};
+
+	/**
+	 * The field accessed.
+	 */
+	private final Field field;
+
+	/**
+	 * The class which declares the {@link #field}.
+	 */
+	private final Class<?> declaringClass;
+
+	/**
+	 * The type of the {@link #field}.
+	 */
+	private final Class<?> type;
+
+	/**
+	 * The offset of the {@link #field}.
+	 */
+	private final long offset;
+
+	/**
+	 * Instantiates a new FlipFieldAccessor.
+	 *
+	 * @param field
+	 *            the {@link #field}, not static
+	 * @throws FlipException
+	 *             if the field is static
+	 */
+	FlipFieldAccessor(Field field) {
+		if (Modifier.isStatic(field.getModifiers())) {
+			throw new FlipException("Static fields are not supported: "
+					+ field);
+		}
+		this.field = field;
+		this.declaringClass = field.getDeclaringClass();
+		this.type = field.getType();
+		this.offset = UNSAFE.objectFieldOffset(field);
+	}
+
+	/**
+	 * Returns the accessor of a field, creating it on the first call.
+	 *
+	 * @param klass
+	 *            the class which holds the field
+	 * @param fieldName
+	 *            the name of the field, declared by the class or one of its
+	 *            superclasses
+	 * @return the accessor of the field
+	 * @throws FlipException
+	 *             if the field is not found
+	 */
+	static FlipFieldAccessor of(Class<?> klass, String fieldName) {
+		ConcurrentMap<String, FlipFieldAccessor> accessors = ACCESSORS
+				.get(klass);
+		FlipFieldAccessor accessor = accessors.get(fieldName);
+		if (accessor == null) {
+			accessor = new FlipFieldAccessor(findField(klass, fieldName));
+			FlipFieldAccessor previous = accessors.putIfAbsent(fieldName,
+					accessor);
+			if (previous != null) {
+				accessor = previous;
+			}
+		}
+		return accessor;
+	}
+
+	/**
+	 * Looks up a non-static field by name in a class and its superclasses.
+	 *
+	 * @param klass
+	 *            the class
+	 * @param fieldName
+	 *            the name of the field
+	 * @return the field
+	 * @throws FlipException
+	 *             if the field is not found
+	 */
+	private static Field findField(Class<?> klass, String fieldName) {
+		for (Class<?> current = klass; current != null; current = current
+				.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				if (field.getName().equals(fieldName)
+						&& !Modifier.isStatic(field.getModifiers())) {
+					return field;
+				}
+			}
+		}
+		throw new FlipException("No field " + fieldName + " in "
+				+ klass.getName());
+	}
+
+	/**
+	 * Reads the field, which must be a boolean.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public boolean getBoolean(Object target) {
+		check(target, boolean.class);
+		return UNSAFE.getBoolean(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a boolean.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public boolean getBooleanVolatile(Object target) {
+		check(target, boolean.class);
+		return UNSAFE.getBooleanVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a boolean.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putBoolean(Object target, boolean value) {
+		check(target, boolean.class);
+		UNSAFE.putBoolean(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a boolean.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putBooleanVolatile(Object target, boolean value) {
+		check(target, boolean.class);
+		UNSAFE.putBooleanVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be a byte.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public byte getByte(Object target) {
+		check(target, byte.class);
+		return UNSAFE.getByte(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a byte.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public byte getByteVolatile(Object target) {
+		check(target, byte.class);
+		return UNSAFE.getByteVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a byte.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putByte(Object target, byte value) {
+		check(target, byte.class);
+		UNSAFE.putByte(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a byte.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putByteVolatile(Object target, byte value) {
+		check(target, byte.class);
+		UNSAFE.putByteVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be a short.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public short getShort(Object target) {
+		check(target, short.class);
+		return UNSAFE.getShort(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a short.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public short getShortVolatile(Object target) {
+		check(target, short.class);
+		return UNSAFE.getShortVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a short.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putShort(Object target, short value) {
+		check(target, short.class);
+		UNSAFE.putShort(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a short.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putShortVolatile(Object target, short value) {
+		check(target, short.class);
+		UNSAFE.putShortVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be a char.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public char getChar(Object target) {
+		check(target, char.class);
+		return UNSAFE.getChar(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a char.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public char getCharVolatile(Object target) {
+		check(target, char.class);
+		return UNSAFE.getCharVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a char.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putChar(Object target, char value) {
+		check(target, char.class);
+		UNSAFE.putChar(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a char.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putCharVolatile(Object target, char value) {
+		check(target, char.class);
+		UNSAFE.putCharVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be an int.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public int getInt(Object target) {
+		check(target, int.class);
+		return UNSAFE.getInt(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be an int.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public int getIntVolatile(Object target) {
+		check(target, int.class);
+		return UNSAFE.getIntVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be an int.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putInt(Object target, int value) {
+		check(target, int.class);
+		UNSAFE.putInt(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be an int.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putIntVolatile(Object target, int value) {
+		check(target, int.class);
+		UNSAFE.putIntVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be a long.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public long getLong(Object target) {
+		check(target, long.class);
+		return UNSAFE.getLong(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a long.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public long getLongVolatile(Object target) {
+		check(target, long.class);
+		return UNSAFE.getLongVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a long.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putLong(Object target, long value) {
+		check(target, long.class);
+		UNSAFE.putLong(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a long.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putLongVolatile(Object target, long value) {
+		check(target, long.class);
+		UNSAFE.putLongVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be a float.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public float getFloat(Object target) {
+		check(target, float.class);
+		return UNSAFE.getFloat(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a float.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public float getFloatVolatile(Object target) {
+		check(target, float.class);
+		return UNSAFE.getFloatVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a float.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putFloat(Object target, float value) {
+		check(target, float.class);
+		UNSAFE.putFloat(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a float.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putFloatVolatile(Object target, float value) {
+		check(target, float.class);
+		UNSAFE.putFloatVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be a double.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public double getDouble(Object target) {
+		check(target, double.class);
+		return UNSAFE.getDouble(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a double.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public double getDoubleVolatile(Object target) {
+		check(target, double.class);
+		return UNSAFE.getDoubleVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a double.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putDouble(Object target, double value) {
+		check(target, double.class);
+		UNSAFE.putDouble(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a double.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putDoubleVolatile(Object target, double value) {
+		check(target, double.class);
+		UNSAFE.putDoubleVolatile(target, offset, value);
+	}
+
+	/**
+	 * Reads the field, which must be a reference.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public Object getObject(Object target) {
+		check(target, Object.class);
+		return UNSAFE.getObject(target, offset);
+	}
+
+	/**
+	 * Reads the field with volatile semantics, which must be a reference.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @return the value of the field
+	 */
+	public Object getObjectVolatile(Object target) {
+		check(target, Object.class);
+		return UNSAFE.getObjectVolatile(target, offset);
+	}
+
+	/**
+	 * Writes the field, which must be a reference.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putObject(Object target, Object value) {
+		checkReference(target, value);
+		UNSAFE.putObject(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with volatile semantics, which must be a reference.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putObjectVolatile(Object target, Object value) {
+		checkReference(target, value);
+		UNSAFE.putObjectVolatile(target, offset, value);
+	}
+
+	/**
+	 * Writes the field with release semantics, which must be an int. The
+	 * write is cheaper than a volatile one, but can be seen later by other
+	 * threads.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putOrderedInt(Object target, int value) {
+		check(target, int.class);
+		UNSAFE.putOrderedInt(target, offset, value);
+	}
+
+	/**
+	 * Atomically sets the field, which must be an int, if it holds an
+	 * expected value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param expected
+	 *            the expected value of the field
+	 * @param value
+	 *            the new value of the field
+	 * @return true, if the field held the expected value and was set, false
+	 *         otherwise
+	 */
+	public boolean compareAndSetInt(Object target, int expected, int value) {
+		check(target, int.class);
+		return UNSAFE.compareAndSwapInt(target, offset, expected, value);
+	}
+
+	/**
+	 * Atomically sets the field, which must be an int, and returns its old
+	 * value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 * @return the old value of the field
+	 */
+	public int getAndSetInt(Object target, int value) {
+		check(target, int.class);
+		return UNSAFE.getAndSetInt(target, offset, value);
+	}
+
+	/**
+	 * Atomically adds a value to the field, which must be an int, and returns
+	 * its old value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param delta
+	 *            the value to add
+	 * @return the old value of the field
+	 */
+	public int getAndAddInt(Object target, int delta) {
+		check(target, int.class);
+		return UNSAFE.getAndAddInt(target, offset, delta);
+	}
+
+	/**
+	 * Writes the field with release semantics, which must be a long. The
+	 * write is cheaper than a volatile one, but can be seen later by other
+	 * threads.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putOrderedLong(Object target, long value) {
+		check(target, long.class);
+		UNSAFE.putOrderedLong(target, offset, value);
+	}
+
+	/**
+	 * Atomically sets the field, which must be a long, if it holds an
+	 * expected value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param expected
+	 *            the expected value of the field
+	 * @param value
+	 *            the new value of the field
+	 * @return true, if the field held the expected value and was set, false
+	 *         otherwise
+	 */
+	public boolean compareAndSetLong(Object target, long expected, long value) {
+		check(target, long.class);
+		return UNSAFE.compareAndSwapLong(target, offset, expected, value);
+	}
+
+	/**
+	 * Atomically sets the field, which must be a long, and returns its old
+	 * value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 * @return the old value of the field
+	 */
+	public long getAndSetLong(Object target, long value) {
+		check(target, long.class);
+		return UNSAFE.getAndSetLong(target, offset, value);
+	}
+
+	/**
+	 * Atomically adds a value to the field, which must be a long, and returns
+	 * its old value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param delta
+	 *            the value to add
+	 * @return the old value of the field
+	 */
+	public long getAndAddLong(Object target, long delta) {
+		check(target, long.class);
+		return UNSAFE.getAndAddLong(target, offset, delta);
+	}
+
+	/**
+	 * Writes the field with release semantics, which must be a reference. The
+	 * write is cheaper than a volatile one, but can be seen later by other
+	 * threads.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 */
+	public void putOrderedObject(Object target, Object value) {
+		checkReference(target, value);
+		UNSAFE.putOrderedObject(target, offset, value);
+	}
+
+	/**
+	 * Atomically sets the field, which must be a reference, if it holds an
+	 * expected value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param expected
+	 *            the expected value of the field
+	 * @param value
+	 *            the new value of the field
+	 * @return true, if the field held the expected value and was set, false
+	 *         otherwise
+	 */
+	public boolean compareAndSetObject(Object target, Object expected,
+			Object value) {
+		checkReference(target, value);
+		return UNSAFE.compareAndSwapObject(target, offset, expected, value);
+	}
+
+	/**
+	 * Atomically sets the field, which must be a reference, and returns its old
+	 * value.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the new value of the field
+	 * @return the old value of the field
+	 */
+	public Object getAndSetObject(Object target, Object value) {
+		checkReference(target, value);
+		return UNSAFE.getAndSetObject(target, offset, value);
+	}
+
+	/**
+	 * Checks that the field can be accessed on an object with a given type.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param accessType
+	 *            the type of the access, Object.class for references
+	 * @throws FlipException
+	 *             if the object doesn't hold the field or the type of the
+	 *             access is not the one of the field
+	 */
+	private void check(Object target, Class<?> accessType) {
+		if (!declaringClass.isInstance(target)) {
+			throw new FlipException("Field " + field + " can't be accessed on "
+					+ (target == null ? "null" : target.getClass().getName()));
+		}
+		if (type != accessType
+				&& (accessType != Object.class || type.isPrimitive())) {
+			throw new FlipException("Field " + field + " can't be accessed as "
+					+ accessType.getName());
+		}
+	}
+
+	/**
+	 * Checks that a reference can be written in the field of an object.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param value
+	 *            the reference to write
+	 * @throws FlipException
+	 *             if the object doesn't hold the field, the field is not a
+	 *             reference or the reference is not of the type of the field
+	 */
+	private void checkReference(Object target, Object value) {
+		check(target, Object.class);
+		if (value != null && !type.isInstance(value)) {
+			throw new FlipException("Field " + field + " can't hold "
+					+ value.getClass().getName());
+		}
+	}
+
+	/**
+	 * Gets the {@link #field}.
+	 *
+	 * @return the {@link #field}
+	 */
+	public Field getField() {
+		return field;
+	}
+
+	/**
+	 * Gets the {@link #type}.
+	 *
+	 * @return the {@link #type}
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the {@link #offset}.
+	 *
+	 * @return the {@link #offset}
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FlipFieldAccessor [field=" + field + ", offset=" + offset + "]";
+	}
+
+}
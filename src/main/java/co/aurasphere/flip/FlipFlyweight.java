@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Flyweight which maps the primitive fields of a class onto a record in
+ * native memory. Flyweights are generated at runtime by
+ * {@link Flip#flyweight(Class, Class)}: each field is read and written at a
+ * fixed offset from the address of the current record, so accessing a field
+ * costs a single memory access, and moving to another record costs a single
+ * store.
+ * <p>
+ * To get typed accessors, declare an interface which extends this one with a
+ * getter and a setter for each field to access, named after the field like
+ * in JavaBeans, and pass it to {@link Flip#flyweight(Class, Class)}.
+ * Flyweights are not thread-safe.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public interface FlipFlyweight {
+
+	/**
+	 * Moves the flyweight to another record.
+	 *
+	 * @param address
+	 *            the address of the record
+	 * @return this flyweight
+	 */
+	FlipFlyweight wrap(long address);
+
+	/**
+	 * Moves the flyweight to a record in a contiguous block of records.
+	 *
+	 * @param baseAddress
+	 *            the address of the first record of the block
+	 * @param index
+	 *            the index of the record in the block
+	 * @return this flyweight
+	 */
+	FlipFlyweight wrap(long baseAddress, long index);
+
+	/**
+	 * Gets the address of the current record.
+	 *
+	 * @return the address of the current record
+	 */
+	long getAddress();
+
+	/**
+	 * Gets the size in bytes of a record, which is also the distance between
+	 * two records in a contiguous block.
+	 *
+	 * @return the size of a record
+	 */
+	long getRecordSize();
+
+	/**
+	 * Copies the fields of an object into the current record.
+	 *
+	 * @param object
+	 *            an instance of the class mapped by this flyweight
+	 * @throws FlipException
+	 *             if the object is not an instance of the mapped class
+	 */
+	void copyFrom(Object object);
+
+	/**
+	 * Copies the current record into the fields of an object.
+	 *
+	 * @param object
+	 *            an instance of the class mapped by this flyweight
+	 * @throws FlipException
+	 *             if the object is not an instance of the mapped class
+	 */
+	void copyTo(Object object);
+
+}
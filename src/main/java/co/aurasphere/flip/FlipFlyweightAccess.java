@@ -0,0 +1,412 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import sun.misc.Unsafe;
+
+/**
+ * Memory accesses of the flyweights generated by
+ * {@link Flip#flyweight(Class, Class)}, so that the generated code depends on
+ * Flip alone. Records are read and written through the {@link FlipBackend}
+ * in use, like the rest of the native memory managed by Flip, while the
+ * fields of the mapped objects are accessed directly. Floating point values
+ * are stored with the bits of their int or long, and chars as shorts.
+ * <p>
+ * This class is public only because flyweights are generated in the package
+ * of their interface. Offsets and addresses are not checked, so it's not
+ * meant to be used directly.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipFlyweightAccess {
+
+	/**
+	 * Unsafe used to access the fields of the mapped objects.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Backend used to access the records.
+	 */
+	private static final FlipBackend BACKEND = FlipSystemInformation
+			.getBackend();
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private FlipFlyweightAccess() {
+	}
+
+	/**
+	 * Reads a byte from a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @return the value of the field
+	 */
+	public static byte getByte(long address) {
+		return BACKEND.getByte(address);
+	}
+
+	/**
+	 * Writes a byte to a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putByte(long address, byte value) {
+		BACKEND.putByte(address, value);
+	}
+
+	/**
+	 * Reads a byte field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @return the value of the field
+	 */
+	public static byte getByte(Object object, long offset) {
+		return UNSAFE.getByte(object, offset);
+	}
+
+	/**
+	 * Writes a byte field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putByte(Object object, long offset, byte value) {
+		UNSAFE.putByte(object, offset, value);
+	}
+
+	/**
+	 * Reads a short from a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @return the value of the field
+	 */
+	public static short getShort(long address) {
+		return BACKEND.getShort(address);
+	}
+
+	/**
+	 * Writes a short to a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putShort(long address, short value) {
+		BACKEND.putShort(address, value);
+	}
+
+	/**
+	 * Reads a short field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @return the value of the field
+	 */
+	public static short getShort(Object object, long offset) {
+		return UNSAFE.getShort(object, offset);
+	}
+
+	/**
+	 * Writes a short field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putShort(Object object, long offset, short value) {
+		UNSAFE.putShort(object, offset, value);
+	}
+
+	/**
+	 * Reads a char from a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @return the value of the field
+	 */
+	public static char getChar(long address) {
+		return (char) BACKEND.getShort(address);
+	}
+
+	/**
+	 * Writes a char to a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putChar(long address, char value) {
+		BACKEND.putShort(address, (short) value);
+	}
+
+	/**
+	 * Reads a char field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @return the value of the field
+	 */
+	public static char getChar(Object object, long offset) {
+		return UNSAFE.getChar(object, offset);
+	}
+
+	/**
+	 * Writes a char field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putChar(Object object, long offset, char value) {
+		UNSAFE.putChar(object, offset, value);
+	}
+
+	/**
+	 * Reads an int from a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @return the value of the field
+	 */
+	public static int getInt(long address) {
+		return BACKEND.getInt(address);
+	}
+
+	/**
+	 * Writes an int to a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putInt(long address, int value) {
+		BACKEND.putInt(address, value);
+	}
+
+	/**
+	 * Reads an int field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @return the value of the field
+	 */
+	public static int getInt(Object object, long offset) {
+		return UNSAFE.getInt(object, offset);
+	}
+
+	/**
+	 * Writes an int field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putInt(Object object, long offset, int value) {
+		UNSAFE.putInt(object, offset, value);
+	}
+
+	/**
+	 * Reads a long from a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @return the value of the field
+	 */
+	public static long getLong(long address) {
+		return BACKEND.getLong(address);
+	}
+
+	/**
+	 * Writes a long to a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putLong(long address, long value) {
+		BACKEND.putLong(address, value);
+	}
+
+	/**
+	 * Reads a long field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @return the value of the field
+	 */
+	public static long getLong(Object object, long offset) {
+		return UNSAFE.getLong(object, offset);
+	}
+
+	/**
+	 * Writes a long field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putLong(Object object, long offset, long value) {
+		UNSAFE.putLong(object, offset, value);
+	}
+
+	/**
+	 * Reads a float from a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @return the value of the field
+	 */
+	public static float getFloat(long address) {
+		return Float.intBitsToFloat(BACKEND.getInt(address));
+	}
+
+	/**
+	 * Writes a float to a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putFloat(long address, float value) {
+		BACKEND.putInt(address, Float.floatToRawIntBits(value));
+	}
+
+	/**
+	 * Reads a float field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @return the value of the field
+	 */
+	public static float getFloat(Object object, long offset) {
+		return UNSAFE.getFloat(object, offset);
+	}
+
+	/**
+	 * Writes a float field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putFloat(Object object, long offset, float value) {
+		UNSAFE.putFloat(object, offset, value);
+	}
+
+	/**
+	 * Reads a double from a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @return the value of the field
+	 */
+	public static double getDouble(long address) {
+		return Double.longBitsToDouble(BACKEND.getLong(address));
+	}
+
+	/**
+	 * Writes a double to a record.
+	 *
+	 * @param address
+	 *            the address of the field in the record
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putDouble(long address, double value) {
+		BACKEND.putLong(address, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Reads a double field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @return the value of the field
+	 */
+	public static double getDouble(Object object, long offset) {
+		return UNSAFE.getDouble(object, offset);
+	}
+
+	/**
+	 * Writes a double field of an object.
+	 *
+	 * @param object
+	 *            the object
+	 * @param offset
+	 *            the offset of the field in the object
+	 * @param value
+	 *            the value to write
+	 */
+	public static void putDouble(Object object, long offset, double value) {
+		UNSAFE.putDouble(object, offset, value);
+	}
+
+}
@@ -0,0 +1,288 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Generates the source code of the {@link FlipFlyweight} implementations and
+ * caches the resulting classes, one for each pair of mapped class and
+ * flyweight interface.
+ * <p>
+ * A record holds the primitive fields of the mapped class at the same
+ * relative offsets they have in its instances, so that the JVM field packing
+ * is preserved and records need no header. The offsets become constants in
+ * the generated code, which accesses memory through
+ * {@link FlipFlyweightAccess}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipFlyweightGenerator {
+
+	/**
+	 * Cache of the flyweight classes, by mapped class and then by flyweight
+	 * interface.
+	 */
+	private static final ClassValue<ConcurrentMap<Class<?>, Class<?>>> FLYWEIGHT_CLASSES = new ClassValue<ConcurrentMap<Class<?>, Class<?>>>() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.ClassValue#computeValue(java.lang.Class)
+		 */
+		@Override
+		protected ConcurrentMap<Class<?>, Class<?>> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<Class<?>, Class<?>>();
+		}
+	};
+
+	/**
+	 * Instantiates a new FlipFlyweightGenerator.
+	 */
+	private FlipFlyweightGenerator() {
+	}
+
+	/**
+	 * Gets the flyweight class of a mapped class, generating it on the first
+	 * call.
+	 *
+	 * @param recordClass
+	 *            the class whose fields are mapped
+	 * @param flyweightInterface
+	 *            the interface implemented by the flyweight
+	 * @return the flyweight class, whose constructor takes the record class
+	 */
+	static Class<?> flyweightClass(Class<?> recordClass,
+			Class<?> flyweightInterface) {
+		ConcurrentMap<Class<?>, Class<?>> classes = FLYWEIGHT_CLASSES
+				.get(recordClass);
+		Class<?> flyweightClass = classes.get(flyweightInterface);
+		if (flyweightClass == null) {
+			flyweightClass = generate(recordClass, flyweightInterface);
+			Class<?> previous = classes.putIfAbsent(flyweightInterface,
+					flyweightClass);
+			if (previous != null) {
+				flyweightClass = previous;
+			}
+		}
+		return flyweightClass;
+	}
+
+	/**
+	 * Generates and compiles a flyweight class.
+	 *
+	 * @param recordClass
+	 *            the class whose fields are mapped
+	 * @param flyweightInterface
+	 *            the interface implemented by the flyweight
+	 * @return the flyweight class
+	 */
+	private static Class<?> generate(Class<?> recordClass,
+			Class<?> flyweightInterface) {
+		if (!flyweightInterface.isInterface()
+				|| !FlipFlyweight.class.isAssignableFrom(flyweightInterface)) {
+			throw new FlipException(flyweightInterface.getName()
+					+ " is not an interface extending FlipFlyweight.");
+		}
+		if (!isVisibleToFlip(flyweightInterface)) {
+			throw new FlipException(flyweightInterface.getName()
+					+ " is not visible from the Flip class loader.");
+		}
+
+		// Finds where the fields start and end.
+		FlipClassLayout layout = FlipClassLayout.of(recordClass);
+		if (layout.isArray() || layout.getReferenceCount() > 0) {
+			throw new FlipException("Flyweights can only map classes with "
+					+ "primitive fields: " + recordClass.getName());
+		}
+		long start = Long.MAX_VALUE;
+		long end = 0;
+		for (int i = 0; i < layout.getFieldCount(); i++) {
+			long offset = layout.getFieldOffset(i);
+			start = Math.min(start, offset);
+			end = Math.max(end, offset
+					+ FlipClassLayout.widthOf(layout.getField(i).getType()));
+		}
+		long recordSize = start > end ? 0 : (end - start + 7) & -8L;
+
+		// The flyweight lives in the package of its interface, which may not
+		// be public.
+		String interfaceName = flyweightInterface.getName();
+		int packageEnd = interfaceName.lastIndexOf('.');
+		if (packageEnd < 0) {
+			throw new FlipException(interfaceName
+					+ " must not be in the default package.");
+		}
+		String packageName = interfaceName.substring(0, packageEnd);
+		String className = interfaceName.substring(packageEnd + 1).replace(
+				'$', '_')
+				+ "_"
+				+ recordClass.getName().replace('.', '_').replace('$', '_')
+				+ "_Flyweight";
+
+		StringBuilder source = new StringBuilder();
+		source.append("package ").append(packageName).append(";\n\n");
+		source.append("import co.aurasphere.flip.FlipFlyweightAccess;\n\n");
+		source.append("public final class ").append(className)
+				.append(" implements ")
+				.append(flyweightInterface.getCanonicalName()).append(" {\n\n");
+		source.append("\tprivate final Class<?> recordClass;\n\n");
+		source.append("\tprivate long address;\n\n");
+		source.append("\tpublic ").append(className)
+				.append("(Class<?> recordClass) {\n");
+		source.append("\t\tthis.recordClass = recordClass;\n\t}\n\n");
+		source.append("\tpublic ").append(className)
+				.append(" wrap(long address) {\n");
+		source.append("\t\tthis.address = address;\n\t\treturn this;\n\t}\n\n");
+		source.append("\tpublic ").append(className)
+				.append(" wrap(long baseAddress, long index) {\n");
+		source.append("\t\tthis.address = baseAddress + index * ")
+				.append(recordSize).append("L;\n\t\treturn this;\n\t}\n\n");
+		source.append("\tpublic long getAddress() {\n\t\treturn address;\n\t}\n\n");
+		source.append("\tpublic long getRecordSize() {\n\t\treturn ")
+				.append(recordSize).append("L;\n\t}\n\n");
+
+		// Bulk copies from and to an instance, field by field.
+		StringBuilder copyFrom = new StringBuilder();
+		StringBuilder copyTo = new StringBuilder();
+		StringBuilder accessors = new StringBuilder();
+		for (int i = 0; i < layout.getFieldCount(); i++) {
+			Field field = layout.getField(i);
+			Class<?> type = field.getType();
+			long objectOffset = layout.getFieldOffset(i);
+			String recordOffset = "address + " + (objectOffset - start) + "L";
+
+			// Booleans are copied as bytes.
+			String accessType = type == boolean.class ? "Byte"
+					: capitalize(type.getName());
+			copyFrom.append("\t\tFlipFlyweightAccess.put")
+					.append(accessType).append("(").append(recordOffset)
+					.append(", FlipFlyweightAccess.get").append(accessType)
+					.append("(object, ").append(objectOffset)
+					.append("L));\n");
+			copyTo.append("\t\tFlipFlyweightAccess.put").append(accessType)
+					.append("(object, ").append(objectOffset)
+					.append("L, FlipFlyweightAccess.get").append(accessType)
+					.append("(").append(recordOffset).append("));\n");
+
+			String property = capitalize(field.getName());
+			String getter = "FlipFlyweightAccess.get" + accessType + "("
+					+ recordOffset + ")";
+			String setter = "FlipFlyweightAccess.put" + accessType + "("
+					+ recordOffset + ", value)";
+			if (type == boolean.class) {
+				getter = getter + " != 0";
+				setter = "FlipFlyweightAccess.putByte(" + recordOffset
+						+ ", (byte) (value ? 1 : 0))";
+				appendGetter(accessors, type, "is" + property, getter);
+			}
+			appendGetter(accessors, type, "get" + property, getter);
+			accessors.append("\tpublic void set").append(property)
+					.append("(").append(type.getName())
+					.append(" value) {\n\t\t").append(setter)
+					.append(";\n\t}\n\n");
+		}
+		appendCopy(source, "copyFrom", copyFrom);
+		appendCopy(source, "copyTo", copyTo);
+		source.append(accessors);
+		// Compares the classes themselves, since a class with the same name
+		// from another loader may have another layout.
+		source.append("\tprivate void checkRecord(Object object) {\n");
+		source.append("\t\tif (object.getClass() != recordClass) {\n");
+		source.append("\t\t\tthrow new co.aurasphere.flip.FlipException(\"Not an instance of \" + recordClass.getName() + \": \" + object.getClass().getName());\n");
+		source.append("\t\t}\n\t}\n\n}\n");
+
+		return Flip.dynamicClassDefinition(packageName, className,
+				source.toString());
+	}
+
+	/**
+	 * Appends a getter to the generated source.
+	 *
+	 * @param source
+	 *            the generated source
+	 * @param type
+	 *            the type of the field
+	 * @param name
+	 *            the name of the getter
+	 * @param expression
+	 *            the expression which reads the field
+	 */
+	private static void appendGetter(StringBuilder source, Class<?> type,
+			String name, String expression) {
+		source.append("\tpublic ").append(type.getName()).append(" ")
+				.append(name).append("() {\n\t\treturn ").append(expression)
+				.append(";\n\t}\n\n");
+	}
+
+	/**
+	 * Appends a copy method to the generated source.
+	 *
+	 * @param source
+	 *            the generated source
+	 * @param name
+	 *            the name of the method
+	 * @param body
+	 *            the statements which copy the fields
+	 */
+	private static void appendCopy(StringBuilder source, String name,
+			StringBuilder body) {
+		source.append("\tpublic void ").append(name)
+				.append("(Object object) {\n");
+		source.append("\t\tcheckRecord(object);\n").append(body)
+				.append("\t}\n\n");
+	}
+
+	/**
+	 * Checks if a class is the same one the Flip class loader would load with
+	 * its name, since flyweights are defined in that class loader.
+	 *
+	 * @param type
+	 *            the class to check
+	 * @return true, if the class is visible, false otherwise
+	 */
+	private static boolean isVisibleToFlip(Class<?> type) {
+		try {
+			return Class.forName(type.getName(), false,
+					Flip.class.getClassLoader()) == type;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Capitalizes the first letter of a name.
+	 *
+	 * @param name
+	 *            the name to capitalize
+	 * @return the capitalized name
+	 */
+	private static String capitalize(String name) {
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+}
@@ -0,0 +1,519 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Optional;
+
+/**
+ * {@link FlipBackend} which allocates and accesses memory through the
+ * <code>java.lang.foreign</code> API of JDK 21 and newer: blocks are allocated
+ * by downcalls to the C allocator and read and written through a memory
+ * segment spanning the whole address space. Since Flip is compiled for Java
+ * 8, the API is bound reflectively once into static final method handles,
+ * which the JIT compiler inlines like direct calls. Classes are defined as
+ * in {@link FlipLookupBackend}.
+ * <p>
+ * The segment spanning the whole address space is obtained through a
+ * restricted method, so the JVM should be started with
+ * <code>--enable-native-access=ALL-UNNAMED</code> to avoid a warning.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+class FlipForeignBackend extends FlipLookupBackend {
+
+	/**
+	 * Name of this backend.
+	 */
+	static final String NAME = "foreign";
+
+	/**
+	 * Package of the foreign API.
+	 */
+	private static final String FOREIGN_PACKAGE = "java.lang.foreign.";
+
+	/**
+	 * Calls <code>malloc</code>: (long)long.
+	 */
+	private static final MethodHandle MALLOC;
+
+	/**
+	 * Calls <code>realloc</code>: (long, long)long.
+	 */
+	private static final MethodHandle REALLOC;
+
+	/**
+	 * Calls <code>free</code>: (long)void.
+	 */
+	private static final MethodHandle FREE;
+
+	/**
+	 * Fills a region: (long, long, byte)void.
+	 */
+	private static final MethodHandle FILL;
+
+	/**
+	 * Copies a region: (long, long, long)void.
+	 */
+	private static final MethodHandle COPY;
+
+	/**
+	 * Reads a byte: (long)byte.
+	 */
+	private static final MethodHandle GET_BYTE;
+
+	/**
+	 * Writes a byte: (long, byte)void.
+	 */
+	private static final MethodHandle PUT_BYTE;
+
+	/**
+	 * Reads a short: (long)short.
+	 */
+	private static final MethodHandle GET_SHORT;
+
+	/**
+	 * Writes a short: (long, short)void.
+	 */
+	private static final MethodHandle PUT_SHORT;
+
+	/**
+	 * Reads an int: (long)int.
+	 */
+	private static final MethodHandle GET_INT;
+
+	/**
+	 * Writes an int: (long, int)void.
+	 */
+	private static final MethodHandle PUT_INT;
+
+	/**
+	 * Reads a long: (long)long.
+	 */
+	private static final MethodHandle GET_LONG;
+
+	/**
+	 * Writes a long: (long, long)void.
+	 */
+	private static final MethodHandle PUT_LONG;
+
+	/**
+	 * Why the foreign API can't be used, null if it can.
+	 */
+	private static final Throwable UNAVAILABILITY_CAUSE;
+
+	/**
+	 * Binds the foreign API.
+	 */
+	static {
+		MethodHandle[] handles = new MethodHandle[13];
+		Throwable unavailabilityCause = null;
+		try {
+			bind(handles);
+		} catch (Throwable e) {
+			unavailabilityCause = e;
+		}
+		MALLOC = handles[0];
+		REALLOC = handles[1];
+		FREE = handles[2];
+		FILL = handles[3];
+		COPY = handles[4];
+		GET_BYTE = handles[5];
+		PUT_BYTE = handles[6];
+		GET_SHORT = handles[7];
+		PUT_SHORT = handles[8];
+		GET_INT = handles[9];
+		PUT_INT = handles[10];
+		GET_LONG = handles[11];
+		PUT_LONG = handles[12];
+		UNAVAILABILITY_CAUSE = unavailabilityCause;
+	}
+
+	/**
+	 * Instantiates a new FlipForeignBackend.
+	 *
+	 * @throws FlipException
+	 *             if the foreign API is not available on this JVM
+	 */
+	FlipForeignBackend() {
+		if (UNAVAILABILITY_CAUSE != null) {
+			throw new FlipException(
+					"The java.lang.foreign API is not available on this JVM.",
+					UNAVAILABILITY_CAUSE);
+		}
+	}
+
+	/**
+	 * Looks up the foreign API and binds it into method handles taking and
+	 * returning addresses as longs.
+	 *
+	 * @param handles
+	 *            the array filled with the handles, in the order of the
+	 *            static fields
+	 * @throws Throwable
+	 *             if the API is not available
+	 */
+	private static void bind(MethodHandle[] handles) throws Throwable {
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		Class<?> segmentClass = foreignClass("MemorySegment");
+		Class<?> layoutClass = foreignClass("MemoryLayout");
+		Class<?> valueLayoutClass = foreignClass("ValueLayout");
+		Class<?> descriptorClass = foreignClass("FunctionDescriptor");
+		Class<?> linkerClass = foreignClass("Linker");
+		Class<?> optionClass = foreignClass("Linker$Option");
+		Class<?> symbolLookupClass = foreignClass("SymbolLookup");
+
+		// Segment spanning the whole address space.
+		Object everything = segmentClass.getMethod("reinterpret", long.class)
+				.invoke(segmentClass.getField("NULL").get(null),
+						Long.MAX_VALUE);
+
+		// Native allocator.
+		Object linker = linkerClass.getMethod("nativeLinker").invoke(null);
+		Object libc = linkerClass.getMethod("defaultLookup").invoke(linker);
+		Object javaLong = valueLayoutClass.getField("JAVA_LONG").get(null);
+		Object noOptions = Array.newInstance(optionClass, 0);
+		String[] functions = { "malloc", "realloc", "free" };
+		Object[][] signatures = { { javaLong, javaLong },
+				{ javaLong, javaLong, javaLong }, { null, javaLong } };
+		for (int i = 0; i < functions.length; i++) {
+			Optional<?> symbol = (Optional<?>) symbolLookupClass.getMethod(
+					"find", String.class).invoke(libc, functions[i]);
+			Object[] signature = signatures[i];
+			Object arguments = Array.newInstance(layoutClass,
+					signature.length - 1);
+			for (int j = 1; j < signature.length; j++) {
+				Array.set(arguments, j - 1, signature[j]);
+			}
+			Object descriptor = signature[0] == null ? descriptorClass
+					.getMethod("ofVoid", arguments.getClass()).invoke(null,
+							arguments) : descriptorClass.getMethod("of",
+					layoutClass, arguments.getClass()).invoke(null,
+					signature[0], arguments);
+			if (!symbol.isPresent()) {
+				throw new FlipException("Native function not found: "
+						+ functions[i]);
+			}
+			handles[i] = (MethodHandle) linkerClass.getMethod(
+					"downcallHandle", segmentClass, descriptorClass,
+					noOptions.getClass()).invoke(linker, symbol.get(),
+					descriptor, noOptions);
+		}
+
+		// Bulk operations.
+		MethodHandle slice = lookup.findVirtual(segmentClass, "asSlice",
+				MethodType.methodType(segmentClass, long.class, long.class))
+				.bindTo(everything);
+		MethodHandle fill = lookup.findVirtual(segmentClass, "fill",
+				MethodType.methodType(segmentClass, byte.class));
+		handles[3] = MethodHandles.collectArguments(fill, 0, slice).asType(
+				MethodType.methodType(void.class, long.class, long.class,
+						byte.class));
+		MethodHandle copy = lookup.findStatic(segmentClass, "copy",
+				MethodType.methodType(void.class, segmentClass, long.class,
+						segmentClass, long.class, long.class));
+		handles[4] = MethodHandles.insertArguments(
+				MethodHandles.insertArguments(copy, 2, everything), 0,
+				everything);
+
+		// Single accesses, unaligned like the ones of Unsafe.
+		String[] layouts = { "JAVA_BYTE", "JAVA_SHORT_UNALIGNED",
+				"JAVA_INT_UNALIGNED", "JAVA_LONG_UNALIGNED" };
+		Class<?>[] types = { byte.class, short.class, int.class, long.class };
+		for (int i = 0; i < layouts.length; i++) {
+			Object layout = valueLayoutClass.getField(layouts[i]).get(null);
+			Class<?> layoutType = layout.getClass().getInterfaces()[0];
+			handles[5 + 2 * i] = MethodHandles.insertArguments(
+					lookup.findVirtual(segmentClass, "get", MethodType
+							.methodType(types[i], layoutType, long.class)), 0,
+					everything, layout);
+			handles[6 + 2 * i] = MethodHandles.insertArguments(
+					lookup.findVirtual(segmentClass, "set", MethodType
+							.methodType(void.class, layoutType, long.class,
+									types[i])), 0, everything, layout);
+		}
+	}
+
+	/**
+	 * Loads a class of the foreign API.
+	 *
+	 * @param name
+	 *            the simple binary name of the class
+	 * @return the class
+	 * @throws ClassNotFoundException
+	 *             if the foreign API is not available
+	 */
+	private static Class<?> foreignClass(String name)
+			throws ClassNotFoundException {
+		return Class.forName(FOREIGN_PACKAGE + name);
+	}
+
+	/**
+	 * Checks if the foreign API can be used on this JVM.
+	 *
+	 * @return true, if the foreign API is available, false otherwise
+	 */
+	static boolean isAvailable() {
+		return UNAVAILABILITY_CAUSE == null;
+	}
+
+	/**
+	 * Wraps a throwable raised by a method handle.
+	 *
+	 * @param e
+	 *            the throwable
+	 * @return the unchecked throwable to rethrow
+	 */
+	private static RuntimeException rethrow(Throwable e) {
+		if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return new FlipException("Error while accessing memory", e);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getName()
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#allocateMemory(long)
+	 */
+	@Override
+	public long allocateMemory(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Negative size: " + bytes);
+		}
+		if (bytes == 0) {
+			return 0;
+		}
+		long address;
+		try {
+			address = (long) MALLOC.invokeExact(bytes);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+		if (address == 0) {
+			throw new OutOfMemoryError("Unable to allocate " + bytes
+					+ " bytes");
+		}
+		return address;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#reallocateMemory(long, long)
+	 */
+	@Override
+	public long reallocateMemory(long address, long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Negative size: " + bytes);
+		}
+		if (bytes == 0) {
+			freeMemory(address);
+			return 0;
+		}
+		long newAddress;
+		try {
+			newAddress = (long) REALLOC.invokeExact(address, bytes);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+		if (newAddress == 0) {
+			throw new OutOfMemoryError("Unable to allocate " + bytes
+					+ " bytes");
+		}
+		return newAddress;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#freeMemory(long)
+	 */
+	@Override
+	public void freeMemory(long address) {
+		try {
+			FREE.invokeExact(address);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#setMemory(long, long, byte)
+	 */
+	@Override
+	public void setMemory(long address, long bytes, byte value) {
+		try {
+			FILL.invokeExact(address, bytes, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#copyMemory(long, long, long)
+	 */
+	@Override
+	public void copyMemory(long source, long target, long bytes) {
+		try {
+			COPY.invokeExact(source, target, bytes);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getByte(long)
+	 */
+	@Override
+	public byte getByte(long address) {
+		try {
+			return (byte) GET_BYTE.invokeExact(address);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putByte(long, byte)
+	 */
+	@Override
+	public void putByte(long address, byte value) {
+		try {
+			PUT_BYTE.invokeExact(address, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getShort(long)
+	 */
+	@Override
+	public short getShort(long address) {
+		try {
+			return (short) GET_SHORT.invokeExact(address);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putShort(long, short)
+	 */
+	@Override
+	public void putShort(long address, short value) {
+		try {
+			PUT_SHORT.invokeExact(address, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getInt(long)
+	 */
+	@Override
+	public int getInt(long address) {
+		try {
+			return (int) GET_INT.invokeExact(address);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putInt(long, int)
+	 */
+	@Override
+	public void putInt(long address, int value) {
+		try {
+			PUT_INT.invokeExact(address, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getLong(long)
+	 */
+	@Override
+	public long getLong(long address) {
+		try {
+			return (long) GET_LONG.invokeExact(address);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putLong(long, long)
+	 */
+	@Override
+	public void putLong(long address, long value) {
+		try {
+			PUT_LONG.invokeExact(address, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+}
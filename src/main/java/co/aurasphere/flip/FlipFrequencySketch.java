@@ -0,0 +1,196 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Approximate counter of how often each key has been seen recently, used by
+ * {@link FlipCache} to decide whether a new entry is worth evicting an old
+ * one. It's a count-min sketch with four rows of counters, one byte each and
+ * capped at 15: each key is counted in one counter for each row, picked by
+ * double hashing, and its frequency is the smallest of them, so collisions
+ * can only overestimate it. Only the counters holding that smallest value are
+ * incremented, which keeps the overestimate low. Once the counted keys exceed
+ * eight times the width of a row, all the counters are halved, so keys which
+ * were popular long ago fade out.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipFrequencySketch {
+
+	/**
+	 * Number of rows, which is the number of counters for each key.
+	 */
+	private static final int DEPTH = 4;
+
+	/**
+	 * Highest value of a counter.
+	 */
+	private static final int MAXIMUM_FREQUENCY = 15;
+
+	/**
+	 * Number of increments for each counter of a row after which all the
+	 * counters are halved.
+	 */
+	private static final int AGING_PERIOD = 8;
+
+	/**
+	 * The counters, row after row.
+	 */
+	private byte[] counters = new byte[DEPTH];
+
+	/**
+	 * Mask which turns an hash into a column of a row. The width of a row is a
+	 * power of two, so this is the width minus one.
+	 */
+	private int columnMask;
+
+	/**
+	 * Number of increments after which the counters are halved.
+	 */
+	private int sampleSize = AGING_PERIOD;
+
+	/**
+	 * Number of increments since the counters were last halved.
+	 */
+	private int size;
+
+	/**
+	 * Grows the sketch to track at least a number of keys, if it's smaller.
+	 * Growing the sketch forgets all the counts.
+	 *
+	 * @param keys
+	 *            the number of keys to track
+	 */
+	void ensureCapacity(int keys) {
+		int width = keys <= 1 ? 1
+				: Integer.highestOneBit(Math.min(keys, 1 << 28) - 1) << 1;
+		if (width <= columnMask + 1) {
+			return;
+		}
+		counters = new byte[DEPTH * width];
+		columnMask = width - 1;
+		sampleSize = AGING_PERIOD * width;
+		size = 0;
+	}
+
+	/**
+	 * Gets the estimated frequency of a key.
+	 *
+	 * @param hash
+	 *            the hash code of the key
+	 * @return the estimated frequency of the key, up to 15
+	 */
+	int frequency(int hash) {
+		int first = mix(hash);
+		int step = stepOf(first);
+		int frequency = MAXIMUM_FREQUENCY;
+		for (int row = 0; row < DEPTH; row++) {
+			frequency = Math.min(frequency,
+					counters[counterOf(first, step, row)]);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Counts a key once more, halving all the counters every
+	 * {@link #sampleSize} increments.
+	 *
+	 * @param hash
+	 *            the hash code of the key
+	 */
+	void increment(int hash) {
+		int first = mix(hash);
+		int step = stepOf(first);
+		int minimum = MAXIMUM_FREQUENCY;
+		for (int row = 0; row < DEPTH; row++) {
+			minimum = Math.min(minimum, counters[counterOf(first, step, row)]);
+		}
+		if (minimum == MAXIMUM_FREQUENCY) {
+			return;
+		}
+
+		// Conservative update: only the counters which set the estimate grow.
+		for (int row = 0; row < DEPTH; row++) {
+			int counter = counterOf(first, step, row);
+			if (counters[counter] == minimum) {
+				counters[counter]++;
+			}
+		}
+		if (++size == sampleSize) {
+			for (int i = 0; i < counters.length; i++) {
+				counters[i] >>= 1;
+			}
+			size >>>= 1;
+		}
+	}
+
+	/**
+	 * Finds the counter of a key in a row.
+	 *
+	 * @param first
+	 *            the mixed hash of the key
+	 * @param step
+	 *            the step between the columns of two rows, from
+	 *            {@link #stepOf(int)}
+	 * @param row
+	 *            the row, from 0 to 3
+	 * @return the index of the counter in {@link #counters}
+	 */
+	private int counterOf(int first, int step, int row) {
+		return row * (columnMask + 1) + ((first + row * step) & columnMask);
+	}
+
+	/**
+	 * Derives the second hash used for double hashing from the first one.
+	 * It's odd, so that it's never a multiple of the width of a row and the
+	 * rows don't all use the same column.
+	 *
+	 * @param first
+	 *            the mixed hash of the key
+	 * @return the step between the columns of two rows
+	 */
+	private static int stepOf(int first) {
+		return Integer.rotateLeft(first, 16) | 1;
+	}
+
+	/**
+	 * Mixes the bits of an hash code, so that keys with similar hash codes
+	 * use different counters. It's the finalizer of MurmurHash3.
+	 *
+	 * @param hash
+	 *            the hash code
+	 * @return the mixed hash
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		return hash ^ (hash >>> 16);
+	}
+
+}
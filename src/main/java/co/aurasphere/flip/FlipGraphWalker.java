@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.ArrayDeque;
+
+import sun.misc.Unsafe;
+
+/**
+ * Walks all the objects reachable from a root, following both field
+ * references and array elements. The walk is iterative, using an explicit
+ * work stack so that deep graphs can't overflow the call stack, and each
+ * object is visited only once, no matter how many references point to it.
+ * References are read through the offsets cached in {@link FlipClassLayout},
+ * so no reflection happens for each visited object.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+class FlipGraphWalker {
+
+	/**
+	 * Unsafe used to read the references.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Filters that objects must pass to be visited.
+	 */
+	private final FlipObjectFilter[] filters;
+
+	/**
+	 * Instantiates a new FlipGraphWalker.
+	 *
+	 * @param filters
+	 *            the {@link #filters}
+	 */
+	FlipGraphWalker(FlipObjectFilter... filters) {
+		this.filters = filters == null ? new FlipObjectFilter[0] : filters;
+	}
+
+	/**
+	 * Walks the graph reachable from an object.
+	 *
+	 * @param root
+	 *            the object to start from
+	 * @return the sum of the shallow sizes of all the visited objects
+	 */
+	long walk(Object root) {
+		if (root == null || !accept(root)) {
+			return 0;
+		}
+
+		// Objects without references need no visited set.
+		FlipClassLayout rootLayout = FlipClassLayout.of(root.getClass());
+		if (!rootLayout.isObjectArray() && rootLayout.getReferenceCount() == 0) {
+			long size = rootLayout.sizeOf(root);
+			visit(root, size);
+			return size;
+		}
+		FlipIdentitySet visited = new FlipIdentitySet();
+		ArrayDeque<Object> stack = new ArrayDeque<Object>();
+		visited.add(root);
+		stack.push(root);
+
+		long totalSize = 0;
+		while (!stack.isEmpty()) {
+			Object object = stack.pop();
+			FlipClassLayout layout = FlipClassLayout.of(object.getClass());
+			long size = layout.sizeOf(object);
+			totalSize += size;
+			visit(object, size);
+
+			// Follows the references.
+			if (layout.isObjectArray()) {
+				for (Object element : (Object[]) object) {
+					if (element != null && visited.add(element)
+							&& accept(element)) {
+						stack.push(element);
+					}
+				}
+			} else {
+				for (int i = 0; i < layout.getReferenceCount(); i++) {
+					Object reference = UNSAFE.getObject(object,
+							layout.getReferenceOffset(i));
+					if (reference != null && visited.add(reference)
+							&& accept(reference)) {
+						stack.push(reference);
+					}
+				}
+			}
+		}
+		return totalSize;
+	}
+
+	/**
+	 * Called once for each visited object. Does nothing by default.
+	 *
+	 * @param object
+	 *            the visited object
+	 * @param size
+	 *            the shallow size of the object
+	 */
+	void visit(Object object, long size) {
+	}
+
+	/**
+	 * Checks if an object passes all the {@link #filters}.
+	 *
+	 * @param object
+	 *            the object to check
+	 * @return true, if the object passes all the filters, false otherwise
+	 */
+	private boolean accept(Object object) {
+		for (FlipObjectFilter filter : filters) {
+			if (!filter.accept(object)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Receiver of the results of
+ * {@link Flip#histogram(FlipHistogramSink, int, Object...)}. Results are
+ * pushed one at a time, so the caller decides whether to print, aggregate or
+ * discard them without Flip building a result structure.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public interface FlipHistogramSink {
+
+	/**
+	 * Receives the totals of a class. Classes are received from the one
+	 * taking the most bytes to the one taking the least.
+	 *
+	 * @param type
+	 *            the class
+	 * @param instances
+	 *            the number of reachable instances of the class
+	 * @param bytes
+	 *            the sum of the shallow sizes of the instances
+	 */
+	void classEntry(Class<?> type, long instances, long bytes);
+
+	/**
+	 * Receives one of the top retainers, after all the class entries.
+	 * Retainers are received from the one retaining the most bytes to the one
+	 * retaining the least.
+	 *
+	 * @param object
+	 *            the retaining object
+	 * @param retainedBytes
+	 *            the bytes retained by the object, including its own shallow
+	 *            size
+	 */
+	void retainer(Object object, long retainedBytes);
+
+}
@@ -0,0 +1,379 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import sun.misc.Unsafe;
+
+/**
+ * Walks all the objects reachable from some roots, counting instances and
+ * shallow bytes for each class and finding the objects which retain the most
+ * bytes.
+ * <p>
+ * The walk is a depth-first one with an explicit stack of frames, so each
+ * object is finished only after all the objects first reached through it.
+ * The bytes retained by an object are the sum of the shallow sizes of the
+ * objects first reached through it, which is the size of its subtree in the
+ * spanning tree built by the walk. For graphs without shared references this
+ * is the exact retained size, otherwise a shared object is attributed to the
+ * first object reaching it. Memory used by the walk is proportional to the
+ * visited objects set, the depth of the graph, the number of classes and the
+ * number of retainers kept.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipHistogramWalker {
+
+	/**
+	 * Unsafe used to read the references.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Initial depth of the stack.
+	 */
+	private static final int INITIAL_DEPTH = 64;
+
+	/**
+	 * Orders the retainers from the one retaining the least bytes.
+	 */
+	private static final Comparator<Retainer> RETAINER_ORDER = new Comparator<Retainer>() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Comparator#compare(java.lang.Object,
+		 * java.lang.Object)
+		 */
+		@Override
+		public int compare(Retainer first, Retainer second) {
+			return Long.compare(first.retainedBytes, second.retainedBytes);
+		}
+	};
+
+	/**
+	 * Number of top retainers to report.
+	 */
+	private final int retainerCount;
+
+	/**
+	 * Objects already reached.
+	 */
+	private final FlipIdentitySet visited = new FlipIdentitySet();
+
+	/**
+	 * Counters of each class, holding the instances and the bytes.
+	 */
+	private final Map<Class<?>, long[]> classCounters = new HashMap<Class<?>, long[]>();
+
+	/**
+	 * Top retainers found so far, with the smallest one at the head.
+	 */
+	private final PriorityQueue<Retainer> retainers;
+
+	/**
+	 * Objects on the stack.
+	 */
+	private Object[] stackObjects = new Object[INITIAL_DEPTH];
+
+	/**
+	 * Layouts of the objects on the stack.
+	 */
+	private FlipClassLayout[] stackLayouts = new FlipClassLayout[INITIAL_DEPTH];
+
+	/**
+	 * Index of the next reference to follow for each object on the stack.
+	 */
+	private int[] stackNextReference = new int[INITIAL_DEPTH];
+
+	/**
+	 * Bytes retained so far by each object on the stack.
+	 */
+	private long[] stackRetained = new long[INITIAL_DEPTH];
+
+	/**
+	 * Number of objects on the stack.
+	 */
+	private int depth;
+
+	/**
+	 * Class of the last pushed object, used to skip the counters lookup for
+	 * runs of objects of the same class.
+	 */
+	private Class<?> lastClass;
+
+	/**
+	 * Counters of {@link #lastClass}.
+	 */
+	private long[] lastCounters;
+
+	/**
+	 * Instantiates a new FlipHistogramWalker.
+	 *
+	 * @param retainerCount
+	 *            the {@link #retainerCount}
+	 */
+	FlipHistogramWalker(int retainerCount) {
+		if (retainerCount < 0) {
+			throw new IllegalArgumentException(
+					"Negative number of retainers: " + retainerCount);
+		}
+		this.retainerCount = retainerCount;
+		this.retainers = new PriorityQueue<Retainer>(
+				Math.max(1, retainerCount), RETAINER_ORDER);
+	}
+
+	/**
+	 * Walks the graph reachable from the roots and sends the results to a
+	 * sink.
+	 *
+	 * @param sink
+	 *            the sink receiving the results
+	 * @param roots
+	 *            the objects to start from
+	 * @return the sum of the shallow sizes of all the visited objects
+	 */
+	long walk(FlipHistogramSink sink, Object... roots) {
+		long totalSize = 0;
+		for (Object root : roots) {
+			if (root != null && visited.add(root)) {
+				push(root);
+				totalSize += walkFromTop();
+			}
+		}
+
+		// Streams the classes, then the retainers, the biggest first.
+		sendClasses(sink, classCounters);
+		Retainer[] topRetainers = retainers.toArray(new Retainer[retainers
+				.size()]);
+		Arrays.sort(topRetainers, Collections.reverseOrder(RETAINER_ORDER));
+		for (Retainer retainer : topRetainers) {
+			sink.retainer(retainer.object, retainer.retainedBytes);
+		}
+		return totalSize;
+	}
+
+	/**
+	 * Streams the counters of each class to a sink, from the class using the
+	 * most bytes.
+	 *
+	 * @param sink
+	 *            the sink receiving the counters
+	 * @param classCounters
+	 *            the instances and the bytes of each class
+	 */
+	static void sendClasses(FlipHistogramSink sink,
+			Map<Class<?>, long[]> classCounters) {
+		List<Map.Entry<Class<?>, long[]>> classes = new ArrayList<Map.Entry<Class<?>, long[]>>(
+				classCounters.entrySet());
+		Collections.sort(classes,
+				new Comparator<Map.Entry<Class<?>, long[]>>() {
+
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see java.util.Comparator#compare(java.lang.Object,
+					 * java.lang.Object)
+					 */
+					@Override
+					public int compare(Map.Entry<Class<?>, long[]> first,
+							Map.Entry<Class<?>, long[]> second) {
+						return Long.compare(second.getValue()[1],
+								first.getValue()[1]);
+					}
+				});
+		for (Map.Entry<Class<?>, long[]> entry : classes) {
+			sink.classEntry(entry.getKey(), entry.getValue()[0],
+					entry.getValue()[1]);
+		}
+	}
+
+	/**
+	 * Walks the objects reachable from the object on top of the stack, until
+	 * the stack is empty.
+	 *
+	 * @return the bytes retained by the object on top of the stack
+	 */
+	private long walkFromTop() {
+		while (true) {
+			int top = depth - 1;
+			Object object = stackObjects[top];
+			Object next = nextReference(object, stackLayouts[top], top);
+			if (next != null) {
+				push(next);
+				continue;
+			}
+
+			// All the references have been followed.
+			long retained = stackRetained[top];
+			offerRetainer(object, retained);
+			stackObjects[top] = null;
+			stackLayouts[top] = null;
+			depth = top;
+			if (top == 0) {
+				return retained;
+			}
+			stackRetained[top - 1] += retained;
+		}
+	}
+
+	/**
+	 * Finds the next reference of an object on the stack which has not been
+	 * reached yet.
+	 *
+	 * @param object
+	 *            the object on the stack
+	 * @param layout
+	 *            the layout of the object
+	 * @param frame
+	 *            the position of the object on the stack
+	 * @return the next reference to follow or null if there's none left
+	 */
+	private Object nextReference(Object object, FlipClassLayout layout,
+			int frame) {
+		int index = stackNextReference[frame];
+		if (layout.isObjectArray()) {
+			Object[] array = (Object[]) object;
+			while (index < array.length) {
+				Object element = array[index++];
+				if (element != null && visited.add(element)) {
+					stackNextReference[frame] = index;
+					return element;
+				}
+			}
+		} else {
+			int referenceCount = layout.getReferenceCount();
+			while (index < referenceCount) {
+				Object reference = UNSAFE.getObject(object,
+						layout.getReferenceOffset(index++));
+				if (reference != null && visited.add(reference)) {
+					stackNextReference[frame] = index;
+					return reference;
+				}
+			}
+		}
+		stackNextReference[frame] = index;
+		return null;
+	}
+
+	/**
+	 * Counts an object and pushes it on the stack.
+	 *
+	 * @param object
+	 *            the object to push
+	 */
+	private void push(Object object) {
+		Class<?> klass = object.getClass();
+		FlipClassLayout layout = FlipClassLayout.of(klass);
+		long size = layout.sizeOf(object);
+
+		// Updates the class counters.
+		if (klass != lastClass) {
+			lastCounters = classCounters.get(klass);
+			if (lastCounters == null) {
+				lastCounters = new long[2];
+				classCounters.put(klass, lastCounters);
+			}
+			lastClass = klass;
+		}
+		lastCounters[0]++;
+		lastCounters[1] += size;
+
+		if (depth == stackObjects.length) {
+			int newDepth = depth << 1;
+			stackObjects = Arrays.copyOf(stackObjects, newDepth);
+			stackLayouts = Arrays.copyOf(stackLayouts, newDepth);
+			stackNextReference = Arrays.copyOf(stackNextReference, newDepth);
+			stackRetained = Arrays.copyOf(stackRetained, newDepth);
+		}
+		stackObjects[depth] = object;
+		stackLayouts[depth] = layout;
+		stackNextReference[depth] = 0;
+		stackRetained[depth] = size;
+		depth++;
+	}
+
+	/**
+	 * Keeps an object among the top retainers if it retains enough bytes.
+	 *
+	 * @param object
+	 *            the object
+	 * @param retainedBytes
+	 *            the bytes retained by the object
+	 */
+	private void offerRetainer(Object object, long retainedBytes) {
+		if (retainerCount == 0) {
+			return;
+		}
+		if (retainers.size() < retainerCount) {
+			retainers.add(new Retainer(object, retainedBytes));
+		} else if (retainedBytes > retainers.peek().retainedBytes) {
+			retainers.poll();
+			retainers.add(new Retainer(object, retainedBytes));
+		}
+	}
+
+	/**
+	 * An object along with the bytes it retains.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static final class Retainer {
+
+		/**
+		 * The retaining object.
+		 */
+		private final Object object;
+
+		/**
+		 * The bytes retained by the object.
+		 */
+		private final long retainedBytes;
+
+		/**
+		 * Instantiates a new Retainer.
+		 *
+		 * @param object
+		 *            the {@link #object}
+		 * @param retainedBytes
+		 *            the {@link #retainedBytes}
+		 */
+		private Retainer(Object object, long retainedBytes) {
+			this.object = object;
+			this.retainedBytes = retainedBytes;
+		}
+
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Minimal map whose keys are compared by identity, used to keep track of the
+ * copies of the objects already copied while copying an object graph. Like
+ * {@link FlipIdentitySet}, it's an open addressing table with linear probing,
+ * with keys and values stored next to each other in the same array.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipIdentityMap {
+
+	/**
+	 * Initial number of slots of the table, must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 1 << 9;
+
+	/**
+	 * Maximum number of slots of the table.
+	 */
+	private static final int MAXIMUM_CAPACITY = 1 << 29;
+
+	/**
+	 * Table of the entries, each taking two elements: the key followed by the
+	 * value. Empty slots have a null key.
+	 */
+	private Object[] table = new Object[INITIAL_CAPACITY << 1];
+
+	/**
+	 * Number of entries in the map.
+	 */
+	private int size;
+
+	/**
+	 * Associates a value to a key which is not in the map yet.
+	 *
+	 * @param key
+	 *            the key, not null and not in the map
+	 * @param value
+	 *            the value
+	 */
+	void put(Object key, Object value) {
+		Object[] tab = table;
+		int mask = tab.length - 2;
+		int index = hash(key) & mask;
+		while (tab[index] != null) {
+			index = (index + 2) & mask;
+		}
+		tab[index] = key;
+		tab[index + 1] = value;
+
+		// Keeps the load factor under 0.5.
+		if (++size > (tab.length >>> 2)) {
+			resize();
+		}
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key, not null
+	 * @return the value of the key or null if the key is not in the map
+	 */
+	Object get(Object key) {
+		Object[] tab = table;
+		int mask = tab.length - 2;
+		int index = hash(key) & mask;
+		Object current;
+		while ((current = tab[index]) != null) {
+			if (current == key) {
+				return tab[index + 1];
+			}
+			index = (index + 2) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the {@link #size}.
+	 *
+	 * @return the {@link #size}
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Doubles the capacity of the table.
+	 */
+	private void resize() {
+		Object[] oldTable = table;
+		if (oldTable.length == MAXIMUM_CAPACITY << 1) {
+			throw new FlipException("Too many objects in identity map.");
+		}
+		Object[] newTable = new Object[oldTable.length << 1];
+		int mask = newTable.length - 2;
+		for (int i = 0; i < oldTable.length; i += 2) {
+			Object key = oldTable[i];
+			if (key != null) {
+				int index = hash(key) & mask;
+				while (newTable[index] != null) {
+					index = (index + 2) & mask;
+				}
+				newTable[index] = key;
+				newTable[index + 1] = oldTable[i + 1];
+			}
+		}
+		table = newTable;
+	}
+
+	/**
+	 * Computes the hash of an object from its identity hash code, spreading
+	 * the bits and clearing the lowest one, so that it points to a key slot.
+	 *
+	 * @param object
+	 *            the object to hash
+	 * @return the hash of the object
+	 */
+	private static int hash(Object object) {
+		int h = System.identityHashCode(object);
+		return (h ^ (h >>> 16) ^ (h << 7)) << 1;
+	}
+
+}
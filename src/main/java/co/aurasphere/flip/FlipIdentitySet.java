@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Minimal set of objects compared by identity, used to keep track of the
+ * objects already visited while walking an object graph. It's an open
+ * addressing table with linear probing, so adding an object never allocates
+ * anything besides the table itself when it grows.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipIdentitySet {
+
+	/**
+	 * Initial capacity of the table, must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	/**
+	 * Maximum capacity of the table.
+	 */
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	/**
+	 * Table of the objects, empty slots are null.
+	 */
+	private Object[] table = new Object[INITIAL_CAPACITY];
+
+	/**
+	 * Number of objects in the set.
+	 */
+	private int size;
+
+	/**
+	 * Adds an object to the set.
+	 *
+	 * @param object
+	 *            the object to add, not null
+	 * @return true, if the object was not already in the set, false otherwise
+	 */
+	boolean add(Object object) {
+		Object[] tab = table;
+		int mask = tab.length - 1;
+		int index = hash(object) & mask;
+		Object current;
+		while ((current = tab[index]) != null) {
+			if (current == object) {
+				return false;
+			}
+			index = (index + 1) & mask;
+		}
+		tab[index] = object;
+
+		// Keeps the load factor under 0.5.
+		if (++size > (tab.length >>> 1)) {
+			resize();
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if an object is in the set.
+	 *
+	 * @param object
+	 *            the object to check, not null
+	 * @return true, if the object is in the set, false otherwise
+	 */
+	boolean contains(Object object) {
+		Object[] tab = table;
+		int mask = tab.length - 1;
+		int index = hash(object) & mask;
+		Object current;
+		while ((current = tab[index]) != null) {
+			if (current == object) {
+				return true;
+			}
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the {@link #size}.
+	 *
+	 * @return the {@link #size}
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Doubles the capacity of the table.
+	 */
+	private void resize() {
+		Object[] oldTable = table;
+		if (oldTable.length == MAXIMUM_CAPACITY) {
+			throw new FlipException("Too many objects in identity set.");
+		}
+		Object[] newTable = new Object[oldTable.length << 1];
+		int mask = newTable.length - 1;
+		for (Object object : oldTable) {
+			if (object != null) {
+				int index = hash(object) & mask;
+				while (newTable[index] != null) {
+					index = (index + 1) & mask;
+				}
+				newTable[index] = object;
+			}
+		}
+		table = newTable;
+	}
+
+	/**
+	 * Computes the hash of an object from its identity hash code, spreading
+	 * the bits so that linear probing works well.
+	 *
+	 * @param object
+	 *            the object to hash
+	 * @return the hash of the object
+	 */
+	private static int hash(Object object) {
+		int h = System.identityHashCode(object);
+		return h ^ (h >>> 16) ^ (h << 7);
+	}
+
+}
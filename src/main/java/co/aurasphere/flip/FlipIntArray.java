@@ -0,0 +1,307 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.function.IntConsumer;
+
+import sun.misc.Unsafe;
+
+/**
+ * Growable array of ints stored off-heap. Values take exactly 4 bytes each,
+ * are invisible to the garbage collector and can be indexed with a long, so
+ * the array is not limited to {@link Integer#MAX_VALUE} elements.
+ * <p>
+ * The memory should be released with {@link #free()}. If the array becomes
+ * unreachable before, the memory is released after the garbage collector
+ * finds it, see {@link FlipMemory}. Arrays are not thread-safe.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipIntArray {
+
+	/**
+	 * Default initial capacity.
+	 */
+	public static final long DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Size of an element in bytes.
+	 */
+	private static final long ELEMENT_SIZE = 4;
+
+	/**
+	 * Backend used to access memory.
+	 */
+	private static final FlipBackend BACKEND = FlipSystemInformation
+			.getBackend();
+
+	/**
+	 * Unsafe used to copy memory from and to arrays on the heap.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Base offset of an int[], used for bulk copies.
+	 */
+	private static final long ARRAY_BASE_OFFSET = UNSAFE
+			.arrayBaseOffset(int[].class);
+
+	/**
+	 * Address of the first element.
+	 */
+	private long address;
+
+	/**
+	 * Number of elements the array can hold before growing.
+	 */
+	private long capacity;
+
+	/**
+	 * Number of elements in the array.
+	 */
+	private long size;
+
+	/**
+	 * True once the array has been freed.
+	 */
+	private boolean freed;
+
+	/**
+	 * Instantiates a new FlipIntArray with {@link #DEFAULT_CAPACITY}.
+	 */
+	public FlipIntArray() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new FlipIntArray.
+	 *
+	 * @param capacity
+	 *            the initial {@link #capacity}
+	 */
+	public FlipIntArray(long capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Negative capacity: " + capacity);
+		}
+		this.capacity = Math.max(capacity, 1);
+		this.address = FlipMemory.allocate(this.capacity * ELEMENT_SIZE, this);
+	}
+
+	/**
+	 * Appends a value at the end of the array.
+	 *
+	 * @param value
+	 *            the value to append
+	 */
+	public void add(int value) {
+		if (size == capacity) {
+			ensureCapacity(size + 1);
+		}
+		BACKEND.putInt(address + size * ELEMENT_SIZE, value);
+		size++;
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Appends some values at the end of the array with a single copy.
+	 *
+	 * @param values
+	 *            the source of the values
+	 * @param offset
+	 *            the index of the first value to append
+	 * @param length
+	 *            the number of values to append
+	 */
+	public void addAll(int[] values, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > values.length) {
+			throw new IndexOutOfBoundsException("Offset " + offset
+					+ ", length " + length + ", array length "
+					+ values.length);
+		}
+		ensureCapacity(size + length);
+		UNSAFE.copyMemory(values, ARRAY_BASE_OFFSET + offset * ELEMENT_SIZE,
+				null, address + size * ELEMENT_SIZE, length * ELEMENT_SIZE);
+		size += length;
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Gets a value.
+	 *
+	 * @param index
+	 *            the index of the value
+	 * @return the value
+	 */
+	public int get(long index) {
+		checkIndex(index);
+		try {
+			return BACKEND.getInt(address + index * ELEMENT_SIZE);
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Replaces a value.
+	 *
+	 * @param index
+	 *            the index of the value
+	 * @param value
+	 *            the new value
+	 */
+	public void set(long index, int value) {
+		checkIndex(index);
+		BACKEND.putInt(address + index * ELEMENT_SIZE, value);
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Copies some values to an heap array with a single copy.
+	 *
+	 * @param index
+	 *            the index of the first value to copy
+	 * @param destination
+	 *            the array to copy the values into
+	 * @param offset
+	 *            the index of destination where the first value is copied
+	 * @param length
+	 *            the number of values to copy
+	 */
+	public void get(long index, int[] destination, int offset, int length) {
+		if (index < 0 || length < 0 || index + length > size || offset < 0
+				|| offset + length > destination.length) {
+			throw new IndexOutOfBoundsException("Index " + index + ", offset "
+					+ offset + ", length " + length + ", size " + size);
+		}
+		UNSAFE.copyMemory(null, address + index * ELEMENT_SIZE, destination,
+				ARRAY_BASE_OFFSET + offset * ELEMENT_SIZE, length * ELEMENT_SIZE);
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Passes each value to a consumer, in order.
+	 *
+	 * @param consumer
+	 *            the consumer of the values
+	 */
+	public void forEach(IntConsumer consumer) {
+		long end = address + size * ELEMENT_SIZE;
+		for (long current = address; current < end; current += ELEMENT_SIZE) {
+			consumer.accept(BACKEND.getInt(current));
+		}
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Makes sure the array can hold a number of elements without growing,
+	 * growing it by at least half of its capacity otherwise.
+	 *
+	 * @param minCapacity
+	 *            the number of elements to hold
+	 * @throws FlipException
+	 *             if the array has been freed
+	 */
+	public void ensureCapacity(long minCapacity) {
+		if (freed) {
+			throw new FlipException("Array already freed.");
+		}
+		if (minCapacity > capacity) {
+			long newCapacity = Math.max(minCapacity, capacity + (capacity >>> 1));
+			address = FlipMemory.reallocate(address, newCapacity
+					* ELEMENT_SIZE);
+			capacity = newCapacity;
+		}
+	}
+
+	/**
+	 * Removes all the values, keeping the memory reserved.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Releases the memory of the array. The array can't be used anymore.
+	 */
+	public void free() {
+		if (!freed) {
+			FlipMemory.free(address);
+			address = 0;
+			capacity = 0;
+			size = 0;
+			freed = true;
+		}
+	}
+
+	/**
+	 * Checks that an index is in the array.
+	 *
+	 * @param index
+	 *            the index to check
+	 */
+	private void checkIndex(long index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size "
+					+ size);
+		}
+	}
+
+	/**
+	 * Gets the {@link #size}.
+	 *
+	 * @return the {@link #size}
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Gets the {@link #capacity}.
+	 *
+	 * @return the {@link #capacity}
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of bytes of native memory reserved by the array.
+	 *
+	 * @return the number of bytes reserved
+	 */
+	public long getReservedBytes() {
+		return capacity * ELEMENT_SIZE;
+	}
+
+	/**
+	 * Checks if the array has been freed.
+	 *
+	 * @return true, if the array has been freed, false otherwise
+	 */
+	public boolean isFreed() {
+		return freed;
+	}
+
+}
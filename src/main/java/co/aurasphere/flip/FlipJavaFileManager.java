@@ -25,17 +25,23 @@ package co.aurasphere.flip;
 
 import java.io.ByteArrayOutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.SimpleJavaFileObject;
-import javax.tools.ToolProvider;
 
 /**
  * Java file manager used by
- * {@link Flip#dynamicClassDefinition(String, String, String)}.
+ * {@link Flip#dynamicClassDefinitions(java.util.Map, FlipClassCache)}. It
+ * serves the sources from memory and keeps each class file produced by the
+ * compiler, including the ones of nested, local and anonymous classes, in
+ * memory as well.
  * 
  * @author Donato Rimenti
  *
@@ -43,23 +49,32 @@ import javax.tools.ToolProvider;
 class FlipJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
 
 	/**
-	 * Java file object managed by this file manager.
+	 * Source files managed by this file manager.
 	 */
-	private final FlipJavaFileObject javaFile;
+	private final List<FlipJavaFileObject> sourceFiles = new ArrayList<FlipJavaFileObject>();
+
+	/**
+	 * Class files produced by the compiler, by binary class name.
+	 */
+	private final Map<String, FlipJavaFileObject> classFiles = new LinkedHashMap<String, FlipJavaFileObject>();
 
 	/**
 	 * Instantiates a new FlipJavaFileManager.
 	 *
-	 * @param fullClassName
-	 *            the full class name
-	 * @param classSource
-	 *            the class source
+	 * @param fileManager
+	 *            the file manager used for everything but the sources and the
+	 *            class files produced
+	 * @param classSources
+	 *            the class sources, by binary class name
 	 */
-	FlipJavaFileManager(String fullClassName, String classSource) {
-		super(ToolProvider.getSystemJavaCompiler().getStandardFileManager(null,
-				null, null));
-		this.javaFile = new FlipJavaFileObject(URI.create(fullClassName
-				+ ".java"), classSource);
+	FlipJavaFileManager(JavaFileManager fileManager,
+			Map<String, String> classSources) {
+		super(fileManager);
+		for (Map.Entry<String, String> classSource : classSources.entrySet()) {
+			sourceFiles.add(new FlipJavaFileObject(URI.create(classSource
+					.getKey().replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+					JavaFileObject.Kind.SOURCE, classSource.getValue()));
+		}
 	}
 
 	/*
@@ -73,21 +88,40 @@ class FlipJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
 	@Override
 	public JavaFileObject getJavaFileForOutput(Location location,
 			String className, JavaFileObject.Kind kind, FileObject sibling) {
-		return javaFile;
+		FlipJavaFileObject classFile = new FlipJavaFileObject(
+				URI.create(className.replace('.', '/') + kind.extension), kind,
+				null);
+		classFiles.put(className, classFile);
+		return classFile;
+	}
+
+	/**
+	 * Gets the {@link #sourceFiles}.
+	 *
+	 * @return the {@link #sourceFiles}
+	 */
+	public List<FlipJavaFileObject> getSourceFiles() {
+		return sourceFiles;
 	}
 
 	/**
-	 * Gets the {@link #javaFile}.
+	 * Gets the bytecode of the class files produced by the compiler.
 	 *
-	 * @return the {@link #javaFile}
+	 * @return the bytecode of the class files, by binary class name
 	 */
-	public FlipJavaFileObject getJavaFile() {
-		return javaFile;
+	public Map<String, byte[]> getClassFiles() {
+		Map<String, byte[]> bytecodes = new LinkedHashMap<String, byte[]>();
+		for (Map.Entry<String, FlipJavaFileObject> classFile : classFiles
+				.entrySet()) {
+			bytecodes.put(classFile.getKey(), classFile.getValue()
+					.openOutputStream().toByteArray());
+		}
+		return bytecodes;
 	}
 
 	/**
 	 * Java File Object used by
-	 * {@link Flip#dynamicClassDefinition(String, String, String)}.
+	 * {@link Flip#dynamicClassDefinitions(java.util.Map, FlipClassCache)}.
 	 * 
 	 * @author Donato Rimenti
 	 *
@@ -95,7 +129,7 @@ class FlipJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
 	class FlipJavaFileObject extends SimpleJavaFileObject {
 
 		/**
-		 * The class source.
+		 * The class source, null for class files.
 		 */
 		private final String classSource;
 
@@ -109,11 +143,13 @@ class FlipJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
 		 *
 		 * @param uri
 		 *            the uri
+		 * @param kind
+		 *            the kind of file
 		 * @param classSource
 		 *            the {@link #classSource}
 		 */
-		FlipJavaFileObject(URI uri, String classSource) {
-			super(uri, Kind.SOURCE);
+		FlipJavaFileObject(URI uri, Kind kind, String classSource) {
+			super(uri, kind);
 			this.classSource = classSource;
 		}
 
@@ -0,0 +1,476 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Immutable snapshot of how the underlying JVM lays objects out in memory.
+ * HotSpot objects start with a header made of a mark word and a pointer to
+ * their class, which may be compressed:
+ * 
+ * <pre>
+ * For 32 bit JVM:
+ * 	_mark	: 4 byte constant
+ * 	_klass	: 4 byte pointer to class 
+ * 
+ * For 64 bit JVM:
+ * 	_mark	: 8 byte constant
+ * 	_klass	: 8 byte pointer to class
+ * 
+ * For 64 bit JVM with compressed class pointers:
+ * 	_mark	: 8 byte constant
+ * 	_klass	: 4 byte pointer to class
+ * 
+ * For 64 bit JVM with compact object headers:
+ * 	_mark	: 8 byte constant, with the class pointer in the upper bits
+ * </pre>
+ * 
+ * References and class pointers, when compressed, are stored as 32-bit
+ * values which are decoded as <code>base + (value &lt;&lt; shift)</code>.
+ * Since the bases can't be read from Java, the base of compressed references
+ * is known only when it's 0 and the base and shift of compressed class
+ * pointers only where {@link FlipSystemInformation} can derive them or they
+ * are supplied. Otherwise they are {@link #UNKNOWN_BASE} and decoding fails.
+ * 
+ * @author Donato Rimenti
+ * @see FlipSystemInformation#getJvmLayout()
+ *
+ */
+public final class FlipJvmLayout {
+
+	/**
+	 * Value of the compressed pointers bases when they can't be found out,
+	 * which happens when HotSpot can't place the heap or the class space in
+	 * the range addressable by a shifted 32-bit value.
+	 */
+	public static final long UNKNOWN_BASE = -1L;
+
+	/**
+	 * Value of the compressed pointers bases until they are needed, since
+	 * resolving them may require reading the options the JVM was started with.
+	 */
+	static final long LAZY_BASE = -2L;
+
+	/**
+	 * Value of the shift of compressed class pointers when it can't be found
+	 * out, which happens whenever their base can't.
+	 */
+	public static final int UNKNOWN_SHIFT = -1;
+
+	/**
+	 * Value of the shift of compressed class pointers until it's needed, since
+	 * it's resolved together with their base.
+	 */
+	static final int LAZY_SHIFT = -2;
+
+	/**
+	 * Bit position of the class pointer inside the mark word when compact
+	 * object headers are enabled.
+	 */
+	private static final int COMPACT_KLASS_SHIFT = 42;
+
+	/**
+	 * Size of a native address, in bytes.
+	 */
+	private final int addressSize;
+
+	/**
+	 * Size of a reference stored in a field or array, in bytes.
+	 */
+	private final int referenceSize;
+
+	/**
+	 * Size of the mark word, in bytes.
+	 */
+	private final int markWordSize;
+
+	/**
+	 * Size of the class pointer in the header, in bytes. It's 0 if the class
+	 * pointer is stored in the mark word.
+	 */
+	private final int klassPointerSize;
+
+	/**
+	 * Size of the object header, in bytes.
+	 */
+	private final int headerSize;
+
+	/**
+	 * Alignment of the objects in memory, in bytes.
+	 */
+	private final int objectAlignment;
+
+	/**
+	 * True if references are compressed.
+	 */
+	private final boolean compressedOops;
+
+	/**
+	 * True if class pointers are compressed.
+	 */
+	private final boolean compressedClassPointers;
+
+	/**
+	 * True if the class pointer is stored in the mark word.
+	 */
+	private final boolean compactObjectHeaders;
+
+	/**
+	 * Base of the compressed references.
+	 */
+	private final long narrowOopBase;
+
+	/**
+	 * Shift of the compressed references.
+	 */
+	private final int narrowOopShift;
+
+	/**
+	 * Base of the compressed class pointers.
+	 */
+	private final long narrowKlassBase;
+
+	/**
+	 * Shift of the compressed class pointers.
+	 */
+	private final int narrowKlassShift;
+
+	/**
+	 * Instantiates a new FlipJvmLayout.
+	 *
+	 * @param addressSize
+	 *            the {@link #addressSize}
+	 * @param referenceSize
+	 *            the {@link #referenceSize}
+	 * @param headerSize
+	 *            the {@link #headerSize}
+	 * @param objectAlignment
+	 *            the {@link #objectAlignment}
+	 * @param compressedOops
+	 *            the {@link #compressedOops}
+	 * @param compressedClassPointers
+	 *            the {@link #compressedClassPointers}
+	 * @param compactObjectHeaders
+	 *            the {@link #compactObjectHeaders}
+	 * @param narrowOopBase
+	 *            the {@link #narrowOopBase}
+	 * @param narrowOopShift
+	 *            the {@link #narrowOopShift}
+	 * @param narrowKlassBase
+	 *            the {@link #narrowKlassBase}
+	 * @param narrowKlassShift
+	 *            the {@link #narrowKlassShift}
+	 */
+	FlipJvmLayout(int addressSize, int referenceSize, int headerSize,
+			int objectAlignment, boolean compressedOops,
+			boolean compressedClassPointers, boolean compactObjectHeaders,
+			long narrowOopBase, int narrowOopShift, long narrowKlassBase,
+			int narrowKlassShift) {
+		this.addressSize = addressSize;
+		this.referenceSize = referenceSize;
+		this.markWordSize = addressSize;
+		this.headerSize = headerSize;
+		this.objectAlignment = objectAlignment;
+		this.compressedOops = compressedOops;
+		this.compressedClassPointers = compressedClassPointers;
+		this.compactObjectHeaders = compactObjectHeaders;
+		this.narrowOopBase = narrowOopBase;
+		this.narrowOopShift = narrowOopShift;
+		this.narrowKlassBase = narrowKlassBase;
+		this.narrowKlassShift = narrowKlassShift;
+		if (compactObjectHeaders) {
+			this.klassPointerSize = 0;
+		} else if (compressedClassPointers) {
+			this.klassPointerSize = 4;
+		} else {
+			this.klassPointerSize = addressSize;
+		}
+	}
+
+	/**
+	 * Decodes a reference as stored in a field or array into an address.
+	 *
+	 * @param reference
+	 *            the stored reference, unsigned
+	 * @return the address of the referenced object
+	 * @throws FlipException
+	 *             if the base of the compressed references is unknown
+	 */
+	public long decodeOop(long reference) {
+		if (!compressedOops) {
+			return reference;
+		}
+		long base = getNarrowOopBase();
+		if (base == UNKNOWN_BASE) {
+			throw new FlipException(
+					"Unknown base for compressed references on this JVM.");
+		}
+		return base + (reference << narrowOopShift);
+	}
+
+	/**
+	 * Encodes an address into a reference which can be stored in a field or
+	 * array.
+	 *
+	 * @param address
+	 *            the address of an object
+	 * @return the reference to store
+	 * @throws FlipException
+	 *             if the address can't be represented as a compressed
+	 *             reference
+	 */
+	public long encodeOop(long address) {
+		if (!compressedOops) {
+			return address;
+		}
+		if (!canEncodeOop(address)) {
+			throw new FlipException("Address " + Long.toHexString(address)
+					+ " can't be represented as a compressed reference.");
+		}
+		return (address - getNarrowOopBase()) >>> narrowOopShift;
+	}
+
+	/**
+	 * Checks if an address can be stored as a reference.
+	 *
+	 * @param address
+	 *            the address of an object
+	 * @return true, if the address can be stored as a reference, false
+	 *         otherwise
+	 */
+	public boolean canEncodeOop(long address) {
+		if (!compressedOops) {
+			return true;
+		}
+		long base = getNarrowOopBase();
+		if (base == UNKNOWN_BASE) {
+			return false;
+		}
+		long reference = (address - base) >>> narrowOopShift;
+		return address >= base && (reference >>> 32) == 0
+				&& decodeOop(reference) == address;
+	}
+
+	/**
+	 * Decodes a class pointer as stored in an object header into an address.
+	 *
+	 * @param klass
+	 *            the stored class pointer, unsigned
+	 * @return the address of the class
+	 * @throws FlipException
+	 *             if the base or the shift of the compressed class pointers
+	 *             is unknown
+	 */
+	public long decodeKlass(long klass) {
+		if (!compressedClassPointers && !compactObjectHeaders) {
+			return klass;
+		}
+		long base = getNarrowKlassBase();
+		if (base == UNKNOWN_BASE) {
+			throw new FlipException(
+					"Unknown base for compressed class pointers on this JVM, "
+							+ "supply -Dflip.vm.NarrowKlassBase and "
+							+ "-Dflip.vm.NarrowKlassShift.");
+		}
+		return base + (klass << getNarrowKlassShift());
+	}
+
+	/**
+	 * Extracts the compressed class pointer from a mark word when compact
+	 * object headers are enabled.
+	 *
+	 * @param markWord
+	 *            the mark word of an object
+	 * @return the compressed class pointer
+	 */
+	long klassFromMarkWord(long markWord) {
+		return markWord >>> COMPACT_KLASS_SHIFT;
+	}
+
+	/**
+	 * Rounds a size up to the {@link #objectAlignment}.
+	 *
+	 * @param size
+	 *            the size to align
+	 * @return the aligned size
+	 */
+	public long align(long size) {
+		return (size + objectAlignment - 1) & -objectAlignment;
+	}
+
+	/**
+	 * Gets the {@link #addressSize}.
+	 *
+	 * @return the {@link #addressSize}
+	 */
+	public int getAddressSize() {
+		return addressSize;
+	}
+
+	/**
+	 * Gets the {@link #referenceSize}.
+	 *
+	 * @return the {@link #referenceSize}
+	 */
+	public int getReferenceSize() {
+		return referenceSize;
+	}
+
+	/**
+	 * Gets the {@link #markWordSize}.
+	 *
+	 * @return the {@link #markWordSize}
+	 */
+	public int getMarkWordSize() {
+		return markWordSize;
+	}
+
+	/**
+	 * Gets the {@link #klassPointerSize}.
+	 *
+	 * @return the {@link #klassPointerSize}
+	 */
+	public int getKlassPointerSize() {
+		return klassPointerSize;
+	}
+
+	/**
+	 * Gets the offset of the class pointer inside the header, which follows
+	 * the mark word unless it's stored in the mark word itself.
+	 *
+	 * @return the offset of the class pointer inside the header
+	 */
+	public int getKlassOffset() {
+		return compactObjectHeaders ? 0 : markWordSize;
+	}
+
+	/**
+	 * Gets the {@link #headerSize}.
+	 *
+	 * @return the {@link #headerSize}
+	 */
+	public int getHeaderSize() {
+		return headerSize;
+	}
+
+	/**
+	 * Gets the {@link #objectAlignment}.
+	 *
+	 * @return the {@link #objectAlignment}
+	 */
+	public int getObjectAlignment() {
+		return objectAlignment;
+	}
+
+	/**
+	 * Gets the {@link #compressedOops}.
+	 *
+	 * @return the {@link #compressedOops}
+	 */
+	public boolean isCompressedOops() {
+		return compressedOops;
+	}
+
+	/**
+	 * Gets the {@link #compressedClassPointers}.
+	 *
+	 * @return the {@link #compressedClassPointers}
+	 */
+	public boolean isCompressedClassPointers() {
+		return compressedClassPointers;
+	}
+
+	/**
+	 * Gets the {@link #compactObjectHeaders}.
+	 *
+	 * @return the {@link #compactObjectHeaders}
+	 */
+	public boolean isCompactObjectHeaders() {
+		return compactObjectHeaders;
+	}
+
+	/**
+	 * Gets the {@link #narrowOopBase}, resolving it on first use.
+	 *
+	 * @return the {@link #narrowOopBase}
+	 */
+	public long getNarrowOopBase() {
+		if (narrowOopBase == LAZY_BASE) {
+			return FlipSystemInformation.getNarrowOopBase();
+		}
+		return narrowOopBase;
+	}
+
+	/**
+	 * Gets the {@link #narrowOopShift}.
+	 *
+	 * @return the {@link #narrowOopShift}
+	 */
+	public int getNarrowOopShift() {
+		return narrowOopShift;
+	}
+
+	/**
+	 * Gets the {@link #narrowKlassBase}, resolving it on first use.
+	 *
+	 * @return the {@link #narrowKlassBase}
+	 */
+	public long getNarrowKlassBase() {
+		if (narrowKlassBase == LAZY_BASE) {
+			return FlipSystemInformation.getNarrowKlassBase();
+		}
+		return narrowKlassBase;
+	}
+
+	/**
+	 * Gets the {@link #narrowKlassShift}, resolving it on first use.
+	 *
+	 * @return the {@link #narrowKlassShift}
+	 */
+	public int getNarrowKlassShift() {
+		if (narrowKlassShift == LAZY_SHIFT) {
+			return FlipSystemInformation.getNarrowKlassShift();
+		}
+		return narrowKlassShift;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FlipJvmLayout [addressSize=" + addressSize
+				+ ", referenceSize=" + referenceSize + ", markWordSize="
+				+ markWordSize + ", klassPointerSize=" + klassPointerSize
+				+ ", headerSize=" + headerSize + ", objectAlignment="
+				+ objectAlignment + ", compressedOops=" + compressedOops
+				+ ", compressedClassPointers=" + compressedClassPointers
+				+ ", compactObjectHeaders=" + compactObjectHeaders
+				+ ", narrowOopBase=" + getNarrowOopBase() + ", narrowOopShift="
+				+ narrowOopShift + ", narrowKlassBase=" + getNarrowKlassBase()
+				+ ", narrowKlassShift=" + getNarrowKlassShift() + "]";
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, with one bucket for each power of
+ * two. Recording is lock-free and spreads contended updates over many cells,
+ * so it can be shared by all the threads calling an operation. Percentiles
+ * are approximated by the upper bound of the bucket they fall in.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipLatencyHistogram {
+
+	/**
+	 * Number of buckets, bucket i holds latencies in [2^(i-1), 2^i).
+	 */
+	private static final int BUCKET_COUNT = 64;
+
+	/**
+	 * Number of latencies in each bucket.
+	 */
+	private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+	/**
+	 * Number of recorded latencies.
+	 */
+	private final LongAdder count = new LongAdder();
+
+	/**
+	 * Sum of the recorded latencies.
+	 */
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+	 * Highest recorded latency.
+	 */
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Instantiates a new FlipLatencyHistogram.
+	 */
+	FlipLatencyHistogram() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos
+	 *            the latency in nanoseconds, negative values are recorded as
+	 *            0
+	 */
+	void record(long nanos) {
+		long latency = Math.max(0, nanos);
+		buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(latency)].increment();
+		count.increment();
+		totalNanos.add(latency);
+		long max;
+		while (latency > (max = maxNanos.get())
+				&& !maxNanos.compareAndSet(max, latency)) {
+			// Retries until the maximum is updated or is not lower anymore.
+		}
+	}
+
+	/**
+	 * Gets the number of recorded latencies.
+	 *
+	 * @return the number of recorded latencies
+	 */
+	long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Gets the sum of the recorded latencies.
+	 *
+	 * @return the sum of the recorded latencies in nanoseconds
+	 */
+	long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * Gets the mean of the recorded latencies.
+	 *
+	 * @return the mean latency in nanoseconds, 0 if nothing was recorded
+	 */
+	long getMeanNanos() {
+		long recorded = count.sum();
+		return recorded == 0 ? 0 : totalNanos.sum() / recorded;
+	}
+
+	/**
+	 * Gets the highest recorded latency.
+	 *
+	 * @return the highest latency in nanoseconds
+	 */
+	long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Gets an approximation of a percentile of the recorded latencies: the
+	 * upper bound of the bucket where the percentile falls, capped to the
+	 * highest latency.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the percentile in nanoseconds, 0 if nothing was recorded
+	 */
+	long getPercentileNanos(double percentile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long recorded = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets[i].sum();
+			recorded += counts[i];
+		}
+		long rank = (long) Math.ceil(recorded * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (counts[i] > 0 && seen >= rank) {
+				return Math.min((1L << i) - 1, maxNanos.get());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Discards all the recorded latencies.
+	 */
+	void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		totalNanos.reset();
+		maxNanos.set(0);
+	}
+
+}
@@ -0,0 +1,414 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Hash map from long to long stored off-heap. Entries take 16 bytes each, key
+ * and value next to each other so that a lookup touches a single cache line,
+ * in an open addressing table with linear probing. Removals shift the
+ * following entries back instead of leaving tombstones, so lookups never slow
+ * down over time.
+ * <p>
+ * The memory should be released with {@link #free()}. If the map becomes
+ * unreachable before, the memory is released after the garbage collector
+ * finds it, see {@link FlipMemory}. Maps are not thread-safe.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipLongLongMap {
+
+	/**
+	 * Default number of entries the map can hold before growing.
+	 */
+	public static final long DEFAULT_EXPECTED_SIZE = 16;
+
+	/**
+	 * Size of an entry in bytes.
+	 */
+	private static final long ENTRY_SIZE = 16;
+
+	/**
+	 * Offset of the value in an entry.
+	 */
+	private static final long VALUE_OFFSET = 8;
+
+	/**
+	 * Key which marks an empty slot. The entry with this key, if any, is kept
+	 * outside of the table.
+	 */
+	private static final long EMPTY_KEY = 0;
+
+	/**
+	 * Backend used to access memory.
+	 */
+	private static final FlipBackend BACKEND = FlipSystemInformation
+			.getBackend();
+
+	/**
+	 * Value returned when a key is not in the map.
+	 */
+	private final long noEntryValue;
+
+	/**
+	 * Address of the table.
+	 */
+	private long address;
+
+	/**
+	 * Number of slots of the table minus one, the capacity being a power of
+	 * two.
+	 */
+	private long mask;
+
+	/**
+	 * Number of entries in the table after which it grows.
+	 */
+	private long threshold;
+
+	/**
+	 * Number of entries in the table.
+	 */
+	private long tableSize;
+
+	/**
+	 * True if the map contains {@link #EMPTY_KEY}.
+	 */
+	private boolean hasEmptyKey;
+
+	/**
+	 * Value of {@link #EMPTY_KEY}.
+	 */
+	private long emptyKeyValue;
+
+	/**
+	 * True once the map has been freed.
+	 */
+	private boolean freed;
+
+	/**
+	 * Instantiates a new FlipLongLongMap with {@link #DEFAULT_EXPECTED_SIZE}
+	 * which returns 0 for missing keys.
+	 */
+	public FlipLongLongMap() {
+		this(DEFAULT_EXPECTED_SIZE, 0);
+	}
+
+	/**
+	 * Instantiates a new FlipLongLongMap.
+	 *
+	 * @param expectedSize
+	 *            the number of entries the map can hold before growing
+	 * @param noEntryValue
+	 *            the {@link #noEntryValue}
+	 */
+	public FlipLongLongMap(long expectedSize, long noEntryValue) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Negative expected size: "
+					+ expectedSize);
+		}
+		this.noEntryValue = noEntryValue;
+		allocateTable(FlipLongSet.tableCapacity(expectedSize));
+	}
+
+	/**
+	 * Associates a value to a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value of the key or {@link #noEntryValue} if the
+	 *         key was not in the map
+	 */
+	public long put(long key, long value) {
+		try {
+			checkNotFreed();
+			if (key == EMPTY_KEY) {
+				long previous = hasEmptyKey ? emptyKeyValue : noEntryValue;
+				hasEmptyKey = true;
+				emptyKeyValue = value;
+				return previous;
+			}
+			long slot = FlipLongSet.hash(key) & mask;
+			long current;
+			while ((current = BACKEND.getLong(entry(slot))) != EMPTY_KEY) {
+				if (current == key) {
+					long valueAddress = entry(slot) + VALUE_OFFSET;
+					long previous = BACKEND.getLong(valueAddress);
+					BACKEND.putLong(valueAddress, value);
+					return previous;
+				}
+				slot = (slot + 1) & mask;
+			}
+			BACKEND.putLong(entry(slot), key);
+			BACKEND.putLong(entry(slot) + VALUE_OFFSET, value);
+			if (++tableSize > threshold) {
+				resize();
+			}
+			return noEntryValue;
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key or {@link #noEntryValue} if the key is not
+	 *         in the map
+	 */
+	public long get(long key) {
+		try {
+			checkNotFreed();
+			if (key == EMPTY_KEY) {
+				return hasEmptyKey ? emptyKeyValue : noEntryValue;
+			}
+			long slot = find(key);
+			return slot < 0 ? noEntryValue : BACKEND.getLong(entry(slot)
+					+ VALUE_OFFSET);
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Checks if a key is in the map.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is in the map, false otherwise
+	 */
+	public boolean containsKey(long key) {
+		try {
+			checkNotFreed();
+			return key == EMPTY_KEY ? hasEmptyKey : find(key) >= 0;
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Removes a key from the map.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key or {@link #noEntryValue} if the key was not
+	 *         in the map
+	 */
+	public long remove(long key) {
+		try {
+			checkNotFreed();
+			if (key == EMPTY_KEY) {
+				long previous = hasEmptyKey ? emptyKeyValue : noEntryValue;
+				hasEmptyKey = false;
+				return previous;
+			}
+			long slot = find(key);
+			if (slot < 0) {
+				return noEntryValue;
+			}
+			long previous = BACKEND.getLong(entry(slot) + VALUE_OFFSET);
+
+			// Shifts back the following entries which would not be found
+			// anymore.
+			long gap = slot;
+			long next = (gap + 1) & mask;
+			long current;
+			while ((current = BACKEND.getLong(entry(next))) != EMPTY_KEY) {
+				long home = FlipLongSet.hash(current) & mask;
+				if (((next - home) & mask) >= ((next - gap) & mask)) {
+					BACKEND.copyMemory(entry(next), entry(gap), ENTRY_SIZE);
+					gap = next;
+				}
+				next = (next + 1) & mask;
+			}
+			BACKEND.putLong(entry(gap), EMPTY_KEY);
+			tableSize--;
+			return previous;
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Passes each entry to a consumer, in no particular order.
+	 *
+	 * @param consumer
+	 *            the consumer of the entries
+	 */
+	public void forEach(FlipLongLongConsumer consumer) {
+		checkNotFreed();
+		if (hasEmptyKey) {
+			consumer.accept(EMPTY_KEY, emptyKeyValue);
+		}
+		long end = entry(mask + 1);
+		for (long current = address; current < end; current += ENTRY_SIZE) {
+			long key = BACKEND.getLong(current);
+			if (key != EMPTY_KEY) {
+				consumer.accept(key, BACKEND.getLong(current + VALUE_OFFSET));
+			}
+		}
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Removes all the entries, keeping the memory reserved.
+	 */
+	public void clear() {
+		checkNotFreed();
+		BACKEND.setMemory(address, getReservedBytes(), (byte) 0);
+		tableSize = 0;
+		hasEmptyKey = false;
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Releases the memory of the map. The map can't be used anymore.
+	 */
+	public void free() {
+		if (!freed) {
+			FlipMemory.free(address);
+			address = 0;
+			mask = -1;
+			tableSize = 0;
+			hasEmptyKey = false;
+			freed = true;
+		}
+	}
+
+	/**
+	 * Finds the slot of a key in the table.
+	 *
+	 * @param key
+	 *            the key, not {@link #EMPTY_KEY}
+	 * @return the slot of the key or -1 if the key is not in the table
+	 */
+	private long find(long key) {
+		long slot = FlipLongSet.hash(key) & mask;
+		long current;
+		while ((current = BACKEND.getLong(entry(slot))) != EMPTY_KEY) {
+			if (current == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the address of an entry.
+	 *
+	 * @param slot
+	 *            the slot of the entry
+	 * @return the address of the entry
+	 */
+	private long entry(long slot) {
+		return address + slot * ENTRY_SIZE;
+	}
+
+	/**
+	 * Allocates an empty table.
+	 *
+	 * @param capacity
+	 *            the number of slots, a power of two
+	 */
+	private void allocateTable(long capacity) {
+		address = FlipMemory.allocate(capacity * ENTRY_SIZE, this);
+		BACKEND.setMemory(address, capacity * ENTRY_SIZE, (byte) 0);
+		mask = capacity - 1;
+		threshold = FlipLongSet.threshold(capacity);
+	}
+
+	/**
+	 * Doubles the capacity of the table, rehashing all the entries.
+	 */
+	private void resize() {
+		long oldAddress = address;
+		long oldEnd = entry(mask + 1);
+		allocateTable((mask + 1) << 1);
+		for (long current = oldAddress; current < oldEnd; current += ENTRY_SIZE) {
+			long key = BACKEND.getLong(current);
+			if (key != EMPTY_KEY) {
+				long slot = FlipLongSet.hash(key) & mask;
+				while (BACKEND.getLong(entry(slot)) != EMPTY_KEY) {
+					slot = (slot + 1) & mask;
+				}
+				BACKEND.copyMemory(current, entry(slot), ENTRY_SIZE);
+			}
+		}
+		FlipMemory.free(oldAddress);
+	}
+
+	/**
+	 * Checks that the map has not been freed.
+	 * 
+	 * @throws FlipException
+	 *             if the map has been freed
+	 */
+	private void checkNotFreed() {
+		if (freed) {
+			throw new FlipException("Map already freed.");
+		}
+	}
+
+	/**
+	 * Gets the number of entries in the map.
+	 *
+	 * @return the number of entries in the map
+	 */
+	public long size() {
+		return hasEmptyKey ? tableSize + 1 : tableSize;
+	}
+
+	/**
+	 * Gets the number of bytes of native memory reserved by the map.
+	 *
+	 * @return the number of bytes reserved
+	 */
+	public long getReservedBytes() {
+		return (mask + 1) * ENTRY_SIZE;
+	}
+
+	/**
+	 * Gets the {@link #noEntryValue}.
+	 *
+	 * @return the {@link #noEntryValue}
+	 */
+	public long getNoEntryValue() {
+		return noEntryValue;
+	}
+
+	/**
+	 * Checks if the map has been freed.
+	 *
+	 * @return true, if the map has been freed, false otherwise
+	 */
+	public boolean isFreed() {
+		return freed;
+	}
+
+}
@@ -0,0 +1,410 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.function.LongConsumer;
+
+
+/**
+ * Hash set of longs stored off-heap. Values take 8 bytes each in an open
+ * addressing table with linear probing. Removals shift the following values
+ * back instead of leaving tombstones, so lookups never slow down over time.
+ * <p>
+ * The memory should be released with {@link #free()}. If the set becomes
+ * unreachable before, the memory is released after the garbage collector
+ * finds it, see {@link FlipMemory}. Sets are not thread-safe.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipLongSet {
+
+	/**
+	 * Default number of values the set can hold before growing.
+	 */
+	public static final long DEFAULT_EXPECTED_SIZE = 16;
+
+	/**
+	 * Minimum number of slots of a table.
+	 */
+	private static final long MINIMUM_CAPACITY = 16;
+
+	/**
+	 * Maximum number of slots of a table.
+	 */
+	private static final long MAXIMUM_CAPACITY = 1L << 40;
+
+	/**
+	 * Size of a value in bytes.
+	 */
+	private static final long ELEMENT_SIZE = 8;
+
+	/**
+	 * Value which marks an empty slot. If it's in the set, it's kept outside
+	 * of the table.
+	 */
+	private static final long EMPTY_VALUE = 0;
+
+	/**
+	 * Backend used to access memory.
+	 */
+	private static final FlipBackend BACKEND = FlipSystemInformation
+			.getBackend();
+
+	/**
+	 * Address of the table.
+	 */
+	private long address;
+
+	/**
+	 * Number of slots of the table minus one, the capacity being a power of
+	 * two.
+	 */
+	private long mask;
+
+	/**
+	 * Number of values in the table after which it grows.
+	 */
+	private long threshold;
+
+	/**
+	 * Number of values in the table.
+	 */
+	private long tableSize;
+
+	/**
+	 * True if the set contains {@link #EMPTY_VALUE}.
+	 */
+	private boolean hasEmptyValue;
+
+	/**
+	 * True once the set has been freed.
+	 */
+	private boolean freed;
+
+	/**
+	 * Instantiates a new FlipLongSet with {@link #DEFAULT_EXPECTED_SIZE}.
+	 */
+	public FlipLongSet() {
+		this(DEFAULT_EXPECTED_SIZE);
+	}
+
+	/**
+	 * Instantiates a new FlipLongSet.
+	 *
+	 * @param expectedSize
+	 *            the number of values the set can hold before growing
+	 */
+	public FlipLongSet(long expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Negative expected size: "
+					+ expectedSize);
+		}
+		allocateTable(tableCapacity(expectedSize));
+	}
+
+	/**
+	 * Adds a value to the set.
+	 *
+	 * @param value
+	 *            the value to add
+	 * @return true, if the value was not already in the set, false otherwise
+	 */
+	public boolean add(long value) {
+		try {
+			checkNotFreed();
+			if (value == EMPTY_VALUE) {
+				boolean added = !hasEmptyValue;
+				hasEmptyValue = true;
+				return added;
+			}
+			long slot = hash(value) & mask;
+			long current;
+			while ((current = BACKEND.getLong(element(slot))) != EMPTY_VALUE) {
+				if (current == value) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			BACKEND.putLong(element(slot), value);
+			if (++tableSize > threshold) {
+				resize();
+			}
+			return true;
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Checks if a value is in the set.
+	 *
+	 * @param value
+	 *            the value to check
+	 * @return true, if the value is in the set, false otherwise
+	 */
+	public boolean contains(long value) {
+		try {
+			checkNotFreed();
+			return value == EMPTY_VALUE ? hasEmptyValue : find(value) >= 0;
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Removes a value from the set.
+	 *
+	 * @param value
+	 *            the value to remove
+	 * @return true, if the value was in the set, false otherwise
+	 */
+	public boolean remove(long value) {
+		try {
+			checkNotFreed();
+			if (value == EMPTY_VALUE) {
+				boolean removed = hasEmptyValue;
+				hasEmptyValue = false;
+				return removed;
+			}
+			long slot = find(value);
+			if (slot < 0) {
+				return false;
+			}
+
+			// Shifts back the following values which would not be found
+			// anymore.
+			long gap = slot;
+			long next = (gap + 1) & mask;
+			long current;
+			while ((current = BACKEND.getLong(element(next))) != EMPTY_VALUE) {
+				long home = hash(current) & mask;
+				if (((next - home) & mask) >= ((next - gap) & mask)) {
+					BACKEND.putLong(element(gap), current);
+					gap = next;
+				}
+				next = (next + 1) & mask;
+			}
+			BACKEND.putLong(element(gap), EMPTY_VALUE);
+			tableSize--;
+			return true;
+		} finally {
+			FlipMemory.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Passes each value to a consumer, in no particular order.
+	 *
+	 * @param consumer
+	 *            the consumer of the values
+	 */
+	public void forEach(LongConsumer consumer) {
+		checkNotFreed();
+		if (hasEmptyValue) {
+			consumer.accept(EMPTY_VALUE);
+		}
+		long end = element(mask + 1);
+		for (long current = address; current < end; current += ELEMENT_SIZE) {
+			long value = BACKEND.getLong(current);
+			if (value != EMPTY_VALUE) {
+				consumer.accept(value);
+			}
+		}
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Removes all the values, keeping the memory reserved.
+	 */
+	public void clear() {
+		checkNotFreed();
+		BACKEND.setMemory(address, getReservedBytes(), (byte) 0);
+		tableSize = 0;
+		hasEmptyValue = false;
+		FlipMemory.reachabilityFence(this);
+	}
+
+	/**
+	 * Releases the memory of the set. The set can't be used anymore.
+	 */
+	public void free() {
+		if (!freed) {
+			FlipMemory.free(address);
+			address = 0;
+			mask = -1;
+			tableSize = 0;
+			hasEmptyValue = false;
+			freed = true;
+		}
+	}
+
+	/**
+	 * Finds the slot of a value in the table.
+	 *
+	 * @param value
+	 *            the value, not {@link #EMPTY_VALUE}
+	 * @return the slot of the value or -1 if the value is not in the table
+	 */
+	private long find(long value) {
+		long slot = hash(value) & mask;
+		long current;
+		while ((current = BACKEND.getLong(element(slot))) != EMPTY_VALUE) {
+			if (current == value) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the address of a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the address of the slot
+	 */
+	private long element(long slot) {
+		return address + slot * ELEMENT_SIZE;
+	}
+
+	/**
+	 * Allocates an empty table.
+	 *
+	 * @param capacity
+	 *            the number of slots, a power of two
+	 */
+	private void allocateTable(long capacity) {
+		address = FlipMemory.allocate(capacity * ELEMENT_SIZE, this);
+		BACKEND.setMemory(address, capacity * ELEMENT_SIZE, (byte) 0);
+		mask = capacity - 1;
+		threshold = threshold(capacity);
+	}
+
+	/**
+	 * Doubles the capacity of the table, rehashing all the values.
+	 */
+	private void resize() {
+		long oldAddress = address;
+		long oldEnd = element(mask + 1);
+		allocateTable((mask + 1) << 1);
+		for (long current = oldAddress; current < oldEnd; current += ELEMENT_SIZE) {
+			long value = BACKEND.getLong(current);
+			if (value != EMPTY_VALUE) {
+				long slot = hash(value) & mask;
+				while (BACKEND.getLong(element(slot)) != EMPTY_VALUE) {
+					slot = (slot + 1) & mask;
+				}
+				BACKEND.putLong(element(slot), value);
+			}
+		}
+		FlipMemory.free(oldAddress);
+	}
+
+	/**
+	 * Checks that the set has not been freed.
+	 * 
+	 * @throws FlipException
+	 *             if the set has been freed
+	 */
+	private void checkNotFreed() {
+		if (freed) {
+			throw new FlipException("Set already freed.");
+		}
+	}
+
+	/**
+	 * Computes the hash of a long, spreading its bits so that keys which
+	 * differ only in their high bits, such as addresses or identifiers, don't
+	 * end up in the same slot.
+	 *
+	 * @param value
+	 *            the long to hash
+	 * @return the hash of the long
+	 */
+	static long hash(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * Computes the number of slots of a table, keeping the load factor
+	 * under 0.75.
+	 *
+	 * @param expectedSize
+	 *            the number of entries the table must hold without growing
+	 * @return the number of slots, a power of two
+	 */
+	static long tableCapacity(long expectedSize) {
+		long capacity = MINIMUM_CAPACITY;
+		while (threshold(capacity) < expectedSize) {
+			if (capacity == MAXIMUM_CAPACITY) {
+				throw new FlipException("Expected size too big: "
+						+ expectedSize);
+			}
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Computes the number of entries a table can hold before growing.
+	 *
+	 * @param capacity
+	 *            the number of slots of the table
+	 * @return the number of entries the table can hold
+	 */
+	static long threshold(long capacity) {
+		return capacity - (capacity >>> 2);
+	}
+
+	/**
+	 * Gets the number of values in the set.
+	 *
+	 * @return the number of values in the set
+	 */
+	public long size() {
+		return hasEmptyValue ? tableSize + 1 : tableSize;
+	}
+
+	/**
+	 * Gets the number of bytes of native memory reserved by the set.
+	 *
+	 * @return the number of bytes reserved
+	 */
+	public long getReservedBytes() {
+		return (mask + 1) * ELEMENT_SIZE;
+	}
+
+	/**
+	 * Checks if the set has been freed.
+	 *
+	 * @return true, if the set has been freed, false otherwise
+	 */
+	public boolean isFreed() {
+		return freed;
+	}
+
+}
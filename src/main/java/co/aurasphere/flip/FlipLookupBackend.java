@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+
+/**
+ * {@link FlipBackend} which defines classes through a method handle to
+ * {@link ClassLoader}'s <code>defineClass</code>, for JDKs where
+ * <code>Unsafe.defineClass</code> has been removed. Memory is still accessed
+ * through <code>Unsafe</code>, whose memory methods are available up to the
+ * latest JDKs.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+class FlipLookupBackend extends FlipUnsafeBackend {
+
+	/**
+	 * Name of this backend.
+	 */
+	static final String NAME = "lookup";
+
+	/**
+	 * Handle to {@link ClassLoader}'s <code>defineClass</code>, null if it
+	 * can't be accessed.
+	 */
+	private static final MethodHandle DEFINE_CLASS;
+
+	/**
+	 * Why {@link #DEFINE_CLASS} can't be accessed, null if it can.
+	 */
+	private static final Exception DEFINE_CLASS_ERROR;
+
+	/**
+	 * Looks up the {@link #DEFINE_CLASS} handle.
+	 */
+	static {
+		MethodHandle defineClass = null;
+		Exception defineClassError = null;
+		try {
+			Method method = ClassLoader.class.getDeclaredMethod("defineClass",
+					String.class, byte[].class, int.class, int.class,
+					ProtectionDomain.class);
+			// Throws on JDK 16 and newer if java.lang is not opened.
+			method.setAccessible(true);
+			defineClass = MethodHandles.lookup().unreflect(method);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			defineClassError = e;
+		}
+		DEFINE_CLASS = defineClass;
+		DEFINE_CLASS_ERROR = defineClassError;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getName()
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#defineClass(java.lang.String,
+	 * byte[], java.lang.ClassLoader, java.security.ProtectionDomain)
+	 */
+	@Override
+	public Class<?> defineClass(String name, byte[] bytes, ClassLoader loader,
+			ProtectionDomain protectionDomain) {
+		if (DEFINE_CLASS == null) {
+			throw new FlipException(
+					"ClassLoader.defineClass can't be accessed, start the JVM "
+							+ "with --add-opens java.base/java.lang=ALL-UNNAMED",
+					DEFINE_CLASS_ERROR);
+		}
+		try {
+			return (Class<?>) DEFINE_CLASS.invokeExact(loader, name, bytes, 0,
+					bytes.length, protectionDomain);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new FlipException("Error while defining class " + name, e);
+		}
+	}
+
+}
@@ -0,0 +1,522 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracking allocator of native memory. Every block allocated by Flip, such as
+ * the slabs of {@link FlipArena} and the tables of the off-heap collections,
+ * goes through this class, which records its size until it's freed, so that
+ * native memory held by Flip can be inspected with {@link #report()}.
+ * Allocations can be tied to an owner object, in which case the block is
+ * freed by a daemon thread once the owner becomes unreachable, if not freed
+ * explicitly before. Memory is allocated through the
+ * {@link FlipSystemInformation#getBackend() backend} in use, but memory
+ * allocated directly with the backend can't be tracked, so callers should use
+ * {@link #allocate(long)} instead.
+ * <p>
+ * Allocation sites are not recorded by default, since capturing a stack
+ * trace is expensive. Starting the JVM with
+ * <code>-Dflip.memory.stackSampling=N</code> records the stack trace of one
+ * allocation out of N, or of every allocation with N equal to 1.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipMemory {
+
+	/**
+	 * One allocation out of this many records its stack trace, 0 to record
+	 * none.
+	 */
+	public static final int STACK_SAMPLING_INTERVAL = Math.max(0,
+			Integer.getInteger("flip.memory.stackSampling", 0));
+
+	/**
+	 * Maximum number of frames printed for each allocation site by
+	 * {@link #report()}.
+	 */
+	private static final int REPORT_FRAMES = 8;
+
+	/**
+	 * Backend used to allocate memory.
+	 */
+	private static final FlipBackend BACKEND = FlipSystemInformation
+			.getBackend();
+
+	/**
+	 * Blocks not freed yet, by address.
+	 */
+	private static final ConcurrentMap<Long, FlipAllocation> LIVE_ALLOCATIONS = new ConcurrentHashMap<Long, FlipAllocation>();
+
+	/**
+	 * Bytes allocated and not freed yet.
+	 */
+	private static final AtomicLong LIVE_BYTES = new AtomicLong();
+
+	/**
+	 * Number of allocations done, used for sampling.
+	 */
+	private static final AtomicLong ALLOCATION_COUNT = new AtomicLong();
+
+	/**
+	 * Queue where the deallocators of the collected owners are enqueued.
+	 */
+	private static final ReferenceQueue<Object> OWNER_QUEUE = new ReferenceQueue<Object>();
+
+	/**
+	 * Deallocators not run yet, kept reachable so that they get enqueued.
+	 */
+	private static final Set<Deallocator> DEALLOCATORS = Collections
+			.newSetFromMap(new ConcurrentHashMap<Deallocator, Boolean>());
+
+	/**
+	 * <code>Reference.reachabilityFence(Object)</code>, null before JDK 9.
+	 */
+	private static final MethodHandle REACHABILITY_FENCE = findReachabilityFence();
+
+	/**
+	 * Starts the thread which frees the blocks of the collected owners.
+	 */
+	static {
+		Thread cleaner = new Thread("flip-memory-cleaner") {
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.lang.Thread#run()
+			 */
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						((Deallocator) OWNER_QUEUE.remove()).clean();
+					} catch (InterruptedException e) {
+						// Keeps cleaning, this thread lives as long as the JVM.
+					}
+				}
+			}
+		};
+		cleaner.setDaemon(true);
+		cleaner.start();
+	}
+
+	/**
+	 * Instantiates a new FlipMemory.
+	 */
+	private FlipMemory() {
+	}
+
+	/**
+	 * Allocates a block of native memory, which must be freed with
+	 * {@link #free(long)}. The content of the block is not initialized.
+	 *
+	 * @param bytes
+	 *            the size of the block
+	 * @return the address of the block
+	 * @throws IllegalArgumentException
+	 *             if the size is negative
+	 */
+	public static long allocate(long bytes) {
+		return track(BACKEND.allocateMemory(bytes), bytes, null).address;
+	}
+
+	/**
+	 * Allocates a block of native memory which is freed when its owner
+	 * becomes unreachable, unless freed before with {@link #free(long)}. The
+	 * content of the block is not initialized. The owner must not be
+	 * reachable from the block's cleanup, so it's usually the object wrapping
+	 * the address.
+	 *
+	 * @param bytes
+	 *            the size of the block
+	 * @param owner
+	 *            the object whose reachability bounds the block's lifetime
+	 * @return the address of the block
+	 * @throws IllegalArgumentException
+	 *             if the size is negative
+	 */
+	public static long allocate(long bytes, Object owner) {
+		FlipAllocation allocation = track(BACKEND.allocateMemory(bytes),
+				bytes, owner);
+		// The block must be tracked before its owner can be collected.
+		reachabilityFence(owner);
+		return allocation.address;
+	}
+
+	/**
+	 * Resizes a block of native memory allocated by this class, keeping its
+	 * owner if any. The content is preserved up to the smaller of the two
+	 * sizes.
+	 *
+	 * @param address
+	 *            the address of the block
+	 * @param bytes
+	 *            the new size of the block
+	 * @return the new address of the block
+	 * @throws FlipException
+	 *             if the block was not allocated by this class or was
+	 *             already freed
+	 */
+	public static long reallocate(long address, long bytes) {
+		FlipAllocation allocation = LIVE_ALLOCATIONS.remove(address);
+		if (allocation == null) {
+			throw unknownAddress(address);
+		}
+		long oldSize = allocation.size;
+		long newAddress;
+		try {
+			newAddress = BACKEND.reallocateMemory(address, bytes);
+		} catch (RuntimeException | OutOfMemoryError e) {
+			// The old block is still valid.
+			LIVE_ALLOCATIONS.put(address, allocation);
+			throw e;
+		}
+		allocation.address = newAddress;
+		allocation.size = bytes;
+		LIVE_ALLOCATIONS.put(newAddress, allocation);
+		LIVE_BYTES.addAndGet(bytes - oldSize);
+		if (FlipMetrics.ENABLED) {
+			FlipMetrics.recordNativeMemory(bytes, oldSize);
+		}
+		return newAddress;
+	}
+
+	/**
+	 * Frees a block of native memory allocated by this class.
+	 *
+	 * @param address
+	 *            the address of the block
+	 * @throws FlipException
+	 *             if the block was not allocated by this class or was
+	 *             already freed
+	 */
+	public static void free(long address) {
+		FlipAllocation allocation = LIVE_ALLOCATIONS.get(address);
+		if (allocation == null) {
+			throw unknownAddress(address);
+		}
+		if (allocation.cleaner != null) {
+			// Runs the deallocator, which won't run again on collection.
+			allocation.cleaner.clean();
+		} else {
+			release(allocation);
+		}
+	}
+
+	/**
+	 * Gets the bytes allocated and not freed yet.
+	 *
+	 * @return the live bytes
+	 */
+	public static long getLiveBytes() {
+		return LIVE_BYTES.get();
+	}
+
+	/**
+	 * Gets the number of blocks allocated and not freed yet.
+	 *
+	 * @return the number of live blocks
+	 */
+	public static int getLiveCount() {
+		return LIVE_ALLOCATIONS.size();
+	}
+
+	/**
+	 * Gets the blocks allocated and not freed yet, the biggest first.
+	 *
+	 * @return the live blocks
+	 */
+	public static List<FlipAllocation> getLiveAllocations() {
+		List<FlipAllocation> allocations = new ArrayList<FlipAllocation>(
+				LIVE_ALLOCATIONS.values());
+		Collections.sort(allocations, new Comparator<FlipAllocation>() {
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.util.Comparator#compare(java.lang.Object,
+			 * java.lang.Object)
+			 */
+			@Override
+			public int compare(FlipAllocation first, FlipAllocation second) {
+				return Long.compare(second.size, first.size);
+			}
+		});
+		return allocations;
+	}
+
+	/**
+	 * Describes the blocks allocated and not freed yet, grouped by allocation
+	 * site from the one holding the most bytes. Allocations whose stack trace
+	 * wasn't sampled are grouped together.
+	 *
+	 * @return the report of the live blocks
+	 */
+	public static String report() {
+		// Groups the blocks, keeping the order by size.
+		Map<List<StackTraceElement>, long[]> sites = new LinkedHashMap<List<StackTraceElement>, long[]>();
+		long liveBytes = 0;
+		List<FlipAllocation> allocations = getLiveAllocations();
+		for (FlipAllocation allocation : allocations) {
+			StackTraceElement[] frames = allocation.getAllocationSite();
+			List<StackTraceElement> site = frames == null ? Collections
+					.<StackTraceElement> emptyList() : Arrays.asList(frames);
+			long[] totals = sites.get(site);
+			if (totals == null) {
+				totals = new long[2];
+				sites.put(site, totals);
+			}
+			totals[0]++;
+			totals[1] += allocation.size;
+			liveBytes += allocation.size;
+		}
+		List<Map.Entry<List<StackTraceElement>, long[]>> entries = new ArrayList<Map.Entry<List<StackTraceElement>, long[]>>(
+				sites.entrySet());
+		Collections.sort(entries,
+				new Comparator<Map.Entry<List<StackTraceElement>, long[]>>() {
+
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see java.util.Comparator#compare(java.lang.Object,
+					 * java.lang.Object)
+					 */
+					@Override
+					public int compare(
+							Map.Entry<List<StackTraceElement>, long[]> first,
+							Map.Entry<List<StackTraceElement>, long[]> second) {
+						return Long.compare(second.getValue()[1],
+								first.getValue()[1]);
+					}
+				});
+
+		String lineSeparator = System.lineSeparator();
+		StringBuilder report = new StringBuilder();
+		report.append("Flip native memory: ").append(liveBytes)
+				.append(" bytes in ").append(allocations.size())
+				.append(" blocks").append(lineSeparator);
+		for (Map.Entry<List<StackTraceElement>, long[]> entry : entries) {
+			List<StackTraceElement> site = entry.getKey();
+			report.append("  ").append(entry.getValue()[1])
+					.append(" bytes in ").append(entry.getValue()[0])
+					.append(" blocks ");
+			if (site.isEmpty()) {
+				report.append("allocated at unsampled sites")
+						.append(lineSeparator);
+				continue;
+			}
+			report.append("allocated at").append(lineSeparator);
+			for (int i = 0; i < Math.min(site.size(), REPORT_FRAMES); i++) {
+				report.append("    at ").append(site.get(i))
+						.append(lineSeparator);
+			}
+			if (site.size() > REPORT_FRAMES) {
+				report.append("    ...").append(lineSeparator);
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Starts tracking a new block. Its deallocator, if any, is created before
+	 * the block is published, so that whoever finds the block sees it.
+	 *
+	 * @param address
+	 *            the address of the block
+	 * @param bytes
+	 *            the size of the block
+	 * @param owner
+	 *            the object whose reachability bounds the block's lifetime,
+	 *            null if none
+	 * @return the tracked block
+	 */
+	private static FlipAllocation track(long address, long bytes, Object owner) {
+		Throwable allocationSite = null;
+		if (STACK_SAMPLING_INTERVAL > 0
+				&& ALLOCATION_COUNT.getAndIncrement()
+						% STACK_SAMPLING_INTERVAL == 0) {
+			allocationSite = new Throwable();
+		}
+		FlipAllocation allocation = new FlipAllocation(address, bytes,
+				allocationSite);
+		if (owner != null) {
+			allocation.cleaner = new Deallocator(owner, allocation);
+		}
+		LIVE_ALLOCATIONS.put(address, allocation);
+		LIVE_BYTES.addAndGet(bytes);
+		if (FlipMetrics.ENABLED) {
+			FlipMetrics.recordNativeMemory(bytes, 0);
+		}
+		return allocation;
+	}
+
+	/**
+	 * Stops tracking a block and frees it.
+	 *
+	 * @param allocation
+	 *            the block to free
+	 */
+	private static void release(FlipAllocation allocation) {
+		if (LIVE_ALLOCATIONS.remove(allocation.address, allocation)) {
+			BACKEND.freeMemory(allocation.address);
+			LIVE_BYTES.addAndGet(-allocation.size);
+			if (FlipMetrics.ENABLED) {
+				FlipMetrics.recordNativeMemory(0, allocation.size);
+			}
+		}
+	}
+
+	/**
+	 * Keeps an object reachable at least until this method is called, so that
+	 * native memory it owns is not freed by the {@link Deallocator} while
+	 * still in use. Methods which access the memory through its address call
+	 * this on the owner after their last access. Uses
+	 * <code>Reference.reachabilityFence(Object)</code> on JDK 9 and newer,
+	 * and locks the object on JDK 8, since the JIT can't drop a reference to
+	 * an object before locking it.
+	 *
+	 * @param object
+	 *            the object to keep reachable
+	 */
+	static void reachabilityFence(Object object) {
+		if (REACHABILITY_FENCE != null) {
+			try {
+				REACHABILITY_FENCE.invokeExact(object);
+			} catch (Throwable e) {
+				throw new FlipException("Error while keeping " + object
+						+ " reachable", e);
+			}
+			return;
+		}
+		if (object != null) {
+			synchronized (object) {
+				// Nothing to do, the lock alone keeps the object reachable.
+			}
+		}
+	}
+
+	/**
+	 * Looks up <code>Reference.reachabilityFence(Object)</code>.
+	 *
+	 * @return the method handle, null if not available
+	 */
+	private static MethodHandle findReachabilityFence() {
+		try {
+			return MethodHandles.publicLookup().findStatic(Reference.class,
+					"reachabilityFence",
+					MethodType.methodType(void.class, Object.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Strips the frames of this class from an allocation stack trace.
+	 *
+	 * @param stackTrace
+	 *            the stack trace captured while allocating
+	 * @return the frames from the caller of this class
+	 */
+	static StackTraceElement[] callerFrames(StackTraceElement[] stackTrace) {
+		int first = 0;
+		while (first < stackTrace.length
+				&& stackTrace[first].getClassName().equals(
+						FlipMemory.class.getName())) {
+			first++;
+		}
+		return Arrays.copyOfRange(stackTrace, first, stackTrace.length);
+	}
+
+	/**
+	 * Creates the exception thrown for addresses not tracked.
+	 *
+	 * @param address
+	 *            the address
+	 * @return the exception
+	 */
+	private static FlipException unknownAddress(long address) {
+		return new FlipException("No live block allocated by Flip at address "
+				+ address + ", it may have been freed already.");
+	}
+
+	/**
+	 * Frees a block when its owner becomes unreachable. It references the
+	 * block and not the owner, otherwise the owner would never be collected.
+	 * A phantom reference is used instead of <code>sun.misc.Cleaner</code>,
+	 * which is not available on JDK 9 and newer.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	static final class Deallocator extends PhantomReference<Object> {
+
+		/**
+		 * The block to free.
+		 */
+		private final FlipAllocation allocation;
+
+		/**
+		 * Instantiates a new Deallocator.
+		 *
+		 * @param owner
+		 *            the object whose reachability bounds the block's lifetime
+		 * @param allocation
+		 *            the {@link #allocation}
+		 */
+		private Deallocator(Object owner, FlipAllocation allocation) {
+			super(owner, OWNER_QUEUE);
+			this.allocation = allocation;
+			DEALLOCATORS.add(this);
+		}
+
+		/**
+		 * Frees the block, unless already done.
+		 */
+		void clean() {
+			if (DEALLOCATORS.remove(this)) {
+				clear();
+				release(allocation);
+			}
+		}
+	}
+
+}
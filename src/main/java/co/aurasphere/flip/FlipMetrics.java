@@ -0,0 +1,497 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Optional instrumentation of Flip, which counts and times
+ * {@link Flip#sizeOf(Object)}, the shallow copy methods and the compilation
+ * and definition of dynamic classes, and tracks the native memory allocated
+ * and freed by Flip.
+ * <p>
+ * Metrics are disabled by default and enabled by starting the JVM with
+ * <code>-Dflip.metrics=true</code>. The switch is a static final field, so
+ * when metrics are disabled the JIT compiler removes the instrumentation
+ * altogether. When enabled, the metrics are registered as the
+ * {@link FlipMetricsMXBean} named {@value #OBJECT_NAME} and each operation
+ * also emits a Java Flight Recorder event, if the JVM has a flight recorder
+ * and <code>-Dflip.metrics.jfr=false</code> is not set. The events are
+ * <code>co.aurasphere.flip.Operation</code>,
+ * <code>co.aurasphere.flip.ClassDefinition</code> and
+ * <code>co.aurasphere.flip.NativeMemory</code>.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipMetrics implements FlipMetricsMXBean {
+
+	/**
+	 * Whether metrics are collected.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("flip.metrics");
+
+	/**
+	 * Name of the registered MXBean.
+	 */
+	public static final String OBJECT_NAME = "co.aurasphere.flip:type=Metrics";
+
+	/**
+	 * Whether Java Flight Recorder events are emitted.
+	 */
+	private static final boolean JFR_ENABLED = ENABLED && isJfrAvailable();
+
+	/**
+	 * The metrics of this JVM.
+	 */
+	private static final FlipMetrics INSTANCE = new FlipMetrics();
+
+	/**
+	 * Registers the MXBean, if metrics are enabled.
+	 */
+	static {
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+						INSTANCE, new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				// Another copy of Flip already registered its own metrics,
+				// this one stays reachable through getInstance().
+			}
+		}
+	}
+
+	/**
+	 * Latencies of {@link Flip#sizeOf(Object)}.
+	 */
+	private final FlipLatencyHistogram sizeOf = new FlipLatencyHistogram();
+
+	/**
+	 * Latencies of the shallow copies.
+	 */
+	private final FlipLatencyHistogram shallowCopy = new FlipLatencyHistogram();
+
+	/**
+	 * Latencies of the compilations of dynamic classes.
+	 */
+	private final FlipLatencyHistogram compile = new FlipLatencyHistogram();
+
+	/**
+	 * Latencies of the definitions of dynamic classes.
+	 */
+	private final FlipLatencyHistogram define = new FlipLatencyHistogram();
+
+	/**
+	 * Bytes of bytecode produced by the compilations.
+	 */
+	private final LongAdder bytecodeBytes = new LongAdder();
+
+	/**
+	 * Number of classes defined.
+	 */
+	private final LongAdder definedClasses = new LongAdder();
+
+	/**
+	 * Bytes copied off-heap.
+	 */
+	private final LongAdder offHeapCopiedBytes = new LongAdder();
+
+	/**
+	 * Bytes of native memory allocated.
+	 */
+	private final LongAdder nativeAllocatedBytes = new LongAdder();
+
+	/**
+	 * Bytes of native memory freed.
+	 */
+	private final LongAdder nativeFreedBytes = new LongAdder();
+
+	/**
+	 * Instantiates a new FlipMetrics.
+	 */
+	private FlipMetrics() {
+	}
+
+	/**
+	 * Gets the metrics of this JVM. When metrics are disabled they're never
+	 * updated.
+	 *
+	 * @return the metrics
+	 */
+	public static FlipMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Records a call to {@link Flip#sizeOf(Object)}.
+	 *
+	 * @param objectClass
+	 *            the class of the measured object
+	 * @param size
+	 *            the size of the object
+	 * @param startNanos
+	 *            the {@link System#nanoTime()} at the start of the call
+	 */
+	static void recordSizeOf(Class<?> objectClass, long size, long startNanos) {
+		long latency = System.nanoTime() - startNanos;
+		INSTANCE.sizeOf.record(latency);
+		if (JFR_ENABLED) {
+			FlipEvents.operation("sizeOf", objectClass, size, latency);
+		}
+	}
+
+	/**
+	 * Records a shallow copy.
+	 *
+	 * @param objectClass
+	 *            the class of the copied object
+	 * @param size
+	 *            the size of the object
+	 * @param offHeap
+	 *            whether the copy is in native memory
+	 * @param startNanos
+	 *            the {@link System#nanoTime()} at the start of the copy
+	 */
+	static void recordShallowCopy(Class<?> objectClass, long size,
+			boolean offHeap, long startNanos) {
+		long latency = System.nanoTime() - startNanos;
+		INSTANCE.shallowCopy.record(latency);
+		if (offHeap) {
+			INSTANCE.offHeapCopiedBytes.add(size);
+		}
+		if (JFR_ENABLED) {
+			FlipEvents.operation(offHeap ? "shallowCopyOffHeap"
+					: "shallowCopy", objectClass, size, latency);
+		}
+	}
+
+	/**
+	 * Records a compilation of dynamic classes.
+	 *
+	 * @param classCount
+	 *            the number of classes compiled
+	 * @param bytes
+	 *            the bytes of bytecode produced
+	 * @param latencyNanos
+	 *            the time taken by the compilation
+	 */
+	static void recordCompile(int classCount, long bytes, long latencyNanos) {
+		INSTANCE.compile.record(latencyNanos);
+		INSTANCE.bytecodeBytes.add(bytes);
+		if (JFR_ENABLED) {
+			FlipEvents.classDefinition("compile", classCount, bytes,
+					latencyNanos);
+		}
+	}
+
+	/**
+	 * Records a definition of dynamic classes.
+	 *
+	 * @param classCount
+	 *            the number of classes defined
+	 * @param bytes
+	 *            the bytes of bytecode of the classes
+	 * @param startNanos
+	 *            the {@link System#nanoTime()} at the start of the definition
+	 */
+	static void recordDefine(int classCount, long bytes, long startNanos) {
+		long latency = System.nanoTime() - startNanos;
+		INSTANCE.define.record(latency);
+		INSTANCE.definedClasses.add(classCount);
+		if (JFR_ENABLED) {
+			FlipEvents.classDefinition("define", classCount, bytes, latency);
+		}
+	}
+
+	/**
+	 * Records an allocation of native memory. A reallocation is recorded as
+	 * an allocation of the new size and a release of the old one.
+	 *
+	 * @param allocatedBytes
+	 *            the bytes allocated
+	 * @param freedBytes
+	 *            the bytes freed
+	 */
+	static void recordNativeMemory(long allocatedBytes, long freedBytes) {
+		INSTANCE.nativeAllocatedBytes.add(allocatedBytes);
+		INSTANCE.nativeFreedBytes.add(freedBytes);
+		if (JFR_ENABLED) {
+			FlipEvents.nativeMemory(allocatedBytes, freedBytes,
+					INSTANCE.getNativeAllocatedBytes()
+							- INSTANCE.getNativeFreedBytes());
+		}
+	}
+
+	/**
+	 * Checks if Java Flight Recorder events can be emitted.
+	 *
+	 * @return true, if the JFR API is available and not disabled, false
+	 *         otherwise
+	 */
+	private static boolean isJfrAvailable() {
+		if (!Boolean.parseBoolean(System.getProperty("flip.metrics.jfr",
+				"true"))) {
+			return false;
+		}
+		try {
+			Class.forName("jdk.jfr.Event");
+			return FlipEvents.isAvailable();
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getSizeOfCount()
+	 */
+	@Override
+	public long getSizeOfCount() {
+		return sizeOf.getCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getSizeOfMeanNanos()
+	 */
+	@Override
+	public long getSizeOfMeanNanos() {
+		return sizeOf.getMeanNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getSizeOfP99Nanos()
+	 */
+	@Override
+	public long getSizeOfP99Nanos() {
+		return sizeOf.getPercentileNanos(99);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getSizeOfMaxNanos()
+	 */
+	@Override
+	public long getSizeOfMaxNanos() {
+		return sizeOf.getMaxNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getShallowCopyCount()
+	 */
+	@Override
+	public long getShallowCopyCount() {
+		return shallowCopy.getCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getShallowCopyMeanNanos()
+	 */
+	@Override
+	public long getShallowCopyMeanNanos() {
+		return shallowCopy.getMeanNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getShallowCopyP99Nanos()
+	 */
+	@Override
+	public long getShallowCopyP99Nanos() {
+		return shallowCopy.getPercentileNanos(99);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getShallowCopyMaxNanos()
+	 */
+	@Override
+	public long getShallowCopyMaxNanos() {
+		return shallowCopy.getMaxNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getCompileCount()
+	 */
+	@Override
+	public long getCompileCount() {
+		return compile.getCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getCompileMeanNanos()
+	 */
+	@Override
+	public long getCompileMeanNanos() {
+		return compile.getMeanNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getCompileP99Nanos()
+	 */
+	@Override
+	public long getCompileP99Nanos() {
+		return compile.getPercentileNanos(99);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getCompileMaxNanos()
+	 */
+	@Override
+	public long getCompileMaxNanos() {
+		return compile.getMaxNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getDefineCount()
+	 */
+	@Override
+	public long getDefineCount() {
+		return define.getCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getDefineMeanNanos()
+	 */
+	@Override
+	public long getDefineMeanNanos() {
+		return define.getMeanNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getDefineP99Nanos()
+	 */
+	@Override
+	public long getDefineP99Nanos() {
+		return define.getPercentileNanos(99);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getDefineMaxNanos()
+	 */
+	@Override
+	public long getDefineMaxNanos() {
+		return define.getMaxNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getBytecodeBytes()
+	 */
+	@Override
+	public long getBytecodeBytes() {
+		return bytecodeBytes.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getDefinedClasses()
+	 */
+	@Override
+	public long getDefinedClasses() {
+		return definedClasses.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getOffHeapCopiedBytes()
+	 */
+	@Override
+	public long getOffHeapCopiedBytes() {
+		return offHeapCopiedBytes.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getNativeAllocatedBytes()
+	 */
+	@Override
+	public long getNativeAllocatedBytes() {
+		return nativeAllocatedBytes.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#getNativeFreedBytes()
+	 */
+	@Override
+	public long getNativeFreedBytes() {
+		return nativeFreedBytes.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipMetricsMXBean#reset()
+	 */
+	@Override
+	public void reset() {
+		sizeOf.reset();
+		shallowCopy.reset();
+		compile.reset();
+		define.reset();
+		bytecodeBytes.reset();
+		definedClasses.reset();
+		offHeapCopiedBytes.reset();
+		nativeAllocatedBytes.reset();
+		nativeFreedBytes.reset();
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Management interface of {@link FlipMetrics}, registered as
+ * {@value FlipMetrics#OBJECT_NAME} when metrics are enabled. Latencies are in
+ * nanoseconds and percentiles are approximated by powers of two.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public interface FlipMetricsMXBean {
+
+	/**
+	 * Gets the number of calls to {@link Flip#sizeOf(Object)}.
+	 *
+	 * @return the number of calls
+	 */
+	long getSizeOfCount();
+
+	/**
+	 * Gets the mean latency of {@link Flip#sizeOf(Object)}.
+	 *
+	 * @return the mean latency
+	 */
+	long getSizeOfMeanNanos();
+
+	/**
+	 * Gets the 99th percentile of the latency of {@link Flip#sizeOf(Object)}.
+	 *
+	 * @return the 99th percentile of the latency
+	 */
+	long getSizeOfP99Nanos();
+
+	/**
+	 * Gets the highest latency of {@link Flip#sizeOf(Object)}.
+	 *
+	 * @return the highest latency
+	 */
+	long getSizeOfMaxNanos();
+
+	/**
+	 * Gets the number of calls to the {@code shallowCopy} methods.
+	 *
+	 * @return the number of calls
+	 */
+	long getShallowCopyCount();
+
+	/**
+	 * Gets the mean latency of the {@code shallowCopy} methods.
+	 *
+	 * @return the mean latency
+	 */
+	long getShallowCopyMeanNanos();
+
+	/**
+	 * Gets the 99th percentile of the latency of the {@code shallowCopy}
+	 * methods.
+	 *
+	 * @return the 99th percentile of the latency
+	 */
+	long getShallowCopyP99Nanos();
+
+	/**
+	 * Gets the highest latency of the {@code shallowCopy} methods.
+	 *
+	 * @return the highest latency
+	 */
+	long getShallowCopyMaxNanos();
+
+	/**
+	 * Gets the number of compilations of dynamic classes.
+	 *
+	 * @return the number of calls
+	 */
+	long getCompileCount();
+
+	/**
+	 * Gets the mean latency of the compilations of dynamic classes.
+	 *
+	 * @return the mean latency
+	 */
+	long getCompileMeanNanos();
+
+	/**
+	 * Gets the 99th percentile of the latency of the compilations of dynamic
+	 * classes.
+	 *
+	 * @return the 99th percentile of the latency
+	 */
+	long getCompileP99Nanos();
+
+	/**
+	 * Gets the highest latency of the compilations of dynamic classes.
+	 *
+	 * @return the highest latency
+	 */
+	long getCompileMaxNanos();
+
+	/**
+	 * Gets the number of definitions of dynamic classes.
+	 *
+	 * @return the number of calls
+	 */
+	long getDefineCount();
+
+	/**
+	 * Gets the mean latency of the definitions of dynamic classes.
+	 *
+	 * @return the mean latency
+	 */
+	long getDefineMeanNanos();
+
+	/**
+	 * Gets the 99th percentile of the latency of the definitions of dynamic
+	 * classes.
+	 *
+	 * @return the 99th percentile of the latency
+	 */
+	long getDefineP99Nanos();
+
+	/**
+	 * Gets the highest latency of the definitions of dynamic classes.
+	 *
+	 * @return the highest latency
+	 */
+	long getDefineMaxNanos();
+
+	/**
+	 * Gets the bytes of bytecode produced by the compilations.
+	 *
+	 * @return the bytes of bytecode
+	 */
+	long getBytecodeBytes();
+
+	/**
+	 * Gets the number of classes defined.
+	 *
+	 * @return the number of classes defined
+	 */
+	long getDefinedClasses();
+
+	/**
+	 * Gets the bytes copied off-heap by
+	 * {@link Flip#shallowCopy(Object, FlipArena)}.
+	 *
+	 * @return the bytes copied off-heap
+	 */
+	long getOffHeapCopiedBytes();
+
+	/**
+	 * Gets the bytes of native memory allocated by Flip.
+	 *
+	 * @return the bytes of native memory allocated
+	 */
+	long getNativeAllocatedBytes();
+
+	/**
+	 * Gets the bytes of native memory given back by Flip.
+	 *
+	 * @return the bytes of native memory given back
+	 */
+	long getNativeFreedBytes();
+
+	/**
+	 * Resets all the metrics.
+	 */
+	void reset();
+
+}
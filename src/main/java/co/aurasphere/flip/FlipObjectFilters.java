@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Common {@link FlipObjectFilter} implementations.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipObjectFilters {
+
+	/**
+	 * Filter which rejects {@link Class} objects, which are shared by all the
+	 * instances of a class and would otherwise drag in their class loader.
+	 */
+	public static final FlipObjectFilter NO_CLASSES = new FlipObjectFilter() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see co.aurasphere.flip.FlipObjectFilter#accept(java.lang.Object)
+		 */
+		@Override
+		public boolean accept(Object object) {
+			return !(object instanceof Class);
+		}
+	};
+
+	/**
+	 * Filter which rejects enum constants, which are singletons.
+	 */
+	public static final FlipObjectFilter NO_ENUMS = new FlipObjectFilter() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see co.aurasphere.flip.FlipObjectFilter#accept(java.lang.Object)
+		 */
+		@Override
+		public boolean accept(Object object) {
+			return !(object instanceof Enum);
+		}
+	};
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private FlipObjectFilters() {
+	}
+
+	/**
+	 * Returns a filter which rejects the given instances, compared by
+	 * identity. Useful to exclude shared singletons from a measurement.
+	 *
+	 * @param instances
+	 *            the instances to reject
+	 * @return a filter which rejects the given instances
+	 */
+	public static FlipObjectFilter noInstances(Object... instances) {
+		final Set<Object> excluded = Collections
+				.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		Collections.addAll(excluded, instances);
+		return new FlipObjectFilter() {
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see co.aurasphere.flip.FlipObjectFilter#accept(java.lang.Object)
+			 */
+			@Override
+			public boolean accept(Object object) {
+				return !excluded.contains(object);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,447 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import sun.misc.Unsafe;
+
+/**
+ * Walks all the objects reachable from some roots using all the threads of a
+ * {@link ForkJoinPool}, for graphs too big to be walked by a single thread.
+ * Each task walks depth-first with its own stack, like
+ * {@link FlipGraphWalker}, reading the references through the offsets cached
+ * in {@link FlipClassLayout}. When other threads of the pool are idle, a task
+ * hands half of its stack to a new task, and big arrays are split into
+ * ranges, so the work spreads even from a single root. The visited objects
+ * are shared in a {@link FlipConcurrentIdentitySet}, while sizes and class
+ * counters are summed in an {@link Accumulator} for each thread, merged at
+ * the end of the walk.
+ * <p>
+ * The walk runs in the pool of the calling thread if it's a pool thread,
+ * in the common pool otherwise.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipParallelGraphWalker {
+
+	/**
+	 * Unsafe used to read the references.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Number of objects on the stack of a task over which half of them are
+	 * handed to a new task, if other threads are idle.
+	 */
+	private static final int SPLIT_THRESHOLD = 32;
+
+	/**
+	 * Number of elements of the array ranges walked by a task. Bigger arrays
+	 * are split.
+	 */
+	private static final int ARRAY_CHUNK = 4096;
+
+	/**
+	 * Filters that objects must pass to be visited.
+	 */
+	private final FlipObjectFilter[] filters;
+
+	/**
+	 * True if the objects must be counted by class.
+	 */
+	private final boolean countClasses;
+
+	/**
+	 * Objects already reached.
+	 */
+	private final FlipConcurrentIdentitySet visited;
+
+	/**
+	 * Accumulators of all the threads which took part in the walk.
+	 */
+	private final Queue<Accumulator> accumulators = new ConcurrentLinkedQueue<Accumulator>();
+
+	/**
+	 * Accumulator of the current thread.
+	 */
+	private final ThreadLocal<Accumulator> accumulator = new ThreadLocal<Accumulator>() {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.ThreadLocal#initialValue()
+		 */
+		@Override
+		protected Accumulator initialValue() {
+			Accumulator accumulator = new Accumulator(countClasses);
+			accumulators.add(accumulator);
+			return accumulator;
+		}
+	};
+
+	/**
+	 * Instantiates a new FlipParallelGraphWalker.
+	 *
+	 * @param countClasses
+	 *            the {@link #countClasses}
+	 * @param filters
+	 *            the {@link #filters}
+	 */
+	FlipParallelGraphWalker(boolean countClasses, FlipObjectFilter... filters) {
+		this.filters = filters == null ? new FlipObjectFilter[0] : filters;
+		this.countClasses = countClasses;
+		this.visited = new FlipConcurrentIdentitySet(pool().getParallelism());
+	}
+
+	/**
+	 * Walks the graph reachable from some objects. Can be called only once on
+	 * each walker.
+	 *
+	 * @param roots
+	 *            the objects to start from
+	 * @return the merged counters of all the threads
+	 */
+	Accumulator walk(Object... roots) {
+		List<Object> start = new ArrayList<Object>();
+		for (Object root : roots) {
+			if (root != null && visited.add(root) && accept(root)) {
+				start.add(root);
+			}
+		}
+		WalkTask task = new WalkTask(start.toArray(), null, 0, 0);
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		} else {
+			ForkJoinPool.commonPool().invoke(task);
+		}
+
+		// All the tasks are done, so the accumulators are complete.
+		Accumulator total = new Accumulator(countClasses);
+		for (Accumulator threadAccumulator : accumulators) {
+			total.merge(threadAccumulator);
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the pool the walk will run in.
+	 *
+	 * @return the pool of the walk
+	 */
+	private static ForkJoinPool pool() {
+		ForkJoinPool pool = ForkJoinTask.getPool();
+		return pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Checks if an object passes all the {@link #filters}.
+	 *
+	 * @param object
+	 *            the object to check
+	 * @return true, if the object passes all the filters, false otherwise
+	 */
+	private boolean accept(Object object) {
+		for (FlipObjectFilter filter : filters) {
+			if (!filter.accept(object)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Walks part of the graph: the objects reachable from some objects
+	 * already visited, or from a range of elements of an array already
+	 * visited.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private final class WalkTask extends RecursiveAction {
+
+		/**
+		 * The serial version UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Objects to walk from, not counted yet.
+		 */
+		private final Object[] objects;
+
+		/**
+		 * Array whose elements are walked from, already counted, can be null.
+		 */
+		private final Object[] array;
+
+		/**
+		 * First element of {@link #array} to walk from.
+		 */
+		private final int from;
+
+		/**
+		 * Element of {@link #array} after the last one to walk from.
+		 */
+		private final int to;
+
+		/**
+		 * Instantiates a new WalkTask.
+		 *
+		 * @param objects
+		 *            the {@link #objects}
+		 * @param array
+		 *            the {@link #array}
+		 * @param from
+		 *            the {@link #from}
+		 * @param to
+		 *            the {@link #to}
+		 */
+		private WalkTask(Object[] objects, Object[] array, int from, int to) {
+			this.objects = objects;
+			this.array = array;
+			this.from = from;
+			this.to = to;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			Accumulator counters = accumulator.get();
+			List<WalkTask> forked = new ArrayList<WalkTask>();
+			ArrayDeque<Object> stack = new ArrayDeque<Object>();
+			for (Object object : objects) {
+				stack.push(object);
+			}
+			if (array != null) {
+				pushElements(array, from, to, stack);
+			}
+
+			while (!stack.isEmpty()) {
+				Object object = stack.pop();
+				FlipClassLayout layout = FlipClassLayout.of(object.getClass());
+				counters.add(object.getClass(), layout.sizeOf(object));
+
+				// Follows the references.
+				if (layout.isObjectArray()) {
+					Object[] elements = (Object[]) object;
+					int end = elements.length;
+					while (end > ARRAY_CHUNK) {
+						int start = end - ARRAY_CHUNK;
+						forked.add((WalkTask) new WalkTask(new Object[0],
+								elements, start, end).fork());
+						end = start;
+					}
+					pushElements(elements, 0, end, stack);
+				} else {
+					for (int i = 0; i < layout.getReferenceCount(); i++) {
+						push(UNSAFE.getObject(object,
+								layout.getReferenceOffset(i)), stack);
+					}
+				}
+
+				// Shares the work if other threads are starving.
+				if (stack.size() > SPLIT_THRESHOLD
+						&& getSurplusQueuedTaskCount() <= 0) {
+					Object[] half = new Object[stack.size() / 2];
+					for (int i = 0; i < half.length; i++) {
+						half[i] = stack.pollLast();
+					}
+					forked.add((WalkTask) new WalkTask(half, null, 0, 0)
+							.fork());
+				}
+			}
+			for (WalkTask task : forked) {
+				task.join();
+			}
+		}
+
+		/**
+		 * Pushes the elements of an array not visited yet on a stack.
+		 *
+		 * @param elements
+		 *            the array
+		 * @param start
+		 *            the first element
+		 * @param end
+		 *            the element after the last one
+		 * @param stack
+		 *            the stack
+		 */
+		private void pushElements(Object[] elements, int start, int end,
+				ArrayDeque<Object> stack) {
+			for (int i = start; i < end; i++) {
+				push(elements[i], stack);
+			}
+		}
+
+		/**
+		 * Pushes an object on a stack if it's not visited yet and passes the
+		 * filters.
+		 *
+		 * @param object
+		 *            the object, can be null
+		 * @param stack
+		 *            the stack
+		 */
+		private void push(Object object, ArrayDeque<Object> stack) {
+			if (object != null && visited.add(object) && accept(object)) {
+				stack.push(object);
+			}
+		}
+
+	}
+
+	/**
+	 * Counters of the objects visited by a thread.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	static final class Accumulator {
+
+		/**
+		 * Counters of each class, holding the instances and the bytes, null
+		 * if classes are not counted.
+		 */
+		private final Map<Class<?>, long[]> classCounters;
+
+		/**
+		 * Sum of the shallow sizes of the visited objects.
+		 */
+		private long totalSize;
+
+		/**
+		 * Class of the last visited object, used to skip the counters lookup
+		 * for runs of objects of the same class.
+		 */
+		private Class<?> lastClass;
+
+		/**
+		 * Counters of {@link #lastClass}.
+		 */
+		private long[] lastCounters;
+
+		/**
+		 * Instantiates a new Accumulator.
+		 *
+		 * @param countClasses
+		 *            true if the objects must be counted by class
+		 */
+		private Accumulator(boolean countClasses) {
+			this.classCounters = countClasses ? new HashMap<Class<?>, long[]>()
+					: null;
+		}
+
+		/**
+		 * Counts a visited object.
+		 *
+		 * @param klass
+		 *            the class of the object
+		 * @param size
+		 *            the shallow size of the object
+		 */
+		private void add(Class<?> klass, long size) {
+			totalSize += size;
+			if (classCounters == null) {
+				return;
+			}
+			if (klass != lastClass) {
+				lastCounters = counters(klass);
+				lastClass = klass;
+			}
+			lastCounters[0]++;
+			lastCounters[1] += size;
+		}
+
+		/**
+		 * Adds the counters of another accumulator to this one.
+		 *
+		 * @param other
+		 *            the other accumulator
+		 */
+		private void merge(Accumulator other) {
+			totalSize += other.totalSize;
+			if (classCounters == null) {
+				return;
+			}
+			for (Map.Entry<Class<?>, long[]> entry : other.classCounters
+					.entrySet()) {
+				long[] counters = counters(entry.getKey());
+				counters[0] += entry.getValue()[0];
+				counters[1] += entry.getValue()[1];
+			}
+		}
+
+		/**
+		 * Gets the counters of a class, creating them if missing.
+		 *
+		 * @param klass
+		 *            the class
+		 * @return the counters of the class
+		 */
+		private long[] counters(Class<?> klass) {
+			long[] counters = classCounters.get(klass);
+			if (counters == null) {
+				counters = new long[2];
+				classCounters.put(klass, counters);
+			}
+			return counters;
+		}
+
+		/**
+		 * Gets the {@link #classCounters}.
+		 *
+		 * @return the {@link #classCounters}
+		 */
+		Map<Class<?>, long[]> getClassCounters() {
+			return classCounters;
+		}
+
+		/**
+		 * Gets the {@link #totalSize}.
+		 *
+		 * @return the {@link #totalSize}
+		 */
+		long getTotalSize() {
+			return totalSize;
+		}
+
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Policy used by {@link Flip#estimateSize(Object, FlipSamplingPolicy)} to
+ * decide how many elements of a collection or array are measured and how
+ * wide the reported confidence interval is. Policies are immutable and can
+ * be shared between threads.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipSamplingPolicy {
+
+	/**
+	 * Policy which samples 1000 elements and reports a 95% confidence
+	 * interval.
+	 */
+	public static final FlipSamplingPolicy DEFAULT = new FlipSamplingPolicy(
+			1000);
+
+	/**
+	 * Maximum number of elements measured.
+	 */
+	private final int sampleSize;
+
+	/**
+	 * Probability that the confidence interval contains the actual size,
+	 * between 0 and 1 excluded.
+	 */
+	private final double confidence;
+
+	/**
+	 * Filters that objects must pass to be measured.
+	 */
+	private final FlipObjectFilter[] filters;
+
+	/**
+	 * Instantiates a new FlipSamplingPolicy with a 95% confidence interval.
+	 *
+	 * @param sampleSize
+	 *            the {@link #sampleSize}
+	 * @param filters
+	 *            the {@link #filters}
+	 * @throws IllegalArgumentException
+	 *             if the sample size is not positive
+	 */
+	public FlipSamplingPolicy(int sampleSize, FlipObjectFilter... filters) {
+		this(sampleSize, 0.95, filters);
+	}
+
+	/**
+	 * Instantiates a new FlipSamplingPolicy.
+	 *
+	 * @param sampleSize
+	 *            the {@link #sampleSize}
+	 * @param confidence
+	 *            the {@link #confidence}
+	 * @param filters
+	 *            the {@link #filters}, objects rejected by any filter are
+	 *            skipped along with the objects reachable only through them
+	 * @throws IllegalArgumentException
+	 *             if the sample size is not positive or the confidence is not
+	 *             between 0 and 1 excluded
+	 */
+	public FlipSamplingPolicy(int sampleSize, double confidence,
+			FlipObjectFilter... filters) {
+		if (sampleSize <= 0) {
+			throw new IllegalArgumentException("Sample size must be positive: "
+					+ sampleSize);
+		}
+		if (!(confidence > 0 && confidence < 1)) {
+			throw new IllegalArgumentException(
+					"Confidence must be between 0 and 1 excluded: "
+							+ confidence);
+		}
+		this.sampleSize = sampleSize;
+		this.confidence = confidence;
+		this.filters = filters == null ? new FlipObjectFilter[0] : filters
+				.clone();
+	}
+
+	/**
+	 * Gets the {@link #sampleSize}.
+	 *
+	 * @return the {@link #sampleSize}
+	 */
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	/**
+	 * Gets the {@link #confidence}.
+	 *
+	 * @return the {@link #confidence}
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * Gets the {@link #filters}.
+	 *
+	 * @return a copy of the {@link #filters}
+	 */
+	public FlipObjectFilter[] getFilters() {
+		return filters.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FlipSamplingPolicy [sampleSize=" + sampleSize
+				+ ", confidence=" + confidence + ", filters=" + filters.length
+				+ "]";
+	}
+
+}
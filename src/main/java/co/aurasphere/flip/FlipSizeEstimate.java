@@ -0,0 +1,189 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+/**
+ * Result of {@link Flip#estimateSize(Object, FlipSamplingPolicy)}: the
+ * estimated deep size of an object along with a confidence interval. The
+ * size is the fixed overhead of the structure, measured exactly, plus the
+ * number of its elements times their mean deep size, measured on a sample.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public final class FlipSizeEstimate {
+
+	/**
+	 * Estimated deep size, in bytes.
+	 */
+	private final long estimatedBytes;
+
+	/**
+	 * Lower bound of the confidence interval, in bytes.
+	 */
+	private final long lowerBound;
+
+	/**
+	 * Upper bound of the confidence interval, in bytes.
+	 */
+	private final long upperBound;
+
+	/**
+	 * Size of the structure without its elements, in bytes.
+	 */
+	private final long fixedBytes;
+
+	/**
+	 * Number of elements of the structure.
+	 */
+	private final long elementCount;
+
+	/**
+	 * Number of elements measured.
+	 */
+	private final long sampledElements;
+
+	/**
+	 * Probability that the confidence interval contains the actual size.
+	 */
+	private final double confidence;
+
+	/**
+	 * Instantiates a new FlipSizeEstimate.
+	 *
+	 * @param estimatedBytes
+	 *            the {@link #estimatedBytes}
+	 * @param lowerBound
+	 *            the {@link #lowerBound}
+	 * @param upperBound
+	 *            the {@link #upperBound}
+	 * @param fixedBytes
+	 *            the {@link #fixedBytes}
+	 * @param elementCount
+	 *            the {@link #elementCount}
+	 * @param sampledElements
+	 *            the {@link #sampledElements}
+	 * @param confidence
+	 *            the {@link #confidence}
+	 */
+	FlipSizeEstimate(long estimatedBytes, long lowerBound, long upperBound,
+			long fixedBytes, long elementCount, long sampledElements,
+			double confidence) {
+		this.estimatedBytes = estimatedBytes;
+		this.lowerBound = lowerBound;
+		this.upperBound = upperBound;
+		this.fixedBytes = fixedBytes;
+		this.elementCount = elementCount;
+		this.sampledElements = sampledElements;
+		this.confidence = confidence;
+	}
+
+	/**
+	 * Checks if every element was measured, in which case the interval is
+	 * empty.
+	 *
+	 * @return true, if the estimate is exact, false otherwise
+	 */
+	public boolean isExact() {
+		return sampledElements == elementCount;
+	}
+
+	/**
+	 * Gets the {@link #estimatedBytes}.
+	 *
+	 * @return the {@link #estimatedBytes}
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	/**
+	 * Gets the {@link #lowerBound}.
+	 *
+	 * @return the {@link #lowerBound}
+	 */
+	public long getLowerBound() {
+		return lowerBound;
+	}
+
+	/**
+	 * Gets the {@link #upperBound}.
+	 *
+	 * @return the {@link #upperBound}
+	 */
+	public long getUpperBound() {
+		return upperBound;
+	}
+
+	/**
+	 * Gets the {@link #fixedBytes}.
+	 *
+	 * @return the {@link #fixedBytes}
+	 */
+	public long getFixedBytes() {
+		return fixedBytes;
+	}
+
+	/**
+	 * Gets the {@link #elementCount}.
+	 *
+	 * @return the {@link #elementCount}
+	 */
+	public long getElementCount() {
+		return elementCount;
+	}
+
+	/**
+	 * Gets the {@link #sampledElements}.
+	 *
+	 * @return the {@link #sampledElements}
+	 */
+	public long getSampledElements() {
+		return sampledElements;
+	}
+
+	/**
+	 * Gets the {@link #confidence}.
+	 *
+	 * @return the {@link #confidence}
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FlipSizeEstimate [estimatedBytes=" + estimatedBytes
+				+ ", lowerBound=" + lowerBound + ", upperBound=" + upperBound
+				+ ", fixedBytes=" + fixedBytes + ", elementCount="
+				+ elementCount + ", sampledElements=" + sampledElements
+				+ ", confidence=" + confidence + "]";
+	}
+
+}
@@ -0,0 +1,503 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.ArrayList;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Estimates the deep size of large structures by sampling their elements.
+ * The objects which make up the structure itself, like the backing array of
+ * an {@link ArrayList} or the table of an {@link HashMap}, are measured
+ * exactly with {@link Flip#sizeOf(Object)}, reading the internal fields
+ * through {@link FlipFieldAccessor}. Then a random sample of elements is
+ * drawn without replacement and measured with a {@link FlipGraphWalker},
+ * and their mean deep size is extrapolated to all the elements, so the cost
+ * is proportional to the sample and not to the structure.
+ * <p>
+ * Supported structures are arrays, {@link ArrayList}, {@link HashMap},
+ * {@link LinkedHashMap}, {@link HashSet}, {@link LinkedHashSet} and
+ * {@link ConcurrentHashMap}. Anything else, including subclasses of these,
+ * is measured exactly. Each element is measured on its own, so objects
+ * shared by many elements are counted once for each of them: filters like
+ * {@link FlipObjectFilters#NO_ENUMS} can exclude them.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+class FlipSizeEstimator {
+
+	/**
+	 * Hash buckets are sampled by picking one at random, then one of its
+	 * entries, which is accepted with probability proportional to the length
+	 * of the bucket over this value. This makes all the entries equally
+	 * likely, except those of buckets longer than this, which HashMap
+	 * normally turns into trees.
+	 */
+	private static final int MAX_SAMPLED_BUCKET_LENGTH = 8;
+
+	/**
+	 * Hash of the special nodes of {@link ConcurrentHashMap} which hold a
+	 * bucket turned into a tree.
+	 */
+	private static final int TREEBIN = -2;
+
+	/**
+	 * Coefficients of the rational approximation of the inverse normal
+	 * distribution, from Abramowitz and Stegun 26.2.23.
+	 */
+	private static final double[] INVERSE_NORMAL_COEFFICIENTS = { 2.515517,
+			0.802853, 0.010328, 1.432788, 0.189269, 0.001308 };
+
+	/**
+	 * The policy followed.
+	 */
+	private final FlipSamplingPolicy policy;
+
+	/**
+	 * Source of the random samples.
+	 */
+	private final Random random = ThreadLocalRandom.current();
+
+	/**
+	 * Size of the structure without its elements.
+	 */
+	private long fixedBytes;
+
+	/**
+	 * Number of elements of the structure.
+	 */
+	private long elementCount;
+
+	/**
+	 * Number of elements measured.
+	 */
+	private int sampledElements;
+
+	/**
+	 * Sum of the deep sizes of the elements measured.
+	 */
+	private double sum;
+
+	/**
+	 * Sum of the squared deep sizes of the elements measured.
+	 */
+	private double sumOfSquares;
+
+	/**
+	 * Instantiates a new FlipSizeEstimator.
+	 *
+	 * @param policy
+	 *            the {@link #policy}
+	 */
+	FlipSizeEstimator(FlipSamplingPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Estimates the deep size of an object. Can be called only once on each
+	 * estimator.
+	 *
+	 * @param root
+	 *            the object to measure
+	 * @return the estimated size
+	 */
+	FlipSizeEstimate estimate(Object root) {
+		if (root == null) {
+			return result();
+		}
+		Class<?> type = root.getClass();
+		try {
+			if (root instanceof Object[]) {
+				Object[] array = (Object[]) root;
+				fixedBytes = Flip.sizeOf(array);
+				sampleArray(array, array.length, new Object[] { array });
+				return result();
+			}
+			if (type == ArrayList.class) {
+				Object[] elementData = (Object[]) field(root, ArrayList.class,
+						"elementData");
+				fixedBytes = Flip.sizeOf(root) + Flip.sizeOf(elementData);
+				sampleArray(elementData, FlipFieldAccessor.of(ArrayList.class,
+						"size").getInt(root), root, elementData);
+				return result();
+			}
+			if (type == HashMap.class || type == LinkedHashMap.class) {
+				sampleHashMap(root, true);
+				return result();
+			}
+			if (type == HashSet.class || type == LinkedHashSet.class) {
+				// The values are all the same marker object.
+				fixedBytes = Flip.sizeOf(root);
+				sampleHashMap(field(root, HashSet.class, "map"), false);
+				return result();
+			}
+			if (type == ConcurrentHashMap.class) {
+				sampleConcurrentHashMap(root);
+				return result();
+			}
+		} catch (FlipException e) {
+			// The internals are not the expected ones, measures exactly.
+			fixedBytes = 0;
+			elementCount = 0;
+			sampledElements = 0;
+			sum = 0;
+			sumOfSquares = 0;
+		}
+		fixedBytes = new FlipGraphWalker(policy.getFilters()).walk(root);
+		return result();
+	}
+
+	/**
+	 * Samples the first elements of an array.
+	 *
+	 * @param array
+	 *            the array
+	 * @param length
+	 *            the number of elements in use
+	 * @param structure
+	 *            the objects which make up the structure, which must not be
+	 *            measured again when reachable from an element
+	 */
+	private void sampleArray(Object[] array, int length, Object... structure) {
+		FlipGraphWalker walker = elementWalker(structure);
+		elementCount = length;
+		int sampleSize = policy.getSampleSize();
+		if (sampleSize >= length) {
+			for (int i = 0; i < length; i++) {
+				addSample(walker.walk(array[i]));
+			}
+			return;
+		}
+
+		// Floyd's algorithm: each index is drawn once, in O(sample) time.
+		HashSet<Integer> indices = new HashSet<Integer>();
+		for (int i = length - sampleSize; i < length; i++) {
+			int index = random.nextInt(i + 1);
+			if (!indices.add(index)) {
+				index = i;
+				indices.add(index);
+			}
+			addSample(walker.walk(array[index]));
+		}
+	}
+
+	/**
+	 * Samples the entries of an {@link HashMap} or {@link LinkedHashMap}.
+	 *
+	 * @param map
+	 *            the map
+	 * @param withValues
+	 *            false if the values are all the same object, as in
+	 *            {@link HashSet}
+	 */
+	private void sampleHashMap(Object map, boolean withValues) {
+		Object[] table = (Object[]) field(map, HashMap.class, "table");
+		fixedBytes += Flip.sizeOf(map) + sizeOf(table)
+				+ sizeOf(field(map, HashMap.class, "entrySet"))
+				+ mapViewsSize(map);
+		elementCount = ((HashMap<?, ?>) map).size();
+		sampleBuckets(table, false, withValues, map, table);
+		if (!withValues && table != null) {
+			// All the values are the same object, measured once.
+			for (Object head : table) {
+				if (head != null) {
+					fixedBytes += elementWalker(map, table).walk(
+							field(head, head.getClass(), "value"));
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Samples the entries of a {@link ConcurrentHashMap}. The map can be
+	 * modified while it's sampled, in which case the result is approximated.
+	 *
+	 * @param map
+	 *            the map
+	 */
+	private void sampleConcurrentHashMap(Object map) {
+		Class<?> type = ConcurrentHashMap.class;
+		Object[] table = (Object[]) field(map, type, "table");
+		Object[] nextTable = (Object[]) field(map, type, "nextTable");
+		Object[] counterCells = (Object[]) field(map, type, "counterCells");
+		fixedBytes = Flip.sizeOf(map) + sizeOf(table) + sizeOf(nextTable)
+				+ sizeOf(counterCells) + sizeOf(field(map, type, "keySet"))
+				+ sizeOf(field(map, type, "values"))
+				+ sizeOf(field(map, type, "entrySet"));
+		if (counterCells != null) {
+			for (Object cell : counterCells) {
+				fixedBytes += sizeOf(cell);
+			}
+		}
+		elementCount = ((ConcurrentHashMap<?, ?>) map).mappingCount();
+		sampleBuckets(table, true, true, map, table, nextTable);
+	}
+
+	/**
+	 * Samples the entries of an hash table. Entries are drawn picking a
+	 * random bucket and then a random entry of the bucket, which is accepted
+	 * with probability proportional to the bucket length, so that entries of
+	 * crowded buckets are not underrepresented. Each entry is measured as its
+	 * node, plus the deep sizes of its key and value.
+	 *
+	 * @param table
+	 *            the table of the buckets
+	 * @param concurrent
+	 *            true if the table is the one of a {@link ConcurrentHashMap}
+	 * @param withValues
+	 *            false if the values must not be measured
+	 * @param structure
+	 *            the objects which make up the structure, which must not be
+	 *            measured again when reachable from an entry
+	 */
+	private void sampleBuckets(Object[] table, boolean concurrent,
+			boolean withValues, Object... structure) {
+		FlipGraphWalker walker = elementWalker(structure);
+		if (table == null || elementCount == 0) {
+			return;
+		}
+
+		// Small maps are measured entirely, walking all the buckets.
+		int sampleSize = policy.getSampleSize();
+		boolean exhaustive = sampleSize >= elementCount;
+		FlipIdentitySet sampled = new FlipIdentitySet();
+		long maxAttempts = exhaustive ? 0 : (long) sampleSize
+				* MAX_SAMPLED_BUCKET_LENGTH * 64
+				* Math.max(1, table.length / elementCount);
+		Object[] bucket = new Object[MAX_SAMPLED_BUCKET_LENGTH];
+		for (long attempt = 0; exhaustive ? attempt < table.length
+				: sampledElements < sampleSize && attempt < maxAttempts; attempt++) {
+			int index = exhaustive ? (int) attempt : random
+					.nextInt(table.length);
+			Object head = table[index];
+			if (head == null) {
+				continue;
+			}
+			long containerBytes = 0;
+			if (concurrent) {
+				int hash = FlipFieldAccessor.of(head.getClass(), "hash")
+						.getInt(head);
+				if (hash == TREEBIN) {
+					// The tree nodes are also linked as a list.
+					containerBytes = Flip.sizeOf(head);
+					head = field(head, head.getClass(), "first");
+				} else if (hash < 0) {
+					// Moved by a resize or reserved by a computation.
+					continue;
+				}
+			}
+			int length = 0;
+			for (Object node = head; node != null; node = next(node)) {
+				if (length == bucket.length) {
+					bucket = Arrays.copyOf(bucket, length * 2);
+				}
+				bucket[length++] = node;
+			}
+			if (length == 0) {
+				continue;
+			}
+			if (exhaustive) {
+				for (int i = 0; i < length; i++) {
+					addSample(measureEntry(walker, bucket[i], concurrent,
+							withValues, containerBytes / length));
+				}
+				continue;
+			}
+			Object node = bucket[random.nextInt(length)];
+			if (random.nextInt(MAX_SAMPLED_BUCKET_LENGTH) < length
+					&& sampled.add(node)) {
+				addSample(measureEntry(walker, node, concurrent, withValues,
+						containerBytes / length));
+			}
+		}
+		if (exhaustive) {
+			// The map may have changed since its size was read.
+			elementCount = sampledElements;
+		}
+	}
+
+	/**
+	 * Measures an entry of an hash table.
+	 *
+	 * @param walker
+	 *            the walker which measures the key and the value
+	 * @param node
+	 *            the node of the entry
+	 * @param concurrent
+	 *            true if the node is the one of a {@link ConcurrentHashMap}
+	 * @param withValues
+	 *            false if the value must not be measured
+	 * @param sharedBytes
+	 *            the share of the entry of the objects holding its bucket
+	 * @return the size of the entry
+	 */
+	private long measureEntry(FlipGraphWalker walker, Object node,
+			boolean concurrent, boolean withValues, long sharedBytes) {
+		Class<?> type = node.getClass();
+		long size = Flip.sizeOf(node) + sharedBytes
+				+ walker.walk(field(node, type, "key"));
+		if (withValues) {
+			size += walker.walk(field(node, type,
+					concurrent ? "val" : "value"));
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the node following another in an hash bucket.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the next node, null if it's the last one
+	 */
+	private static Object next(Object node) {
+		return field(node, node.getClass(), "next");
+	}
+
+	/**
+	 * Gets the size of the key set and values views of a map, which are
+	 * created on first use and cached.
+	 *
+	 * @param map
+	 *            the map
+	 * @return the size of the views
+	 */
+	private static long mapViewsSize(Object map) {
+		return sizeOf(field(map, AbstractMap.class, "keySet"))
+				+ sizeOf(field(map, AbstractMap.class, "values"));
+	}
+
+	/**
+	 * Reads a reference field.
+	 *
+	 * @param target
+	 *            the object which holds the field
+	 * @param klass
+	 *            the class which declares the field or a subclass of it
+	 * @param fieldName
+	 *            the name of the field
+	 * @return the value of the field
+	 * @throws FlipException
+	 *             if the field is not found
+	 */
+	private static Object field(Object target, Class<?> klass, String fieldName) {
+		return FlipFieldAccessor.of(klass, fieldName).getObject(target);
+	}
+
+	/**
+	 * Gets the shallow size of an object.
+	 *
+	 * @param object
+	 *            the object, can be null
+	 * @return the shallow size of the object, 0 if it's null
+	 */
+	private static long sizeOf(Object object) {
+		return object == null ? 0 : Flip.sizeOf(object);
+	}
+
+	/**
+	 * Creates the walker which measures the elements.
+	 *
+	 * @param structure
+	 *            the objects which make up the structure, which must not be
+	 *            measured again when reachable from an element
+	 * @return the walker
+	 */
+	private FlipGraphWalker elementWalker(Object... structure) {
+		FlipObjectFilter[] filters = policy.getFilters();
+		FlipObjectFilter[] elementFilters = Arrays.copyOf(filters,
+				filters.length + 1);
+		elementFilters[filters.length] = FlipObjectFilters
+				.noInstances(structure);
+		return new FlipGraphWalker(elementFilters);
+	}
+
+	/**
+	 * Adds the size of an element to the sample.
+	 *
+	 * @param size
+	 *            the deep size of the element
+	 */
+	private void addSample(long size) {
+		sampledElements++;
+		sum += size;
+		sumOfSquares += (double) size * size;
+	}
+
+	/**
+	 * Extrapolates the sample to the whole structure. The interval is the
+	 * normal one of the mean of a sample drawn without replacement, with the
+	 * finite population correction, so it's empty when every element was
+	 * measured.
+	 *
+	 * @return the estimate
+	 */
+	private FlipSizeEstimate result() {
+		if (sampledElements == 0) {
+			return new FlipSizeEstimate(fixedBytes, fixedBytes, fixedBytes,
+					fixedBytes, elementCount, 0, policy.getConfidence());
+		}
+		double mean = sum / sampledElements;
+		double estimate = fixedBytes + mean * elementCount;
+		double halfWidth = 0;
+		if (sampledElements > 1 && sampledElements < elementCount) {
+			double variance = Math.max(0, (sumOfSquares - sum * mean)
+					/ (sampledElements - 1));
+			double finitePopulation = 1 - (double) sampledElements
+					/ elementCount;
+			halfWidth = inverseNormal(policy.getConfidence()) * elementCount
+					* Math.sqrt(variance / sampledElements * finitePopulation);
+		}
+		return new FlipSizeEstimate(Math.round(estimate), Math.max(fixedBytes,
+				Math.round(estimate - halfWidth)), Math.round(estimate
+				+ halfWidth), fixedBytes, elementCount, sampledElements,
+				policy.getConfidence());
+	}
+
+	/**
+	 * Computes how many standard deviations around the mean contain a given
+	 * share of a normal distribution, with an error below 0.001.
+	 *
+	 * @param confidence
+	 *            the share of the distribution, between 0 and 1 excluded
+	 * @return the half width of the interval, in standard deviations
+	 */
+	static double inverseNormal(double confidence) {
+		double[] c = INVERSE_NORMAL_COEFFICIENTS;
+		double t = Math.sqrt(-2 * Math.log((1 - confidence) / 2));
+		return t - (c[0] + c[1] * t + c[2] * t * t)
+				/ (1 + c[3] * t + c[4] * t * t + c[5] * t * t * t);
+	}
+
+}
@@ -0,0 +1,367 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import sun.misc.Unsafe;
+
+/**
+ * Writes and reads snapshots of objects with primitive fields only. A
+ * snapshot is a file with a small header followed by the field region of
+ * each object, exactly as it's laid out in memory, so that writing and
+ * reading it only moves memory through a mapping of the file.
+ * <p>
+ * The header holds a schema which describes the class and the JVM layout the
+ * snapshot was written with. Snapshots can only be read back when the schema
+ * matches the current one, so a change to a class or to the JVM options which
+ * alter the layout is detected before any object is read.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+final class FlipSnapshot {
+
+	/**
+	 * First bytes of a snapshot file, "FLIP" in ASCII.
+	 */
+	private static final int MAGIC = 0x464C4950;
+
+	/**
+	 * Version of the snapshot format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Maximum size of a mapping of the file.
+	 */
+	private static final long MAX_MAPPING_SIZE = 1 << 30;
+
+	/**
+	 * Unsafe used to access the mappings.
+	 */
+	private static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Offset of the address of a direct buffer.
+	 */
+	private static final long BUFFER_ADDRESS_OFFSET;
+
+	static {
+		try {
+			BUFFER_ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class
+					.getDeclaredField("address"));
+		} catch (NoSuchFieldException e) {
+			throw new FlipException(
+					"Error while looking up the address of direct buffers", e);
+		}
+	}
+
+	/**
+	 * Instantiates a new FlipSnapshot.
+	 */
+	private FlipSnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot. The snapshot is first written to a temporary file
+	 * which is then moved, so that readers never see a partial snapshot.
+	 *
+	 * @param objects
+	 *            the objects to write, all of the same class
+	 * @param file
+	 *            the file to write
+	 * @return the number of objects written
+	 */
+	static long write(Collection<?> objects, Path file) {
+		Iterator<?> iterator = objects.iterator();
+		FlipClassLayout layout = iterator.hasNext() ? layoutOf(iterator.next()
+				.getClass()) : null;
+		String schema = layout == null ? "" : schema(layout);
+		long recordSize = layout == null ? 0 : recordSize(layout);
+		long recordCount = objects.size();
+
+		Path absoluteFile = file.toAbsolutePath();
+		Path temporaryFile = null;
+		try {
+			temporaryFile = Files.createTempFile(absoluteFile.getParent(),
+					absoluteFile.getFileName().toString(), ".tmp");
+			try (FileChannel channel = FileChannel.open(temporaryFile,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				byte[] header = header(schema, recordSize, recordCount);
+				channel.write(ByteBuffer.wrap(header));
+
+				// Copies the records a mapping at a time.
+				long recordsPerMapping = Math.max(1, MAX_MAPPING_SIZE
+						/ Math.max(1, recordSize));
+				long written = 0;
+				iterator = objects.iterator();
+				while (written < recordCount) {
+					long records = Math.min(recordsPerMapping, recordCount
+							- written);
+					MappedByteBuffer mapping = channel.map(MapMode.READ_WRITE,
+							header.length + written * recordSize, records
+									* recordSize);
+					// Locking the mapping keeps it reachable, otherwise it
+					// could be unmapped while its memory is still in use.
+					synchronized (mapping) {
+						long address = addressOf(mapping);
+						for (long i = 0; i < records; i++) {
+							Object object = iterator.next();
+							if (object == null
+									|| object.getClass() != layout.getType()) {
+								throw new FlipException(
+										"All the objects of a snapshot must be of class "
+												+ layout.getType().getName());
+							}
+							layout.copyToMemory(object, address + i
+									* recordSize);
+						}
+						mapping.force();
+					}
+					written += records;
+				}
+			}
+			Files.move(temporaryFile, absoluteFile,
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			temporaryFile = null;
+			return recordCount;
+		} catch (IOException e) {
+			throw new FlipException("Error while writing snapshot " + file, e);
+		} finally {
+			deleteQuietly(temporaryFile);
+		}
+	}
+
+	/**
+	 * Reads a snapshot, checking its schema first.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param type
+	 *            the class of the objects
+	 * @return the objects read
+	 */
+	static <T> List<T> read(Path file, Class<T> type) {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			DataInputStream input = new DataInputStream(
+					Channels.newInputStream(channel));
+			if (input.readInt() != MAGIC) {
+				throw new FlipException(file + " is not a Flip snapshot.");
+			}
+			int version = input.readInt();
+			if (version != VERSION) {
+				throw new FlipException("Unsupported snapshot version "
+						+ version + " in " + file);
+			}
+			String schema = input.readUTF();
+			long recordSize = input.readLong();
+			long recordCount = input.readLong();
+			long dataOffset = (channel.position() + 7) & -8L;
+			if (recordCount > Integer.MAX_VALUE - 8) {
+				throw new FlipException("Too many objects in snapshot " + file);
+			}
+			List<T> objects = new ArrayList<T>((int) recordCount);
+			if (recordCount == 0) {
+				return objects;
+			}
+
+			// Fails fast if the layout changed.
+			FlipClassLayout layout = layoutOf(type);
+			String currentSchema = schema(layout);
+			if (!schema.equals(currentSchema)) {
+				throw new FlipException("Snapshot " + file
+						+ " doesn't match the current layout. Snapshot: "
+						+ schema + ", current: " + currentSchema);
+			}
+			if (dataOffset + recordCount * recordSize > channel.size()) {
+				throw new FlipException("Truncated snapshot " + file);
+			}
+
+			// Copies the records a mapping at a time.
+			long recordsPerMapping = Math.max(1, MAX_MAPPING_SIZE
+					/ Math.max(1, recordSize));
+			long read = 0;
+			while (read < recordCount) {
+				long records = Math.min(recordsPerMapping, recordCount - read);
+				MappedByteBuffer mapping = channel.map(MapMode.READ_ONLY,
+						dataOffset + read * recordSize, records * recordSize);
+				synchronized (mapping) {
+					long address = addressOf(mapping);
+					for (long i = 0; i < records; i++) {
+						Object object = UNSAFE.allocateInstance(type);
+						layout.copyFromMemory(address + i * recordSize, object);
+						objects.add(type.cast(object));
+					}
+				}
+				read += records;
+			}
+			return objects;
+		} catch (IOException e) {
+			throw new FlipException("Error while reading snapshot " + file, e);
+		} catch (InstantiationException e) {
+			throw new FlipException("Error while instantiating class "
+					+ type.getName(), e);
+		}
+	}
+
+	/**
+	 * Returns the layout of a class which can be written to a snapshot.
+	 *
+	 * @param type
+	 *            the class
+	 * @return the layout of the class
+	 * @throws FlipException
+	 *             if the class is an array or has reference fields
+	 */
+	private static FlipClassLayout layoutOf(Class<?> type) {
+		FlipClassLayout layout = FlipClassLayout.of(type);
+		if (layout.isArray() || layout.getReferenceCount() > 0) {
+			throw new FlipException("Snapshots can only hold classes with "
+					+ "primitive fields: " + type.getName());
+		}
+		return layout;
+	}
+
+	/**
+	 * Returns the size of a record, which is the size of an instance without
+	 * its header.
+	 *
+	 * @param layout
+	 *            the layout of the class
+	 * @return the size of a record
+	 */
+	private static long recordSize(FlipClassLayout layout) {
+		return Math.max(0, layout.getInstanceSize()
+				- FlipSystemInformation.getJvmLayout().getHeaderSize());
+	}
+
+	/**
+	 * Describes the layout of a class and of the JVM, which must match
+	 * between the writer and the reader of a snapshot.
+	 *
+	 * @param layout
+	 *            the layout of the class
+	 * @return the schema of the class
+	 */
+	private static String schema(FlipClassLayout layout) {
+		FlipJvmLayout jvmLayout = FlipSystemInformation.getJvmLayout();
+		StringBuilder schema = new StringBuilder();
+		schema.append(layout.getType().getName());
+		schema.append("[byteOrder=").append(ByteOrder.nativeOrder());
+		schema.append(", headerSize=").append(jvmLayout.getHeaderSize());
+		schema.append(", referenceSize=").append(jvmLayout.getReferenceSize());
+		schema.append(", objectAlignment=").append(
+				jvmLayout.getObjectAlignment());
+		schema.append(", recordSize=").append(recordSize(layout));
+		schema.append(", fields=");
+		for (int i = 0; i < layout.getFieldCount(); i++) {
+			schema.append(i == 0 ? "" : ",")
+					.append(layout.getField(i).getDeclaringClass().getName())
+					.append('.').append(layout.getField(i).getName())
+					.append(':').append(layout.getField(i).getType().getName())
+					.append('@').append(layout.getFieldOffset(i));
+		}
+		return schema.append(']').toString();
+	}
+
+	/**
+	 * Builds the header of a snapshot, padded to a multiple of 8 bytes.
+	 *
+	 * @param schema
+	 *            the schema of the objects
+	 * @param recordSize
+	 *            the size of a record
+	 * @param recordCount
+	 *            the number of records
+	 * @return the header
+	 * @throws IOException
+	 *             never, the header is built in memory
+	 */
+	private static byte[] header(String schema, long recordSize,
+			long recordCount) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeUTF(schema);
+		output.writeLong(recordSize);
+		output.writeLong(recordCount);
+
+		// Aligns the records to a word.
+		while (output.size() % 8 != 0) {
+			output.writeByte(0);
+		}
+		output.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the address of the memory of a direct buffer.
+	 *
+	 * @param buffer
+	 *            a direct buffer
+	 * @return the address of the buffer
+	 */
+	private static long addressOf(ByteBuffer buffer) {
+		return UNSAFE.getLong(buffer, BUFFER_ADDRESS_OFFSET);
+	}
+
+	/**
+	 * Deletes a file, ignoring errors.
+	 *
+	 * @param file
+	 *            the file to delete, can be null
+	 */
+	private static void deleteQuietly(Path file) {
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// Best effort.
+			}
+		}
+	}
+
+}
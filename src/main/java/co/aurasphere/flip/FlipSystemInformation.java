@@ -23,10 +23,50 @@
  */
 package co.aurasphere.flip;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+import sun.misc.Unsafe;
 
 /**
  * Flip informations about the underlying system environment.
+ * <p>
+ * Loading this class is cheap: bitness, HotSpot and compressed oops are read
+ * from system properties and {@link Unsafe}. The rest of the
+ * {@link FlipJvmLayout} is built on first use, again from {@link Unsafe} and
+ * from the way consecutive objects are laid out, which must agree on a
+ * single object alignment, and the bases of the
+ * compressed pointers are resolved only when an address is first decoded or
+ * encoded. Only then the <code>-XX</code> options the JVM was started with
+ * are read, since the management API they come from takes tens of
+ * milliseconds to load.
+ * <p>
+ * Every HotSpot option used can be supplied with a
+ * <code>flip.vm.&lt;option&gt;</code> system property, such as
+ * <code>-Dflip.vm.ObjectAlignmentInBytes=16</code> or
+ * <code>-Dflip.vm.HeapBaseMinAddress=4g</code>, which takes precedence over
+ * what Flip finds out. The options used are
+ * <code>UseCompressedOops</code>, <code>UseCompressedClassPointers</code>,
+ * <code>UseCompactObjectHeaders</code>, <code>ObjectAlignmentInBytes</code>,
+ * <code>HeapBaseMinAddress</code>, <code>MaxHeapSize</code> and
+ * <code>CompressedClassSpaceSize</code>. Short-lived processes which never
+ * change the last three can skip reading the options the JVM was started
+ * with by setting <code>-Dflip.vm.readInputArguments=false</code>.
+ * <p>
+ * Flip finds out the layout only on HotSpot, recognized by the name of the
+ * JVM or of its compilers, or if <code>-Dflip.vm.HotSpot=true</code> is set.
+ * On other JVMs the object alignment must be supplied. If the allocations
+ * sampled don't agree on the alignment, it must be supplied as well, together
+ * with <code>-Dflip.vm.NarrowOopShift</code> when references are compressed.
+ * <p>
+ * The base and the shift of compressed class pointers are found out only on
+ * Java 8 without class data sharing, where the class space follows the heap.
+ * Elsewhere they must be supplied together as
+ * <code>-Dflip.vm.NarrowKlassBase</code> and
+ * <code>-Dflip.vm.NarrowKlassShift</code>, as printed by
+ * <code>-Xlog:gc+metaspace</code>, otherwise class pointers can't be decoded.
  * 
  * @author Donato Rimenti
  *
@@ -44,6 +84,23 @@ public class FlipSystemInformation {
 	private static final String SUN_ARCH = System
 			.getProperty("sun.arch.data.model");
 
+	/**
+	 * Name of the JVM.
+	 */
+	private static final String VM_NAME = System.getProperty("java.vm.name",
+			"");
+
+	/**
+	 * Name of the JIT compilers of the JVM.
+	 */
+	private static final String VM_COMPILER = System.getProperty(
+			"sun.management.compiler", "");
+
+	/**
+	 * Prefix of the system properties which override the HotSpot options.
+	 */
+	private static final String VM_OPTION_PROPERTY_PREFIX = "flip.vm.";
+
 	/**
 	 * JVM is 64bit if true, 32bit if false.
 	 */
@@ -63,56 +120,556 @@ public class FlipSystemInformation {
 	private static final String MANAGEMENT_FACTORY_CLASS = "java.lang.management.ManagementFactory";
 
 	/**
-	 * HotSpot class used to check if the underlying JVM is HotSpot.
+	 * HotSpot class used to read the options not passed on the command line.
 	 */
 	private static final String HOTSPOT_BEAN_CLASS = "com.sun.management.HotSpotDiagnosticMXBean";
 
 	/**
-	 * Loads all the system information.
+	 * Shift of compressed class pointers on Java 8 when their base is 0, since
+	 * classes are aligned to 8 bytes.
+	 */
+	private static final int LOG_KLASS_ALIGNMENT = 3;
+
+	/**
+	 * Highest address reachable by a compressed class pointer with no base on
+	 * Java 8.
+	 */
+	private static final long MAX_KLASS_SPACE_END = 1L << (32 + LOG_KLASS_ALIGNMENT);
+
+	/**
+	 * Default value of the <code>HeapBaseMinAddress</code> option.
+	 */
+	private static final long DEFAULT_HEAP_BASE_MIN_ADDRESS = 2L << 30;
+
+	/**
+	 * Default value of the <code>CompressedClassSpaceSize</code> option.
+	 */
+	private static final long DEFAULT_COMPRESSED_CLASS_SPACE_SIZE = 1L << 30;
+
+	/**
+	 * Suffixes of the sizes in the HotSpot options, each one 1024 times the
+	 * previous one, starting from kilobytes.
+	 */
+	private static final String SIZE_UNITS = "kmgt";
+
+	/**
+	 * Largest value of the <code>ObjectAlignmentInBytes</code> option.
+	 */
+	private static final int MAX_OBJECT_ALIGNMENT = 256;
+
+	/**
+	 * Number of rounds of allocations sampled to find out the object
+	 * alignment and the compressed references shift.
+	 */
+	private static final int ALIGNMENT_SAMPLES = 4;
+
+	/**
+	 * Number of times the allocations are sampled again when they don't agree
+	 * on the object alignment and the compressed references shift.
+	 */
+	private static final int ALIGNMENT_ATTEMPTS = 3;
+
+	/**
+	 * Lengths of the arrays allocated in each round of samples. The sizes of
+	 * <code>long[0]</code> to <code>long[7]</code> grow by 8 bytes each, so
+	 * every alignment rounds them in a different way.
+	 */
+	private static final int ALIGNMENT_PROBE_LENGTHS = 8;
+
+	/**
+	 * Loads the system information which is cheap to find out.
 	 */
 	static {
 		// Checks how many bits the JVM has.
+		Unsafe unsafe = Flip.getUnsafe();
 		if (SUN_ARCH != null) {
 			is64Bit = SUN_ARCH.contains("64");
+		} else if (OS_ARCH != null) {
+			is64Bit = OS_ARCH.contains("64");
 		} else {
-			if (OS_ARCH != null && OS_ARCH.contains("64")) {
-				is64Bit = true;
+			is64Bit = unsafe.addressSize() == 8;
+		}
+
+		// OpenJDK builds of HotSpot don't mention it in their name, but name
+		// their compilers after it.
+		isHotspot = Boolean.parseBoolean(getVMOptionOverride("HotSpot", String
+				.valueOf(VM_NAME.contains("HotSpot")
+						|| VM_COMPILER.startsWith("HotSpot"))));
+
+		// Compressed oops are only supported by 64-bit HotSpot, where
+		// they make references as big as an int.
+		if (is64Bit && isHotspot) {
+			compressedOopsEnabled = Boolean.parseBoolean(getVMOptionOverride(
+					"UseCompressedOops", String.valueOf(unsafe
+							.arrayIndexScale(Object[].class) == 4)));
+		}
+	}
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private FlipSystemInformation() {
+	}
+
+	/**
+	 * Builds the snapshot of the object layout. Everything is found out from
+	 * {@link Unsafe} and from sampled allocations, or supplied through the
+	 * <code>flip.vm.&lt;option&gt;</code> system properties, except the bases of the
+	 * compressed pointers and the shift of compressed class pointers, which
+	 * are resolved on first use by {@link #getNarrowOopBase()},
+	 * {@link #getNarrowKlassBase()} and {@link #getNarrowKlassShift()}.
+	 *
+	 * @return the object layout of the underlying JVM
+	 * @throws FlipException
+	 *             if the JVM is not HotSpot and the object alignment is not
+	 *             supplied, or if it can't be found out
+	 */
+	private static FlipJvmLayout buildJvmLayout() {
+		Unsafe unsafe = Flip.getUnsafe();
+		int referenceSize = unsafe.arrayIndexScale(Object[].class);
+		int headerSize = detectHeaderSize(unsafe);
+
+		// The layout of other JVMs is only known if supplied.
+		int knownAlignment = parseIntOverride("ObjectAlignmentInBytes");
+		int knownShift = parseIntOverride("NarrowOopShift");
+		if (!isHotspot && knownAlignment < 0) {
+			throw new FlipException("Unrecognized JVM " + VM_NAME + ": set "
+					+ VM_OPTION_PROPERTY_PREFIX
+					+ "ObjectAlignmentInBytes to use its layout or "
+					+ VM_OPTION_PROPERTY_PREFIX + "HotSpot=true if it's HotSpot.");
+		}
+		boolean compressedClassPointers = false;
+		boolean compactObjectHeaders = false;
+
+		// The header is 12 bytes with compressed class pointers and 8 with
+		// compact headers, which compress them as well.
+		if (is64Bit && isHotspot) {
+			compactObjectHeaders = Boolean.parseBoolean(getVMOptionOverride(
+					"UseCompactObjectHeaders", String.valueOf(headerSize == 8)));
+			compressedClassPointers = Boolean.parseBoolean(getVMOptionOverride(
+					"UseCompressedClassPointers", String
+							.valueOf(headerSize <= 12)));
+		}
+		int[] alignmentAndShift = detectAlignmentAndShift(unsafe,
+				referenceSize, knownAlignment, knownShift);
+		int objectAlignment = alignmentAndShift[0];
+		int narrowOopShift = alignmentAndShift[1];
+		int narrowKlassShift = 0;
+		if (compressedClassPointers || compactObjectHeaders) {
+			narrowKlassShift = FlipJvmLayout.LAZY_SHIFT;
+		}
+		return new FlipJvmLayout(unsafe.addressSize(), referenceSize,
+				headerSize, objectAlignment, compressedOopsEnabled,
+				compressedClassPointers, compactObjectHeaders,
+				FlipJvmLayout.LAZY_BASE, narrowOopShift,
+				FlipJvmLayout.LAZY_BASE, narrowKlassShift);
+	}
+
+	/**
+	 * Reads a numeric HotSpot option from its
+	 * <code>flip.vm.&lt;option&gt;</code> system property.
+	 *
+	 * @param name
+	 *            the name of the option
+	 * @return the value of the option, -1 if the property is not set
+	 * @throws FlipException
+	 *             if the value is not a non-negative integer
+	 */
+	private static int parseIntOverride(String name) {
+		String value = System.getProperty(VM_OPTION_PROPERTY_PREFIX + name);
+		if (value == null) {
+			return -1;
+		}
+		try {
+			int parsed = Integer.parseInt(value.trim());
+			if (parsed >= 0) {
+				return parsed;
 			}
+		} catch (NumberFormatException e) {
+			// Reported below.
 		}
+		throw new FlipException("Invalid value for " + VM_OPTION_PROPERTY_PREFIX
+				+ name + ": " + value);
+	}
+
+	/**
+	 * Finds out the base of the compressed references. It can't be read from
+	 * Java, but HotSpot uses 0 whenever the heap ends before the highest
+	 * address a shifted 32-bit value can reach.
+	 *
+	 * @return the base of the compressed references, 0 if they are not
+	 *         compressed or {@link FlipJvmLayout#UNKNOWN_BASE}
+	 */
+	private static long resolveNarrowOopBase() {
+		if (!compressedOopsEnabled) {
+			return 0;
+		}
+		long maxHeapEnd = 1L << (32 + Integer
+				.numberOfTrailingZeros(getObjectAlignment()));
+		if (getHeapBaseMinAddress() + getMaxHeapSize() > maxHeapEnd) {
+			return FlipJvmLayout.UNKNOWN_BASE;
+		}
+		return 0;
+	}
+
+	/**
+	 * Finds out the base and the shift of the compressed class pointers. They
+	 * can't be read from Java, so they are taken from the
+	 * <code>flip.vm.NarrowKlassBase</code> and
+	 * <code>flip.vm.NarrowKlassShift</code> system properties if set. Otherwise
+	 * they are only known on Java 8 without class data sharing, where the class
+	 * space follows the heap and HotSpot uses a base of 0 and a shift of
+	 * {@value #LOG_KLASS_ALIGNMENT} whenever it ends before the highest address
+	 * a shifted 32-bit value can reach. Later versions place the class space,
+	 * and the shared archive, wherever the operating system allows.
+	 *
+	 * @return the base and the shift of the compressed class pointers, 0 if
+	 *         they are not compressed or {@link FlipJvmLayout#UNKNOWN_BASE}
+	 *         and {@link FlipJvmLayout#UNKNOWN_SHIFT}
+	 * @throws FlipException
+	 *             if only one of the system properties is set or they are not
+	 *             valid
+	 */
+	private static long[] resolveNarrowKlass() {
+		FlipJvmLayout layout = getJvmLayout();
+		if (!layout.isCompressedClassPointers()
+				&& !layout.isCompactObjectHeaders()) {
+			return new long[] { 0, 0 };
+		}
+		String baseOverride = System.getProperty(VM_OPTION_PROPERTY_PREFIX
+				+ "NarrowKlassBase");
+		String shiftOverride = System.getProperty(VM_OPTION_PROPERTY_PREFIX
+				+ "NarrowKlassShift");
+		if (baseOverride != null || shiftOverride != null) {
+			if (baseOverride == null || shiftOverride == null) {
+				throw new FlipException(VM_OPTION_PROPERTY_PREFIX
+						+ "NarrowKlassBase and " + VM_OPTION_PROPERTY_PREFIX
+						+ "NarrowKlassShift must be set together.");
+			}
+			try {
+				return new long[] { Long.decode(baseOverride.trim()),
+						Integer.parseInt(shiftOverride.trim()) };
+			} catch (NumberFormatException e) {
+				throw new FlipException("Invalid compressed class pointers base "
+						+ baseOverride + " or shift " + shiftOverride, e);
+			}
+		}
+		long[] unknown = { FlipJvmLayout.UNKNOWN_BASE,
+				FlipJvmLayout.UNKNOWN_SHIFT };
+		if (!"1.8".equals(System.getProperty("java.specification.version"))
+				|| System.getProperty("java.vm.info", "").contains("sharing")) {
+			return unknown;
+		}
+		long compressedClassSpaceSize = parseSize(getVMOption(
+				"CompressedClassSpaceSize",
+				String.valueOf(DEFAULT_COMPRESSED_CLASS_SPACE_SIZE)));
+		long maxClassSpaceEnd = getHeapBaseMinAddress() + getMaxHeapSize()
+				+ compressedClassSpaceSize;
+		if (maxClassSpaceEnd > MAX_KLASS_SPACE_END) {
+			return unknown;
+		}
+		return new long[] { 0, LOG_KLASS_ALIGNMENT };
+	}
+
+	/**
+	 * Gets the value of the <code>HeapBaseMinAddress</code> option.
+	 *
+	 * @return the lowest address of the heap
+	 */
+	private static long getHeapBaseMinAddress() {
+		return parseSize(getVMOption("HeapBaseMinAddress",
+				String.valueOf(DEFAULT_HEAP_BASE_MIN_ADDRESS)));
+	}
+
+	/**
+	 * Gets the value of the <code>MaxHeapSize</code> option, which is also set
+	 * by <code>-Xmx</code>.
+	 *
+	 * @return the maximum size of the heap
+	 */
+	private static long getMaxHeapSize() {
+		String maxHeapSize = getVMOption("MaxHeapSize", null);
+		if (maxHeapSize == null) {
+			maxHeapSize = InputArguments.find("-Xmx");
+		}
+		return maxHeapSize != null ? parseSize(maxHeapSize) : Runtime
+				.getRuntime().maxMemory();
+	}
+
+	/**
+	 * Reads the value of a HotSpot option from its
+	 * <code>flip.vm.&lt;option&gt;</code> system property.
+	 *
+	 * @param name
+	 *            the name of the option
+	 * @param detectedValue
+	 *            the value found out by Flip, returned if the property is not
+	 *            set
+	 * @return the value of the option
+	 */
+	private static String getVMOptionOverride(String name,
+			String detectedValue) {
+		return System.getProperty(VM_OPTION_PROPERTY_PREFIX + name,
+				detectedValue);
+	}
+
+	/**
+	 * Reads the value of a HotSpot option which can't be found out otherwise.
+	 * The sources are, in order: the <code>flip.vm.&lt;option&gt;</code>
+	 * system property, the <code>-XX</code> options the JVM was started with
+	 * and, only if some options were read from a file, the HotSpot diagnostic
+	 * bean.
+	 *
+	 * @param name
+	 *            the name of the option
+	 * @param defaultValue
+	 *            the value returned if the option is not set
+	 * @return the value of the option
+	 */
+	private static String getVMOption(String name, String defaultValue) {
+		String value = System.getProperty(VM_OPTION_PROPERTY_PREFIX + name);
+		if (value != null) {
+			return value;
+		}
+		value = InputArguments.find("-XX:" + name + "=");
+		if (value != null) {
+			return value;
+		}
+		if (InputArguments.FROM_FILE) {
+			return getVMOptionFromBean(name, defaultValue);
+		}
+		return defaultValue;
+	}
 
-		// Checks if we are dealing with an HotSpot JVM.
+	/**
+	 * Reads the value of a VM option from the HotSpot diagnostic bean.
+	 *
+	 * @param name
+	 *            the name of the option
+	 * @param defaultValue
+	 *            the value returned if the option doesn't exist on this JVM
+	 *            or the bean is not available
+	 * @return the value of the option
+	 */
+	private static String getVMOptionFromBean(String name, String defaultValue) {
 		try {
 			Class<?> beanClazz = Class.forName(HOTSPOT_BEAN_CLASS);
-			final Object hotSpotBean = Class.forName(MANAGEMENT_FACTORY_CLASS)
+			Object hotSpotBean = Class.forName(MANAGEMENT_FACTORY_CLASS)
 					.getMethod("getPlatformMXBean", Class.class)
 					.invoke(null, beanClazz);
-			if (hotSpotBean != null) {
-				isHotspot = true;
+			if (hotSpotBean == null) {
+				return defaultValue;
 			}
+			Method getVMOptionMethod = beanClazz.getMethod("getVMOption",
+					String.class);
+			Object vmOption;
+			try {
+				vmOption = getVMOptionMethod.invoke(hotSpotBean, name);
+			} catch (InvocationTargetException e) {
+				// The option doesn't exist.
+				return defaultValue;
+			}
+			return vmOption.getClass().getMethod("getValue").invoke(vmOption)
+					.toString();
+		} catch (ReflectiveOperationException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Parses a size as written in the HotSpot options, in bytes or with a
+	 * <code>k</code>, <code>m</code>, <code>g</code> or <code>t</code> suffix.
+	 *
+	 * @param size
+	 *            the size to parse
+	 * @return the size in bytes
+	 * @throws FlipException
+	 *             if the size is not valid
+	 */
+	static long parseSize(String size) {
+		String value = size.trim().toLowerCase();
+		int shift = 0;
+		int unit = value.isEmpty() ? -1 : SIZE_UNITS.indexOf(value
+				.charAt(value.length() - 1));
+		if (unit >= 0) {
+			shift = 10 * (unit + 1);
+			value = value.substring(0, value.length() - 1);
+		}
+		try {
+			return Long.parseLong(value) << shift;
+		} catch (NumberFormatException e) {
+			throw new FlipException("Invalid size: " + size, e);
+		}
+	}
 
-			// Checks if compressed oops are enabled only if the underlying JVM
-			// is an HotSpot 64-bit since we only support HotSpot and we can't
-			// have compressed oops in 32-bit JVMs.
-			if (is64Bit && isHotspot) {
-				Method getVMOptionMethod = beanClazz.getMethod("getVMOption",
-						String.class);
-				Object vmOption = getVMOptionMethod.invoke(hotSpotBean,
-						"UseCompressedOops");
-				compressedOopsEnabled = Boolean.parseBoolean(vmOption
-						.getClass().getMethod("getValue").invoke(vmOption)
-						.toString());
+	/**
+	 * Finds out the size of the object header as the offset of a single byte
+	 * field, which never needs to be aligned.
+	 *
+	 * @param unsafe
+	 *            the unsafe to use
+	 * @return the size of the object header
+	 */
+	private static int detectHeaderSize(Unsafe unsafe) {
+		try {
+			return (int) unsafe.objectFieldOffset(HeaderProbe.class
+					.getDeclaredField("probe"));
+		} catch (NoSuchFieldException e) {
+			throw new FlipException("Error while computing the header size", e);
+		}
+	}
+
+	/**
+	 * Finds out the object alignment and the shift of compressed references.
+	 * Since consecutive allocations are contiguous, the difference between
+	 * the references to an array and to the object allocated right after it
+	 * is the size of the array, aligned and, with compressed references,
+	 * shifted. HotSpot shifts compressed references by the object alignment,
+	 * unless the heap fits in the first 4 GB of memory where no shift is
+	 * needed. Arrays of increasing lengths are allocated a few times, and the
+	 * alignment and shift which explain most of the differences win, which
+	 * rules out allocations which crossed a buffer boundary. A winner must
+	 * explain at least three differences out of four and no other candidate
+	 * may explain as many, otherwise the allocations are sampled again and
+	 * eventually detection fails.
+	 *
+	 * @param unsafe
+	 *            the unsafe to use
+	 * @param referenceSize
+	 *            the size of a reference, in bytes
+	 * @param knownAlignment
+	 *            the object alignment if known, -1 otherwise
+	 * @param knownShift
+	 *            the shift of compressed references if known, -1 otherwise
+	 * @return the object alignment and the shift of compressed references
+	 * @throws FlipException
+	 *             if a supplied value is not valid or the sampled allocations
+	 *             don't agree on a single alignment and shift
+	 */
+	private static int[] detectAlignmentAndShift(Unsafe unsafe,
+			int referenceSize, int knownAlignment, int knownShift) {
+		if (knownAlignment >= 0
+				&& (knownAlignment < 8 || knownAlignment > MAX_OBJECT_ALIGNMENT || Integer
+						.bitCount(knownAlignment) != 1)) {
+			throw new FlipException("Invalid object alignment: "
+					+ knownAlignment);
+		}
+		if (knownShift > Integer.numberOfTrailingZeros(MAX_OBJECT_ALIGNMENT)) {
+			throw new FlipException("Invalid compressed references shift: "
+					+ knownShift);
+		}
+		if (!compressedOopsEnabled) {
+			knownShift = 0;
+		}
+		if (knownAlignment >= 0 && knownShift >= 0) {
+			return new int[] { knownAlignment, knownShift };
+		}
+
+		long baseOffset = unsafe.arrayBaseOffset(Object[].class);
+		long arrayBaseOffset = unsafe.arrayBaseOffset(long[].class);
+		long[] deltas = new long[ALIGNMENT_SAMPLES * ALIGNMENT_PROBE_LENGTHS];
+		Object[] helperArray = new Object[2];
+		int minAlignment = knownAlignment >= 0 ? knownAlignment : 8;
+		int maxAlignment = knownAlignment >= 0 ? knownAlignment
+				: MAX_OBJECT_ALIGNMENT;
+		for (int attempt = 0; attempt < ALIGNMENT_ATTEMPTS; attempt++) {
+			for (int i = 0; i < deltas.length; i++) {
+				helperArray[0] = new long[i % ALIGNMENT_PROBE_LENGTHS];
+				helperArray[1] = new Object();
+				if (referenceSize == 4) {
+					deltas[i] = (unsafe.getInt(helperArray, baseOffset + 4) & 0xFFFFFFFFL)
+							- (unsafe.getInt(helperArray, baseOffset) & 0xFFFFFFFFL);
+				} else {
+					deltas[i] = unsafe.getLong(helperArray, baseOffset + 8)
+							- unsafe.getLong(helperArray, baseOffset);
+				}
 			}
 
-		} catch (ReflectiveOperationException e) {
-			// Just ignore this exception, all the flags have been set
-			// already.
+			// Counts the differences explained by each candidate.
+			int[] best = null;
+			int bestVotes = -1;
+			int runnerUpVotes = -1;
+			for (int alignment = minAlignment; alignment <= maxAlignment; alignment <<= 1) {
+				int alignmentShift = Integer.numberOfTrailingZeros(alignment);
+				int[] shifts = knownShift >= 0 ? new int[] { knownShift }
+						: new int[] { alignmentShift, 0 };
+				for (int shift : shifts) {
+					int votes = 0;
+					for (int i = 0; i < deltas.length; i++) {
+						long size = arrayBaseOffset + 8L
+								* (i % ALIGNMENT_PROBE_LENGTHS);
+						long alignedSize = (size + alignment - 1) & -alignment;
+						if (deltas[i] == alignedSize >> shift) {
+							votes++;
+						}
+					}
+					if (votes > bestVotes) {
+						runnerUpVotes = bestVotes;
+						bestVotes = votes;
+						best = new int[] { alignment, shift };
+					} else if (votes > runnerUpVotes) {
+						runnerUpVotes = votes;
+					}
+				}
+			}
+			if (bestVotes * 4 >= deltas.length * 3 && bestVotes > runnerUpVotes) {
+				return best;
+			}
 		}
+		throw new FlipException("Can't find out the object alignment of this JVM: set "
+				+ VM_OPTION_PROPERTY_PREFIX
+				+ "ObjectAlignmentInBytes"
+				+ (compressedOopsEnabled ? " and " + VM_OPTION_PROPERTY_PREFIX
+						+ "NarrowOopShift" : "") + ".");
 	}
 
 	/**
-	 * Private constructor for utility class.
+	 * Gets the base of the compressed references, resolving it on first use.
+	 *
+	 * @return the base of the compressed references
 	 */
-	private FlipSystemInformation() {
+	static long getNarrowOopBase() {
+		if (NarrowOopHolder.ERROR != null) {
+			throw new FlipException(NarrowOopHolder.ERROR.getMessage(),
+					NarrowOopHolder.ERROR);
+		}
+		return NarrowOopHolder.NARROW_OOP_BASE;
+	}
+
+	/**
+	 * Gets the base of the compressed class pointers, resolving it on first
+	 * use.
+	 *
+	 * @return the base of the compressed class pointers
+	 */
+	static long getNarrowKlassBase() {
+		return getNarrowKlass()[0];
+	}
+
+	/**
+	 * Gets the shift of the compressed class pointers, resolving it on first
+	 * use.
+	 *
+	 * @return the shift of the compressed class pointers
+	 */
+	static int getNarrowKlassShift() {
+		return (int) getNarrowKlass()[1];
+	}
+
+	/**
+	 * Gets the base and the shift of the compressed class pointers, resolving
+	 * them on first use.
+	 *
+	 * @return the base and the shift of the compressed class pointers
+	 * @throws FlipException
+	 *             if they couldn't be resolved
+	 */
+	private static long[] getNarrowKlass() {
+		if (NarrowKlassHolder.ERROR != null) {
+			throw new FlipException(NarrowKlassHolder.ERROR.getMessage(),
+					NarrowKlassHolder.ERROR);
+		}
+		return NarrowKlassHolder.NARROW_KLASS;
 	}
 
 	/**
@@ -152,6 +709,34 @@ public class FlipSystemInformation {
 		return compressedOopsEnabled;
 	}
 
+	/**
+	 * Gets the alignment of the objects in memory, which is the value of the
+	 * <code>ObjectAlignmentInBytes</code> option on 64-bit HotSpot JVMs and 8
+	 * bytes otherwise.
+	 *
+	 * @return the alignment of the objects in memory, in bytes
+	 */
+	public static int getObjectAlignment() {
+		return getJvmLayout().getObjectAlignment();
+	}
+
+	/**
+	 * Gets the snapshot of the object layout of the underlying JVM. The
+	 * snapshot is taken once, the first time this method is called.
+	 *
+	 * @return the object layout of the underlying JVM
+	 * @throws FlipException
+	 *             if the layout can't be found out, see
+	 *             {@link FlipSystemInformation}
+	 */
+	public static FlipJvmLayout getJvmLayout() {
+		if (JvmLayoutHolder.ERROR != null) {
+			throw new FlipException(JvmLayoutHolder.ERROR.getMessage(),
+					JvmLayoutHolder.ERROR);
+		}
+		return JvmLayoutHolder.JVM_LAYOUT;
+	}
+
 	/**
 	 * Checks if the underlying JVM is 64 bit and uses compressed OOPS.
 	 *
@@ -162,4 +747,260 @@ public class FlipSystemInformation {
 		return is64Bit() && compressedOopsEnabled();
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Gets the {@link FlipBackend} used by Flip to access native memory and to
+	 * define classes. The backend is chosen once, the first time it's needed,
+	 * according to the <code>flip.backend</code> system property:
+	 * <code>unsafe</code>, <code>lookup</code> or <code>foreign</code>. If the
+	 * property is not set, the first backend available among those is used.
+	 *
+	 * @return the backend used by Flip
+	 * @throws FlipException
+	 *             if the backend requested by the <code>flip.backend</code>
+	 *             property is not available
+	 */
+	public static FlipBackend getBackend() {
+		return BackendHolder.BACKEND;
+	}
+
+	/**
+	 * Gets a {@link FlipBackend} by name.
+	 *
+	 * @param name
+	 *            the name of the backend: <code>unsafe</code>,
+	 *            <code>lookup</code> or <code>foreign</code>
+	 * @return a new instance of the backend
+	 * @throws FlipException
+	 *             if the backend doesn't exist or is not available on this JVM
+	 */
+	public static FlipBackend getBackend(String name) {
+		if (FlipUnsafeBackend.NAME.equals(name)) {
+			if (!FlipUnsafeBackend.isAvailable()) {
+				throw new FlipException(
+						"Unsafe.defineClass is not available on this JVM");
+			}
+			return new FlipUnsafeBackend();
+		}
+		if (FlipLookupBackend.NAME.equals(name)) {
+			return new FlipLookupBackend();
+		}
+		if (FlipForeignBackend.NAME.equals(name)) {
+			return new FlipForeignBackend();
+		}
+		throw new FlipException("Unknown backend: " + name);
+	}
+
+	/**
+	 * Chooses the {@link FlipBackend} to use.
+	 *
+	 * @return the backend to use
+	 */
+	private static FlipBackend chooseBackend() {
+		String name = System.getProperty("flip.backend");
+		if (name != null) {
+			return getBackend(name);
+		}
+		if (FlipUnsafeBackend.isAvailable()) {
+			return new FlipUnsafeBackend();
+		}
+		if (FlipForeignBackend.isAvailable()) {
+			return new FlipForeignBackend();
+		}
+		return new FlipLookupBackend();
+	}
+
+	/**
+	 * Holds the backend, so that it's chosen only when needed.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static class BackendHolder {
+
+		/**
+		 * The backend used by Flip.
+		 */
+		private static final FlipBackend BACKEND = chooseBackend();
+
+	}
+
+	/**
+	 * Holds the object layout, so that it's built only when needed.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static class JvmLayoutHolder {
+
+		/**
+		 * Snapshot of the object layout of the JVM, null if it couldn't be
+		 * built.
+		 */
+		private static final FlipJvmLayout JVM_LAYOUT;
+
+		/**
+		 * Why the object layout couldn't be built, null if it was.
+		 */
+		private static final FlipException ERROR;
+
+		static {
+			FlipJvmLayout layout = null;
+			FlipException error = null;
+			try {
+				layout = buildJvmLayout();
+			} catch (FlipException e) {
+				error = e;
+			}
+			JVM_LAYOUT = layout;
+			ERROR = error;
+		}
+
+	}
+
+	/**
+	 * Holds the base of the compressed references, so that it's resolved only
+	 * when an address is decoded or encoded.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static class NarrowOopHolder {
+
+		/**
+		 * Base of the compressed references.
+		 */
+		private static final long NARROW_OOP_BASE;
+
+		/**
+		 * Why the base couldn't be resolved, null if it was.
+		 */
+		private static final FlipException ERROR;
+
+		static {
+			long base = FlipJvmLayout.UNKNOWN_BASE;
+			FlipException error = null;
+			try {
+				base = resolveNarrowOopBase();
+			} catch (FlipException e) {
+				error = e;
+			}
+			NARROW_OOP_BASE = base;
+			ERROR = error;
+		}
+
+	}
+
+	/**
+	 * Holds the base and the shift of the compressed class pointers, so that
+	 * they are resolved only when a class pointer is decoded.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static class NarrowKlassHolder {
+
+		/**
+		 * Base and shift of the compressed class pointers.
+		 */
+		private static final long[] NARROW_KLASS;
+
+		/**
+		 * Why they couldn't be resolved, null if they were.
+		 */
+		private static final FlipException ERROR;
+
+		static {
+			long[] narrowKlass = null;
+			FlipException error = null;
+			try {
+				narrowKlass = resolveNarrowKlass();
+			} catch (FlipException e) {
+				error = e;
+			}
+			NARROW_KLASS = narrowKlass;
+			ERROR = error;
+		}
+
+	}
+
+	/**
+	 * Holds the arguments the JVM was started with, which are read through
+	 * the management API only when an option is needed.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	private static class InputArguments {
+
+		/**
+		 * The arguments the JVM was started with.
+		 */
+		private static final List<String> ARGUMENTS = readInputArguments();
+
+		/**
+		 * True if some options were read from a file, so they may be missing
+		 * from {@link #ARGUMENTS}.
+		 */
+		private static final boolean FROM_FILE = find("-XX:Flags=") != null
+				|| find("-XX:VMOptionsFile=") != null;
+
+		/**
+		 * Reads the arguments the JVM was started with, unless disabled by
+		 * the <code>flip.vm.readInputArguments</code> system property.
+		 *
+		 * @return the arguments, empty if they can't or shouldn't be read
+		 */
+		@SuppressWarnings("unchecked")
+		private static List<String> readInputArguments() {
+			if (!Boolean.parseBoolean(System.getProperty(
+					VM_OPTION_PROPERTY_PREFIX + "readInputArguments", "true"))) {
+				return Collections.emptyList();
+			}
+			try {
+				Object runtimeBean = Class.forName(MANAGEMENT_FACTORY_CLASS)
+						.getMethod("getRuntimeMXBean").invoke(null);
+				return (List<String>) Class
+						.forName("java.lang.management.RuntimeMXBean")
+						.getMethod("getInputArguments").invoke(runtimeBean);
+			} catch (ReflectiveOperationException e) {
+				return Collections.emptyList();
+			}
+		}
+
+		/**
+		 * Finds the value of the last argument starting with a prefix, which
+		 * is the one the JVM uses.
+		 *
+		 * @param prefix
+		 *            the prefix of the argument
+		 * @return the rest of the argument, null if there's none
+		 */
+		private static String find(String prefix) {
+			for (int i = ARGUMENTS.size() - 1; i >= 0; i--) {
+				String argument = ARGUMENTS.get(i);
+				if (argument.startsWith(prefix)) {
+					return argument.substring(prefix.length());
+				}
+			}
+			return null;
+		}
+
+	}
+
+	/**
+	 * Class used to find out the size of the object header.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	@SuppressWarnings("unused")
+	private static class HeaderProbe {
+
+		/**
+		 * The first field after the header.
+		 */
+		private byte probe;
+
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.security.ProtectionDomain;
+
+import sun.misc.Unsafe;
+
+/**
+ * {@link FlipBackend} doing everything through {@link Unsafe}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+class FlipUnsafeBackend implements FlipBackend {
+
+	/**
+	 * Name of this backend.
+	 */
+	static final String NAME = "unsafe";
+
+	/**
+	 * Unsafe used to access memory and define classes.
+	 */
+	static final Unsafe UNSAFE = Flip.getUnsafe();
+
+	/**
+	 * Checks if this backend can define classes on this JVM.
+	 *
+	 * @return true, if {@link Unsafe} still has a defineClass method, false
+	 *         otherwise
+	 */
+	static boolean isAvailable() {
+		try {
+			Unsafe.class.getMethod("defineClass", String.class,
+					byte[].class, int.class, int.class, ClassLoader.class,
+					ProtectionDomain.class);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getName()
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#allocateMemory(long)
+	 */
+	@Override
+	public long allocateMemory(long bytes) {
+		return UNSAFE.allocateMemory(bytes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#reallocateMemory(long, long)
+	 */
+	@Override
+	public long reallocateMemory(long address, long bytes) {
+		return UNSAFE.reallocateMemory(address, bytes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#freeMemory(long)
+	 */
+	@Override
+	public void freeMemory(long address) {
+		UNSAFE.freeMemory(address);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#setMemory(long, long, byte)
+	 */
+	@Override
+	public void setMemory(long address, long bytes, byte value) {
+		UNSAFE.setMemory(address, bytes, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#copyMemory(long, long, long)
+	 */
+	@Override
+	public void copyMemory(long source, long target, long bytes) {
+		UNSAFE.copyMemory(source, target, bytes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getByte(long)
+	 */
+	@Override
+	public byte getByte(long address) {
+		return UNSAFE.getByte(address);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putByte(long, byte)
+	 */
+	@Override
+	public void putByte(long address, byte value) {
+		UNSAFE.putByte(address, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getShort(long)
+	 */
+	@Override
+	public short getShort(long address) {
+		return UNSAFE.getShort(address);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putShort(long, short)
+	 */
+	@Override
+	public void putShort(long address, short value) {
+		UNSAFE.putShort(address, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getInt(long)
+	 */
+	@Override
+	public int getInt(long address) {
+		return UNSAFE.getInt(address);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putInt(long, int)
+	 */
+	@Override
+	public void putInt(long address, int value) {
+		UNSAFE.putInt(address, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#getLong(long)
+	 */
+	@Override
+	public long getLong(long address) {
+		return UNSAFE.getLong(address);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#putLong(long, long)
+	 */
+	@Override
+	public void putLong(long address, long value) {
+		UNSAFE.putLong(address, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipBackend#defineClass(java.lang.String,
+	 * byte[], java.lang.ClassLoader, java.security.ProtectionDomain)
+	 */
+	@Override
+	public Class<?> defineClass(String name, byte[] bytes, ClassLoader loader,
+			ProtectionDomain protectionDomain) {
+		return UNSAFE.defineClass(name, bytes, 0, bytes.length, loader,
+				protectionDomain);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FlipBackend [" + getName() + "]";
+	}
+
+}
@@ -23,10 +23,42 @@
  */
 package co.aurasphere.flip;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Assert;
 import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
 
+import co.aurasphere.flip.model.PriceFlyweight;
+import co.aurasphere.flip.model.PriceRecord;
 import co.aurasphere.flip.model.SupportObject;
 import co.aurasphere.flip.model.WrappedObjectHeavyImpl;
 import co.aurasphere.flip.model.WrappedObjectLightImpl;
@@ -39,6 +71,12 @@ import co.aurasphere.flip.model.WrappedObjectLightImpl;
  */
 public class TestFlip {
 
+	/**
+	 * Temporary folder used by the tests which write on disk.
+	 */
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	/**
 	 * Tests {@link Flip#getUnsafe()} by creating an object without invoking the
 	 * constructor.
@@ -59,16 +97,31 @@ public class TestFlip {
 	}
 
 	/**
-	 * Tests {@link Flip#getClassAddress(Object)} and
-	 * {@link Flip#getObjectAddress(Object)}.
+	 * Tests {@link Flip#getClassAddress(Object)}. Where the compressed class
+	 * pointers can't be decoded, checks that decoding fails. On Java 8, where
+	 * a class stores the address of its {@link Class} object, checks that the
+	 * decoded address points to a class by looking for that address.
 	 */
 	@Test
-	public void testAddresses() {
+	public void testClassAddresses() {
 		String testOne = "Test 1";
 		String testTwo = "Test 2";
-		String testThree = "Test 2";
+		SupportObject testThree = new SupportObject();
 		SupportObject testFour = new SupportObject();
-		SupportObject testFive = new SupportObject();
+
+		// Checks that decoding fails if it can't be done.
+		FlipJvmLayout layout = FlipSystemInformation.getJvmLayout();
+		if (layout.getNarrowKlassBase() == FlipJvmLayout.UNKNOWN_BASE) {
+			Assert.assertEquals(FlipJvmLayout.UNKNOWN_SHIFT,
+					layout.getNarrowKlassShift());
+			try {
+				Flip.getClassAddress(testOne);
+				Assert.fail("Decoded a class pointer with an unknown base");
+			} catch (FlipException e) {
+				// Expected.
+			}
+			return;
+		}
 
 		// Checks identity.
 		Assert.assertEquals(Flip.getClassAddress(testOne),
@@ -77,19 +130,47 @@ public class TestFlip {
 		// Checks same classes.
 		Assert.assertEquals(Flip.getClassAddress(testTwo),
 				Flip.getClassAddress(testOne));
-		Assert.assertEquals(Flip.getClassAddress(testFour),
-				Flip.getClassAddress(testFive));
+		Assert.assertEquals(Flip.getClassAddress(testThree),
+				Flip.getClassAddress(testFour));
 
 		// Checks different classes.
-		Assert.assertNotEquals(Flip.getClassAddress(testFour),
-				Flip.getClassAddress(testThree));
+		Assert.assertNotEquals(Flip.getClassAddress(testThree),
+				Flip.getClassAddress(testOne));
 
 		// Checks objects and classes not same address.
-		Assert.assertNotEquals(Flip.getClassAddress(testFour),
-				Flip.getObjectAddress(testFour));
+		Assert.assertNotEquals(Flip.getClassAddress(testThree),
+				Flip.getObjectAddress(testThree));
 		Assert.assertNotEquals(Flip.getClassAddress(testOne),
 				Flip.getObjectAddress(testOne));
 
+		// Java 8 stores the Class object among the first fields of a class,
+		// uncompressed. The collector may move it between the reads, so
+		// a few attempts are made.
+		Assume.assumeTrue("The Class object is stored inline only on Java 8",
+				"1.8".equals(System.getProperty("java.specification.version")));
+		long klass = Flip.getClassAddress(testOne);
+		boolean found = false;
+		for (int attempt = 0; attempt < 3 && !found; attempt++) {
+			long mirror = Flip.getObjectAddress(String.class);
+			for (int offset = 0; offset < 256 && !found; offset += 8) {
+				found = Flip.getUnsafe().getAddress(klass + offset) == mirror;
+			}
+		}
+		Assert.assertTrue("No Class object at the decoded class address "
+				+ Long.toHexString(klass), found);
+	}
+
+	/**
+	 * Tests {@link Flip#getObjectAddress(Object)}.
+	 */
+	@Test
+	public void testAddresses() {
+		String testOne = "Test 1";
+		String testTwo = "Test 2";
+		String testThree = "Test 2";
+		SupportObject testFour = new SupportObject();
+		SupportObject testFive = new SupportObject();
+
 		// Checks objects addresses not the same.
 		Assert.assertNotEquals(Flip.getObjectAddress(testOne),
 				Flip.getObjectAddress(testTwo));
@@ -148,6 +229,236 @@ public class TestFlip {
 		Assert.assertTrue(outcome);
 	}
 
+	/**
+	 * Tests that {@link Flip#dynamicClassDefinition(String, String, String)}
+	 * reports the compilation errors.
+	 */
+	@Test
+	public void testDynamicClassDefinitionError() {
+		String source = "package co.aurasphere.flip;\n"
+				+ "public class TestBrokenDynamicClass {\n"
+				+ " public int broken() { return missing; }\n" + "}\n";
+		try {
+			Flip.dynamicClassDefinition("co.aurasphere.flip",
+					"TestBrokenDynamicClass", source);
+			Assert.fail("Compiled a broken class");
+		} catch (FlipException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(":3: "));
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("missing"));
+		}
+	}
+
+	/**
+	 * Tests
+	 * {@link Flip#dynamicClassDefinition(String, String, String, FlipClassCache)}
+	 * .
+	 */
+	@Test
+	public void testDynamicClassDefinitionCache() throws Exception {
+		String className = "TestCachedDynamicClass";
+		String classPackage = "co.aurasphere.flip";
+		String classSource = "package " + classPackage + "; public class "
+				+ className + " {}";
+		FlipClassCache cache = new FlipClassCache(temporaryFolder.getRoot()
+				.toPath());
+
+		// The first definition compiles the class, the second one doesn't.
+		Class<?> firstClass = Flip.dynamicClassDefinition(classPackage,
+				className, classSource, cache);
+		Assert.assertEquals(1, cache.getMisses());
+		Class<?> secondClass = Flip.dynamicClassDefinition(classPackage,
+				className, classSource, cache);
+		Assert.assertSame(firstClass, secondClass);
+		Assert.assertEquals(1, cache.getMemoryHits());
+		Assert.assertTrue(cache.getSavedCompileNanos() > 0);
+
+		// A new cache on the same directory finds the bytecode on disk.
+		FlipClassCache restartedCache = new FlipClassCache(temporaryFolder
+				.getRoot().toPath());
+		String key = FlipClassCache.key(Collections.singletonMap(classPackage
+				+ "." + className, classSource));
+		Assert.assertNotNull(restartedCache.get(key));
+		Assert.assertEquals(1, restartedCache.getDiskHits());
+		Assert.assertNull(restartedCache.get(key + "-changed"));
+		Assert.assertEquals(1, restartedCache.getMisses());
+
+		// A corrupt file is ignored, since its content doesn't match its hash.
+		Path file = temporaryFolder.getRoot().toPath()
+				.resolve(key + ".bytecode");
+		byte[] content = Files.readAllBytes(file);
+		content[content.length - 40] ^= 1;
+		Files.write(file, content);
+		FlipClassCache corruptCache = new FlipClassCache(temporaryFolder
+				.getRoot().toPath());
+		Assert.assertNull(corruptCache.get(key));
+		Assert.assertEquals(1, corruptCache.getMisses());
+
+		// Nothing to compile has no key.
+		try {
+			FlipClassCache.key(Collections.<String, String> emptyMap());
+			Assert.fail("Computed the key of no classes");
+		} catch (FlipException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests {@link Flip#dynamicClassDefinitions(Map)}.
+	 */
+	@Test
+	public void testDynamicClassDefinitions() throws Exception {
+		// Builds two mock classes, one extending the other and both with
+		// nested classes.
+		Map<String, String> classSources = new LinkedHashMap<String, String>();
+		classSources.put("co.aurasphere.flip.TestBatchChild",
+				"package co.aurasphere.flip;"
+						+ "public class TestBatchChild extends TestBatchParent {"
+						+ " public String getOutcome() {"
+						+ "  return new Object() { public String toString() {"
+						+ "   return new Nested().value; } }.toString(); }"
+						+ " static class Nested { String value = \"child\"; } }");
+		classSources.put("co.aurasphere.flip.TestBatchParent",
+				"package co.aurasphere.flip;"
+						+ "public class TestBatchParent implements Runnable {"
+						+ " public void run() {}"
+						+ " static class Nested {} }");
+
+		// Compiles them.
+		Map<String, Class<?>> classes = Flip
+				.dynamicClassDefinitions(classSources);
+
+		// All the classes have been defined, nested ones included.
+		Assert.assertEquals(5, classes.size());
+		Class<?> child = classes.get("co.aurasphere.flip.TestBatchChild");
+		Assert.assertSame(classes.get("co.aurasphere.flip.TestBatchParent"),
+				child.getSuperclass());
+		Assert.assertNotNull(classes
+				.get("co.aurasphere.flip.TestBatchParent$Nested"));
+		Assert.assertEquals("child",
+				child.getMethod("getOutcome").invoke(child.newInstance()));
+	}
+
+	/**
+	 * Tests {@link Flip#dynamicClassDefinition(String, String, String)} from
+	 * many threads at once.
+	 */
+	@Test
+	public void testConcurrentDynamicClassDefinition() throws Exception {
+		final int classCount = 8;
+		long compilations = Flip.getCompilerPool().getCompilations();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Class<?>>> futures = new ArrayList<Future<Class<?>>>();
+			for (int i = 0; i < classCount; i++) {
+				final String className = "TestConcurrentClass" + i;
+				futures.add(executor.submit(new Callable<Class<?>>() {
+
+					@Override
+					public Class<?> call() {
+						return Flip.dynamicClassDefinition(
+								"co.aurasphere.flip", className, "package "
+										+ "co.aurasphere.flip; public class "
+										+ className + " {}");
+					}
+				}));
+			}
+
+			// Each class has been compiled and defined.
+			for (int i = 0; i < classCount; i++) {
+				Assert.assertEquals("co.aurasphere.flip.TestConcurrentClass"
+						+ i, futures.get(i).get().getName());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals(compilations + classCount, Flip.getCompilerPool()
+				.getCompilations());
+	}
+
+	/**
+	 * Tests {@link FlipClassGeneration} by regenerating a class thousands of
+	 * times and checking that the released generations are unloaded.
+	 */
+	@Test
+	public void testClassGenerationUnloading() throws Exception {
+		final int generations = 3000;
+		String classSource = "package co.aurasphere.flip;"
+				+ "public class TestGenerationClass {"
+				+ " public String getOutcome() { return \"generated\"; } }";
+
+		// Warms up the metaspace and the cache.
+		FlipClassGeneration firstGeneration = new FlipClassGeneration();
+		Class<?> firstClass = firstGeneration.dynamicClassDefinition(
+				"co.aurasphere.flip", "TestGenerationClass", classSource);
+		Assert.assertEquals("generated", firstClass.getMethod("getOutcome")
+				.invoke(firstClass.newInstance()));
+		WeakReference<Class<?>> firstClassReference = new WeakReference<Class<?>>(
+				firstClass);
+		firstGeneration.release();
+		firstClass = null;
+		long metaspaceBefore = usedMetaspace();
+
+		// Regenerates the class, releasing each generation.
+		for (int i = 0; i < generations; i++) {
+			FlipClassGeneration generation = new FlipClassGeneration();
+			Class<?> generatedClass = generation.dynamicClassDefinition(
+					"co.aurasphere.flip", "TestGenerationClass", classSource);
+			Assert.assertNotNull(generatedClass.newInstance());
+			generation.release();
+		}
+
+		// Released classes have been unloaded, so the metaspace didn't grow
+		// with the number of generations.
+		Assert.assertTrue(firstGeneration.isReleased());
+		long metaspaceGrowth = usedMetaspace() - metaspaceBefore;
+		Assert.assertNull(firstClassReference.get());
+		Assert.assertTrue("Metaspace grew by " + metaspaceGrowth + " bytes",
+				metaspaceGrowth < generations * 256L);
+	}
+
+	/**
+	 * Tests that defining the same source twice in a
+	 * {@link FlipClassGeneration} returns the class already defined, while
+	 * another source for the same class is rejected.
+	 */
+	@Test
+	public void testClassGenerationRedefinition() {
+		String classSource = "package co.aurasphere.flip;"
+				+ "public class TestRedefinedClass {}";
+		FlipClassGeneration generation = new FlipClassGeneration();
+		Class<?> firstClass = generation.dynamicClassDefinition(
+				"co.aurasphere.flip", "TestRedefinedClass", classSource);
+		Class<?> secondClass = generation.dynamicClassDefinition(
+				"co.aurasphere.flip", "TestRedefinedClass", classSource);
+		Assert.assertSame(firstClass, secondClass);
+
+		try {
+			generation.dynamicClassDefinition("co.aurasphere.flip",
+					"TestRedefinedClass", classSource.replace("{}",
+							"{ int value; }"));
+			Assert.fail("Class defined twice in the same generation.");
+		} catch (FlipException e) {
+			Assert.assertTrue(e.getMessage().contains("TestRedefinedClass"));
+		}
+		generation.release();
+	}
+
+	/**
+	 * Returns the metaspace currently used, after a garbage collection.
+	 * 
+	 * @return the metaspace used, in bytes
+	 */
+	private static long usedMetaspace() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getName().equals("Metaspace")) {
+				return pool.getUsage().getUsed();
+			}
+		}
+		Assume.assumeTrue("No metaspace on this JVM", false);
+		return 0;
+	}
+
 	/**
 	 * Tests {@link Flip#shallowCopy(Object)} and
 	 * {@link Flip#shallowCopy(Object, Object)}.
@@ -176,7 +487,7 @@ public class TestFlip {
 		Assert.assertNotEquals(objOne, objFour);
 
 		// Overwrite object two with object one and check the same as before.
-		Flip.shallowCopy(objOne, objTwo);
+		Assert.assertSame(objTwo, Flip.shallowCopy(objOne, objTwo));
 		Assert.assertEquals(objOne.getTestString(), objTwo.getTestString());
 		Assert.assertNotEquals(objOne, objTwo);
 
@@ -185,6 +496,125 @@ public class TestFlip {
 		Assert.assertEquals(objOne.getTestString(), objThree.getTestString());
 	}
 
+	/**
+	 * Tests {@link Flip#getObjectAddresses(Object[], long[])} and
+	 * {@link Flip#readObjects(long[], Object[])}.
+	 */
+	@Test
+	public void testObjectAddresses() {
+		SupportObject[] objects = new SupportObject[100];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = i == 50 ? null : new SupportObject("Object " + i);
+		}
+
+		// Batch and single lookups agree and round trip, nulls included.
+		long[] addresses = Flip.getObjectAddresses(objects,
+				new long[objects.length]);
+		Assert.assertEquals(0, addresses[50]);
+		Assert.assertEquals(Flip.getObjectAddress(objects[10]), addresses[10]);
+		SupportObject[] read = Flip.readObjects(addresses,
+				new SupportObject[objects.length]);
+		Assert.assertArrayEquals(objects, read);
+		Assert.assertSame(objects[99], Flip.readObject(addresses[99]));
+
+		// Single lookups don't allocate anymore.
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		long threadId = Thread.currentThread().getId();
+		long checksum = 0;
+		for (int i = 0; i < 100000; i++) {
+			checksum += Flip.getObjectAddress(Flip.readObject(addresses[i % 50]));
+		}
+		long allocated = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < 100000; i++) {
+			checksum += Flip.getObjectAddress(Flip.readObject(addresses[i % 50]));
+		}
+		allocated = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+		Assert.assertTrue(checksum != 0);
+		Assert.assertTrue("Allocated " + allocated + " bytes",
+				allocated < 100000);
+	}
+
+	/**
+	 * Tests {@link Flip#shallowCopyAll(Object, Object[])} and
+	 * {@link Flip#shallowCopyAll(Object, Iterable)}.
+	 */
+	@Test
+	public void testShallowCopyAll() {
+		PriceRecord prototype = new PriceRecord();
+		prototype.id = Long.MIN_VALUE;
+		prototype.price = 2.5;
+		prototype.quantity = 7;
+		prototype.currency = '$';
+		prototype.active = true;
+
+		// Resets a pool, all at once or a range.
+		PriceRecord[] pool = new PriceRecord[100000];
+		for (int i = 0; i < pool.length; i++) {
+			pool[i] = new PriceRecord();
+			pool[i].id = i;
+		}
+		Assert.assertSame(pool, Flip.shallowCopyAll(prototype, pool, 10, 20));
+		Assert.assertEquals(9, pool[9].id);
+		Assert.assertEquals(Long.MIN_VALUE, pool[10].id);
+		Assert.assertEquals(20, pool[20].id);
+		Flip.shallowCopyAll(prototype, pool);
+		for (PriceRecord record : pool) {
+			Assert.assertEquals(Long.MIN_VALUE, record.id);
+			Assert.assertEquals(2.5, record.price, 0);
+			Assert.assertEquals(7, record.quantity);
+			Assert.assertEquals('$', record.currency);
+			Assert.assertTrue(record.active);
+		}
+
+		// References are copied too.
+		SupportObject template = new SupportObject("Template");
+		List<SupportObject> objects = new ArrayList<SupportObject>();
+		for (int i = 0; i < 1000; i++) {
+			objects.add(new SupportObject("Object " + i));
+		}
+		Flip.shallowCopyAll(template, objects);
+		System.gc();
+		for (SupportObject object : objects) {
+			Assert.assertSame(template.getTestString(), object.getTestString());
+		}
+
+		// Objects must have the same class.
+		try {
+			Flip.shallowCopyAll(new Object(), new Object[] { template });
+			Assert.fail();
+		} catch (FlipException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests {@link Flip#shallowCopy(Object, FlipArena)}.
+	 */
+	@Test
+	public void testShallowCopyToArena() {
+		Assume.assumeFalse(FlipSystemInformation.getJvmLayout()
+				.isCompressedOops());
+		FlipArena arena = new FlipArena();
+		try {
+			// Copies an object off-heap.
+			SupportObject objOne = new SupportObject("Object 1");
+			SupportObject objTwo = Flip.shallowCopy(objOne, arena);
+			Assert.assertNotSame(objOne, objTwo);
+			Assert.assertEquals(objOne.getTestString(), objTwo.getTestString());
+			Assert.assertEquals(Flip.sizeOf(objOne), arena.getUsedBytes());
+
+			// Arrays can be copied as well.
+			int[] array = new int[] { 1, 2, 3 };
+			int[] arrayCopy = Flip.shallowCopy(array, arena);
+			Assert.assertArrayEquals(array, arrayCopy);
+		} finally {
+			arena.free();
+		}
+	}
+
 	/**
 	 * Tests {@link Flip#sizeOf(Object)}.
 	 */
@@ -203,6 +633,589 @@ public class TestFlip {
 
 		// The copy is shallow so objects should not be added to the size.
 		Assert.assertEquals(Flip.sizeOf(objOne), Flip.sizeOf(objTwo));
+
+		// Sizes are aligned and include the last field.
+		long alignment = FlipSystemInformation.getObjectAlignment();
+		Assert.assertEquals(0, Flip.sizeOf(heavyObj) % alignment);
+		Assert.assertTrue(Flip.sizeOf(heavyObj) >= 12 + 4 * 4 + 4 * 8 + 2 + 1);
+	}
+
+	/**
+	 * Tests {@link Flip#sizeOf(Object)} on arrays.
+	 */
+	@Test
+	public void testSizeOfArrays() {
+		long alignment = FlipSystemInformation.getObjectAlignment();
+		long intBase = Flip.getUnsafe().arrayBaseOffset(int[].class);
+		long referenceScale = Flip.getUnsafe().arrayIndexScale(Object[].class);
+
+		// Array sizes depend on the length and the element type.
+		Assert.assertEquals(0, Flip.sizeOf(new int[7]) % alignment);
+		Assert.assertTrue(Flip.sizeOf(new int[1000]) >= intBase + 4000);
+		Assert.assertTrue(Flip.sizeOf(new int[1000]) < intBase + 4000
+				+ alignment);
+		Assert.assertTrue(Flip.sizeOf(new long[10]) > Flip
+				.sizeOf(new byte[10]));
+		Assert.assertTrue(Flip.sizeOf(new Object[1000]) >= 1000 * referenceScale);
+		Assert.assertEquals(Flip.sizeOf(new String[3]),
+				Flip.sizeOf(new Object[3]));
+	}
+
+	/**
+	 * Tests {@link Flip#deepSizeOf(Object, FlipObjectFilter...)}.
+	 */
+	@Test
+	public void testDeepSizeOf() {
+		// Test objects.
+		WrappedObjectHeavyImpl heavyObj = new WrappedObjectHeavyImpl();
+		SupportObject objOne = new SupportObject("Object 1");
+		objOne.setWrappedObject(heavyObj);
+
+		// The deep size includes the referenced objects.
+		long deepSize = Flip.deepSizeOf(objOne);
+		Assert.assertTrue(deepSize >= Flip.sizeOf(objOne)
+				+ Flip.sizeOf(heavyObj) + Flip.sizeOf("Object 1"));
+
+		// Excluded objects are not counted.
+		Assert.assertEquals(deepSize - Flip.sizeOf(heavyObj),
+				Flip.deepSizeOf(objOne, FlipObjectFilters.noInstances(heavyObj)));
+		Assert.assertTrue(Flip.deepSizeOf(objOne,
+				FlipObjectFilters.noInstances("Object 1")) < deepSize);
+
+		// Shared objects are counted once.
+		Object[] array = new Object[] { objOne, objOne };
+		Assert.assertEquals(Flip.sizeOf(array) + deepSize,
+				Flip.deepSizeOf(array));
+
+		// Long chains with cycles don't overflow the stack.
+		LinkedList<Integer> chain = new LinkedList<Integer>();
+		for (int i = 0; i < 500000; i++) {
+			chain.add(i);
+		}
+		Assert.assertTrue(Flip.deepSizeOf(chain) > 500000 * Flip
+				.sizeOf(Integer.valueOf(0)));
+	}
+
+	/**
+	 * Tests {@link Flip#deepCopy(Object, FlipObjectFilter...)}.
+	 */
+	@Test
+	public void testDeepCopy() {
+		// Test objects, with a cycle and a shared reference.
+		Map<String, Object> original = new HashMap<String, Object>();
+		int[] numbers = new int[] { 1, 2, 3 };
+		Object[] cycle = new Object[3];
+		cycle[0] = cycle;
+		cycle[1] = numbers;
+		cycle[2] = TimeUnit.SECONDS;
+		original.put("numbers", numbers);
+		original.put("cycle", cycle);
+		original.put("text", "Object 1");
+
+		Map<String, Object> copy = Flip.deepCopy(original);
+		Assert.assertNotSame(original, copy);
+		Assert.assertEquals(3, copy.size());
+
+		// Mutable objects are copied, keeping their graph shape.
+		int[] numbersCopy = (int[]) copy.get("numbers");
+		Object[] cycleCopy = (Object[]) copy.get("cycle");
+		Assert.assertNotSame(numbers, numbersCopy);
+		Assert.assertArrayEquals(numbers, numbersCopy);
+		Assert.assertNotSame(cycle, cycleCopy);
+		Assert.assertSame(cycleCopy, cycleCopy[0]);
+		Assert.assertSame(numbersCopy, cycleCopy[1]);
+
+		// Immutable objects are shared.
+		Assert.assertSame(TimeUnit.SECONDS, cycleCopy[2]);
+		Assert.assertSame(original.get("text"), copy.get("text"));
+
+		// The copy is independent from the original.
+		numbersCopy[0] = 42;
+		copy.put("other", "Object 2");
+		Assert.assertEquals(1, numbers[0]);
+		Assert.assertFalse(original.containsKey("other"));
+
+		// Objects rejected by a filter are shared.
+		Map<String, Object> filteredCopy = Flip.deepCopy(original,
+				FlipObjectFilters.noInstances(numbers));
+		Assert.assertSame(numbers, filteredCopy.get("numbers"));
+		Assert.assertSame(numbers,
+				((Object[]) filteredCopy.get("cycle"))[1]);
+
+		// Long chains don't overflow the stack.
+		LinkedList<Integer> chain = new LinkedList<Integer>();
+		for (int i = 0; i < 500000; i++) {
+			chain.add(i);
+		}
+		LinkedList<Integer> chainCopy = Flip.deepCopy(chain);
+		Assert.assertEquals(chain, chainCopy);
+		chainCopy.removeFirst();
+		Assert.assertEquals(500000, chain.size());
+		Assert.assertNull(Flip.deepCopy(null));
+	}
+
+	/**
+	 * Tests {@link Flip#histogram(FlipHistogramSink, int, Object...)}.
+	 */
+	@Test
+	public void testHistogram() {
+		// Test objects, with the biggest arrays under one key.
+		Map<String, long[]> cache = new HashMap<String, long[]>();
+		for (int i = 0; i < 100; i++) {
+			cache.put("Key " + i, new long[i == 42 ? 10000 : 100]);
+		}
+		final Map<Class<?>, long[]> classes = new LinkedHashMap<Class<?>, long[]>();
+		final List<Object> retainers = new ArrayList<Object>();
+		final List<Long> retainedBytes = new ArrayList<Long>();
+		FlipHistogramSink sink = new FlipHistogramSink() {
+
+			@Override
+			public void classEntry(Class<?> type, long instances, long bytes) {
+				Assert.assertTrue(retainers.isEmpty());
+				classes.put(type, new long[] { instances, bytes });
+			}
+
+			@Override
+			public void retainer(Object object, long bytes) {
+				retainers.add(object);
+				retainedBytes.add(bytes);
+			}
+		};
+
+		// Classes are aggregated, biggest first.
+		long totalSize = Flip.histogram(sink, 3, cache);
+		Assert.assertEquals(Flip.deepSizeOf(cache), totalSize);
+		Assert.assertEquals(long[].class, classes.keySet().iterator().next());
+		Assert.assertEquals(100, classes.get(long[].class)[0]);
+		Assert.assertEquals(99 * Flip.sizeOf(new long[100])
+				+ Flip.sizeOf(new long[10000]), classes.get(long[].class)[1]);
+		Assert.assertEquals(100, classes.get(String.class)[0]);
+		long classBytes = 0;
+		long previousBytes = Long.MAX_VALUE;
+		for (long[] counters : classes.values()) {
+			Assert.assertTrue(counters[1] <= previousBytes);
+			previousBytes = counters[1];
+			classBytes += counters[1];
+		}
+		Assert.assertEquals(totalSize, classBytes);
+
+		// The root retains everything, then the entry of the big array.
+		Assert.assertEquals(3, retainers.size());
+		Assert.assertSame(cache, retainers.get(0));
+		Assert.assertEquals(totalSize, (long) retainedBytes.get(0));
+		Assert.assertTrue(retainedBytes.get(1) >= retainedBytes.get(2));
+		Assert.assertTrue(retainers.get(2) instanceof Map.Entry);
+		Assert.assertTrue(retainedBytes.get(2) >= Flip
+				.sizeOf(cache.get("Key 42")));
+
+		// Shared objects are counted once.
+		classes.clear();
+		retainers.clear();
+		Assert.assertEquals(totalSize,
+				Flip.histogram(sink, 0, cache, cache.get("Key 42"), null));
+		Assert.assertTrue(retainers.isEmpty());
+
+		// Long chains don't overflow the stack.
+		LinkedList<Integer> chain = new LinkedList<Integer>();
+		for (int i = 0; i < 500000; i++) {
+			chain.add(i);
+		}
+		classes.clear();
+		Assert.assertEquals(Flip.deepSizeOf(chain),
+				Flip.histogram(sink, 0, chain));
+	}
+
+	/**
+	 * Tests {@link Flip#parallelDeepSizeOf(Object, FlipObjectFilter...)}.
+	 * 
+	 * @throws Exception
+	 *             if the walk in a custom pool fails
+	 */
+	@Test
+	public void testParallelDeepSizeOf() throws Exception {
+		// Test objects: a big array of shared, cyclic and deep graphs.
+		final Object[] graph = new Object[100000];
+		SupportObject shared = new SupportObject("Shared");
+		shared.setWrappedObject(new WrappedObjectHeavyImpl());
+		for (int i = 0; i < graph.length; i++) {
+			switch (i % 4) {
+			case 0:
+				graph[i] = shared;
+				break;
+			case 1:
+				graph[i] = new long[i % 100];
+				break;
+			case 2:
+				Map<String, Object> map = new HashMap<String, Object>();
+				map.put("self", map);
+				map.put("value " + i, new Object[] { graph });
+				graph[i] = map;
+				break;
+			default:
+				graph[i] = "String " + i;
+			}
+		}
+		LinkedList<Integer> chain = new LinkedList<Integer>();
+		for (int i = 0; i < 500000; i++) {
+			chain.add(i);
+		}
+
+		// Same sizes as the sequential walk.
+		for (Object root : new Object[] { graph, chain, shared, null }) {
+			Assert.assertEquals(Flip.deepSizeOf(root),
+					Flip.parallelDeepSizeOf(root));
+		}
+		Assert.assertEquals(Flip.deepSizeOf(graph,
+				FlipObjectFilters.noInstances(shared)),
+				Flip.parallelDeepSizeOf(graph,
+						FlipObjectFilters.noInstances(shared)));
+
+		// Runs in the pool of the caller.
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			Assert.assertEquals(Flip.deepSizeOf(graph),
+					(long) pool.submit(new Callable<Long>() {
+
+						@Override
+						public Long call() {
+							return Flip.parallelDeepSizeOf(graph);
+						}
+					}).get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests {@link Flip#parallelHistogram(FlipHistogramSink, Object...)}.
+	 */
+	@Test
+	public void testParallelHistogram() {
+		Map<String, long[]> cache = new HashMap<String, long[]>();
+		for (int i = 0; i < 50000; i++) {
+			cache.put("Key " + i, new long[i % 100]);
+		}
+		final Map<Class<?>, long[]> classes = new LinkedHashMap<Class<?>, long[]>();
+		final Map<Class<?>, long[]> parallelClasses = new LinkedHashMap<Class<?>, long[]>();
+		class MapSink implements FlipHistogramSink {
+
+			private final Map<Class<?>, long[]> target;
+
+			private MapSink(Map<Class<?>, long[]> target) {
+				this.target = target;
+			}
+
+			@Override
+			public void classEntry(Class<?> type, long instances, long bytes) {
+				target.put(type, new long[] { instances, bytes });
+			}
+
+			@Override
+			public void retainer(Object object, long bytes) {
+				Assert.assertSame(classes, target);
+			}
+		}
+
+		// Same classes as the sequential histogram, biggest first.
+		long totalSize = Flip.histogram(new MapSink(classes), 0, cache,
+				cache.get("Key 42"));
+		Assert.assertEquals(totalSize, Flip.parallelHistogram(new MapSink(
+				parallelClasses), cache, cache.get("Key 42"), null));
+		Assert.assertEquals(classes.keySet(), parallelClasses.keySet());
+		long previousBytes = Long.MAX_VALUE;
+		for (Map.Entry<Class<?>, long[]> entry : parallelClasses.entrySet()) {
+			Assert.assertArrayEquals(classes.get(entry.getKey()),
+					entry.getValue());
+			Assert.assertTrue(entry.getValue()[1] <= previousBytes);
+			previousBytes = entry.getValue()[1];
+		}
+	}
+
+	/**
+	 * Tests {@link FlipSystemInformation#getJvmLayout()}.
+	 */
+	@Test
+	public void testJvmLayout() {
+		FlipJvmLayout layout = FlipSystemInformation.getJvmLayout();
+
+		// Checks the layout against what the unsafe reports.
+		Assert.assertEquals(Flip.getUnsafe().addressSize(),
+				layout.getAddressSize());
+		Assert.assertEquals(Flip.getUnsafe()
+				.arrayIndexScale(Object[].class), layout.getReferenceSize());
+		Assert.assertEquals(layout.isCompressedOops(),
+				FlipSystemInformation.compressedOopsEnabled());
+		Assert.assertTrue(layout.getHeaderSize() >= layout.getMarkWordSize()
+				+ layout.getKlassPointerSize());
+		Assert.assertEquals(0,
+				layout.align(17) % layout.getObjectAlignment());
+		Assert.assertTrue(layout.align(17) >= 17);
+
+		// Addresses survive an encoding round trip.
+		SupportObject object = new SupportObject();
+		long address = Flip.getObjectAddress(object);
+		Assert.assertTrue(layout.canEncodeOop(address));
+		Assert.assertEquals(address,
+				layout.decodeOop(layout.encodeOop(address)));
+	}
+
+	/**
+	 * Tests that the layout found out without the management API matches the
+	 * options reported by HotSpot.
+	 */
+	@Test
+	public void testJvmLayoutMatchesVmOptions() {
+		HotSpotDiagnosticMXBean bean = ManagementFactory
+				.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+		Assume.assumeTrue(bean != null && FlipSystemInformation.is64Bit());
+		FlipJvmLayout layout = FlipSystemInformation.getJvmLayout();
+		Assert.assertEquals(bean.getVMOption("ObjectAlignmentInBytes")
+				.getValue(), String.valueOf(layout.getObjectAlignment()));
+		Assert.assertEquals(bean.getVMOption("UseCompressedOops").getValue(),
+				String.valueOf(layout.isCompressedOops()));
+		Assert.assertEquals(bean.getVMOption("UseCompressedClassPointers")
+				.getValue(), String.valueOf(layout.isCompressedClassPointers()));
+		if (layout.isCompressedOops()) {
+			int shift = layout.getNarrowOopShift();
+			Assert.assertTrue(shift == 0
+					|| 1 << shift == layout.getObjectAlignment());
+		}
+
+		// Sizes are parsed as in the HotSpot options.
+		Assert.assertEquals(512L << 20, FlipSystemInformation.parseSize("512m"));
+		Assert.assertEquals(2L << 30, FlipSystemInformation.parseSize("2G"));
+		Assert.assertEquals(4096, FlipSystemInformation.parseSize("4096"));
+		Assert.assertEquals(3L << 10, FlipSystemInformation.parseSize("3k"));
+		Assert.assertEquals(1L << 40, FlipSystemInformation.parseSize("1t"));
+	}
+
+	/**
+	 * Tests {@link Flip#flyweight(Class, Class)}.
+	 */
+	@Test
+	public void testFlyweight() {
+		PriceFlyweight flyweight = Flip.flyweight(PriceRecord.class,
+				PriceFlyweight.class);
+		long recordSize = flyweight.getRecordSize();
+		Assert.assertTrue(recordSize >= 8 + 8 + 4 + 2 + 1);
+		Assert.assertTrue(recordSize < Flip.sizeOf(new PriceRecord()));
+
+		FlipArena arena = new FlipArena();
+		try {
+			// Writes a block of records through the typed setters.
+			long base = arena.allocate(recordSize * 100);
+			for (int i = 0; i < 100; i++) {
+				flyweight.wrap(base, i);
+				flyweight.setId(i);
+				flyweight.setPrice(i * 1.5);
+				flyweight.setQuantity(-i);
+				flyweight.setActive(i % 2 == 0);
+			}
+			Assert.assertEquals(42, flyweight.wrap(base, 42).getId());
+			Assert.assertEquals(63.0, flyweight.getPrice(), 0);
+			Assert.assertEquals(-42, flyweight.getQuantity());
+			Assert.assertTrue(flyweight.isActive());
+			Assert.assertEquals(base + 42 * recordSize, flyweight.getAddress());
+
+			// Copies records from and to instances.
+			PriceRecord record = new PriceRecord();
+			flyweight.wrap(base, 7).copyTo(record);
+			Assert.assertEquals(7, record.id);
+			Assert.assertEquals(10.5, record.price, 0);
+			Assert.assertFalse(record.active);
+			record.currency = '$';
+			record.quantity = 1000;
+			flyweight.wrap(base, 8).copyFrom(record);
+			Assert.assertEquals('$', flyweight.getCurrency());
+			Assert.assertEquals(1000, flyweight.getQuantity());
+			Assert.assertEquals(7, flyweight.getId());
+
+			// The same class is reused.
+			Assert.assertSame(flyweight.getClass(),
+					Flip.flyweight(PriceRecord.class, PriceFlyweight.class)
+							.getClass());
+		} finally {
+			arena.free();
+		}
+
+		// A class with the same name from another loader is rejected.
+		FlipClassGeneration generation = new FlipClassGeneration();
+		Class<?> impostorClass = generation.dynamicClassDefinition(
+				"co.aurasphere.flip.model", "PriceRecord",
+				"package co.aurasphere.flip.model;"
+						+ "public class PriceRecord { public byte id; }");
+		try {
+			flyweight.copyFrom(impostorClass.newInstance());
+			Assert.fail("Record of another class copied.");
+		} catch (FlipException e) {
+			// Expected.
+		} catch (ReflectiveOperationException e) {
+			throw new FlipException(e);
+		} finally {
+			generation.release();
+		}
+
+		// Reference fields can't be mapped.
+		try {
+			Flip.flyweight(SupportObject.class);
+			Assert.fail();
+		} catch (FlipException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests {@link Flip#snapshot(Collection, Path)} and
+	 * {@link Flip#restore(Path, Class)}.
+	 * 
+	 * @throws IOException
+	 *             if the snapshot file can't be created
+	 */
+	@Test
+	public void testSnapshot() throws IOException {
+		List<PriceRecord> records = new ArrayList<PriceRecord>();
+		for (int i = 0; i < 10000; i++) {
+			PriceRecord record = new PriceRecord();
+			record.id = i;
+			record.price = i / 4.0;
+			record.quantity = -i;
+			record.currency = (char) ('A' + i % 26);
+			record.active = i % 3 == 0;
+			records.add(record);
+		}
+		Path file = temporaryFolder.newFile("prices.snapshot").toPath();
+		Assert.assertEquals(10000, Flip.snapshot(records, file));
+
+		// Objects are rebuilt with the same fields.
+		List<PriceRecord> restored = Flip.restore(file, PriceRecord.class);
+		Assert.assertEquals(records.size(), restored.size());
+		for (int i = 0; i < records.size(); i++) {
+			PriceRecord record = records.get(i);
+			PriceRecord copy = restored.get(i);
+			Assert.assertNotSame(record, copy);
+			Assert.assertEquals(record.id, copy.id);
+			Assert.assertEquals(record.price, copy.price, 0);
+			Assert.assertEquals(record.quantity, copy.quantity);
+			Assert.assertEquals(record.currency, copy.currency);
+			Assert.assertEquals(record.active, copy.active);
+		}
+
+		// Snapshots of another class are rejected.
+		try {
+			Flip.restore(file, WrappedObjectLightImpl.class);
+			Assert.fail();
+		} catch (FlipException e) {
+			Assert.assertTrue(e.getMessage().contains("doesn't match"));
+		}
+
+		// Reference fields can't be written.
+		try {
+			Flip.snapshot(Collections.singletonList(new SupportObject()), file);
+			Assert.fail();
+		} catch (FlipException e) {
+			// Expected.
+		}
+
+		// Empty snapshots are fine.
+		Flip.snapshot(new ArrayList<PriceRecord>(), file);
+		Assert.assertTrue(Flip.restore(file, PriceRecord.class).isEmpty());
+	}
+
+	/**
+	 * Tests {@link Flip#estimateSize(Object, FlipSamplingPolicy)}.
+	 */
+	@Test
+	public void testEstimateSize() {
+		Random random = new Random(42);
+		FlipSamplingPolicy policy = new FlipSamplingPolicy(500, 0.95);
+
+		// Small structures are measured entirely.
+		List<String> smallList = new ArrayList<String>();
+		for (int i = 0; i < 300; i++) {
+			smallList.add(randomString(random));
+		}
+		FlipSizeEstimate estimate = Flip.estimateSize(smallList, policy);
+		Assert.assertTrue(estimate.isExact());
+		Assert.assertEquals(Flip.deepSizeOf(smallList),
+				estimate.getEstimatedBytes());
+		Assert.assertEquals(estimate.getEstimatedBytes(),
+				estimate.getLowerBound());
+		Assert.assertEquals(estimate.getEstimatedBytes(),
+				estimate.getUpperBound());
+
+		// Elements of the same size give an exact estimate.
+		List<Long> longList = new ArrayList<Long>();
+		Map<Long, Long> longMap = new HashMap<Long, Long>();
+		Map<Long, Long> concurrentLongMap = new ConcurrentHashMap<Long, Long>();
+		Set<Long> longSet = new HashSet<Long>();
+		for (long i = 0; i < 50000; i++) {
+			longList.add(i + 1000000);
+			longMap.put(i + 1000000, i + 2000000);
+			concurrentLongMap.put(i + 1000000, i + 2000000);
+			longSet.add(i + 1000000);
+		}
+		for (Object uniform : new Object[] { longList, longMap,
+				concurrentLongMap, longSet, longList.toArray() }) {
+			estimate = Flip.estimateSize(uniform, policy);
+			Assert.assertFalse(estimate.isExact());
+			Assert.assertEquals(500, estimate.getSampledElements());
+			Assert.assertEquals(50000, estimate.getElementCount());
+			Assert.assertEquals(Flip.deepSizeOf(uniform),
+					estimate.getEstimatedBytes());
+		}
+
+		// Elements of different sizes are close to the real size.
+		List<String> stringList = new ArrayList<String>();
+		Map<String, byte[]> bytesMap = new LinkedHashMap<String, byte[]>();
+		Map<String, byte[]> concurrentBytesMap = new ConcurrentHashMap<String, byte[]>();
+		for (int i = 0; i < 50000; i++) {
+			stringList.add(randomString(random));
+			byte[] bytes = new byte[random.nextInt(200)];
+			bytesMap.put(Integer.toString(i), bytes);
+			concurrentBytesMap.put(Integer.toString(i), bytes);
+		}
+		for (Object mixed : new Object[] { stringList, bytesMap,
+				concurrentBytesMap, stringList.toArray() }) {
+			estimate = Flip.estimateSize(mixed, policy);
+			long size = Flip.deepSizeOf(mixed);
+			long halfWidth = (estimate.getUpperBound() - estimate
+					.getLowerBound()) / 2;
+			Assert.assertTrue(halfWidth > 0);
+			Assert.assertTrue(estimate.toString(),
+					Math.abs(estimate.getEstimatedBytes() - size) <= 3 * halfWidth);
+			Assert.assertTrue(estimate.getFixedBytes() > 0);
+		}
+
+		// Primitive arrays and other objects are measured exactly.
+		for (Object other : new Object[] { new long[100000],
+				new LinkedList<String>(smallList) }) {
+			estimate = Flip.estimateSize(other, policy);
+			Assert.assertTrue(estimate.isExact());
+			Assert.assertEquals(Flip.deepSizeOf(other),
+					estimate.getEstimatedBytes());
+		}
+		Assert.assertEquals(0, Flip.estimateSize(null, policy)
+				.getEstimatedBytes());
+
+		try {
+			new FlipSamplingPolicy(0);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Creates a string of random length.
+	 *
+	 * @param random
+	 *            the source of randomness
+	 * @return the string
+	 */
+	private static String randomString(Random random) {
+		char[] chars = new char[1 + random.nextInt(100)];
+		Arrays.fill(chars, 'x');
+		return new String(chars);
 	}
 
 }
@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FlipArena}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class TestFlipArena {
+
+	/**
+	 * Tests {@link FlipArena#allocate(long, long)} alignments.
+	 */
+	@Test
+	public void testAlignment() {
+		FlipArena arena = new FlipArena(1 << 16);
+		try {
+			arena.allocate(3);
+			long aligned = arena.allocate(8);
+			Assert.assertEquals(0,
+					aligned % FlipSystemInformation.getObjectAlignment());
+			arena.allocate(1);
+			Assert.assertEquals(0,
+					arena.allocate(100, FlipArena.CACHE_LINE_ALIGNMENT)
+							% FlipArena.CACHE_LINE_ALIGNMENT);
+			Assert.assertEquals(0,
+					arena.allocate(100, FlipArena.PAGE_ALIGNMENT)
+							% FlipArena.PAGE_ALIGNMENT);
+		} finally {
+			arena.free();
+		}
+	}
+
+	/**
+	 * Tests that allocations are contiguous and writable, and that big ones
+	 * get a slab of their own.
+	 */
+	@Test
+	public void testSlabs() {
+		FlipArena arena = new FlipArena(1024);
+		try {
+			long first = arena.allocate(16);
+			long second = arena.allocate(16);
+			Assert.assertEquals(first + 16, second);
+			Assert.assertEquals(1024, arena.getReservedBytes());
+			Assert.assertEquals(32, arena.getUsedBytes());
+
+			// Memory can be written and read back.
+			Flip.getUnsafe().putLong(second, 42L);
+			Assert.assertEquals(42L, Flip.getUnsafe().getLong(second));
+
+			// Allocations bigger than a slab get their own.
+			long big = arena.allocate(4096);
+			Flip.getUnsafe().setMemory(big, 4096, (byte) 1);
+			Assert.assertTrue(arena.getReservedBytes() >= 1024 + 4096);
+			Assert.assertEquals(32 + 4096, arena.getUsedBytes());
+		} finally {
+			arena.free();
+		}
+	}
+
+	/**
+	 * Tests {@link FlipArena#reset()} and {@link FlipArena#free()}.
+	 */
+	@Test
+	public void testResetAndFree() {
+		FlipArena arena = new FlipArena(1024);
+		long first = arena.allocate(512);
+		arena.allocate(1000);
+		long reserved = arena.getReservedBytes();
+
+		// Resetting reuses the slabs.
+		arena.reset();
+		Assert.assertEquals(0, arena.getUsedBytes());
+		Assert.assertEquals(first, arena.allocate(512));
+		arena.allocate(1000);
+		Assert.assertEquals(reserved, arena.getReservedBytes());
+
+		// Freeing gives everything back.
+		arena.free();
+		Assert.assertTrue(arena.isFreed());
+		Assert.assertEquals(0, arena.getReservedBytes());
+	}
+
+	/**
+	 * Tests that a freed arena can't allocate.
+	 */
+	@Test(expected = FlipException.class)
+	public void testAllocateAfterFree() {
+		FlipArena arena = new FlipArena();
+		arena.free();
+		arena.allocate(8);
+	}
+
+}
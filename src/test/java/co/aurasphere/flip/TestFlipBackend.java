@@ -0,0 +1,185 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Test class for the {@link FlipBackend} implementations.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class TestFlipBackend {
+
+	/**
+	 * Tests the unsafe backend.
+	 *
+	 * @throws Exception
+	 *             if the test class can't be read
+	 */
+	@Test
+	public void testUnsafeBackend() throws Exception {
+		Assume.assumeTrue(FlipUnsafeBackend.isAvailable());
+		testBackend(FlipSystemInformation.getBackend("unsafe"));
+	}
+
+	/**
+	 * Tests the lookup backend.
+	 *
+	 * @throws Exception
+	 *             if the test class can't be read
+	 */
+	@Test
+	public void testLookupBackend() throws Exception {
+		testBackend(FlipSystemInformation.getBackend("lookup"));
+	}
+
+	/**
+	 * Tests the foreign backend, on JDKs which have it.
+	 *
+	 * @throws Exception
+	 *             if the test class can't be read
+	 */
+	@Test
+	public void testForeignBackend() throws Exception {
+		if (!FlipForeignBackend.isAvailable()) {
+			try {
+				FlipSystemInformation.getBackend("foreign");
+				Assert.fail("Unavailable backend returned");
+			} catch (FlipException e) {
+				// Expected.
+			}
+		}
+		Assume.assumeTrue(FlipForeignBackend.isAvailable());
+		testBackend(FlipSystemInformation.getBackend("foreign"));
+	}
+
+	/**
+	 * Tests that the backend in use is one of the known ones and that unknown
+	 * backends are rejected.
+	 */
+	@Test
+	public void testBackendSelection() {
+		String name = FlipSystemInformation.getBackend().getName();
+		Assert.assertTrue(name, name.equals("unsafe") || name.equals("lookup")
+				|| name.equals("foreign"));
+		try {
+			FlipSystemInformation.getBackend("jni");
+			Assert.fail("Unknown backend returned");
+		} catch (FlipException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests the memory accesses and the class definition of a backend.
+	 *
+	 * @param backend
+	 *            the backend to test
+	 * @throws IOException
+	 *             if the test class can't be read
+	 */
+	private static void testBackend(FlipBackend backend) throws IOException {
+		long address = backend.allocateMemory(64);
+		try {
+			backend.setMemory(address, 64, (byte) 0x7F);
+			Assert.assertEquals(0x7F7F7F7F7F7F7F7FL, backend.getLong(address));
+
+			// Unaligned accesses must work as with Unsafe.
+			backend.putLong(address + 1, Long.MIN_VALUE + 42);
+			Assert.assertEquals(Long.MIN_VALUE + 42,
+					backend.getLong(address + 1));
+			backend.putInt(address + 13, -7);
+			Assert.assertEquals(-7, backend.getInt(address + 13));
+			backend.putShort(address + 19, (short) -300);
+			Assert.assertEquals((short) -300, backend.getShort(address + 19));
+			backend.putByte(address + 63, (byte) -1);
+			Assert.assertEquals((byte) -1, backend.getByte(address + 63));
+
+			backend.copyMemory(address, address + 32, 32);
+			Assert.assertEquals(Long.MIN_VALUE + 42,
+					backend.getLong(address + 33));
+
+			// Reallocations keep the content.
+			address = backend.reallocateMemory(address, 1 << 20);
+			Assert.assertEquals(-7, backend.getInt(address + 13));
+			Assert.assertEquals(-7, backend.getInt(address + 45));
+		} finally {
+			backend.freeMemory(address);
+		}
+
+		// The class is defined in a new loader, so it's a different class.
+		String name = Probe.class.getName();
+		byte[] bytes = readClassFile(Probe.class);
+		ClassLoader loader = new ClassLoader(null) {
+		};
+		Class<?> defined = backend.defineClass(name, bytes, loader, null);
+		Assert.assertEquals(name, defined.getName());
+		Assert.assertSame(loader, defined.getClassLoader());
+		Assert.assertNotSame(Probe.class, defined);
+	}
+
+	/**
+	 * Reads the class file of a class.
+	 *
+	 * @param clazz
+	 *            the class
+	 * @return the class file
+	 * @throws IOException
+	 *             if the class file can't be read
+	 */
+	private static byte[] readClassFile(Class<?> clazz) throws IOException {
+		String resource = clazz.getName().replace('.', '/') + ".class";
+		InputStream in = clazz.getClassLoader().getResourceAsStream(resource);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Class defined by the backends.
+	 * 
+	 * @author Donato Rimenti
+	 *
+	 */
+	public static class Probe {
+
+	}
+
+}
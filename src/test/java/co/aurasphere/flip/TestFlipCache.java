@@ -0,0 +1,263 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FlipCache} and {@link FlipFrequencySketch}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class TestFlipCache {
+
+	/**
+	 * Tests the basic operations of {@link FlipCache} and the weights of its
+	 * entries.
+	 */
+	@Test
+	public void testOperations() {
+		FlipCache<String, byte[]> cache = new FlipCache<String, byte[]>(
+				1 << 20, 1, false);
+		Assert.assertNull(cache.put("a", new byte[10]));
+		long overhead = cache.getUsedBytes() - Flip.sizeOf("a")
+				- Flip.sizeOf(new byte[10]);
+		Assert.assertTrue(overhead > 0);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(10, cache.get("a").length);
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+
+		// Replacing a value only changes its weight.
+		long usedBytes = cache.getUsedBytes();
+		Assert.assertEquals(10, cache.put("a", new byte[1000]).length);
+		Assert.assertEquals(usedBytes + Flip.sizeOf(new byte[1000])
+				- Flip.sizeOf(new byte[10]), cache.getUsedBytes());
+
+		// Entries heavier than the budget are not cached.
+		Assert.assertNull(cache.put("b", new byte[2 << 20]));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(1000, cache.put("a", new byte[2 << 20]).length);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(0, cache.getUsedBytes());
+
+		// Removals and clear release the weight.
+		cache.put("a", new byte[10]);
+		cache.put("b", new byte[10]);
+		Assert.assertEquals(10, cache.remove("a").length);
+		Assert.assertNull(cache.remove("a"));
+		Assert.assertEquals(Flip.sizeOf("b") + Flip.sizeOf(new byte[10])
+				+ overhead, cache.getUsedBytes());
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getUsedBytes());
+
+		// Deep weights include the referenced objects.
+		FlipCache<String, Object[]> deepCache = new FlipCache<String, Object[]>(
+				1 << 20);
+		Object[] value = new Object[] { new byte[100] };
+		deepCache.put("a", value);
+		Assert.assertEquals(Flip.deepSizeOf("a") + Flip.deepSizeOf(value)
+				+ overhead, deepCache.getUsedBytes());
+
+		try {
+			cache.put(null, new byte[0]);
+			Assert.fail();
+		} catch (NullPointerException e) {
+			// Expected.
+		}
+		try {
+			cache.put("a", null);
+			Assert.fail();
+		} catch (NullPointerException e) {
+			// Expected.
+		}
+		try {
+			new FlipCache<String, String>(0);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests that {@link FlipCache} holds to its budget with values of very
+	 * different sizes.
+	 */
+	@Test
+	public void testByteBudget() {
+		FlipCache<Integer, byte[]> cache = new FlipCache<Integer, byte[]>(
+				1 << 20, 1, true);
+		cache.put(-1, new byte[0]);
+		long overhead = cache.getUsedBytes() - Flip.deepSizeOf(-1)
+				- Flip.deepSizeOf(new byte[0]);
+		cache.remove(-1);
+
+		Random random = new Random(42);
+		Map<Integer, byte[]> values = new HashMap<Integer, byte[]>();
+		for (int i = 0; i < 20000; i++) {
+			Integer key = random.nextInt(5000);
+			byte[] value = new byte[random.nextInt(10) == 0 ? random
+					.nextInt(100000) : random.nextInt(100)];
+			cache.put(key, value);
+			values.put(key, value);
+			Assert.assertTrue(cache.getUsedBytes() <= cache.getMaximumBytes());
+			if (random.nextInt(4) == 0) {
+				cache.get(random.nextInt(5000));
+			}
+		}
+		Assert.assertTrue(cache.getEvictionCount() > 0);
+
+		// The used bytes are the sum of the weights of the cached entries.
+		long expectedBytes = 0;
+		int cached = 0;
+		for (Map.Entry<Integer, byte[]> entry : values.entrySet()) {
+			byte[] value = cache.get(entry.getKey());
+			if (value != null) {
+				Assert.assertSame(entry.getValue(), value);
+				expectedBytes += Flip.deepSizeOf(entry.getKey())
+						+ Flip.deepSizeOf(value) + overhead;
+				cached++;
+			}
+		}
+		Assert.assertEquals(cached, cache.size());
+		Assert.assertEquals(expectedBytes, cache.getUsedBytes());
+		Assert.assertTrue(expectedBytes > cache.getMaximumBytes() / 2);
+	}
+
+	/**
+	 * Tests that entries used often survive a scan of entries used once,
+	 * which would flush a plain LRU cache.
+	 */
+	@Test
+	public void testScanResistance() {
+		FlipCache<Integer, byte[]> cache = new FlipCache<Integer, byte[]>(
+				100 * 1100, 1, false);
+		for (int i = 0; i < 50; i++) {
+			cache.put(i, new byte[1000]);
+		}
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 50; i++) {
+				Assert.assertNotNull(cache.get(i));
+			}
+		}
+		for (int i = 1000; i < 20000; i++) {
+			cache.put(i, new byte[1000]);
+		}
+		for (int i = 0; i < 50; i++) {
+			Assert.assertNotNull(cache.get(i));
+		}
+		Assert.assertTrue(cache.getUsedBytes() <= cache.getMaximumBytes());
+	}
+
+	/**
+	 * Tests {@link FlipCache} used by many threads at once.
+	 * 
+	 * @throws Exception
+	 *             if a thread fails
+	 */
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final FlipCache<Integer, byte[]> cache = new FlipCache<Integer, byte[]>(
+				1 << 20, 4, true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < 4; t++) {
+				final int seed = t;
+				results.add(executor.submit(new Callable<Integer>() {
+
+					@Override
+					public Integer call() {
+						Random random = new Random(seed);
+						int hits = 0;
+						for (int i = 0; i < 50000; i++) {
+							Integer key = random.nextInt(2000);
+							int operation = random.nextInt(10);
+							if (operation < 6) {
+								hits += cache.get(key) != null ? 1 : 0;
+							} else if (operation < 9) {
+								cache.put(key, new byte[random.nextInt(2000)]);
+							} else {
+								cache.remove(key);
+							}
+						}
+						return hits;
+					}
+				}));
+			}
+			long hits = 0;
+			for (Future<Integer> result : results) {
+				hits += result.get();
+			}
+			Assert.assertEquals(hits, cache.getHitCount());
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertTrue(cache.getUsedBytes() <= cache.getMaximumBytes());
+		Assert.assertTrue(cache.size() > 0);
+		cache.clear();
+		Assert.assertEquals(0, cache.getUsedBytes());
+	}
+
+	/**
+	 * Tests {@link FlipFrequencySketch}.
+	 */
+	@Test
+	public void testFrequencySketch() {
+		FlipFrequencySketch sketch = new FlipFrequencySketch();
+		sketch.ensureCapacity(64);
+		for (int i = 0; i < 20; i++) {
+			sketch.increment(42);
+			if (i < 5) {
+				sketch.increment(7);
+			}
+		}
+
+		// Counters saturate at 15 and never underestimate.
+		Assert.assertEquals(15, sketch.frequency(42));
+		Assert.assertTrue(sketch.frequency(7) >= 5);
+		Assert.assertTrue(sketch.frequency(7) < 15);
+
+		// Counters are halved as more keys are counted.
+		for (int i = 0; i < 64 * 8; i++) {
+			sketch.increment(1000 + i);
+		}
+		Assert.assertTrue(sketch.frequency(42) <= 8);
+	}
+
+}
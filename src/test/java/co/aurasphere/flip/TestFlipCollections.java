@@ -0,0 +1,253 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the off-heap collections: {@link FlipLongArray},
+ * {@link FlipIntArray}, {@link FlipLongLongMap} and {@link FlipLongSet}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class TestFlipCollections {
+
+	/**
+	 * Tests {@link FlipLongArray}.
+	 */
+	@Test
+	public void testLongArray() {
+		FlipLongArray array = new FlipLongArray(2);
+		try {
+			for (long i = 0; i < 1000; i++) {
+				array.add(i * 3);
+			}
+			array.addAll(new long[] { -1, -2, -3 }, 1, 2);
+			Assert.assertEquals(1002, array.size());
+			Assert.assertEquals(999 * 3, array.get(999));
+			Assert.assertEquals(-3, array.get(1001));
+			array.set(0, 42);
+
+			// Bulk reads.
+			long[] copy = new long[3];
+			array.get(0, copy, 0, 3);
+			Assert.assertArrayEquals(new long[] { 42, 3, 6 }, copy);
+			final long[] sum = new long[1];
+			array.forEach(new LongConsumer() {
+
+				@Override
+				public void accept(long value) {
+					sum[0] += value;
+				}
+			});
+			Assert.assertEquals(42 + 3 * (999 * 1000 / 2) - 5, sum[0]);
+
+			try {
+				array.get(1002);
+				Assert.fail();
+			} catch (IndexOutOfBoundsException e) {
+				// Expected.
+			}
+		} finally {
+			array.free();
+		}
+		Assert.assertTrue(array.isFreed());
+		Assert.assertEquals(0, array.getReservedBytes());
+	}
+
+	/**
+	 * Tests {@link FlipIntArray}.
+	 */
+	@Test
+	public void testIntArray() {
+		FlipIntArray array = new FlipIntArray();
+		try {
+			array.addAll(new int[] { 1, 2, 3, 4 }, 0, 4);
+			array.add(5);
+			Assert.assertEquals(5, array.size());
+			Assert.assertEquals(4, array.get(3));
+			int[] copy = new int[5];
+			array.get(0, copy, 0, 5);
+			Assert.assertArrayEquals(new int[] { 1, 2, 3, 4, 5 }, copy);
+			final int[] sum = new int[1];
+			array.forEach(new IntConsumer() {
+
+				@Override
+				public void accept(int value) {
+					sum[0] += value;
+				}
+			});
+			Assert.assertEquals(15, sum[0]);
+			array.clear();
+			Assert.assertEquals(0, array.size());
+		} finally {
+			array.free();
+		}
+	}
+
+	/**
+	 * Tests {@link FlipLongLongMap} against an {@link HashMap} with random
+	 * puts and removals.
+	 */
+	@Test
+	public void testLongLongMap() {
+		FlipLongLongMap map = new FlipLongLongMap(4, -1);
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random(42);
+		try {
+			for (int i = 0; i < 200000; i++) {
+				// Small key range to get plenty of collisions and removals.
+				long key = random.nextInt(20000) - 10;
+				if (random.nextInt(3) == 0) {
+					Long previous = expected.remove(key);
+					Assert.assertEquals(previous == null ? -1 : previous,
+							map.remove(key));
+				} else {
+					long value = random.nextLong();
+					Long previous = expected.put(key, value);
+					Assert.assertEquals(previous == null ? -1 : previous,
+							map.put(key, value));
+				}
+			}
+			Assert.assertEquals(expected.size(), map.size());
+			for (long key = -10; key < 20000; key++) {
+				Long value = expected.get(key);
+				Assert.assertEquals(value != null, map.containsKey(key));
+				Assert.assertEquals(value == null ? -1 : value, map.get(key));
+			}
+
+			// Iteration visits each entry once.
+			final Map<Long, Long> visited = new HashMap<Long, Long>();
+			map.forEach(new FlipLongLongConsumer() {
+
+				@Override
+				public void accept(long key, long value) {
+					Assert.assertNull(visited.put(key, value));
+				}
+			});
+			Assert.assertEquals(expected, visited);
+
+			map.clear();
+			Assert.assertEquals(0, map.size());
+			Assert.assertFalse(map.containsKey(0));
+		} finally {
+			map.free();
+		}
+	}
+
+	/**
+	 * Tests {@link FlipLongSet} against an {@link HashSet} with random adds
+	 * and removals.
+	 */
+	@Test
+	public void testLongSet() {
+		FlipLongSet set = new FlipLongSet();
+		Set<Long> expected = new HashSet<Long>();
+		Random random = new Random(42);
+		try {
+			for (int i = 0; i < 200000; i++) {
+				// Keys differing only in their high bits.
+				long value = ((long) random.nextInt(20000)) << 40;
+				if (random.nextInt(3) == 0) {
+					Assert.assertEquals(expected.remove(value), set.remove(value));
+				} else {
+					Assert.assertEquals(expected.add(value), set.add(value));
+				}
+			}
+			Assert.assertEquals(expected.size(), set.size());
+			final Set<Long> visited = new HashSet<Long>();
+			set.forEach(new LongConsumer() {
+
+				@Override
+				public void accept(long value) {
+					Assert.assertTrue(visited.add(value));
+				}
+			});
+			Assert.assertEquals(expected, visited);
+		} finally {
+			set.free();
+		}
+	}
+
+	/**
+	 * Tests that a freed collection can't be used.
+	 */
+	@Test(expected = FlipException.class)
+	public void testFreedMap() {
+		FlipLongLongMap map = new FlipLongLongMap();
+		map.put(1, 2);
+		map.free();
+		map.get(1);
+	}
+
+	/**
+	 * Tests that the empty key of a freed collection can't be used either.
+	 */
+	@Test
+	public void testFreedEmptyKey() {
+		FlipLongLongMap map = new FlipLongLongMap();
+		map.put(0, 2);
+		map.free();
+		try {
+			map.get(0);
+			Assert.fail("Freed map read.");
+		} catch (FlipException e) {
+		}
+		try {
+			map.containsKey(0);
+			Assert.fail("Freed map read.");
+		} catch (FlipException e) {
+		}
+		try {
+			map.remove(0);
+			Assert.fail("Freed map written.");
+		} catch (FlipException e) {
+		}
+
+		FlipLongSet set = new FlipLongSet();
+		set.add(0);
+		set.free();
+		try {
+			set.contains(0);
+			Assert.fail("Freed set read.");
+		} catch (FlipException e) {
+		}
+		try {
+			set.remove(0);
+			Assert.fail("Freed set written.");
+		} catch (FlipException e) {
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import co.aurasphere.flip.model.PriceRecord;
+import co.aurasphere.flip.model.SupportObject;
+import co.aurasphere.flip.model.WrappedObjectLightImpl;
+
+/**
+ * Test class for {@link FlipFieldAccessor}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class TestFlipFieldAccessor {
+
+	/**
+	 * Tests plain and volatile accesses of each type.
+	 */
+	@Test
+	public void testAccesses() {
+		SupportObject object = new SupportObject("Test");
+		FlipFieldAccessor testString = Flip.accessor(SupportObject.class,
+				"testString");
+		Assert.assertEquals("Test", testString.getObject(object));
+		testString.putObject(object, "Changed");
+		Assert.assertEquals("Changed", object.getTestString());
+		testString.putObjectVolatile(object, "Volatile");
+		Assert.assertEquals("Volatile", testString.getObjectVolatile(object));
+
+		FlipFieldAccessor one = Flip.accessor(SupportObject.class, "one");
+		one.putInt(object, 42);
+		Assert.assertEquals(42, one.getInt(object));
+		FlipFieldAccessor two = Flip.accessor(SupportObject.class, "two");
+		two.putFloat(object, 1.5f);
+		Assert.assertEquals(1.5f, two.getFloatVolatile(object), 0);
+		FlipFieldAccessor three = Flip.accessor(SupportObject.class, "three");
+		three.putDoubleVolatile(object, 2.5);
+		Assert.assertEquals(2.5, three.getDouble(object), 0);
+		FlipFieldAccessor four = Flip.accessor(SupportObject.class, "four");
+		four.putBoolean(object, true);
+		Assert.assertTrue(four.getBoolean(object));
+		FlipFieldAccessor five = Flip.accessor(SupportObject.class, "five");
+		five.putChar(object, 'x');
+		Assert.assertEquals('x', five.getChar(object));
+		FlipFieldAccessor six = Flip.accessor(SupportObject.class, "six");
+		six.putLong(object, Long.MAX_VALUE);
+		Assert.assertEquals(Long.MAX_VALUE, six.getLongVolatile(object));
+
+		// Accessors are cached and resolved from the field too.
+		Assert.assertSame(one, Flip.accessor(SupportObject.class, "one"));
+		Assert.assertEquals(one.getOffset(), Flip.accessor(one.getField())
+				.getOffset());
+		Assert.assertEquals(int.class, one.getType());
+	}
+
+	/**
+	 * Tests the ordered writes and the atomic updates.
+	 */
+	@Test
+	public void testAtomics() {
+		PriceRecord record = new PriceRecord();
+		FlipFieldAccessor quantity = Flip.accessor(PriceRecord.class,
+				"quantity");
+		quantity.putOrderedInt(record, 5);
+		Assert.assertFalse(quantity.compareAndSetInt(record, 4, 10));
+		Assert.assertTrue(quantity.compareAndSetInt(record, 5, 10));
+		Assert.assertEquals(10, quantity.getAndAddInt(record, 5));
+		Assert.assertEquals(15, quantity.getAndSetInt(record, 0));
+
+		FlipFieldAccessor id = Flip.accessor(PriceRecord.class, "id");
+		id.putOrderedLong(record, 1);
+		Assert.assertTrue(id.compareAndSetLong(record, 1, 2));
+		Assert.assertEquals(2, id.getAndAddLong(record, 3));
+		Assert.assertEquals(5, id.getAndSetLong(record, 7));
+		Assert.assertEquals(7, record.id);
+
+		SupportObject object = new SupportObject("Old");
+		FlipFieldAccessor testString = Flip.accessor(SupportObject.class,
+				"testString");
+		String old = object.getTestString();
+		Assert.assertTrue(testString.compareAndSetObject(object, old, "New"));
+		Assert.assertEquals("New", testString.getAndSetObject(object, "Newer"));
+		testString.putOrderedObject(object, "Newest");
+		Assert.assertEquals("Newest", object.getTestString());
+	}
+
+	/**
+	 * Tests that concurrent increments through an accessor are atomic.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentIncrements() throws InterruptedException {
+		final PriceRecord record = new PriceRecord();
+		final FlipFieldAccessor id = Flip.accessor(PriceRecord.class, "id");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for (int i = 0; i < 4; i++) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						id.getAndAddLong(record, 1);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+		Assert.assertEquals(400000, id.getLongVolatile(record));
+	}
+
+	/**
+	 * Tests that wrong accesses are rejected.
+	 */
+	@Test
+	public void testWrongAccesses() {
+		FlipFieldAccessor one = Flip.accessor(SupportObject.class, "one");
+		FlipFieldAccessor testString = Flip.accessor(SupportObject.class,
+				"testString");
+		assertRejected(one, "getLong");
+		assertRejected(one, "getObject");
+		assertRejected(one, "otherClass");
+		assertRejected(testString, "wrongReference");
+		try {
+			Flip.accessor(SupportObject.class, "missing");
+			Assert.fail();
+		} catch (FlipException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Asserts that a wrong access is rejected.
+	 *
+	 * @param accessor
+	 *            the accessor
+	 * @param access
+	 *            the kind of wrong access
+	 */
+	private static void assertRejected(FlipFieldAccessor accessor,
+			String access) {
+		SupportObject object = new SupportObject();
+		try {
+			if (access.equals("getLong")) {
+				accessor.getLong(object);
+			} else if (access.equals("getObject")) {
+				accessor.getObject(object);
+			} else if (access.equals("otherClass")) {
+				accessor.getInt(new WrappedObjectLightImpl());
+			} else {
+				accessor.putObject(object, Integer.valueOf(1));
+			}
+			Assert.fail("Access not rejected: " + access);
+		} catch (FlipException e) {
+			// Expected.
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FlipMemory}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class TestFlipMemory {
+
+	/**
+	 * Tests {@link FlipMemory#allocate(long)},
+	 * {@link FlipMemory#reallocate(long, long)} and
+	 * {@link FlipMemory#free(long)}.
+	 */
+	@Test
+	public void testAllocateAndFree() {
+		long address = FlipMemory.allocate(64);
+		Assert.assertEquals(64, find(address).getSize());
+		Assert.assertFalse(find(address).isOwned());
+
+		// Reallocations keep the content and the tracking.
+		Flip.getUnsafe().putLong(address, 42L);
+		long newAddress = FlipMemory.reallocate(address, 4096);
+		Assert.assertEquals(42L, Flip.getUnsafe().getLong(newAddress));
+		Assert.assertEquals(4096, find(newAddress).getSize());
+		Assert.assertTrue(FlipMemory.getLiveBytes() >= 4096);
+
+		// Blocks can't be freed twice.
+		FlipMemory.free(newAddress);
+		Assert.assertNull(find(newAddress));
+		try {
+			FlipMemory.free(newAddress);
+			Assert.fail("Double free not detected");
+		} catch (FlipException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests that owned blocks are freed once their owner is collected, and
+	 * that they can still be freed explicitly.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the collection
+	 */
+	@Test
+	public void testOwnedAllocations() throws InterruptedException {
+		Object owner = new Object();
+		long address = FlipMemory.allocate(128, owner);
+		Assert.assertTrue(find(address).isOwned());
+		FlipMemory.free(address);
+		Assert.assertNull(find(address));
+
+		// Blocks of unreachable owners are reclaimed.
+		long leaked = FlipMemory.allocate(256, new Object());
+		for (int i = 0; i < 100 && find(leaked) != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertNull(find(leaked));
+
+		// Collections are owners of their memory.
+		List<FlipAllocation> before = FlipMemory.getLiveAllocations();
+		FlipLongArray array = new FlipLongArray(16);
+		List<FlipAllocation> after = FlipMemory.getLiveAllocations();
+		after.removeAll(before);
+		Assert.assertEquals(1, after.size());
+		FlipAllocation allocation = after.get(0);
+		Assert.assertEquals(16 * 8, allocation.getSize());
+		Assert.assertTrue(allocation.isOwned());
+		array.free();
+		Assert.assertNull(find(allocation.getAddress()));
+	}
+
+	/**
+	 * Tests {@link FlipMemory#report()} and the allocation sites.
+	 */
+	@Test
+	public void testReport() {
+		long address = FlipMemory.allocate(1 << 20);
+		try {
+			String report = FlipMemory.report();
+			Assert.assertTrue(report.startsWith("Flip native memory: "));
+			Assert.assertTrue(report.contains((1 << 20) + " bytes in"));
+		} finally {
+			FlipMemory.free(address);
+		}
+
+		// Allocation sites start from the caller of FlipMemory.
+		FlipAllocation allocation = new FlipAllocation(0, 8, new Throwable());
+		Assert.assertEquals("testReport",
+				allocation.getAllocationSite()[0].getMethodName());
+		Assert.assertNull(new FlipAllocation(0, 8, null).getAllocationSite());
+	}
+
+	/**
+	 * Finds a live block by address.
+	 *
+	 * @param address
+	 *            the address of the block
+	 * @return the block or null if there's no live block at the address
+	 */
+	private static FlipAllocation find(long address) {
+		for (FlipAllocation allocation : FlipMemory.getLiveAllocations()) {
+			if (allocation.getAddress() == address) {
+				return allocation;
+			}
+		}
+		return null;
+	}
+
+}
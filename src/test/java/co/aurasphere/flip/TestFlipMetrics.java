@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import co.aurasphere.flip.model.SupportObject;
+
+/**
+ * Test class for {@link FlipMetrics}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public class TestFlipMetrics {
+
+	/**
+	 * Tests {@link FlipLatencyHistogram}.
+	 */
+	@Test
+	public void testLatencyHistogram() {
+		FlipLatencyHistogram histogram = new FlipLatencyHistogram();
+		Assert.assertEquals(0, histogram.getPercentileNanos(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		histogram.record(-5);
+
+		Assert.assertEquals(1001, histogram.getCount());
+		Assert.assertEquals(500500, histogram.getTotalNanos());
+		Assert.assertEquals(500, histogram.getMeanNanos());
+		Assert.assertEquals(1000, histogram.getMaxNanos());
+
+		// Percentiles are rounded up to the next power of two.
+		long median = histogram.getPercentileNanos(50);
+		Assert.assertTrue(median >= 500 && median < 1024);
+		Assert.assertEquals(1000, histogram.getPercentileNanos(99));
+		Assert.assertEquals(1000, histogram.getPercentileNanos(100));
+		Assert.assertEquals(0, histogram.getPercentileNanos(0));
+
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMaxNanos());
+	}
+
+	/**
+	 * Tests the counters of {@link FlipMetrics}.
+	 */
+	@Test
+	public void testMetrics() {
+		FlipMetrics metrics = FlipMetrics.getInstance();
+		long sizeOfCount = metrics.getSizeOfCount();
+		long shallowCopyCount = metrics.getShallowCopyCount();
+		long offHeapBytes = metrics.getOffHeapCopiedBytes();
+		long definedClasses = metrics.getDefinedClasses();
+		long bytecodeBytes = metrics.getBytecodeBytes();
+		long allocatedBytes = metrics.getNativeAllocatedBytes();
+		long freedBytes = metrics.getNativeFreedBytes();
+
+		FlipMetrics.recordSizeOf(SupportObject.class, 32, System.nanoTime());
+		FlipMetrics.recordShallowCopy(SupportObject.class, 32, true,
+				System.nanoTime());
+		FlipMetrics.recordShallowCopy(SupportObject.class, 32, false,
+				System.nanoTime());
+		FlipMetrics.recordCompile(2, 1000, 5000);
+		FlipMetrics.recordDefine(2, 1000, System.nanoTime());
+		FlipMetrics.recordNativeMemory(64, 16);
+
+		Assert.assertEquals(sizeOfCount + 1, metrics.getSizeOfCount());
+		Assert.assertEquals(shallowCopyCount + 2,
+				metrics.getShallowCopyCount());
+		Assert.assertEquals(offHeapBytes + 32, metrics.getOffHeapCopiedBytes());
+		Assert.assertEquals(definedClasses + 2, metrics.getDefinedClasses());
+		Assert.assertEquals(bytecodeBytes + 1000, metrics.getBytecodeBytes());
+		Assert.assertTrue(metrics.getCompileMaxNanos() >= 5000);
+		Assert.assertEquals(allocatedBytes + 64,
+				metrics.getNativeAllocatedBytes());
+		Assert.assertEquals(freedBytes + 16, metrics.getNativeFreedBytes());
+	}
+
+	/**
+	 * Tests that Flip operations are recorded only when metrics are enabled,
+	 * and that the MXBean is registered.
+	 *
+	 * @throws Exception
+	 *             if the MXBean can't be queried
+	 */
+	@Test
+	public void testInstrumentation() throws Exception {
+		FlipMetrics metrics = FlipMetrics.getInstance();
+		long sizeOfCount = metrics.getSizeOfCount();
+		long allocatedBytes = metrics.getNativeAllocatedBytes();
+		long freedBytes = metrics.getNativeFreedBytes();
+
+		Flip.sizeOf(new SupportObject());
+		FlipLongArray array = new FlipLongArray(16);
+		array.ensureCapacity(64);
+		array.free();
+
+		ObjectName name = new ObjectName(FlipMetrics.OBJECT_NAME);
+		boolean registered = ManagementFactory.getPlatformMBeanServer()
+				.isRegistered(name);
+		if (!FlipMetrics.ENABLED) {
+			Assert.assertEquals(sizeOfCount, metrics.getSizeOfCount());
+			Assert.assertEquals(allocatedBytes,
+					metrics.getNativeAllocatedBytes());
+			Assert.assertFalse(registered);
+			return;
+		}
+
+		// Reallocations count as an allocation and a release.
+		Assert.assertEquals(sizeOfCount + 1, metrics.getSizeOfCount());
+		Assert.assertEquals(allocatedBytes + 80 * 8,
+				metrics.getNativeAllocatedBytes());
+		Assert.assertEquals(freedBytes + 80 * 8,
+				metrics.getNativeFreedBytes());
+		Assert.assertTrue(registered);
+		Assert.assertEquals(metrics.getSizeOfCount(),
+				ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+						"SizeOfCount"));
+	}
+
+}
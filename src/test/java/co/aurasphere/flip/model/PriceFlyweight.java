@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2017 Donato Rimenti
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package co.aurasphere.flip.model;
+
+import co.aurasphere.flip.FlipFlyweight;
+import co.aurasphere.flip.TestFlip;
+
+/**
+ * Support interface for {@link TestFlip}, with the accessors of
+ * {@link PriceRecord}.
+ * 
+ * @author Donato Rimenti
+ *
+ */
+public interface PriceFlyweight extends FlipFlyweight {
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see co.aurasphere.flip.FlipFlyweight#wrap(long, long)
+	 */
+	@Override
+	PriceFlyweight wrap(long baseAddress, long index);
+
+	/**
+	 * Gets the id.
+	 *
+	 * @return the id
+	 */
+	long getId();
+
+	/**
+	 * Sets the id.
+	 *
+	 * @param id
+	 *            the new id
+	 */
+	void setId(long id);
+
+	/**
+	 * Gets the price.
+	 *
+	 * @return the price
+	 */
+	double getPrice();
+
+	/**
+	 * Sets the price.
+	 *
+	 * @param price
+	 *            the new price
+	 */
+	void setPrice(double price);
+
+	/**
+	 * Gets the quantity.
+	 *
+	 * @return the quantity
+	 */
+	int getQuantity();
+
+	/**
+	 * Sets the quantity.
+	 *
+	 * @param quantity
+	 *            the new quantity
+	 */
+	void setQuantity(int quantity);
+
+	/**
+	 * Gets the currency.
+	 *
+	 * @return the currency
+	 */
+	char getCurrency();
+
+	/**
+	 * Gets the active.
+	 *
+	 * @return the active
+	 */
+	boolean isActive();
+
+	/**
+	 * Sets the active.
+	 *
+	 * @param active
+	 *            the new active
+	 */
+	void setActive(boolean active);
+
+}